@@ -18,8 +18,8 @@
 package com.nimbusds.oauth2.sdk;
 
 
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.nimbusds.oauth2.sdk.ciba.CIBAGrant;
 import com.nimbusds.oauth2.sdk.device.DeviceCodeGrant;
@@ -44,6 +44,10 @@ import com.nimbusds.oauth2.sdk.util.MultivaluedMapUtils;
  *     <li>{@link GrantType#TOKEN_EXCHANGE}
  * </ul>
  *
+ * <p>Parsers for custom and extension grant types can be plugged in with
+ * {@link #registerParser}. The parsers of the supported grant types above
+ * cannot be replaced.
+ *
  * <p>Related specifications:
  *
  * <ul>
@@ -53,6 +57,77 @@ import com.nimbusds.oauth2.sdk.util.MultivaluedMapUtils;
 public abstract class AuthorizationGrant {
 
 
+	/**
+	 * The registered grant parsers, keyed by grant type value.
+	 */
+	private static final ConcurrentHashMap<String,AuthorizationGrantParser> PARSERS = new ConcurrentHashMap<>();
+
+
+	/**
+	 * The values of the grant types with a built-in parser.
+	 */
+	private static final Set<String> BUILT_IN_GRANT_TYPES;
+
+
+	static {
+		registerBuiltInParser(GrantType.AUTHORIZATION_CODE, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return AuthorizationCodeGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.REFRESH_TOKEN, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return RefreshTokenGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.PASSWORD, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return ResourceOwnerPasswordCredentialsGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.CLIENT_CREDENTIALS, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return ClientCredentialsGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.JWT_BEARER, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return JWTBearerGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.SAML2_BEARER, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return SAML2BearerGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.DEVICE_CODE, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return DeviceCodeGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.CIBA, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return CIBAGrant.parse(params);
+			}
+		});
+		registerBuiltInParser(GrantType.TOKEN_EXCHANGE, new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				return TokenExchangeGrant.parse(params);
+			}
+		});
+		BUILT_IN_GRANT_TYPES = Collections.unmodifiableSet(new HashSet<>(PARSERS.keySet()));
+	}
+
+
 	/**
 	 * The authorisation grant type.
 	 */
@@ -93,9 +168,100 @@ public abstract class AuthorizationGrant {
 	public abstract Map<String,List<String>> toParameters();
 
 
+	/**
+	 * Registers a built-in grant parser.
+	 *
+	 * @param grantType The grant type.
+	 * @param parser    The grant parser.
+	 */
+	private static void registerBuiltInParser(final GrantType grantType, final AuthorizationGrantParser parser) {
+
+		PARSERS.put(grantType.getValue(), parser);
+	}
+
+
+	/**
+	 * Returns {@code true} if the specified grant type has a built-in
+	 * parser.
+	 *
+	 * @param grantType The grant type.
+	 *
+	 * @return {@code true} for a built-in grant type, else
+	 *         {@code false}.
+	 */
+	private static boolean isBuiltIn(final GrantType grantType) {
+
+		return BUILT_IN_GRANT_TYPES.contains(grantType.getValue());
+	}
+
+
+	/**
+	 * Registers a parser for the specified custom or extension grant
+	 * type, replacing any previously registered parser for it. The parser
+	 * will be used by {@link #parse(Map)} and {@link TokenRequest#parse}
+	 * for token requests with a matching {@code grant_type} parameter.
+	 * The parsers of the built-in grant types cannot be replaced.
+	 *
+	 * @param grantType The grant type. Must not be {@code null} or a
+	 *                  built-in grant type.
+	 * @param parser    The grant parser. Must not be {@code null}.
+	 */
+	public static void registerParser(final GrantType grantType, final AuthorizationGrantParser parser) {
+
+		if (grantType == null)
+			throw new IllegalArgumentException("The grant type must not be null");
+
+		if (parser == null)
+			throw new IllegalArgumentException("The grant parser must not be null");
+
+		if (isBuiltIn(grantType))
+			throw new IllegalArgumentException("The parser for the built-in grant type " + grantType + " cannot be replaced");
+
+		PARSERS.put(grantType.getValue(), parser);
+	}
+
+
+	/**
+	 * Unregisters the parser for the specified custom or extension grant
+	 * type.
+	 *
+	 * @param grantType The grant type. Must not be {@code null} or a
+	 *                  built-in grant type.
+	 *
+	 * @return The unregistered parser, {@code null} if none.
+	 */
+	public static AuthorizationGrantParser unregisterParser(final GrantType grantType) {
+
+		if (grantType == null)
+			throw new IllegalArgumentException("The grant type must not be null");
+
+		if (isBuiltIn(grantType))
+			throw new IllegalArgumentException("The parser for the built-in grant type " + grantType + " cannot be unregistered");
+
+		return PARSERS.remove(grantType.getValue());
+	}
+
+
+	/**
+	 * Returns the registered parser for the specified grant type.
+	 *
+	 * @param grantType The grant type. Must not be {@code null}.
+	 *
+	 * @return The grant parser, {@code null} if none.
+	 */
+	public static AuthorizationGrantParser getParser(final GrantType grantType) {
+
+		if (grantType == null)
+			throw new IllegalArgumentException("The grant type must not be null");
+
+		return PARSERS.get(grantType.getValue());
+	}
+
+
 	/**
 	 * Parses an authorisation grant from the specified request body
-	 * parameters.
+	 * parameters. The grant is parsed by the {@link #registerParser
+	 * registered parser} for the {@code grant_type} parameter value.
 	 *
 	 * @param params The request body parameters. Must not be {@code null}.
 	 *
@@ -115,6 +281,14 @@ public abstract class AuthorizationGrant {
 			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg));
 		}
 
+		// Dispatch on the raw value, grant type values are compared
+		// case-sensitively
+		AuthorizationGrantParser parser = PARSERS.get(grantTypeString);
+
+		if (parser != null) {
+			return parser.parse(params);
+		}
+
 		GrantType grantType;
 		try {
 			grantType = GrantType.parse(grantTypeString);
@@ -123,45 +297,6 @@ public abstract class AuthorizationGrant {
 			throw new ParseException(msg, OAuth2Error.UNSUPPORTED_GRANT_TYPE.appendDescription(": " + msg));
 		}
 
-		if (grantType.equals(GrantType.AUTHORIZATION_CODE)) {
-
-			return AuthorizationCodeGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.REFRESH_TOKEN)) {
-
-			return RefreshTokenGrant.parse(params);
-			
-		} else if (grantType.equals(GrantType.PASSWORD)) {
-
-			return ResourceOwnerPasswordCredentialsGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.CLIENT_CREDENTIALS)) {
-
-			return ClientCredentialsGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.JWT_BEARER)) {
-
-			return JWTBearerGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.SAML2_BEARER)) {
-
-			return SAML2BearerGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.DEVICE_CODE)) {
-
-			return DeviceCodeGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.CIBA)) {
-
-			return CIBAGrant.parse(params);
-
-		} else if (grantType.equals(GrantType.TOKEN_EXCHANGE)) {
-
-			return TokenExchangeGrant.parse(params);
-
-		} else {
-
-			throw new ParseException("Invalid or unsupported grant type: " + grantType, OAuth2Error.UNSUPPORTED_GRANT_TYPE);
-		}
+		throw new ParseException("Invalid or unsupported grant type: " + grantType, OAuth2Error.UNSUPPORTED_GRANT_TYPE);
 	}
 }
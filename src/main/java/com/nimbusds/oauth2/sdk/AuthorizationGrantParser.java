@@ -0,0 +1,49 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk;
+
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Parser of an authorisation grant of a particular type from token request
+ * body parameters. Parsers are registered with
+ * {@link AuthorizationGrant#registerParser} and dispatched by the
+ * {@code grant_type} parameter value. Implementations must be thread-safe.
+ */
+public interface AuthorizationGrantParser {
+	
+	
+	/**
+	 * Parses an authorisation grant from the specified request body
+	 * parameters. The {@code grant_type} parameter is already known to
+	 * match the grant type this parser was registered for, the parser
+	 * needs to read only the parameters specific to the grant.
+	 *
+	 * @param params The request body parameters. Must not be
+	 *               {@code null}.
+	 *
+	 * @return The authorisation grant.
+	 *
+	 * @throws ParseException If parsing failed.
+	 */
+	AuthorizationGrant parse(final Map<String,List<String>> params)
+		throws ParseException;
+}
@@ -26,7 +26,6 @@ import net.jcip.annotations.Immutable;
 
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.id.ClientID;
@@ -1334,181 +1333,116 @@ public class AuthorizationRequest extends AbstractRequest {
 	public static AuthorizationRequest parse(final URI uri, final Map<String,List<String>> params)
 		throws ParseException {
 		
-		Set<String> repeatParams = MultivaluedMapUtils.getKeysWithMoreThanOneValue(params, Collections.singleton("resource"));
+		// Single pass over the parameters, the remaining parameters
+		// are collected as custom parameters
+		Set<String> repeatParams = null;
+		Map<String,List<String>> customParams = null;
+		
+		String responseTypeValue = null;
+		String clientIDValue = null;
+		String redirectURIValue = null;
+		String scopeValue = null;
+		String stateValue = null;
+		String responseModeValue = null;
+		String codeChallengeValue = null;
+		String codeChallengeMethodValue = null;
+		List<String> resourceValues = null;
+		String includeGrantedScopesValue = null;
+		String requestURIValue = null;
+		String requestValue = null;
+		String promptValue = null;
 		
-		if (! repeatParams.isEmpty()) {
-			// Always result in non-redirecting error. Technically
-			// only duplicate client_id, state, redirect_uri,
-			// response_type, request_uri and request should
-			String msg = "Parameter(s) present more than once: " + repeatParams;
-			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.setDescription(msg));
+		for (Map.Entry<String,List<String>> p: params.entrySet()) {
+			
+			String name = p.getKey();
+			List<String> values = p.getValue();
+			
+			if (values != null && values.size() > 1 && ! "resource".equals(name)) {
+				if (repeatParams == null) {
+					repeatParams = new HashSet<>();
+				}
+				repeatParams.add(name);
+			}
+			
+			String value = values == null || values.isEmpty() ? null : values.get(0);
+			
+			switch (name != null ? name : "") {
+				case "response_type": responseTypeValue = value; break;
+				case "client_id": clientIDValue = value; break;
+				case "redirect_uri": redirectURIValue = value; break;
+				case "scope": scopeValue = value; break;
+				case "state": stateValue = value; break;
+				case "response_mode": responseModeValue = value; break;
+				case "code_challenge": codeChallengeValue = value; break;
+				case "code_challenge_method": codeChallengeMethodValue = value; break;
+				case "resource": resourceValues = values; break;
+				case "include_granted_scopes": includeGrantedScopesValue = value; break;
+				case "request_uri": requestURIValue = value; break;
+				case "request": requestValue = value; break;
+				case "prompt": promptValue = value; break;
+				default:
+					// We have a custom parameter
+					if (customParams == null) {
+						customParams = new HashMap<>();
+					}
+					customParams.put(name, values);
+			}
 		}
 		
+		AuthorizationRequestUtils.ensureNoRepeatedParameters(repeatParams);
+		
 		// Parse response_mode, response_type, client_id, redirect_uri and state first,
 		// needed if parsing results in a error response
-		final ClientID clientID;
-		URI redirectURI = null;
-		State state = State.parse(MultivaluedMapUtils.getFirstValue(params, "state"));
-		ResponseMode rm = null;
-		ResponseType rt = null;
+		State state = State.parse(stateValue);
 		
 		// Optional response_mode
-		String v = MultivaluedMapUtils.getFirstValue(params, "response_mode");
-		if (StringUtils.isNotBlank(v)) {
-			rm = new ResponseMode(v);
+		ResponseMode rm = null;
+		if (StringUtils.isNotBlank(responseModeValue)) {
+			rm = new ResponseMode(responseModeValue);
 		}
 		
 		// Mandatory client_id
-		v = MultivaluedMapUtils.getFirstValue(params, "client_id");
-		if (StringUtils.isBlank(v)) {
-			// No automatic redirection https://tools.ietf.org/html/rfc6749#section-4.1.2.1
-			String msg = "Missing client_id parameter";
-			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg));
-		}
-		clientID = new ClientID(v);
+		ClientID clientID = AuthorizationRequestUtils.parseClientID(clientIDValue);
 		
 		// Optional redirect_uri
-		v = MultivaluedMapUtils.getFirstValue(params, "redirect_uri");
-		if (StringUtils.isNotBlank(v)) {
-			try {
-				redirectURI = new URI(v);
-			} catch (URISyntaxException e) {
-				// No automatic redirection https://tools.ietf.org/html/rfc6749#section-4.1.2.1
-				String msg = "Invalid redirect_uri parameter: " + e.getMessage();
-				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg));
-			}
-		}
+		URI redirectURI = AuthorizationRequestUtils.parseRedirectionURI(redirectURIValue);
 		
 		// Mandatory response_type, unless in JAR
-		v = MultivaluedMapUtils.getFirstValue(params, "response_type");
-		if (StringUtils.isNotBlank(v)) {
-			try {
-				rt = ResponseType.parse(v);
-			} catch (ParseException e) {
-				// Only cause
-				String msg = "Invalid response_type parameter";
-				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					clientID, redirectURI, rm, state, e);
-			}
-		}
+		ResponseType rt = AuthorizationRequestUtils.parseResponseType(responseTypeValue, clientID, redirectURI, rm, state);
 		
-		// Check for a JAR in request or request_uri parameters
-		v = MultivaluedMapUtils.getFirstValue(params, "request_uri");
-		URI requestURI = null;
-		if (StringUtils.isNotBlank(v)) {
-			try {
-				requestURI = new URI(v);
-			} catch (URISyntaxException e) {
-				String msg = "Invalid request_uri parameter: " + e.getMessage();
-				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					clientID, redirectURI, ResponseMode.resolve(rm, rt), state, e);
-			}
-		}
+		ResponseMode impliedRM = ResponseMode.resolve(rm, rt);
 		
-		v = MultivaluedMapUtils.getFirstValue(params, "request");
+		// Check for a JAR in request or request_uri parameters
+		URI requestURI = AuthorizationRequestUtils.parseRequestURI(requestURIValue, clientID, redirectURI, impliedRM, state);
 		
-		JWT requestObject = null;
+		JWT requestObject = AuthorizationRequestUtils.parseRequestObject(requestValue, requestURI, clientID, redirectURI, impliedRM, state);
 		
-		if (StringUtils.isNotBlank(v)) {
-			
-			// request_object and request_uri must not be present at the same time
-			if (requestURI != null) {
-				String msg = "Invalid request: Found mutually exclusive request and request_uri parameters";
-				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					clientID, redirectURI, ResponseMode.resolve(rm, rt), state, null);
-			}
-			
-			try {
-				requestObject = JWTParser.parse(v);
-				
-				if (requestObject instanceof SignedJWT) {
-					// Make sure the "sub" claim is not set to the client_id value
-					// https://tools.ietf.org/html/draft-ietf-oauth-jwsreq-29#section-10.8
-					JWTClaimsSet requestObjectClaims = requestObject.getJWTClaimsSet();
-					if (clientID.getValue().equals(requestObjectClaims.getSubject())) {
-						throw new java.text.ParseException("The JWT sub (subject) claim must not equal the client_id", 0);
-					}
-				}
-				
-			} catch (java.text.ParseException e) {
-				String msg = "Invalid request parameter: " + e.getMessage();
-				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					clientID, redirectURI, ResponseMode.resolve(rm, rt), state, e);
-			}
-		}
-
 		// Response type mandatory, unless in JAR
-		if (rt == null && requestObject == null && requestURI == null) {
-			String msg = "Missing response_type parameter";
-			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-				clientID, redirectURI, ResponseMode.resolve(rm, null), state, null);
-		}
+		AuthorizationRequestUtils.ensureResponseType(rt, requestObject, requestURI, clientID, redirectURI, rm, state);
 
 
 		// Parse optional scope
-		v = MultivaluedMapUtils.getFirstValue(params, "scope");
-
 		Scope scope = null;
 
-		if (StringUtils.isNotBlank(v))
-			scope = Scope.parse(v);
+		if (StringUtils.isNotBlank(scopeValue))
+			scope = Scope.parse(scopeValue);
 
 
 		// Parse optional code challenge and method for PKCE
 		CodeChallenge codeChallenge = null;
 		CodeChallengeMethod codeChallengeMethod = null;
 
-		v = MultivaluedMapUtils.getFirstValue(params, "code_challenge");
+		if (StringUtils.isNotBlank(codeChallengeValue))
+			codeChallenge = CodeChallenge.parse(codeChallengeValue);
 
-		if (StringUtils.isNotBlank(v))
-			codeChallenge = CodeChallenge.parse(v);
-
-		if (codeChallenge != null) {
-
-			v = MultivaluedMapUtils.getFirstValue(params, "code_challenge_method");
-
-			if (StringUtils.isNotBlank(v))
-				codeChallengeMethod = CodeChallengeMethod.parse(v);
-		}
+		if (codeChallenge != null && StringUtils.isNotBlank(codeChallengeMethodValue))
+			codeChallengeMethod = CodeChallengeMethod.parse(codeChallengeMethodValue);
 		
+		List<URI> resources = AuthorizationRequestUtils.parseResources(resourceValues, clientID, redirectURI, impliedRM, state);
 		
-		List<URI> resources;
-		try {
-			resources = ResourceUtils.parseResourceURIs(params.get("resource"));
-		} catch (ParseException e) {
-			throw new ParseException(e.getMessage(), OAuth2Error.INVALID_RESOURCE.setDescription(e.getMessage()),
-				clientID, redirectURI, ResponseMode.resolve(rm, rt), state, e);
-		}
-		
-		boolean includeGrantedScopes = false;
-		v = MultivaluedMapUtils.getFirstValue(params, "include_granted_scopes");
-		if ("true".equals(v)) {
-			includeGrantedScopes = true;
-		}
-		
-		Prompt prompt;
-		try {
-			prompt = Prompt.parse(MultivaluedMapUtils.getFirstValue(params, "prompt"));
-			
-		} catch (ParseException e) {
-			String msg = "Invalid prompt parameter: " + e.getMessage();
-			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-				clientID, redirectURI, ResponseMode.resolve(rm, rt), state, e);
-		}
+		boolean includeGrantedScopes = "true".equals(includeGrantedScopesValue);
 		
-		// Parse custom parameters
-		Map<String,List<String>> customParams = null;
-
-		for (Map.Entry<String,List<String>> p: params.entrySet()) {
-
-			if (! REGISTERED_PARAMETER_NAMES.contains(p.getKey())) {
-				// We have a custom parameter
-				if (customParams == null) {
-					customParams = new HashMap<>();
-				}
-				customParams.put(p.getKey(), p.getValue());
-			}
-		}
+		Prompt prompt = AuthorizationRequestUtils.parsePrompt(promptValue, clientID, redirectURI, impliedRM, state);
 
 
 		return new AuthorizationRequest(uri, rt, rm, clientID, redirectURI, scope, state,
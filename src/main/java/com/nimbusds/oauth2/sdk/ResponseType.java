@@ -111,6 +111,36 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	private static final long serialVersionUID = 1351973244616920112L;
 	
 	
+	/**
+	 * Bit for {@link Value#CODE}.
+	 */
+	private static final int CODE_BIT = 1;
+	
+	
+	/**
+	 * Bit for {@link Value#TOKEN}.
+	 */
+	private static final int TOKEN_BIT = 1 << 1;
+	
+	
+	/**
+	 * Bit for {@link OIDCResponseTypeValue#ID_TOKEN}.
+	 */
+	private static final int ID_TOKEN_BIT = 1 << 2;
+	
+	
+	/**
+	 * Bit for {@link OIDCResponseTypeValue#NONE}.
+	 */
+	private static final int NONE_BIT = 1 << 3;
+	
+	
+	/**
+	 * Bit for any other (custom) value.
+	 */
+	private static final int CUSTOM_BIT = 1 << 4;
+	
+	
 	/**
 	 * Authorisation response type value.
 	 */
@@ -188,7 +218,7 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	public ResponseType(final String ... values) {
 
 		for (String v: values) {
-			add(new Value(v));
+			add(toValue(v));
 		}
 		
 		unmodifiable = false;
@@ -218,6 +248,64 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	}
 	
 	
+	/**
+	 * Returns the response type value for the specified string. The
+	 * registered values are returned as shared canonical instances.
+	 *
+	 * @param s The string value. Must not be {@code null} or empty.
+	 *
+	 * @return The response type value.
+	 */
+	private static Value toValue(final String s) {
+		
+		if (s != null) {
+			switch (s) {
+				case "code": return Value.CODE;
+				case "token": return Value.TOKEN;
+				case "id_token": return OIDCResponseTypeValue.ID_TOKEN;
+				case "none": return OIDCResponseTypeValue.NONE;
+				default: break;
+			}
+		}
+		return new Value(s);
+	}
+	
+	
+	/**
+	 * Returns the bit for the specified response type value.
+	 *
+	 * @param value The response type value. Must not be {@code null}.
+	 *
+	 * @return The bit, {@link #CUSTOM_BIT} for a custom value.
+	 */
+	private static int toBit(final Value value) {
+		
+		switch (value.getValue()) {
+			case "code": return CODE_BIT;
+			case "token": return TOKEN_BIT;
+			case "id_token": return ID_TOKEN_BIT;
+			case "none": return NONE_BIT;
+			default: return CUSTOM_BIT;
+		}
+	}
+	
+	
+	/**
+	 * Returns a bitmask of the values in this response type, for checks
+	 * without allocating temporary response type objects.
+	 *
+	 * @return The bitmask.
+	 */
+	private int toBitmask() {
+		
+		int mask = 0;
+		for (Value v: this) {
+			mask |= toBit(v);
+		}
+		return mask;
+	}
+	
+	
 	/**
 	 * Parses a set of authorisation response types.
 	 *
@@ -240,7 +328,7 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 		StringTokenizer st = new StringTokenizer(s, " ");
 
 		while (st.hasMoreTokens())
-			rt.add(new ResponseType.Value(st.nextToken()));
+			rt.add(toValue(st.nextToken()));
 		
 		return rt;
 	}
@@ -256,7 +344,7 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	 */
 	public boolean impliesCodeFlow() {
 		
-		return this.equals(new ResponseType(Value.CODE));
+		return toBitmask() == CODE_BIT;
 	}
 	
 	
@@ -271,10 +359,11 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	 */
 	public boolean impliesImplicitFlow() {
 	
+		int mask = toBitmask();
 		return
-			this.equals(new ResponseType(Value.TOKEN)) ||
-			this.equals(new ResponseType(OIDCResponseTypeValue.ID_TOKEN, Value.TOKEN)) ||
-			this.equals(new ResponseType(OIDCResponseTypeValue.ID_TOKEN));
+			mask == TOKEN_BIT ||
+			mask == (ID_TOKEN_BIT | TOKEN_BIT) ||
+			mask == ID_TOKEN_BIT;
 	}
 	
 	
@@ -290,10 +379,11 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	 */
 	public boolean impliesHybridFlow() {
 	
+		int mask = toBitmask();
 		return
-			this.equals(new ResponseType(Value.CODE, OIDCResponseTypeValue.ID_TOKEN)) ||
-			this.equals(new ResponseType(Value.CODE, Value.TOKEN)) ||
-			this.equals(new ResponseType(Value.CODE, OIDCResponseTypeValue.ID_TOKEN, Value.TOKEN));
+			mask == (CODE_BIT | ID_TOKEN_BIT) ||
+			mask == (CODE_BIT | TOKEN_BIT) ||
+			mask == (CODE_BIT | ID_TOKEN_BIT | TOKEN_BIT);
 	}
 
 
@@ -306,7 +396,7 @@ public class ResponseType extends HashSet<ResponseType.Value> {
 	 */
 	public boolean contains(final String value) {
 
-		return contains(new Value(value));
+		return contains(toValue(value));
 	}
 	
 	
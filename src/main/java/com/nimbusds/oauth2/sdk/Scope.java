@@ -52,6 +52,23 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 	private static final long serialVersionUID = -553103514038936007L;
 	
 	
+	/**
+	 * Shared canonical instances of the common scope values, with no
+	 * requirement set, to avoid allocating a new value for each
+	 * occurrence when parsing.
+	 */
+	private static final Map<String,Value> CANONICAL_VALUES;
+	
+	
+	static {
+		Map<String,Value> m = new HashMap<>();
+		for (String v: Arrays.asList("openid", "profile", "email", "address", "phone", "offline_access")) {
+			m.put(v, new Value(v));
+		}
+		CANONICAL_VALUES = Collections.unmodifiableMap(m);
+	}
+	
+	
 	/**
 	 * Authorisation scope value.
 	 */
@@ -168,7 +185,7 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 	public Scope(final String ... values) {
 
 		for (String v: values)
-			add(new Value(v));
+			add(toValue(v));
 	}
 
 
@@ -183,6 +200,26 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 	}
 
 
+	/**
+	 * Returns the scope value for the specified string. The common values
+	 * are returned as shared canonical instances.
+	 *
+	 * @param s The string value. Must not be {@code null} or empty.
+	 *
+	 * @return The scope value.
+	 */
+	private static Value toValue(final String s) {
+		
+		if (s != null) {
+			Value canonical = CANONICAL_VALUES.get(s);
+			if (canonical != null) {
+				return canonical;
+			}
+		}
+		return new Value(s);
+	}
+
+
 	/**
 	 * Adds the specified string value to this scope.
 	 *
@@ -193,7 +230,7 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 	 */
 	public boolean add(final String value) {
 
-		return add(new Value(value));
+		return add(toValue(value));
 	}
 
 
@@ -206,7 +243,7 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 	 */
 	public boolean contains(final String value) {
 
-		return contains(new Value(value));
+		return contains(toValue(value));
 	}
 
 	
@@ -267,7 +304,7 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 		Scope scope = new Scope();
 		
 		for (String v: collection)
-			scope.add(new Scope.Value(v));
+			scope.add(toValue(v));
 		
 		return scope;
 	}
@@ -294,7 +331,7 @@ public class Scope extends LinkedHashSet<Scope.Value> {
 		StringTokenizer st = new StringTokenizer(s, " ,");
 
 		while(st.hasMoreTokens())
-			scope.add(new Scope.Value(st.nextToken()));
+			scope.add(toValue(st.nextToken()));
 
 		return scope;
 	}
@@ -0,0 +1,147 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.assertions.saml2;
+
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.util.singleuse.AlreadyUsedException;
+import com.nimbusds.oauth2.sdk.util.singleuse.SingleUseChecker;
+
+
+/**
+ * SAML 2.0 assertion single use checker. Caches the issuer and ID of the
+ * checked assertions until their expiration time ({@code NotOnOrAfter}),
+ * extended by the maximum acceptable clock skew, after which the
+ * assertions are rejected by the {@link SAML2AssertionDetailsVerifier}
+ * anyway. The checker should be {@link #shutdown() shut down} when no
+ * longer in use.
+ */
+@ThreadSafe
+public class DefaultSAML2AssertionSingleUseChecker implements SingleUseChecker<SAML2AssertionDetails> {
+	
+	
+	/**
+	 * The maximum acceptable clock skew, in milliseconds.
+	 */
+	private final long maxClockSkewMs;
+	
+	
+	/**
+	 * The purge timer.
+	 */
+	private final Timer timer;
+	
+	
+	/**
+	 * The cached assertion issuer and ID keys, with their retention
+	 * times in milliseconds since the epoch.
+	 */
+	private final ConcurrentHashMap<String,Long> cachedIDs = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * Creates a new SAML 2.0 assertion single use checker.
+	 *
+	 * @param maxClockSkewSeconds  The maximum acceptable clock skew, in
+	 *                             seconds, should match the setting of
+	 *                             the {@link SAML2AssertionDetailsVerifier}.
+	 * @param purgeIntervalSeconds The interval in seconds for purging the
+	 *                             expired assertion IDs.
+	 */
+	public DefaultSAML2AssertionSingleUseChecker(final int maxClockSkewSeconds,
+						     final long purgeIntervalSeconds) {
+		
+		maxClockSkewMs = maxClockSkewSeconds * 1000L;
+		
+		timer = new Timer("saml2-single-use-id-cache-purge-task", true);
+		
+		timer.schedule(
+			new TimerTask() {
+				@Override
+				public void run() {
+					purgeExpired(new Date().getTime());
+				}
+			},
+			purgeIntervalSeconds * 1000,
+			purgeIntervalSeconds * 1000);
+	}
+	
+	
+	@Override
+	public void markAsUsed(final SAML2AssertionDetails assertionDetails)
+		throws AlreadyUsedException {
+		
+		String key = assertionDetails.getIssuer().getValue() + " " + assertionDetails.getID().getValue();
+		
+		long nowMS = new Date().getTime();
+		Long retainUntil = assertionDetails.getExpirationTime().getTime() + maxClockSkewMs;
+		
+		Long existing = cachedIDs.putIfAbsent(key, retainUntil);
+		
+		if (existing == null) {
+			return;
+		}
+		
+		if (existing >= nowMS || ! cachedIDs.replace(key, existing, retainUntil)) {
+			// Unexpired, or replaced concurrently
+			throw new AlreadyUsedException("Detected SAML 2.0 assertion ID replay");
+		}
+	}
+	
+	
+	/**
+	 * Removes the expired assertion IDs.
+	 *
+	 * @param nowMS The current time, in milliseconds since the epoch.
+	 */
+	void purgeExpired(final long nowMS) {
+		
+		for (Map.Entry<String,Long> en: cachedIDs.entrySet()) {
+			if (en.getValue() < nowMS) {
+				cachedIDs.remove(en.getKey(), en.getValue());
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of cached items.
+	 *
+	 * @return The cached items, zero if none.
+	 */
+	public int getCacheSize() {
+		
+		return cachedIDs.size();
+	}
+	
+	
+	/**
+	 * Shuts down this checker and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		timer.cancel();
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.assertions.saml2;
+
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import net.jcip.annotations.ThreadSafe;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+
+
+/**
+ * SAML 2.0 assertion parser. The DOM document builder factory is discovered
+ * and hardened once, the document builders are pooled and reset between
+ * uses, and the OpenSAML unmarshallers are cached by element name.
+ *
+ * <p>Hardening of the XML parsing:
+ *
+ * <ul>
+ *     <li>Secure processing is enabled.
+ *     <li>DOCTYPE declarations are rejected, which also prevents entity
+ *         expansion.
+ *     <li>Access to external DTDs and schemas is disabled.
+ *     <li>XInclude processing is disabled.
+ * </ul>
+ *
+ * <p>OpenSAML must be initialised before use, this is done by
+ * {@link SAML2AssertionValidator}.
+ */
+@ThreadSafe
+final class SAML2AssertionParser {
+	
+	
+	/**
+	 * The default maximum number of pooled document builders.
+	 */
+	static final int DEFAULT_MAX_POOL_SIZE = 32;
+	
+	
+	/**
+	 * The shared instance.
+	 */
+	private static final SAML2AssertionParser INSTANCE = new SAML2AssertionParser(DEFAULT_MAX_POOL_SIZE);
+	
+	
+	/**
+	 * The hardened document builder factory.
+	 */
+	private final DocumentBuilderFactory documentBuilderFactory;
+	
+	
+	/**
+	 * The maximum number of pooled document builders.
+	 */
+	private final int maxPoolSize;
+	
+	
+	/**
+	 * The pooled document builders.
+	 */
+	private final ConcurrentLinkedQueue<DocumentBuilder> pool = new ConcurrentLinkedQueue<>();
+	
+	
+	/**
+	 * The number of pooled document builders.
+	 */
+	private final AtomicInteger poolSize = new AtomicInteger();
+	
+	
+	/**
+	 * The cached unmarshallers, keyed by element name.
+	 */
+	private final ConcurrentHashMap<QName,Unmarshaller> unmarshallers = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * Returns the shared SAML 2.0 assertion parser.
+	 *
+	 * @return The shared parser.
+	 */
+	static SAML2AssertionParser getInstance() {
+		
+		return INSTANCE;
+	}
+	
+	
+	/**
+	 * Creates a new SAML 2.0 assertion parser.
+	 *
+	 * @param maxPoolSize The maximum number of pooled document builders,
+	 *                    zero to disable pooling. Must not be negative.
+	 */
+	SAML2AssertionParser(final int maxPoolSize) {
+		
+		if (maxPoolSize < 0) {
+			throw new IllegalArgumentException("The max pool size must not be negative");
+		}
+		this.maxPoolSize = maxPoolSize;
+		
+		documentBuilderFactory = createDocumentBuilderFactory();
+	}
+	
+	
+	/**
+	 * Creates a hardened, namespace aware document builder factory.
+	 *
+	 * @return The document builder factory.
+	 */
+	static DocumentBuilderFactory createDocumentBuilderFactory() {
+		
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setXIncludeAware(false);
+		factory.setExpandEntityReferences(false);
+		
+		try {
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException("Couldn't harden the XML document builder factory: " + e.getMessage(), e);
+		}
+		
+		// Disable access to external entities in XML parsing
+		factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+		factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+		
+		return factory;
+	}
+	
+	
+	/**
+	 * Returns the number of document builders currently in the pool.
+	 *
+	 * @return The pool size.
+	 */
+	int getPoolSize() {
+		
+		return poolSize.get();
+	}
+	
+	
+	/**
+	 * Takes a document builder from the pool, creating a new one if the
+	 * pool is empty.
+	 *
+	 * @return The document builder.
+	 *
+	 * @throws ParserConfigurationException If creation of a document
+	 *                                      builder failed.
+	 */
+	private DocumentBuilder takeDocumentBuilder()
+		throws ParserConfigurationException {
+		
+		DocumentBuilder docBuilder = pool.poll();
+		
+		if (docBuilder != null) {
+			poolSize.decrementAndGet();
+			return docBuilder;
+		}
+		
+		// The factory isn't guaranteed to be thread-safe
+		synchronized (documentBuilderFactory) {
+			return documentBuilderFactory.newDocumentBuilder();
+		}
+	}
+	
+	
+	/**
+	 * Resets the specified document builder and returns it to the pool,
+	 * unless the pool is full.
+	 *
+	 * @param docBuilder The document builder.
+	 */
+	private void returnDocumentBuilder(final DocumentBuilder docBuilder) {
+		
+		if (poolSize.incrementAndGet() > maxPoolSize) {
+			poolSize.decrementAndGet();
+			return;
+		}
+		
+		try {
+			docBuilder.reset();
+		} catch (UnsupportedOperationException e) {
+			poolSize.decrementAndGet();
+			return;
+		}
+		
+		pool.offer(docBuilder);
+	}
+	
+	
+	/**
+	 * Gets the unmarshaller for the specified element. Unmarshallers for
+	 * elements without an explicit {@code xsi:type} are cached by element
+	 * name.
+	 *
+	 * @param element The element.
+	 *
+	 * @return The unmarshaller, {@code null} if none is registered.
+	 */
+	private Unmarshaller getUnmarshaller(final Element element) {
+		
+		if (element.hasAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type")) {
+			// Type dependent, no caching
+			return XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+		}
+		
+		QName name = new QName(element.getNamespaceURI(), element.getLocalName());
+		
+		Unmarshaller unmarshaller = unmarshallers.get(name);
+		
+		if (unmarshaller == null) {
+			unmarshaller = XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+			if (unmarshaller != null) {
+				unmarshallers.putIfAbsent(name, unmarshaller);
+			}
+		}
+		
+		return unmarshaller;
+	}
+	
+	
+	/**
+	 * Parses a SAML 2.0 assertion from the specified input source.
+	 *
+	 * @param inputSource The input source. Must not be {@code null}.
+	 *
+	 * @return The SAML 2.0 assertion.
+	 *
+	 * @throws ParseException If parsing of the assertion failed.
+	 */
+	Assertion parse(final InputSource inputSource)
+		throws ParseException {
+		
+		XMLObject xmlObject;
+		
+		try {
+			DocumentBuilder docBuilder = takeDocumentBuilder();
+			Document document = docBuilder.parse(inputSource);
+			// Not pooled again on exception, the builder state is
+			// undefined
+			returnDocumentBuilder(docBuilder);
+			
+			Element element = document.getDocumentElement();
+			
+			Unmarshaller unmarshaller = getUnmarshaller(element);
+			
+			if (unmarshaller == null) {
+				throw new ParseException("Top-level XML element not a SAML 2.0 assertion");
+			}
+			
+			xmlObject = unmarshaller.unmarshall(element);
+		
+		} catch (ParserConfigurationException | IOException | SAXException | UnmarshallingException e) {
+			throw new ParseException("SAML 2.0 assertion parsing failed: " + e.getMessage(), e);
+		}
+		
+		if (! (xmlObject instanceof Assertion)) {
+			throw new ParseException("Top-level XML element not a SAML 2.0 assertion");
+		}
+		
+		return (Assertion)xmlObject;
+	}
+}
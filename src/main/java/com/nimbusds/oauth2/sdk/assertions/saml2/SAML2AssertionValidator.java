@@ -19,23 +19,18 @@ package com.nimbusds.oauth2.sdk.assertions.saml2;
 
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.security.Key;
 import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import javax.crypto.SecretKey;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 
 import net.jcip.annotations.ThreadSafe;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 import org.opensaml.core.config.InitializationException;
 import org.opensaml.core.config.InitializationService;
-import org.opensaml.core.xml.XMLObject;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
-import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.saml.saml2.core.Assertion;
 import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
 import org.opensaml.security.credential.BasicCredential;
@@ -43,19 +38,31 @@ import org.opensaml.security.credential.UsageType;
 import org.opensaml.xmlsec.signature.Signature;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureValidator;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
+import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.util.singleuse.AlreadyUsedException;
+import com.nimbusds.oauth2.sdk.util.singleuse.SingleUseChecker;
 
 
 /**
  * SAML 2.0 assertion validator. Supports RSA signatures and HMAC. Provides
  * static methods for each validation step for putting together tailored
  * assertion validation strategies.
+ *
+ * <p>Optional:
+ *
+ * <ul>
+ *     <li>Replay detection with a single use checker of the assertion
+ *         issuer and ID, see {@link DefaultSAML2AssertionSingleUseChecker}.
+ *     <li>Caching of the signature verification results for repeated
+ *         validation of identical assertions, see
+ *         {@link SAML2SignatureVerificationCache}. Since a single use
+ *         checker rejects repeated assertions the cache is only consulted
+ *         when no single use checker is configured.
+ * </ul>
  */
 @ThreadSafe
 public class SAML2AssertionValidator {
@@ -67,6 +74,19 @@ public class SAML2AssertionValidator {
 	private final SAML2AssertionDetailsVerifier detailsVerifier;
 
 
+	/**
+	 * The single use checker for the assertion issuer and ID,
+	 * {@code null} if none.
+	 */
+	private final SingleUseChecker<SAML2AssertionDetails> singleUseChecker;
+
+
+	/**
+	 * The signature verification cache, {@code null} if none.
+	 */
+	private final SAML2SignatureVerificationCache signatureCache;
+
+
 	static {
 		try {
 			InitializationService.initialize();
@@ -83,10 +103,31 @@ public class SAML2AssertionValidator {
 	 *                        not be {@code null}.
 	 */
 	public SAML2AssertionValidator(final SAML2AssertionDetailsVerifier detailsVerifier) {
+		this(detailsVerifier, null, null);
+	}
+
+
+	/**
+	 * Creates a new SAML 2.0 assertion validator.
+	 *
+	 * @param detailsVerifier  The SAML 2.0 assertion details verifier.
+	 *                         Must not be {@code null}.
+	 * @param singleUseChecker The single use checker for the assertion
+	 *                         issuer and ID, to detect replay,
+	 *                         {@code null} if not required.
+	 * @param signatureCache   The signature verification cache,
+	 *                         {@code null} if not required. Not used
+	 *                         if a single use checker is specified.
+	 */
+	public SAML2AssertionValidator(final SAML2AssertionDetailsVerifier detailsVerifier,
+				       final SingleUseChecker<SAML2AssertionDetails> singleUseChecker,
+				       final SAML2SignatureVerificationCache signatureCache) {
 		if (detailsVerifier == null) {
 			throw new IllegalArgumentException("The SAML 2.0 assertion details verifier must not be null");
 		}
 		this.detailsVerifier = detailsVerifier;
+		this.singleUseChecker = singleUseChecker;
+		this.signatureCache = signatureCache;
 	}
 
 
@@ -100,6 +141,26 @@ public class SAML2AssertionValidator {
 	}
 
 
+	/**
+	 * Gets the single use checker for the assertion issuer and ID.
+	 *
+	 * @return The single use checker, {@code null} if none.
+	 */
+	public SingleUseChecker<SAML2AssertionDetails> getSingleUseChecker() {
+		return singleUseChecker;
+	}
+
+
+	/**
+	 * Gets the signature verification cache.
+	 *
+	 * @return The signature verification cache, {@code null} if none.
+	 */
+	public SAML2SignatureVerificationCache getSignatureVerificationCache() {
+		return signatureCache;
+	}
+
+
 	/**
 	 * Parses a SAML 2.0 assertion from the specified XML string.
 	 *
@@ -112,36 +173,44 @@ public class SAML2AssertionValidator {
 	public static Assertion parse(final String xml)
 		throws ParseException {
 
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		
-		// Disable access to external entities in XML parsing
-		documentBuilderFactory.setAttribute("http://javax.xml.XMLConstants/property/accessExternalDTD", "");
-		documentBuilderFactory.setAttribute("http://javax.xml.XMLConstants/property/accessExternalSchema", "");
-		
-		documentBuilderFactory.setNamespaceAware(true);
-
-		XMLObject xmlObject;
+		return SAML2AssertionParser.getInstance().parse(new InputSource(new StringReader(xml)));
+	}
 
-		try {
-			DocumentBuilder docBuilder = documentBuilderFactory.newDocumentBuilder();
 
-			Document document = docBuilder.parse(new InputSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
-			Element element = document.getDocumentElement();
+	/**
+	 * Parses a SAML 2.0 assertion from the specified XML bytes.
+	 *
+	 * @param xml The XML bytes. The character encoding is detected from
+	 *            the XML declaration, UTF-8 if none. Must not be
+	 *            {@code null}.
+	 *
+	 * @return The SAML 2.0 assertion.
+	 *
+	 * @throws ParseException If parsing of the assertion failed.
+	 */
+	public static Assertion parse(final byte[] xml)
+		throws ParseException {
 
-			xmlObject = XMLObjectProviderRegistrySupport
-				.getUnmarshallerFactory()
-				.getUnmarshaller(element)
-				.unmarshall(element);
+		return parse(new ByteArrayInputStream(xml));
+	}
 
-		} catch (ParserConfigurationException | IOException | SAXException | UnmarshallingException e) {
-			throw new ParseException("SAML 2.0 assertion parsing failed: " + e.getMessage(), e);
-		}
 
-		if (! (xmlObject instanceof Assertion)) {
-			throw new ParseException("Top-level XML element not a SAML 2.0 assertion");
-		}
+	/**
+	 * Parses a SAML 2.0 assertion from the specified XML input stream.
+	 * The stream is not closed.
+	 *
+	 * @param xml The XML input stream. The character encoding is detected
+	 *            from the XML declaration, UTF-8 if none. Must not be
+	 *            {@code null}.
+	 *
+	 * @return The SAML 2.0 assertion.
+	 *
+	 * @throws ParseException If parsing of the assertion failed.
+	 */
+	public static Assertion parse(final InputStream xml)
+		throws ParseException {
 
-		return (Assertion)xmlObject;
+		return SAML2AssertionParser.getInstance().parse(new InputSource(xml));
 	}
 
 
@@ -209,6 +278,31 @@ public class SAML2AssertionValidator {
 				  final Key key)
 		throws BadSAML2AssertionException {
 
+		return validate(assertion, null, expectedIssuer, key);
+	}
+
+
+	/**
+	 * Validates the specified SAML 2.0 assertion.
+	 *
+	 * @param assertion      The SAML 2.0 assertion. Must not be
+	 *                       {@code null}.
+	 * @param xml            The XML the assertion was parsed from,
+	 *                       {@code null} if not available.
+	 * @param expectedIssuer The expected issuer. Must not be {@code null}.
+	 * @param key            The key to verify the signature. Must not be
+	 *                       {@code null}.
+	 *
+	 * @return The validated SAML 2.0 assertion.
+	 *
+	 * @throws BadSAML2AssertionException If the assertion is invalid.
+	 */
+	private Assertion validate(final Assertion assertion,
+				   final String xml,
+				   final Issuer expectedIssuer,
+				   final Key key)
+		throws BadSAML2AssertionException {
+
 		final SAML2AssertionDetails assertionDetails;
 
 		try {
@@ -229,13 +323,70 @@ public class SAML2AssertionValidator {
 			throw new BadSAML2AssertionException("Missing XML signature");
 		}
 
-		// Verify the signature
-		verifySignature(assertion.getSignature(), key);
+		// Verify the signature, repeated assertions are rejected by
+		// the single use checker, so the cache is of no use with it
+		if (signatureCache == null || singleUseChecker != null) {
+			verifySignature(assertion.getSignature(), key);
+		} else {
+			verifySignature(assertion, xml, assertionDetails, key);
+		}
+
+		// Check for replay
+		if (singleUseChecker != null) {
+			try {
+				singleUseChecker.markAsUsed(assertionDetails);
+			} catch (AlreadyUsedException e) {
+				throw new BadSAML2AssertionException("The SAML 2.0 assertion ID was used before: " + assertionDetails.getID());
+			}
+		}
 
 		return assertion; // OK
 	}
 
 
+	/**
+	 * Verifies the XML signature of the specified SAML 2.0 assertion,
+	 * skipping the verification if the assertion was successfully
+	 * verified with the same key before.
+	 *
+	 * @param assertion        The SAML 2.0 assertion.
+	 * @param xml              The XML the assertion was parsed from,
+	 *                         {@code null} to serialise the assertion
+	 *                         DOM.
+	 * @param assertionDetails The assertion details.
+	 * @param key              The key to verify the signature.
+	 *
+	 * @throws BadSAML2AssertionException If the signature is invalid.
+	 */
+	private void verifySignature(final Assertion assertion,
+				     final String xml,
+				     final SAML2AssertionDetails assertionDetails,
+				     final Key key)
+		throws BadSAML2AssertionException {
+
+		String content = xml;
+
+		if (content == null) {
+			if (assertion.getDOM() == null) {
+				// Nothing to digest
+				verifySignature(assertion.getSignature(), key);
+				return;
+			}
+			content = SerializeSupport.nodeToString(assertion.getDOM());
+		}
+
+		Base64URL digest = SAML2SignatureVerificationCache.computeDigest(content, key);
+
+		if (signatureCache.isVerified(digest)) {
+			return;
+		}
+
+		verifySignature(assertion.getSignature(), key);
+
+		signatureCache.put(digest, assertionDetails.getExpirationTime());
+	}
+
+
 	/**
 	 * Validates the specified SAML 2.0 assertion.
 	 *
@@ -266,6 +417,6 @@ public class SAML2AssertionValidator {
 			throw new BadSAML2AssertionException("Invalid SAML 2.0 assertion: " + e.getMessage(), e);
 		}
 
-		return validate(assertion, expectedIssuer, key);
+		return validate(assertion, xml, expectedIssuer, key);
 	}
 }
@@ -0,0 +1,238 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.assertions.saml2;
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.util.Base64URL;
+
+
+/**
+ * Cache of successfully verified SAML 2.0 assertion signatures. The
+ * assertions are identified by a SHA-256 digest of their complete XML
+ * together with the verification key, so that a validator can skip the
+ * XML signature verification when the same assertion is validated again
+ * with the same key, for instance on an idempotent retry of a token
+ * request. The entries are retained until the expiration time
+ * ({@code NotOnOrAfter}) of the assertion, extended by the maximum
+ * acceptable clock skew. The cache should be {@link #shutdown() shut down}
+ * when no longer in use.
+ */
+@ThreadSafe
+public class SAML2SignatureVerificationCache {
+	
+	
+	/**
+	 * The default maximum number of cached entries.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10_000;
+	
+	
+	/**
+	 * The maximum acceptable clock skew, in milliseconds.
+	 */
+	private final long maxClockSkewMs;
+	
+	
+	/**
+	 * The maximum number of cached entries.
+	 */
+	private final int maxSize;
+	
+	
+	/**
+	 * The purge timer.
+	 */
+	private final Timer timer;
+	
+	
+	/**
+	 * The cached digests of the verified assertions, with their retention
+	 * times in milliseconds since the epoch.
+	 */
+	private final ConcurrentHashMap<Base64URL,Long> verified = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * Creates a new SAML 2.0 signature verification cache with the
+	 * default maximum size.
+	 *
+	 * @param maxClockSkewSeconds  The maximum acceptable clock skew, in
+	 *                             seconds, should match the setting of
+	 *                             the {@link SAML2AssertionDetailsVerifier}.
+	 * @param purgeIntervalSeconds The interval in seconds for purging the
+	 *                             expired entries.
+	 */
+	public SAML2SignatureVerificationCache(final int maxClockSkewSeconds,
+					       final long purgeIntervalSeconds) {
+		
+		this(maxClockSkewSeconds, purgeIntervalSeconds, DEFAULT_MAX_SIZE);
+	}
+	
+	
+	/**
+	 * Creates a new SAML 2.0 signature verification cache.
+	 *
+	 * @param maxClockSkewSeconds  The maximum acceptable clock skew, in
+	 *                             seconds, should match the setting of
+	 *                             the {@link SAML2AssertionDetailsVerifier}.
+	 * @param purgeIntervalSeconds The interval in seconds for purging the
+	 *                             expired entries.
+	 * @param maxSize              The maximum number of cached entries.
+	 *                             When reached, new verifications aren't
+	 *                             cached until expired entries are
+	 *                             purged. Must be positive.
+	 */
+	public SAML2SignatureVerificationCache(final int maxClockSkewSeconds,
+					       final long purgeIntervalSeconds,
+					       final int maxSize) {
+		
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The max cache size must be positive");
+		}
+		this.maxSize = maxSize;
+		
+		maxClockSkewMs = maxClockSkewSeconds * 1000L;
+		
+		timer = new Timer("saml2-signature-cache-purge-task", true);
+		
+		timer.schedule(
+			new TimerTask() {
+				@Override
+				public void run() {
+					purgeExpired(new Date().getTime());
+				}
+			},
+			purgeIntervalSeconds * 1000,
+			purgeIntervalSeconds * 1000);
+	}
+	
+	
+	/**
+	 * Computes a SHA-256 digest of the specified assertion XML and
+	 * verification key.
+	 *
+	 * @param xml The assertion XML. Must not be {@code null}.
+	 * @param key The verification key. Must not be {@code null}.
+	 *
+	 * @return The digest.
+	 *
+	 * @throws RuntimeException If hashing failed.
+	 */
+	public static Base64URL computeDigest(final String xml, final Key key) {
+		
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		
+		// Bind the key, a digest match alone must not skip verification
+		// with a different key
+		byte[] encodedKey = key.getEncoded();
+		if (encodedKey == null) {
+			throw new IllegalArgumentException("The key must support encoding");
+		}
+		md.update(key.getAlgorithm().getBytes(StandardCharsets.UTF_8));
+		md.update((byte)0);
+		md.update(encodedKey);
+		md.update((byte)0);
+		return Base64URL.encode(md.digest(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	
+	/**
+	 * Checks if the assertion with the specified digest was successfully
+	 * verified before and hasn't expired.
+	 *
+	 * @param digest The assertion digest. Must not be {@code null}.
+	 *
+	 * @return {@code true} if verified, else {@code false}.
+	 */
+	public boolean isVerified(final Base64URL digest) {
+		
+		Long retainUntil = verified.get(digest);
+		return retainUntil != null && retainUntil >= new Date().getTime();
+	}
+	
+	
+	/**
+	 * Records a successful signature verification for the assertion with
+	 * the specified digest.
+	 *
+	 * @param digest         The assertion digest. Must not be
+	 *                       {@code null}.
+	 * @param expirationTime The assertion expiration time. Must not be
+	 *                       {@code null}.
+	 */
+	public void put(final Base64URL digest, final Date expirationTime) {
+		
+		if (verified.size() >= maxSize) {
+			return;
+		}
+		
+		verified.put(digest, expirationTime.getTime() + maxClockSkewMs);
+	}
+	
+	
+	/**
+	 * Removes the expired entries.
+	 *
+	 * @param nowMS The current time, in milliseconds since the epoch.
+	 */
+	void purgeExpired(final long nowMS) {
+		
+		for (Map.Entry<Base64URL,Long> en: verified.entrySet()) {
+			if (en.getValue() < nowMS) {
+				verified.remove(en.getKey(), en.getValue());
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of cached items.
+	 *
+	 * @return The cached items, zero if none.
+	 */
+	public int getCacheSize() {
+		
+		return verified.size();
+	}
+	
+	
+	/**
+	 * Shuts down this cache and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		timer.cancel();
+	}
+}
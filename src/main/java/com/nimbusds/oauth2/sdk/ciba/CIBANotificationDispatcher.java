@@ -0,0 +1,791 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.ciba;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+
+
+/**
+ * Asynchronous dispatcher of CIBA ping and push notifications to the client
+ * notification endpoints, for use by OpenID providers.
+ *
+ * <p>Features:
+ *
+ * <ul>
+ *     <li>The notifications are queued and the dispatch methods return
+ *         immediately, so that the OpenID provider doesn't hold a request
+ *         thread while a client notification endpoint is slow or down.
+ *     <li>The notifications are sent concurrently on a bounded pool of
+ *         worker threads. The HTTP connections are kept alive and reused by
+ *         the workers.
+ *     <li>The number of concurrent connections to a single client
+ *         notification endpoint (scheme, host and port) is limited, so
+ *         that a slow endpoint cannot take up all workers. The
+ *         notifications in excess of the limit wait in a queue for the
+ *         endpoint, in order of dispatch.
+ *     <li>The total number of pending notifications is limited. When the
+ *         limit is reached new notifications are rejected.
+ *     <li>Notifications failing with an I/O exception or a HTTP 429 or 5xx
+ *         status are retried with exponential backoff and random jitter.
+ *         Notifications awaiting a retry don't take up a worker or an
+ *         endpoint connection.
+ *     <li>The outcome of each notification is passed to an optional
+ *         {@link CIBANotificationListener}, together with the delivery
+ *         metrics, which are accumulated and published at a configured
+ *         interval instead of per notification.
+ * </ul>
+ *
+ * <p>The dispatcher should be {@link #shutdown() shut down} when no longer
+ * in use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * CIBANotificationDispatcher dispatcher = new CIBANotificationDispatcher(listener);
+ *
+ * if (! dispatcher.dispatch(new CIBAPingCallback(endpoint, clientNotificationToken, authRequestID))) {
+ *     // Queue full
+ * }
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OpenID Connect CIBA Flow - Core 1.0, sections 10.2 and 10.3.
+ * </ul>
+ */
+@ThreadSafe
+public class CIBANotificationDispatcher {
+	
+	
+	/**
+	 * The default maximum number of concurrent notifications.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 16;
+	
+	
+	/**
+	 * The default maximum number of concurrent notifications to a single
+	 * client notification endpoint.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 4;
+	
+	
+	/**
+	 * The default maximum number of pending notifications.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 10_000;
+	
+	
+	/**
+	 * The default maximum number of retries per notification.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	
+	
+	/**
+	 * The default initial retry delay, in milliseconds.
+	 */
+	public static final long DEFAULT_RETRY_DELAY_MS = 500L;
+	
+	
+	/**
+	 * The default maximum retry delay, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_RETRY_DELAY_MS = 30_000L;
+	
+	
+	/**
+	 * The default HTTP connect and read timeout, in milliseconds.
+	 */
+	public static final int DEFAULT_HTTP_TIMEOUT = 5000;
+	
+	
+	/**
+	 * The default interval for publishing the delivery metrics, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_METRICS_INTERVAL_MS = 60_000L;
+	
+	
+	/**
+	 * Pending notification.
+	 */
+	private static final class Notification {
+		
+		
+		/**
+		 * The CIBA request ID.
+		 */
+		final AuthRequestID authRequestID;
+		
+		
+		/**
+		 * The client notification endpoint.
+		 */
+		final URI endpoint;
+		
+		
+		/**
+		 * The HTTP request.
+		 */
+		final HTTPRequest httpRequest;
+		
+		
+		/**
+		 * The state of the client notification endpoint.
+		 */
+		final EndpointState endpointState;
+		
+		
+		/**
+		 * The time of acceptance, in milliseconds since the epoch.
+		 */
+		final long acceptedAt;
+		
+		
+		/**
+		 * The number of completed attempts, accessed by one thread at
+		 * a time.
+		 */
+		int attempts;
+		
+		
+		/**
+		 * Creates a new pending notification.
+		 *
+		 * @param authRequestID The CIBA request ID.
+		 * @param endpoint      The client notification endpoint.
+		 * @param httpRequest   The HTTP request.
+		 * @param endpointState The endpoint state.
+		 */
+		Notification(final AuthRequestID authRequestID,
+			     final URI endpoint,
+			     final HTTPRequest httpRequest,
+			     final EndpointState endpointState) {
+			this.authRequestID = authRequestID;
+			this.endpoint = endpoint;
+			this.httpRequest = httpRequest;
+			this.endpointState = endpointState;
+			this.acceptedAt = System.currentTimeMillis();
+		}
+	}
+	
+	
+	/**
+	 * The state of a client notification endpoint.
+	 */
+	private static final class EndpointState {
+		
+		
+		/**
+		 * The available connections.
+		 */
+		final Semaphore connections;
+		
+		
+		/**
+		 * The notifications waiting for a connection.
+		 */
+		final ConcurrentLinkedQueue<Notification> waiting = new ConcurrentLinkedQueue<>();
+		
+		
+		/**
+		 * Creates a new endpoint state.
+		 *
+		 * @param maxConnections The maximum number of concurrent
+		 *                       connections.
+		 */
+		EndpointState(final int maxConnections) {
+			connections = new Semaphore(maxConnections);
+		}
+	}
+	
+	
+	/**
+	 * The maximum number of concurrent notifications to a single client
+	 * notification endpoint.
+	 */
+	private final int maxConnectionsPerEndpoint;
+	
+	
+	/**
+	 * The maximum number of pending notifications.
+	 */
+	private final int maxPending;
+	
+	
+	/**
+	 * The maximum number of retries per notification.
+	 */
+	private final int maxRetries;
+	
+	
+	/**
+	 * The initial retry delay, in milliseconds.
+	 */
+	private final long retryDelayMs;
+	
+	
+	/**
+	 * The maximum retry delay, in milliseconds.
+	 */
+	private final long maxRetryDelayMs;
+	
+	
+	/**
+	 * The HTTP connect timeout, in milliseconds.
+	 */
+	private final int connectTimeout;
+	
+	
+	/**
+	 * The HTTP read timeout, in milliseconds.
+	 */
+	private final int readTimeout;
+	
+	
+	/**
+	 * The listener, {@code null} if none.
+	 */
+	private final CIBANotificationListener listener;
+	
+	
+	/**
+	 * The client notification endpoint states, keyed by scheme and
+	 * authority.
+	 */
+	private final ConcurrentHashMap<String,EndpointState> endpointStates = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The worker thread pool.
+	 */
+	private final ExecutorService executor;
+	
+	
+	/**
+	 * The scheduler for the retries and the metrics publication.
+	 */
+	private final ScheduledExecutorService scheduler;
+	
+	
+	/**
+	 * The number of pending notifications.
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	
+	/**
+	 * The number of accepted notifications.
+	 */
+	private final AtomicLong acceptedCount = new AtomicLong();
+	
+	
+	/**
+	 * The number of rejected notifications.
+	 */
+	private final AtomicLong rejectedCount = new AtomicLong();
+	
+	
+	/**
+	 * The number of delivered notifications.
+	 */
+	private final AtomicLong deliveredCount = new AtomicLong();
+	
+	
+	/**
+	 * The number of failed notifications.
+	 */
+	private final AtomicLong failedCount = new AtomicLong();
+	
+	
+	/**
+	 * The number of retries.
+	 */
+	private final AtomicLong retryCount = new AtomicLong();
+	
+	
+	/**
+	 * The total delivery time of the delivered notifications, in
+	 * milliseconds.
+	 */
+	private final AtomicLong totalDeliveryTimeMs = new AtomicLong();
+	
+	
+	/**
+	 * Creates a new CIBA notification dispatcher with the default
+	 * concurrency, queue, retry, HTTP timeout and metrics settings.
+	 *
+	 * @param listener The listener, {@code null} if none.
+	 */
+	public CIBANotificationDispatcher(final CIBANotificationListener listener) {
+		
+		this(DEFAULT_MAX_CONCURRENCY,
+			DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT,
+			DEFAULT_MAX_PENDING,
+			DEFAULT_MAX_RETRIES,
+			DEFAULT_RETRY_DELAY_MS,
+			DEFAULT_MAX_RETRY_DELAY_MS,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_HTTP_TIMEOUT,
+			listener,
+			DEFAULT_METRICS_INTERVAL_MS);
+	}
+	
+	
+	/**
+	 * Creates a new CIBA notification dispatcher.
+	 *
+	 * @param maxConcurrency            The maximum number of concurrent
+	 *                                  notifications. Must be positive.
+	 * @param maxConnectionsPerEndpoint The maximum number of concurrent
+	 *                                  notifications to a single client
+	 *                                  notification endpoint. Must be
+	 *                                  positive.
+	 * @param maxPending                The maximum number of pending
+	 *                                  notifications, queued, in progress
+	 *                                  or awaiting a retry. Must be
+	 *                                  positive.
+	 * @param maxRetries                The maximum number of retries per
+	 *                                  notification, zero if none. Must
+	 *                                  not be negative.
+	 * @param retryDelayMs              The initial retry delay, doubled
+	 *                                  on each subsequent retry, in
+	 *                                  milliseconds. Must not be
+	 *                                  negative.
+	 * @param maxRetryDelayMs           The maximum retry delay, in
+	 *                                  milliseconds. Must not be less
+	 *                                  than the initial retry delay.
+	 * @param connectTimeout            The HTTP connect timeout, in
+	 *                                  milliseconds, zero implies no
+	 *                                  timeout. Must not be negative.
+	 * @param readTimeout               The HTTP read timeout, in
+	 *                                  milliseconds, zero implies no
+	 *                                  timeout. Must not be negative.
+	 * @param listener                  The listener, {@code null} if
+	 *                                  none.
+	 * @param metricsIntervalMs         The interval for publishing the
+	 *                                  delivery metrics to the listener,
+	 *                                  in milliseconds, zero if none.
+	 *                                  Must not be negative.
+	 */
+	public CIBANotificationDispatcher(final int maxConcurrency,
+					  final int maxConnectionsPerEndpoint,
+					  final int maxPending,
+					  final int maxRetries,
+					  final long retryDelayMs,
+					  final long maxRetryDelayMs,
+					  final int connectTimeout,
+					  final int readTimeout,
+					  final CIBANotificationListener listener,
+					  final long metricsIntervalMs) {
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		if (maxConnectionsPerEndpoint < 1) {
+			throw new IllegalArgumentException("The max connections per endpoint must be positive");
+		}
+		this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+		
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("The max pending notifications must be positive");
+		}
+		this.maxPending = maxPending;
+		
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("The max retries must not be negative");
+		}
+		this.maxRetries = maxRetries;
+		
+		if (retryDelayMs < 0) {
+			throw new IllegalArgumentException("The retry delay must not be negative");
+		}
+		this.retryDelayMs = retryDelayMs;
+		
+		if (maxRetryDelayMs < retryDelayMs) {
+			throw new IllegalArgumentException("The max retry delay must not be less than the retry delay");
+		}
+		this.maxRetryDelayMs = maxRetryDelayMs;
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP connect timeout must not be negative");
+		}
+		this.connectTimeout = connectTimeout;
+		
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP read timeout must not be negative");
+		}
+		this.readTimeout = readTimeout;
+		
+		if (metricsIntervalMs < 0) {
+			throw new IllegalArgumentException("The metrics interval must not be negative");
+		}
+		
+		this.listener = listener;
+		
+		executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("ciba-notification"));
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ciba-notification-scheduler"));
+		
+		if (listener != null && metricsIntervalMs > 0) {
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						listener.onMetrics(getMetrics());
+					} catch (RuntimeException e) {
+						// Keep the schedule
+					}
+				}
+			}, metricsIntervalMs, metricsIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	
+	/**
+	 * Dispatches the specified CIBA ping callback. Returns immediately.
+	 *
+	 * @param callback The CIBA ping callback. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the notification was accepted,
+	 *         {@code false} if rejected because the maximum number of
+	 *         pending notifications was reached or the dispatcher is shut
+	 *         down.
+	 */
+	public boolean dispatch(final CIBAPingCallback callback) {
+		
+		return dispatch(callback.getAuthRequestID(), callback.getEndpointURI(), callback.toHTTPRequest());
+	}
+	
+	
+	/**
+	 * Dispatches the specified CIBA push callback, a token or an error
+	 * delivery. Returns immediately.
+	 *
+	 * @param callback The CIBA push callback. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the notification was accepted,
+	 *         {@code false} if rejected because the maximum number of
+	 *         pending notifications was reached or the dispatcher is shut
+	 *         down.
+	 */
+	public boolean dispatch(final CIBAPushCallback callback) {
+		
+		return dispatch(callback.getAuthRequestID(), callback.getEndpointURI(), callback.toHTTPRequest());
+	}
+	
+	
+	/**
+	 * Dispatches the specified notification.
+	 *
+	 * @param authRequestID The CIBA request ID.
+	 * @param endpoint      The client notification endpoint.
+	 * @param httpRequest   The HTTP request.
+	 *
+	 * @return {@code true} if accepted, else {@code false}.
+	 */
+	private boolean dispatch(final AuthRequestID authRequestID,
+				 final URI endpoint,
+				 final HTTPRequest httpRequest) {
+		
+		if (executor.isShutdown()) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		
+		acceptedCount.incrementAndGet();
+		
+		httpRequest.setConnectTimeout(connectTimeout);
+		httpRequest.setReadTimeout(readTimeout);
+		
+		Notification notification = new Notification(authRequestID, endpoint, httpRequest, getEndpointState(endpoint));
+		notification.endpointState.waiting.add(notification);
+		drain(notification.endpointState);
+		return true;
+	}
+	
+	
+	/**
+	 * Gets the state for the specified client notification endpoint,
+	 * creating it if necessary.
+	 *
+	 * @param endpoint The client notification endpoint.
+	 *
+	 * @return The endpoint state.
+	 */
+	private EndpointState getEndpointState(final URI endpoint) {
+		
+		String key = endpoint.getScheme() + "://" + endpoint.getRawAuthority();
+		
+		EndpointState state = endpointStates.get(key);
+		if (state == null) {
+			state = new EndpointState(maxConnectionsPerEndpoint);
+			EndpointState existing = endpointStates.putIfAbsent(key, state);
+			if (existing != null) {
+				state = existing;
+			}
+		}
+		return state;
+	}
+	
+	
+	/**
+	 * Starts the next waiting notifications for the specified endpoint,
+	 * while there are free connections to it.
+	 *
+	 * @param endpointState The endpoint state.
+	 */
+	private void drain(final EndpointState endpointState) {
+		
+		while (! endpointState.waiting.isEmpty() && endpointState.connections.tryAcquire()) {
+			
+			final Notification notification = endpointState.waiting.poll();
+			
+			if (notification == null) {
+				// Taken by another thread
+				endpointState.connections.release();
+				continue;
+			}
+			
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						attempt(notification);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				endpointState.connections.release();
+				complete(notification, new IOException("The CIBA notification dispatcher is shut down", e));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Makes a delivery attempt for the specified notification, holding a
+	 * connection to its endpoint.
+	 *
+	 * @param notification The notification.
+	 */
+	private void attempt(final Notification notification) {
+		
+		Exception exception = null;
+		boolean retryable = false;
+		
+		try {
+			HTTPResponse httpResponse = send(notification.httpRequest);
+			int statusCode = httpResponse.getStatusCode();
+			if (statusCode / 100 != 2) {
+				exception = new GeneralException("Unexpected HTTP status code: " + statusCode);
+				retryable = isRetryable(statusCode);
+			}
+		} catch (IOException e) {
+			exception = e;
+			retryable = true;
+		} catch (RuntimeException e) {
+			exception = e;
+		} finally {
+			// Free the connection before the retry wait
+			notification.endpointState.connections.release();
+			drain(notification.endpointState);
+		}
+		
+		notification.attempts++;
+		
+		if (exception != null && retryable && notification.attempts <= maxRetries) {
+			scheduleRetry(notification);
+			return;
+		}
+		
+		complete(notification, exception);
+	}
+	
+	
+	/**
+	 * Schedules a retry for the specified notification.
+	 *
+	 * @param notification The notification.
+	 */
+	private void scheduleRetry(final Notification notification) {
+		
+		retryCount.incrementAndGet();
+		
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					notification.endpointState.waiting.add(notification);
+					drain(notification.endpointState);
+				}
+			}, computeRetryDelay(notification.attempts, retryDelayMs, maxRetryDelayMs), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			complete(notification, new IOException("The CIBA notification dispatcher is shut down", e));
+		}
+	}
+	
+	
+	/**
+	 * Completes the specified notification.
+	 *
+	 * @param notification The notification.
+	 * @param exception    The exception, {@code null} if delivered.
+	 */
+	private void complete(final Notification notification, final Exception exception) {
+		
+		pending.decrementAndGet();
+		
+		if (exception == null) {
+			deliveredCount.incrementAndGet();
+			totalDeliveryTimeMs.addAndGet(System.currentTimeMillis() - notification.acceptedAt);
+		} else {
+			failedCount.incrementAndGet();
+		}
+		
+		if (listener == null) {
+			return;
+		}
+		
+		try {
+			if (exception == null) {
+				listener.onDelivered(notification.authRequestID, notification.endpoint);
+			} else {
+				listener.onFailed(notification.authRequestID, notification.endpoint, exception);
+			}
+		} catch (RuntimeException e) {
+			// Don't let a faulty listener kill the worker
+		}
+	}
+	
+	
+	/**
+	 * Computes the delay before the specified retry, doubling the initial
+	 * delay on each subsequent retry up to the maximum, and picking a
+	 * random value between half and the full delay to spread out retries
+	 * to the same endpoint.
+	 *
+	 * @param retry           The retry number, starting with one.
+	 * @param retryDelayMs    The initial retry delay, in milliseconds.
+	 * @param maxRetryDelayMs The maximum retry delay, in milliseconds.
+	 *
+	 * @return The retry delay, in milliseconds.
+	 */
+	static long computeRetryDelay(final int retry, final long retryDelayMs, final long maxRetryDelayMs) {
+		
+		long delay = Math.min(maxRetryDelayMs, retryDelayMs << Math.min(retry - 1, 30));
+		
+		if (delay < 2) {
+			return delay;
+		}
+		
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+	
+	
+	/**
+	 * Returns {@code true} if a notification with the specified HTTP
+	 * status code may be retried.
+	 *
+	 * @param statusCode The HTTP status code.
+	 *
+	 * @return {@code true} if the notification may be retried.
+	 */
+	static boolean isRetryable(final int statusCode) {
+		
+		return statusCode == 429 || statusCode / 100 == 5;
+	}
+	
+	
+	/**
+	 * Sends the specified HTTP request for a notification.
+	 *
+	 * @param httpRequest The HTTP request.
+	 *
+	 * @return The HTTP response.
+	 *
+	 * @throws IOException If the HTTP request failed.
+	 */
+	protected HTTPResponse send(final HTTPRequest httpRequest)
+		throws IOException {
+		
+		return httpRequest.send();
+	}
+	
+	
+	/**
+	 * Returns the number of pending notifications, queued, in progress or
+	 * awaiting a retry.
+	 *
+	 * @return The number of pending notifications.
+	 */
+	public int getPendingCount() {
+		
+		return pending.get();
+	}
+	
+	
+	/**
+	 * Returns a snapshot of the delivery metrics.
+	 *
+	 * @return The delivery metrics.
+	 */
+	public CIBANotificationMetrics getMetrics() {
+		
+		return new CIBANotificationMetrics(
+			acceptedCount.get(),
+			rejectedCount.get(),
+			deliveredCount.get(),
+			failedCount.get(),
+			retryCount.get(),
+			pending.get(),
+			totalDeliveryTimeMs.get());
+	}
+	
+	
+	/**
+	 * Shuts down this dispatcher. Notifications which are still pending
+	 * are discarded.
+	 */
+	public void shutdown() {
+		
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.ciba;
+
+
+import java.net.URI;
+
+
+/**
+ * Listener for the outcomes and metrics of a
+ * {@link CIBANotificationDispatcher}. The methods are invoked from the
+ * dispatcher threads, must be thread-safe and should return quickly.
+ */
+public interface CIBANotificationListener {
+	
+	
+	/**
+	 * Called when a notification was delivered to the client.
+	 *
+	 * @param authRequestID The CIBA request ID.
+	 * @param endpoint      The client notification endpoint.
+	 */
+	void onDelivered(final AuthRequestID authRequestID, final URI endpoint);
+	
+	
+	/**
+	 * Called when a notification couldn't be delivered, after all
+	 * retries.
+	 *
+	 * @param authRequestID The CIBA request ID.
+	 * @param endpoint      The client notification endpoint.
+	 * @param e             The exception, a
+	 *                      {@link com.nimbusds.oauth2.sdk.GeneralException}
+	 *                      for an unexpected HTTP status code.
+	 */
+	void onFailed(final AuthRequestID authRequestID, final URI endpoint, final Exception e);
+	
+	
+	/**
+	 * Called periodically with the accumulated delivery metrics.
+	 *
+	 * @param metrics The delivery metrics.
+	 */
+	void onMetrics(final CIBANotificationMetrics metrics);
+}
@@ -0,0 +1,188 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.ciba;
+
+
+import net.jcip.annotations.Immutable;
+
+
+/**
+ * Snapshot of the cumulative delivery metrics of a
+ * {@link CIBANotificationDispatcher}.
+ */
+@Immutable
+public final class CIBANotificationMetrics {
+	
+	
+	/**
+	 * The number of accepted notifications.
+	 */
+	private final long accepted;
+	
+	
+	/**
+	 * The number of notifications rejected because the queue was full.
+	 */
+	private final long rejected;
+	
+	
+	/**
+	 * The number of delivered notifications.
+	 */
+	private final long delivered;
+	
+	
+	/**
+	 * The number of notifications which failed after all retries.
+	 */
+	private final long failed;
+	
+	
+	/**
+	 * The number of retries.
+	 */
+	private final long retries;
+	
+	
+	/**
+	 * The number of pending notifications.
+	 */
+	private final int pending;
+	
+	
+	/**
+	 * The total time from acceptance to delivery of the delivered
+	 * notifications, in milliseconds.
+	 */
+	private final long totalDeliveryTimeMs;
+	
+	
+	/**
+	 * Creates a new CIBA notification metrics snapshot.
+	 *
+	 * @param accepted            The number of accepted notifications.
+	 * @param rejected            The number of rejected notifications.
+	 * @param delivered           The number of delivered notifications.
+	 * @param failed              The number of failed notifications.
+	 * @param retries             The number of retries.
+	 * @param pending             The number of pending notifications.
+	 * @param totalDeliveryTimeMs The total delivery time, in
+	 *                            milliseconds.
+	 */
+	public CIBANotificationMetrics(final long accepted,
+				       final long rejected,
+				       final long delivered,
+				       final long failed,
+				       final long retries,
+				       final int pending,
+				       final long totalDeliveryTimeMs) {
+		this.accepted = accepted;
+		this.rejected = rejected;
+		this.delivered = delivered;
+		this.failed = failed;
+		this.retries = retries;
+		this.pending = pending;
+		this.totalDeliveryTimeMs = totalDeliveryTimeMs;
+	}
+	
+	
+	/**
+	 * Returns the number of accepted notifications.
+	 *
+	 * @return The number of accepted notifications.
+	 */
+	public long getAcceptedCount() {
+		return accepted;
+	}
+	
+	
+	/**
+	 * Returns the number of notifications rejected because the queue was
+	 * full.
+	 *
+	 * @return The number of rejected notifications.
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+	
+	
+	/**
+	 * Returns the number of delivered notifications.
+	 *
+	 * @return The number of delivered notifications.
+	 */
+	public long getDeliveredCount() {
+		return delivered;
+	}
+	
+	
+	/**
+	 * Returns the number of notifications which failed after all retries.
+	 *
+	 * @return The number of failed notifications.
+	 */
+	public long getFailedCount() {
+		return failed;
+	}
+	
+	
+	/**
+	 * Returns the number of retries.
+	 *
+	 * @return The number of retries.
+	 */
+	public long getRetryCount() {
+		return retries;
+	}
+	
+	
+	/**
+	 * Returns the number of pending notifications, queued, in progress or
+	 * awaiting a retry.
+	 *
+	 * @return The number of pending notifications.
+	 */
+	public int getPendingCount() {
+		return pending;
+	}
+	
+	
+	/**
+	 * Returns the average time from acceptance to delivery of the
+	 * delivered notifications, including retries.
+	 *
+	 * @return The average delivery time, in milliseconds, zero if none
+	 *         were delivered.
+	 */
+	public long getAverageDeliveryTimeMs() {
+		return delivered > 0 ? totalDeliveryTimeMs / delivered : 0L;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "accepted=" + accepted +
+			" rejected=" + rejected +
+			" delivered=" + delivered +
+			" failed=" + failed +
+			" retries=" + retries +
+			" pending=" + pending +
+			" avg_delivery_ms=" + getAverageDeliveryTimeMs();
+	}
+}
@@ -0,0 +1,934 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.device;
+
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.timer.TimingWheel;
+
+
+/**
+ * Authorisation server-side store of pending device authorisations.
+ *
+ * <p>Features:
+ *
+ * <ul>
+ *     <li>Two indexes, by device code and by normalised user code (with
+ *         the illegal characters stripped and converted to upper case),
+ *         both with O(1) lookup.
+ *     <li>The generated user codes are unique among the live ones,
+ *         collisions are detected atomically and a new code is generated.
+ *     <li>Poll rate enforcement: token requests for a device code made
+ *         before the polling interval has elapsed are rejected with
+ *         {@link DeviceAuthorizationGrantError#SLOW_DOWN slow_down} and
+ *         the interval is increased by 5 seconds.
+ *     <li>The expired authorisations are removed by a timing wheel, and
+ *         are never returned by the lookup methods. The user code is
+ *         released on expiration, the device code is retained for one
+ *         more polling interval, so that a client polling at the
+ *         permitted rate receives
+ *         {@link DeviceAuthorizationGrantError#EXPIRED_TOKEN expired_token}
+ *         rather than {@link OAuth2Error#INVALID_GRANT invalid_grant}.
+ *     <li>Thread-safe without a global lock, the indexes are concurrent
+ *         maps and each authorisation has its own atomic state.
+ * </ul>
+ *
+ * <p>Typical use:
+ *
+ * <ol>
+ *     <li>At the device authorisation endpoint: {@link #create} an
+ *         entry and return its
+ *         {@link Entry#toSuccessResponse(URI, URI) response}.
+ *     <li>At the verification page: look up the entry with
+ *         {@link #getByUserCode(String)} and {@link #approve approve} or
+ *         {@link #deny deny} it.
+ *     <li>At the token endpoint: {@link #poll poll} with the device code
+ *         from the grant. The approved entry is returned, and removed, so
+ *         that tokens can be issued, else the appropriate error is
+ *         thrown.
+ * </ol>
+ *
+ * <p>The store should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OAuth 2.0 Device Authorization Grant (RFC 8628), sections 3.2,
+ *         3.3, 3.5 and 6.1.
+ * </ul>
+ *
+ * @param <T> The type of the authorisation recorded on approval, for
+ *            example the end-user subject and consented scope.
+ */
+@ThreadSafe
+public class DeviceAuthorizationStore<T> {
+	
+	
+	/**
+	 * The default lifetime of the device and user codes, in seconds.
+	 */
+	public static final long DEFAULT_LIFETIME_SECONDS = 600L;
+	
+	
+	/**
+	 * The default polling interval, in seconds.
+	 */
+	public static final long DEFAULT_INTERVAL_SECONDS = 5L;
+	
+	
+	/**
+	 * The interval increase on a {@code slow_down} error, in seconds.
+	 */
+	public static final long SLOW_DOWN_INCREMENT_SECONDS = 5L;
+	
+	
+	/**
+	 * The default user code length, excluding separators.
+	 */
+	public static final int DEFAULT_USER_CODE_LENGTH = 8;
+	
+	
+	/**
+	 * The maximum number of attempts to generate a unique user code.
+	 */
+	static final int MAX_USER_CODE_ATTEMPTS = 10;
+	
+	
+	/**
+	 * The timing wheel tick duration, in milliseconds.
+	 */
+	private static final long TICK_MS = 1000L;
+	
+	
+	/**
+	 * The timing wheel size.
+	 */
+	private static final int WHEEL_SIZE = 1024;
+	
+	
+	/**
+	 * Status of a device authorisation.
+	 */
+	public enum Status {
+		
+		
+		/**
+		 * Awaiting the end-user decision.
+		 */
+		PENDING,
+		
+		
+		/**
+		 * Approved by the end-user.
+		 */
+		APPROVED,
+		
+		
+		/**
+		 * Denied by the end-user.
+		 */
+		DENIED
+	}
+	
+	
+	/**
+	 * End-user decision.
+	 *
+	 * @param <T> The authorisation type.
+	 */
+	private static final class Decision<T> {
+		
+		
+		/**
+		 * The status.
+		 */
+		private final Status status;
+		
+		
+		/**
+		 * The authorisation, {@code null} if not approved.
+		 */
+		private final T authorization;
+		
+		
+		/**
+		 * Creates a new decision.
+		 *
+		 * @param status        The status.
+		 * @param authorization The authorisation, {@code null} if not
+		 *                      approved.
+		 */
+		private Decision(final Status status, final T authorization) {
+			this.status = status;
+			this.authorization = authorization;
+		}
+	}
+	
+	
+	/**
+	 * Device authorisation entry.
+	 *
+	 * @param <T> The authorisation type.
+	 */
+	public static final class Entry<T> {
+		
+		
+		/**
+		 * The device code.
+		 */
+		private final DeviceCode deviceCode;
+		
+		
+		/**
+		 * The user code.
+		 */
+		private final UserCode userCode;
+		
+		
+		/**
+		 * The client ID.
+		 */
+		private final ClientID clientID;
+		
+		
+		/**
+		 * The requested scope, {@code null} if not specified.
+		 */
+		private final Scope scope;
+		
+		
+		/**
+		 * The expiration time, in milliseconds since the epoch.
+		 */
+		private final long expiresAt;
+		
+		
+		/**
+		 * The polling interval, in milliseconds.
+		 */
+		private final AtomicLong intervalMs;
+		
+		
+		/**
+		 * The time of the last poll, in milliseconds since the epoch,
+		 * zero if none.
+		 */
+		private final AtomicLong lastPollAt = new AtomicLong();
+		
+		
+		/**
+		 * The end-user decision.
+		 */
+		private final AtomicReference<Decision<T>> decision = new AtomicReference<>(new Decision<T>(Status.PENDING, null));
+		
+		
+		/**
+		 * The expiration timeout, after the purge of the expired entry
+		 * the device code retention timeout.
+		 */
+		private volatile TimingWheel.Timeout<Entry<T>> timeout;
+		
+		
+		/**
+		 * {@code true} if the expired entry was purged and only its
+		 * device code is retained. Accessed by the purging thread only.
+		 */
+		private boolean purged;
+		
+		
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param deviceCode The device code.
+		 * @param userCode   The user code.
+		 * @param clientID   The client ID.
+		 * @param scope      The scope, {@code null} if not specified.
+		 * @param expiresAt  The expiration time.
+		 * @param intervalMs The polling interval.
+		 */
+		private Entry(final DeviceCode deviceCode,
+			      final UserCode userCode,
+			      final ClientID clientID,
+			      final Scope scope,
+			      final long expiresAt,
+			      final long intervalMs) {
+			this.deviceCode = deviceCode;
+			this.userCode = userCode;
+			this.clientID = clientID;
+			this.scope = scope;
+			this.expiresAt = expiresAt;
+			this.intervalMs = new AtomicLong(intervalMs);
+		}
+		
+		
+		/**
+		 * Returns the device code.
+		 *
+		 * @return The device code.
+		 */
+		public DeviceCode getDeviceCode() {
+			return deviceCode;
+		}
+		
+		
+		/**
+		 * Returns the user code.
+		 *
+		 * @return The user code.
+		 */
+		public UserCode getUserCode() {
+			return userCode;
+		}
+		
+		
+		/**
+		 * Returns the client ID.
+		 *
+		 * @return The client ID.
+		 */
+		public ClientID getClientID() {
+			return clientID;
+		}
+		
+		
+		/**
+		 * Returns the requested scope.
+		 *
+		 * @return The scope, {@code null} if not specified.
+		 */
+		public Scope getScope() {
+			return scope;
+		}
+		
+		
+		/**
+		 * Returns the expiration time.
+		 *
+		 * @return The expiration time, in milliseconds since the epoch.
+		 */
+		public long getExpirationTime() {
+			return expiresAt;
+		}
+		
+		
+		/**
+		 * Returns {@code true} if this entry has expired.
+		 *
+		 * @param now The current time, in milliseconds since the epoch.
+		 *
+		 * @return {@code true} if expired, else {@code false}.
+		 */
+		public boolean isExpired(final long now) {
+			return now >= expiresAt;
+		}
+		
+		
+		/**
+		 * Returns the current polling interval.
+		 *
+		 * @return The polling interval, in seconds.
+		 */
+		public long getInterval() {
+			return intervalMs.get() / 1000L;
+		}
+		
+		
+		/**
+		 * Returns the status.
+		 *
+		 * @return The status.
+		 */
+		public Status getStatus() {
+			return decision.get().status;
+		}
+		
+		
+		/**
+		 * Returns the authorisation recorded on approval.
+		 *
+		 * @return The authorisation, {@code null} if not approved.
+		 */
+		public T getAuthorization() {
+			return decision.get().authorization;
+		}
+		
+		
+		/**
+		 * Returns a device authorisation success response for this
+		 * entry, with the remaining lifetime and the current polling
+		 * interval.
+		 *
+		 * @param verificationURI         The end-user verification URI.
+		 *                                Must not be {@code null}.
+		 * @param verificationURIComplete The end-user verification URI
+		 *                                including the user code,
+		 *                                {@code null} if not specified.
+		 *
+		 * @return The device authorisation success response.
+		 */
+		public DeviceAuthorizationSuccessResponse toSuccessResponse(final URI verificationURI,
+									    final URI verificationURIComplete) {
+			
+			long lifetime = Math.max(1L, (expiresAt - System.currentTimeMillis()) / 1000L);
+			
+			return new DeviceAuthorizationSuccessResponse(
+				deviceCode,
+				userCode,
+				verificationURI,
+				verificationURIComplete,
+				lifetime,
+				getInterval(),
+				null);
+		}
+	}
+	
+	
+	/**
+	 * The lifetime of the device and user codes, in milliseconds.
+	 */
+	private final long lifetimeMs;
+	
+	
+	/**
+	 * The initial polling interval, in milliseconds.
+	 */
+	private final long intervalMs;
+	
+	
+	/**
+	 * The user code character set.
+	 */
+	private final String userCodeCharset;
+	
+	
+	/**
+	 * The user code length, excluding separators.
+	 */
+	private final int userCodeLength;
+	
+	
+	/**
+	 * The entries keyed by device code.
+	 */
+	private final ConcurrentHashMap<DeviceCode,Entry<T>> byDeviceCode = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The entries keyed by normalised user code.
+	 */
+	private final ConcurrentHashMap<String,Entry<T>> byUserCode = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The expiration timing wheel.
+	 */
+	private final TimingWheel<Entry<T>> wheel = new TimingWheel<>(TICK_MS, WHEEL_SIZE);
+	
+	
+	/**
+	 * The timing wheel driver.
+	 */
+	private final ScheduledExecutorService ticker;
+	
+	
+	/**
+	 * Creates a new device authorisation store with the default code
+	 * lifetime, polling interval and user code format.
+	 */
+	public DeviceAuthorizationStore() {
+		
+		this(DEFAULT_LIFETIME_SECONDS, DEFAULT_INTERVAL_SECONDS, UserCode.LETTER_CHAR_SET, DEFAULT_USER_CODE_LENGTH);
+	}
+	
+	
+	/**
+	 * Creates a new device authorisation store.
+	 *
+	 * @param lifetimeSeconds The lifetime of the device and user codes, in
+	 *                        seconds. Must be positive.
+	 * @param intervalSeconds The initial polling interval, in seconds.
+	 *                        Must not be negative.
+	 * @param userCodeCharset The user code character set, e.g.
+	 *                        {@link UserCode#LETTER_CHAR_SET}. Must not
+	 *                        be empty or {@code null}.
+	 * @param userCodeLength  The user code length, excluding separators.
+	 *                        Must be positive.
+	 */
+	public DeviceAuthorizationStore(final long lifetimeSeconds,
+					final long intervalSeconds,
+					final String userCodeCharset,
+					final int userCodeLength) {
+		
+		if (lifetimeSeconds < 1) {
+			throw new IllegalArgumentException("The lifetime must be positive");
+		}
+		lifetimeMs = lifetimeSeconds * 1000L;
+		
+		if (intervalSeconds < 0) {
+			throw new IllegalArgumentException("The interval must not be negative");
+		}
+		intervalMs = intervalSeconds * 1000L;
+		
+		if (userCodeCharset == null || userCodeCharset.isEmpty()) {
+			throw new IllegalArgumentException("The user code charset must not be null or empty");
+		}
+		this.userCodeCharset = userCodeCharset;
+		
+		if (userCodeLength < 1) {
+			throw new IllegalArgumentException("The user code length must be positive");
+		}
+		this.userCodeLength = userCodeLength;
+		
+		ticker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("device-authz-expiry"));
+		
+		ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				purgeExpired(System.currentTimeMillis());
+			}
+		}, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Returns the lifetime of the device and user codes.
+	 *
+	 * @return The lifetime, in seconds.
+	 */
+	public long getLifetimeSeconds() {
+		return lifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the initial polling interval.
+	 *
+	 * @return The polling interval, in seconds.
+	 */
+	public long getIntervalSeconds() {
+		return intervalMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the number of stored device authorisations, including
+	 * expired ones which haven't been removed yet.
+	 *
+	 * @return The number of device authorisations.
+	 */
+	public int size() {
+		return byDeviceCode.size();
+	}
+	
+	
+	/**
+	 * Creates a new device authorisation entry for the specified request.
+	 *
+	 * @param request The device authorisation request. Must not be
+	 *                {@code null}.
+	 *
+	 * @return The entry.
+	 */
+	public Entry<T> create(final DeviceAuthorizationRequest request) {
+		
+		if (request == null) {
+			throw new IllegalArgumentException("The device authorization request must not be null");
+		}
+		
+		ClientID clientID = request.getClientAuthentication() != null ?
+			request.getClientAuthentication().getClientID() :
+			request.getClientID();
+		
+		return create(clientID, request.getScope());
+	}
+	
+	
+	/**
+	 * Creates a new device authorisation entry.
+	 *
+	 * @param clientID The client ID. Must not be {@code null}.
+	 * @param scope    The requested scope, {@code null} if not specified.
+	 *
+	 * @return The entry.
+	 */
+	public Entry<T> create(final ClientID clientID, final Scope scope) {
+		
+		if (clientID == null) {
+			throw new IllegalArgumentException("The client ID must not be null");
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		DeviceCode deviceCode = new DeviceCode();
+		
+		Entry<T> entry = null;
+		
+		for (int attempt=0; attempt < MAX_USER_CODE_ATTEMPTS; attempt++) {
+			
+			Entry<T> candidate = new Entry<>(
+				deviceCode,
+				generateUserCode(),
+				clientID,
+				scope,
+				now + lifetimeMs,
+				intervalMs);
+			
+			if (putUserCode(candidate, now)) {
+				entry = candidate;
+				break;
+			}
+		}
+		
+		if (entry == null) {
+			throw new IllegalStateException("Couldn't generate a unique user code after " + MAX_USER_CODE_ATTEMPTS + " attempts");
+		}
+		
+		byDeviceCode.put(deviceCode, entry);
+		
+		entry.timeout = wheel.schedule(entry, entry.expiresAt);
+		
+		return entry;
+	}
+	
+	
+	/**
+	 * Generates a new user code. Extending classes may override this
+	 * method to change the user code format.
+	 *
+	 * @return The user code.
+	 */
+	protected UserCode generateUserCode() {
+		
+		return new UserCode(userCodeCharset, userCodeLength);
+	}
+	
+	
+	/**
+	 * Puts the specified entry into the user code index, unless its user
+	 * code collides with a live one. An expired entry with the same user
+	 * code is replaced.
+	 *
+	 * @param entry The entry.
+	 * @param now   The current time, in milliseconds since the epoch.
+	 *
+	 * @return {@code true} if put, {@code false} on a collision.
+	 */
+	private boolean putUserCode(final Entry<T> entry, final long now) {
+		
+		String key = normalize(entry.userCode.getValue());
+		
+		Entry<T> existing = byUserCode.putIfAbsent(key, entry);
+		
+		if (existing == null) {
+			return true;
+		}
+		
+		if (existing.isExpired(now) && byUserCode.replace(key, existing, entry)) {
+			remove(existing);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Normalises the specified user code input, by stripping the
+	 * characters not in the user code character set after conversion to
+	 * upper case.
+	 *
+	 * @param userCode The user code input.
+	 *
+	 * @return The normalised user code.
+	 */
+	private String normalize(final String userCode) {
+		
+		return UserCode.stripIllegalChars(userCode, userCodeCharset);
+	}
+	
+	
+	/**
+	 * Returns the unexpired entry for the specified device code.
+	 *
+	 * @param deviceCode The device code. Must not be {@code null}.
+	 *
+	 * @return The entry, {@code null} if not found or expired.
+	 */
+	public Entry<T> getByDeviceCode(final DeviceCode deviceCode) {
+		
+		Entry<T> entry = byDeviceCode.get(deviceCode);
+		
+		if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+			return null;
+		}
+		
+		return entry;
+	}
+	
+	
+	/**
+	 * Returns the unexpired entry for the specified user code, as entered
+	 * by the end-user. The input is normalised first, so that separators,
+	 * spaces and case don't matter.
+	 *
+	 * @param userCode The user code input. Must not be {@code null}.
+	 *
+	 * @return The entry, {@code null} if not found or expired.
+	 */
+	public Entry<T> getByUserCode(final String userCode) {
+		
+		Entry<T> entry = byUserCode.get(normalize(userCode));
+		
+		if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+			return null;
+		}
+		
+		return entry;
+	}
+	
+	
+	/**
+	 * Records the end-user approval for the specified user code.
+	 *
+	 * @param userCode      The user code input. Must not be
+	 *                      {@code null}.
+	 * @param authorization The authorisation to record. Must not be
+	 *                      {@code null}.
+	 *
+	 * @return {@code true} if approved, {@code false} if not found,
+	 *         expired or already decided.
+	 */
+	public boolean approve(final String userCode, final T authorization) {
+		
+		if (authorization == null) {
+			throw new IllegalArgumentException("The authorization must not be null");
+		}
+		
+		return decide(userCode, new Decision<>(Status.APPROVED, authorization));
+	}
+	
+	
+	/**
+	 * Records the end-user denial for the specified user code.
+	 *
+	 * @param userCode The user code input. Must not be {@code null}.
+	 *
+	 * @return {@code true} if denied, {@code false} if not found, expired
+	 *         or already decided.
+	 */
+	public boolean deny(final String userCode) {
+		
+		return decide(userCode, new Decision<T>(Status.DENIED, null));
+	}
+	
+	
+	/**
+	 * Records the end-user decision for the specified user code.
+	 *
+	 * @param userCode The user code input.
+	 * @param decision The decision.
+	 *
+	 * @return {@code true} if recorded, else {@code false}.
+	 */
+	private boolean decide(final String userCode, final Decision<T> decision) {
+		
+		Entry<T> entry = getByUserCode(userCode);
+		
+		if (entry == null) {
+			return false;
+		}
+		
+		Decision<T> current = entry.decision.get();
+		
+		return current.status == Status.PENDING && entry.decision.compareAndSet(current, decision);
+	}
+	
+	
+	/**
+	 * Processes a token request poll for the specified device code.
+	 *
+	 * <p>Returns the entry if the device authorisation was approved. The
+	 * entry is then removed, so that the device code can be exchanged
+	 * for tokens once only.
+	 *
+	 * @param deviceCode The device code. Must not be {@code null}.
+	 * @param clientID   The ID of the client making the token request.
+	 *                   Must not be {@code null}.
+	 *
+	 * @return The approved entry.
+	 *
+	 * @throws GeneralException With an
+	 *                          {@link OAuth2Error#INVALID_GRANT
+	 *                          invalid_grant} error if the device code is
+	 *                          not found or was issued to another client,
+	 *                          {@link DeviceAuthorizationGrantError#EXPIRED_TOKEN
+	 *                          expired_token} if expired,
+	 *                          {@link DeviceAuthorizationGrantError#SLOW_DOWN
+	 *                          slow_down} if polled too frequently,
+	 *                          {@link DeviceAuthorizationGrantError#AUTHORIZATION_PENDING
+	 *                          authorization_pending} if awaiting the
+	 *                          end-user decision, or
+	 *                          {@link OAuth2Error#ACCESS_DENIED
+	 *                          access_denied} if denied.
+	 */
+	public Entry<T> poll(final DeviceCode deviceCode, final ClientID clientID)
+		throws GeneralException {
+		
+		Entry<T> entry = byDeviceCode.get(deviceCode);
+		
+		if (entry == null || ! entry.clientID.equals(clientID)) {
+			throw new GeneralException(OAuth2Error.INVALID_GRANT);
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		if (entry.isExpired(now)) {
+			remove(entry);
+			throw new GeneralException(DeviceAuthorizationGrantError.EXPIRED_TOKEN);
+		}
+		
+		long last = entry.lastPollAt.get();
+		
+		if ((last > 0L && now - last < entry.intervalMs.get()) || ! entry.lastPollAt.compareAndSet(last, now)) {
+			// Too frequent or concurrent poll
+			entry.intervalMs.addAndGet(SLOW_DOWN_INCREMENT_SECONDS * 1000L);
+			entry.lastPollAt.set(now);
+			throw new GeneralException(DeviceAuthorizationGrantError.SLOW_DOWN);
+		}
+		
+		switch (entry.getStatus()) {
+			case APPROVED:
+				if (! remove(entry)) {
+					// Concurrently exchanged
+					throw new GeneralException(OAuth2Error.INVALID_GRANT);
+				}
+				return entry;
+			case DENIED:
+				remove(entry);
+				throw new GeneralException(OAuth2Error.ACCESS_DENIED);
+			default:
+				throw new GeneralException(DeviceAuthorizationGrantError.AUTHORIZATION_PENDING);
+		}
+	}
+	
+	
+	/**
+	 * Removes the entry for the specified device code.
+	 *
+	 * @param deviceCode The device code. Must not be {@code null}.
+	 *
+	 * @return The removed entry, {@code null} if not found.
+	 */
+	public Entry<T> remove(final DeviceCode deviceCode) {
+		
+		Entry<T> entry = byDeviceCode.get(deviceCode);
+		
+		if (entry != null && remove(entry)) {
+			return entry;
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Removes the specified entry from both indexes and cancels its
+	 * expiration timeout.
+	 *
+	 * @param entry The entry.
+	 *
+	 * @return {@code true} if removed, {@code false} if already removed.
+	 */
+	private boolean remove(final Entry<T> entry) {
+		
+		if (! byDeviceCode.remove(entry.deviceCode, entry)) {
+			return false;
+		}
+		
+		byUserCode.remove(normalize(entry.userCode.getValue()), entry);
+		
+		TimingWheel.Timeout<Entry<T>> timeout = entry.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Purges the expired entries, as determined by the timing wheel.
+	 * The user code of an expired entry is released immediately, its
+	 * device code is retained for one more polling interval so that
+	 * polls continue to receive
+	 * {@link DeviceAuthorizationGrantError#EXPIRED_TOKEN expired_token}.
+	 * Called periodically by the internal ticker.
+	 *
+	 * @param now The current time, in milliseconds since the epoch.
+	 *
+	 * @return The number of removed entries, with their device code
+	 *         retention ended.
+	 */
+	int purgeExpired(final long now) {
+		
+		List<Entry<T>> expired = wheel.advance(now);
+		
+		int count = 0;
+		for (Entry<T> entry: expired) {
+			
+			if (entry.purged) {
+				if (remove(entry)) {
+					count++;
+				}
+				continue;
+			}
+			
+			if (byDeviceCode.get(entry.deviceCode) != entry) {
+				// Already removed
+				continue;
+			}
+			
+			byUserCode.remove(normalize(entry.userCode.getValue()), entry);
+			entry.purged = true;
+			entry.timeout = wheel.schedule(entry, now + entry.intervalMs.get() + TICK_MS);
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * Shuts down the expiration ticker.
+	 */
+	public void shutdown() {
+		
+		ticker.shutdownNow();
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.device;
+
+
+import com.nimbusds.oauth2.sdk.ErrorObject;
+import com.nimbusds.oauth2.sdk.token.Tokens;
+
+
+/**
+ * Callback for the outcome of a device code polled by a
+ * {@link DeviceCodePollingScheduler}. Exactly one of the methods is called
+ * for each scheduled device code that isn't cancelled. The methods are
+ * invoked from the worker threads and must be thread-safe.
+ */
+public interface DeviceCodePollingCallback {
+	
+	
+	/**
+	 * Called when the end-user authorised the device and tokens were
+	 * issued.
+	 *
+	 * @param deviceCode The device code.
+	 * @param tokens     The tokens.
+	 */
+	void onSuccess(final DeviceCode deviceCode, final Tokens tokens);
+	
+	
+	/**
+	 * Called when the device authorisation concluded with an error, such
+	 * as {@link DeviceAuthorizationGrantError#EXPIRED_TOKEN expired_token}
+	 * or {@link com.nimbusds.oauth2.sdk.OAuth2Error#ACCESS_DENIED
+	 * access_denied}.
+	 *
+	 * @param deviceCode The device code.
+	 * @param error      The error.
+	 */
+	void onError(final DeviceCode deviceCode, final ErrorObject error);
+	
+	
+	/**
+	 * Called when the token response couldn't be parsed.
+	 *
+	 * @param deviceCode The device code.
+	 * @param e          The exception.
+	 */
+	void onFailure(final DeviceCode deviceCode, final Exception e);
+}
@@ -0,0 +1,688 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.device;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.*;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.*;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.timer.TimingWheel;
+
+
+/**
+ * Polling scheduler for the device codes of an OAuth 2.0 client. Instead
+ * of a sleeping thread per pending device authorisation, all pending
+ * device codes are kept in a {@link TimingWheel} and their token requests
+ * are made on a small pool of worker threads.
+ *
+ * <p>Polling behaviour:
+ *
+ * <ul>
+ *     <li>The token endpoint is polled at the interval from the device
+ *         authorisation response, or every 5 seconds if none.
+ *     <li>On a {@link DeviceAuthorizationGrantError#SLOW_DOWN slow_down}
+ *         error the interval is increased by 5 seconds for this and all
+ *         subsequent requests.
+ *     <li>On a HTTP request failure, such as a connection timeout, the
+ *         next request is delayed with exponential backoff.
+ *     <li>The device code is dropped and the callback notified on success,
+ *         on {@link DeviceAuthorizationGrantError#EXPIRED_TOKEN
+ *         expired_token}, {@link OAuth2Error#ACCESS_DENIED access_denied}
+ *         or any other error, and when the device code lifetime is
+ *         reached.
+ * </ul>
+ *
+ * <p>The scheduler should be {@link #shutdown() shut down} when no longer
+ * in use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * DeviceCodePollingScheduler scheduler = new DeviceCodePollingScheduler(
+ *         URI.create("https://c2id.com/token"));
+ *
+ * DeviceAuthorizationSuccessResponse response = ...;
+ *
+ * scheduler.schedule(response, clientID, callback);
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OAuth 2.0 Device Authorization Grant (RFC 8628), sections 3.4
+ *         and 3.5.
+ * </ul>
+ */
+@ThreadSafe
+public class DeviceCodePollingScheduler {
+	
+	
+	/**
+	 * The default polling interval, in seconds.
+	 */
+	public static final long DEFAULT_INTERVAL_SECONDS = 5L;
+	
+	
+	/**
+	 * The interval increase on a {@code slow_down} error, in seconds.
+	 */
+	public static final long SLOW_DOWN_INCREMENT_SECONDS = 5L;
+	
+	
+	/**
+	 * The default maximum number of concurrent token requests.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+	
+	
+	/**
+	 * The default timing wheel tick duration, in milliseconds.
+	 */
+	public static final long DEFAULT_TICK_MS = 100L;
+	
+	
+	/**
+	 * The default HTTP connect and read timeout, in milliseconds.
+	 */
+	public static final int DEFAULT_HTTP_TIMEOUT = 5000;
+	
+	
+	/**
+	 * The timing wheel size.
+	 */
+	private static final int WHEEL_SIZE = 512;
+	
+	
+	/**
+	 * The maximum backoff shift on HTTP request failures.
+	 */
+	private static final int MAX_BACKOFF_SHIFT = 4;
+	
+	
+	/**
+	 * Polling state of a device code.
+	 */
+	private static final class PollingState {
+		
+		
+		/**
+		 * The device code.
+		 */
+		private final DeviceCode deviceCode;
+		
+		
+		/**
+		 * The client authentication, {@code null} for a public client.
+		 */
+		private final ClientAuthentication clientAuth;
+		
+		
+		/**
+		 * The client ID.
+		 */
+		private final ClientID clientID;
+		
+		
+		/**
+		 * The callback.
+		 */
+		private final DeviceCodePollingCallback callback;
+		
+		
+		/**
+		 * The expiration time, in milliseconds since the epoch.
+		 */
+		private final long expiresAt;
+		
+		
+		/**
+		 * The current polling interval, in milliseconds. Accessed by
+		 * one worker at a time.
+		 */
+		private long intervalMs;
+		
+		
+		/**
+		 * The number of consecutive HTTP request failures.
+		 */
+		private int failures;
+		
+		
+		/**
+		 * The scheduled timeout.
+		 */
+		private volatile TimingWheel.Timeout<PollingState> timeout;
+		
+		
+		/**
+		 * Creates a new polling state.
+		 *
+		 * @param deviceCode The device code.
+		 * @param clientAuth The client authentication, {@code null} if
+		 *                   none.
+		 * @param clientID   The client ID.
+		 * @param callback   The callback.
+		 * @param expiresAt  The expiration time.
+		 * @param intervalMs The polling interval.
+		 */
+		private PollingState(final DeviceCode deviceCode,
+				     final ClientAuthentication clientAuth,
+				     final ClientID clientID,
+				     final DeviceCodePollingCallback callback,
+				     final long expiresAt,
+				     final long intervalMs) {
+			this.deviceCode = deviceCode;
+			this.clientAuth = clientAuth;
+			this.clientID = clientID;
+			this.callback = callback;
+			this.expiresAt = expiresAt;
+			this.intervalMs = intervalMs;
+		}
+	}
+	
+	
+	/**
+	 * The token endpoint.
+	 */
+	private final URI tokenEndpoint;
+	
+	
+	/**
+	 * The HTTP connect timeout, in milliseconds.
+	 */
+	private final int connectTimeout;
+	
+	
+	/**
+	 * The HTTP read timeout, in milliseconds.
+	 */
+	private final int readTimeout;
+	
+	
+	/**
+	 * The pending device codes.
+	 */
+	private final ConcurrentHashMap<DeviceCode,PollingState> pending = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The timing wheel.
+	 */
+	private final TimingWheel<PollingState> wheel;
+	
+	
+	/**
+	 * The timing wheel driver, {@code null} if the wheel is advanced by
+	 * explicit {@link #tick()} calls.
+	 */
+	private final ScheduledExecutorService ticker;
+	
+	
+	/**
+	 * The workers for the token requests.
+	 */
+	private final ExecutorService workers;
+	
+	
+	/**
+	 * Creates a new device code polling scheduler with the default
+	 * concurrency, tick duration and HTTP timeouts.
+	 *
+	 * @param tokenEndpoint The token endpoint. Must not be {@code null}.
+	 */
+	public DeviceCodePollingScheduler(final URI tokenEndpoint) {
+		
+		this(tokenEndpoint, DEFAULT_MAX_CONCURRENCY, DEFAULT_TICK_MS, DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT);
+	}
+	
+	
+	/**
+	 * Creates a new device code polling scheduler.
+	 *
+	 * @param tokenEndpoint  The token endpoint. Must not be {@code null}.
+	 * @param maxConcurrency The maximum number of concurrent token
+	 *                       requests. Must be positive.
+	 * @param tickMs         The timing wheel tick duration, in
+	 *                       milliseconds, which determines the polling
+	 *                       time precision. Must be positive.
+	 * @param connectTimeout The HTTP connect timeout, in milliseconds,
+	 *                       zero implies no timeout. Must not be
+	 *                       negative.
+	 * @param readTimeout    The HTTP read timeout, in milliseconds, zero
+	 *                       implies no timeout. Must not be negative.
+	 */
+	public DeviceCodePollingScheduler(final URI tokenEndpoint,
+					  final int maxConcurrency,
+					  final long tickMs,
+					  final int connectTimeout,
+					  final int readTimeout) {
+		
+		this(tokenEndpoint, tickMs, connectTimeout, readTimeout, createWorkers(maxConcurrency), true);
+	}
+	
+	
+	/**
+	 * Creates a new device code polling scheduler.
+	 *
+	 * @param tokenEndpoint  The token endpoint. Must not be {@code null}.
+	 * @param tickMs         The timing wheel tick duration, in
+	 *                       milliseconds. Must be positive.
+	 * @param connectTimeout The HTTP connect timeout, in milliseconds,
+	 *                       zero implies no timeout. Must not be
+	 *                       negative.
+	 * @param readTimeout    The HTTP read timeout, in milliseconds, zero
+	 *                       implies no timeout. Must not be negative.
+	 * @param workers        The executor for the token requests. Must
+	 *                       not be {@code null}.
+	 * @param startTicker    {@code true} to advance the timing wheel
+	 *                       every tick with an internal ticker,
+	 *                       {@code false} to leave it to explicit
+	 *                       {@link #tick()} calls.
+	 */
+	DeviceCodePollingScheduler(final URI tokenEndpoint,
+				   final long tickMs,
+				   final int connectTimeout,
+				   final int readTimeout,
+				   final ExecutorService workers,
+				   final boolean startTicker) {
+		
+		if (tokenEndpoint == null) {
+			throw new IllegalArgumentException("The token endpoint must not be null");
+		}
+		this.tokenEndpoint = tokenEndpoint;
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP connect timeout must not be negative");
+		}
+		this.connectTimeout = connectTimeout;
+		
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP read timeout must not be negative");
+		}
+		this.readTimeout = readTimeout;
+		
+		wheel = new TimingWheel<>(tickMs, WHEEL_SIZE);
+		
+		this.workers = workers;
+		
+		if (! startTicker) {
+			ticker = null;
+			return;
+		}
+		
+		ticker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("device-code-poll-ticker"));
+		ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, tickMs, tickMs, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Creates the worker thread pool for the token requests.
+	 *
+	 * @param maxConcurrency The maximum number of concurrent token
+	 *                       requests. Must be positive.
+	 *
+	 * @return The worker thread pool.
+	 */
+	private static ExecutorService createWorkers(final int maxConcurrency) {
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		return Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("device-code-poll"));
+	}
+	
+	
+	/**
+	 * Returns the token endpoint.
+	 *
+	 * @return The token endpoint.
+	 */
+	public URI getTokenEndpoint() {
+		return tokenEndpoint;
+	}
+	
+	
+	/**
+	 * Returns the number of pending device codes.
+	 *
+	 * @return The number of pending device codes.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+	
+	
+	/**
+	 * Schedules polling for the device code of the specified device
+	 * authorisation response, for a public client.
+	 *
+	 * @param response The device authorisation success response. Must
+	 *                 not be {@code null}.
+	 * @param clientID The client ID. Must not be {@code null}.
+	 * @param callback The callback. Must not be {@code null}.
+	 */
+	public void schedule(final DeviceAuthorizationSuccessResponse response,
+			     final ClientID clientID,
+			     final DeviceCodePollingCallback callback) {
+		
+		if (clientID == null) {
+			throw new IllegalArgumentException("The client ID must not be null");
+		}
+		schedule(response, null, clientID, callback);
+	}
+	
+	
+	/**
+	 * Schedules polling for the device code of the specified device
+	 * authorisation response, for a confidential client.
+	 *
+	 * @param response   The device authorisation success response. Must
+	 *                   not be {@code null}.
+	 * @param clientAuth The client authentication. Must not be
+	 *                   {@code null}.
+	 * @param callback   The callback. Must not be {@code null}.
+	 */
+	public void schedule(final DeviceAuthorizationSuccessResponse response,
+			     final ClientAuthentication clientAuth,
+			     final DeviceCodePollingCallback callback) {
+		
+		if (clientAuth == null) {
+			throw new IllegalArgumentException("The client authentication must not be null");
+		}
+		schedule(response, clientAuth, clientAuth.getClientID(), callback);
+	}
+	
+	
+	/**
+	 * Schedules polling for the device code of the specified device
+	 * authorisation response.
+	 *
+	 * @param response   The device authorisation success response.
+	 * @param clientAuth The client authentication, {@code null} if none.
+	 * @param clientID   The client ID.
+	 * @param callback   The callback.
+	 */
+	private void schedule(final DeviceAuthorizationSuccessResponse response,
+			      final ClientAuthentication clientAuth,
+			      final ClientID clientID,
+			      final DeviceCodePollingCallback callback) {
+		
+		if (response == null) {
+			throw new IllegalArgumentException("The device authorization response must not be null");
+		}
+		
+		if (callback == null) {
+			throw new IllegalArgumentException("The callback must not be null");
+		}
+		
+		long now = currentTimeMillis();
+		long intervalSeconds = response.getInterval() > 0 ? response.getInterval() : DEFAULT_INTERVAL_SECONDS;
+		
+		PollingState state = new PollingState(
+			response.getDeviceCode(),
+			clientAuth,
+			clientID,
+			callback,
+			now + response.getLifetime() * 1000L,
+			intervalSeconds * 1000L);
+		
+		if (pending.putIfAbsent(state.deviceCode, state) != null) {
+			throw new IllegalStateException("The device code is already scheduled");
+		}
+		
+		state.timeout = wheel.schedule(state, now + state.intervalMs);
+	}
+	
+	
+	/**
+	 * Cancels polling for the specified device code. The callback is not
+	 * notified.
+	 *
+	 * @param deviceCode The device code. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the device code was pending, else
+	 *         {@code false}.
+	 */
+	public boolean cancel(final DeviceCode deviceCode) {
+		
+		PollingState state = pending.remove(deviceCode);
+		
+		if (state == null) {
+			return false;
+		}
+		
+		TimingWheel.Timeout<PollingState> timeout = state.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Returns the current time. Used for all polling and expiration
+	 * decisions, may be overridden to supply a different clock.
+	 *
+	 * @return The current time, in milliseconds since the epoch.
+	 */
+	protected long currentTimeMillis() {
+		
+		return System.currentTimeMillis();
+	}
+	
+	
+	/**
+	 * Advances the timing wheel and dispatches the due device codes to
+	 * the workers. Called every tick by the internal ticker, if started.
+	 */
+	void tick() {
+		
+		List<PollingState> due;
+		try {
+			due = wheel.advance(currentTimeMillis());
+		} catch (RuntimeException e) {
+			// Keep the ticker running
+			return;
+		}
+		
+		for (final PollingState state: due) {
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						poll(state);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Shut down
+				return;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Polls the token endpoint for the specified device code and
+	 * reschedules it or notifies the callback.
+	 *
+	 * @param state The polling state.
+	 */
+	private void poll(final PollingState state) {
+		
+		if (pending.get(state.deviceCode) != state) {
+			// Cancelled
+			return;
+		}
+		
+		if (currentTimeMillis() >= state.expiresAt) {
+			if (complete(state)) {
+				state.callback.onError(state.deviceCode, DeviceAuthorizationGrantError.EXPIRED_TOKEN);
+			}
+			return;
+		}
+		
+		TokenResponse tokenResponse;
+		try {
+			tokenResponse = requestTokens(createTokenRequest(state.deviceCode, state.clientAuth, state.clientID));
+		} catch (IOException e) {
+			// Exponential backoff, RFC 8628 section 3.5
+			state.failures = Math.min(state.failures + 1, MAX_BACKOFF_SHIFT);
+			reschedule(state, state.intervalMs << state.failures);
+			return;
+		} catch (ParseException | RuntimeException e) {
+			if (complete(state)) {
+				state.callback.onFailure(state.deviceCode, e);
+			}
+			return;
+		}
+		
+		state.failures = 0;
+		
+		if (tokenResponse.indicatesSuccess()) {
+			if (complete(state)) {
+				state.callback.onSuccess(state.deviceCode, tokenResponse.toSuccessResponse().getTokens());
+			}
+			return;
+		}
+		
+		ErrorObject error = tokenResponse.toErrorResponse().getErrorObject();
+		String code = error != null ? error.getCode() : null;
+		
+		if (DeviceAuthorizationGrantError.AUTHORIZATION_PENDING.getCode().equals(code)) {
+			reschedule(state, state.intervalMs);
+		} else if (DeviceAuthorizationGrantError.SLOW_DOWN.getCode().equals(code)) {
+			state.intervalMs += SLOW_DOWN_INCREMENT_SECONDS * 1000L;
+			reschedule(state, state.intervalMs);
+		} else if (complete(state)) {
+			// expired_token, access_denied or other error
+			state.callback.onError(state.deviceCode, error);
+		}
+	}
+	
+	
+	/**
+	 * Reschedules the specified device code, or concludes it with an
+	 * {@code expired_token} error if the delay reaches its expiration.
+	 *
+	 * @param state   The polling state.
+	 * @param delayMs The delay, in milliseconds.
+	 */
+	private void reschedule(final PollingState state, final long delayMs) {
+		
+		long next = currentTimeMillis() + delayMs;
+		
+		if (next >= state.expiresAt) {
+			if (complete(state)) {
+				state.callback.onError(state.deviceCode, DeviceAuthorizationGrantError.EXPIRED_TOKEN);
+			}
+			return;
+		}
+		
+		state.timeout = wheel.schedule(state, next);
+		
+		if (pending.get(state.deviceCode) != state) {
+			// Cancelled in the meantime
+			state.timeout.cancel();
+		}
+	}
+	
+	
+	/**
+	 * Removes the specified device code from the pending ones.
+	 *
+	 * @param state The polling state.
+	 *
+	 * @return {@code true} if removed, {@code false} if cancelled in the
+	 *         meantime.
+	 */
+	private boolean complete(final PollingState state) {
+		
+		return pending.remove(state.deviceCode, state);
+	}
+	
+	
+	/**
+	 * Creates a token request for the specified device code.
+	 *
+	 * @param deviceCode The device code.
+	 * @param clientAuth The client authentication, {@code null} for a
+	 *                   public client.
+	 * @param clientID   The client ID.
+	 *
+	 * @return The token request.
+	 */
+	protected TokenRequest createTokenRequest(final DeviceCode deviceCode,
+						  final ClientAuthentication clientAuth,
+						  final ClientID clientID) {
+		
+		if (clientAuth != null) {
+			return new TokenRequest(tokenEndpoint, clientAuth, new DeviceCodeGrant(deviceCode));
+		} else {
+			return new TokenRequest(tokenEndpoint, clientID, new DeviceCodeGrant(deviceCode));
+		}
+	}
+	
+	
+	/**
+	 * Sends the specified token request.
+	 *
+	 * @param request The token request. Must not be {@code null}.
+	 *
+	 * @return The token response.
+	 *
+	 * @throws IOException    If the HTTP request failed.
+	 * @throws ParseException If the token response couldn't be parsed.
+	 */
+	protected TokenResponse requestTokens(final TokenRequest request)
+		throws IOException, ParseException {
+		
+		HTTPRequest httpRequest = request.toHTTPRequest();
+		httpRequest.setConnectTimeout(connectTimeout);
+		httpRequest.setReadTimeout(readTimeout);
+		return TokenResponse.parse(httpRequest.send());
+	}
+	
+	
+	/**
+	 * Shuts down the scheduler. The pending device codes are dropped
+	 * without notifying their callbacks.
+	 */
+	public void shutdown() {
+		
+		if (ticker != null) {
+			ticker.shutdownNow();
+		}
+		workers.shutdownNow();
+		pending.clear();
+	}
+}
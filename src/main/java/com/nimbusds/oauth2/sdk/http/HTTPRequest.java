@@ -22,6 +22,7 @@ import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.net.ssl.HostnameVerifier;
@@ -120,6 +121,13 @@ public class HTTPRequest extends HTTPMessage {
 	 * The query string / post body.
 	 */
 	private String query = null;
+	
+	
+	/**
+	 * The decoded query parameters, cached for the query string they were
+	 * decoded from, {@code null} if not decoded yet.
+	 */
+	private DecodedQuery decodedQuery = null;
 
 
 	/**
@@ -471,8 +479,53 @@ public class HTTPRequest extends HTTPMessage {
 	 *         be empty.
 	 */
 	public Map<String,List<String>> getQueryParameters() {
+		
+		// The query string / body is decoded only once, the client
+		// authentication and grant parsers of a token request each
+		// retrieve the parameters
+		String q = query;
+		DecodedQuery cached = decodedQuery;
+		
+		if (cached == null || cached.query != q) {
+			cached = new DecodedQuery(q, URLUtils.parseParameters(q));
+			decodedQuery = cached;
+		}
+		
+		// The value lists are unmodifiable, a shallow copy suffices
+		return new HashMap<>(cached.params);
+	}
+	
 	
-		return URLUtils.parseParameters(query);
+	/**
+	 * Decoded query parameters.
+	 */
+	private static final class DecodedQuery {
+		
+		
+		/**
+		 * The query string / post body.
+		 */
+		private final String query;
+		
+		
+		/**
+		 * The decoded parameters.
+		 */
+		private final Map<String,List<String>> params;
+		
+		
+		/**
+		 * Creates new decoded query parameters.
+		 *
+		 * @param query  The query string / post body, {@code null} if
+		 *               not specified.
+		 * @param params The decoded parameters. Must not be
+		 *               {@code null}.
+		 */
+		private DecodedQuery(final String query, final Map<String,List<String>> params) {
+			this.query = query;
+			this.params = params;
+		}
 	}
 
 
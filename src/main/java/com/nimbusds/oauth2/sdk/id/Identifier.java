@@ -28,7 +28,6 @@ import java.util.List;
 import net.minidev.json.JSONAware;
 import net.minidev.json.JSONValue;
 
-import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.oauth2.sdk.util.StringUtils;
 
 
@@ -75,6 +74,44 @@ public class Identifier implements Serializable, Comparable<Identifier>, JSONAwa
 	 * The secure random generator.
 	 */
 	protected static final SecureRandom secureRandom = new SecureRandom();
+	
+	
+	/**
+	 * The generator of random identifier values, seeded from the
+	 * {@link #secureRandom shared secure random generator}.
+	 */
+	private static volatile IdentifierGenerator generator = new ThreadLocalIdentifierGenerator(secureRandom);
+	
+	
+	/**
+	 * Returns the generator of random identifier values.
+	 *
+	 * @return The identifier generator.
+	 */
+	public static IdentifierGenerator getGenerator() {
+		
+		return generator;
+	}
+	
+	
+	/**
+	 * Sets the generator of random identifier values, used by the
+	 * {@link #Identifier(int)} constructor and hence by all identifier
+	 * classes with generated values. The default is a
+	 * {@link ThreadLocalIdentifierGenerator} seeded from the shared secure
+	 * random generator.
+	 *
+	 * @param generator The identifier generator. Must not be
+	 *                  {@code null}.
+	 */
+	public static void setGenerator(final IdentifierGenerator generator) {
+		
+		if (generator == null) {
+			throw new IllegalArgumentException("The identifier generator must not be null");
+		}
+		
+		Identifier.generator = generator;
+	}
 
 
 	/**
@@ -100,7 +137,8 @@ public class Identifier implements Serializable, Comparable<Identifier>, JSONAwa
 
 	/**
 	 * Creates a new identifier with a randomly generated value of the 
-	 * specified byte length, Base64URL-encoded.
+	 * specified byte length, Base64URL-encoded. The value is obtained
+	 * from the configured {@link #getGenerator() identifier generator}.
 	 *
 	 * @param byteLength The byte length of the value to generate. Must be
 	 *                   greater than one.
@@ -110,11 +148,7 @@ public class Identifier implements Serializable, Comparable<Identifier>, JSONAwa
 		if (byteLength < 1)
 			throw new IllegalArgumentException("The byte length must be a positive integer");
 		
-		byte[] n = new byte[byteLength];
-		
-		secureRandom.nextBytes(n);
-
-		value = Base64URL.encode(n).toString();
+		value = generator.generate(byteLength);
 	}
 	
 	
@@ -0,0 +1,42 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.id;
+
+
+/**
+ * Generator of secure random identifier values, used by the
+ * {@link Identifier#Identifier(int)} constructor and hence all identifiers
+ * with generated values, such as access and refresh tokens, authorisation
+ * codes, state and nonce values. Implementations must be thread-safe.
+ *
+ * @see Identifier#setGenerator(IdentifierGenerator)
+ */
+public interface IdentifierGenerator {
+	
+	
+	/**
+	 * Generates a secure random identifier value of the specified byte
+	 * length, Base64URL-encoded (without padding).
+	 *
+	 * @param byteLength The byte length of the value to generate. Must be
+	 *                   positive.
+	 *
+	 * @return The Base64URL-encoded value.
+	 */
+	String generate(final int byteLength);
+}
@@ -0,0 +1,362 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.id;
+
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import net.jcip.annotations.ThreadSafe;
+
+
+/**
+ * Thread-scalable generator of secure random identifier values. Each thread
+ * draws from its own deterministic random bit generator (DRBG), seeded from
+ * a shared {@link SecureRandom} source on first use and periodically
+ * reseeded. The random bytes are produced in bulk into a per-thread buffer
+ * and Base64URL-encoded straight into a char array, so generating an
+ * identifier doesn't contend for a shared lock and makes a single string
+ * allocation.
+ *
+ * <p>The per-thread DRBG is the {@code DRBG} {@link SecureRandom} algorithm
+ * where available (Java 9+), else {@code SHA1PRNG}.
+ */
+@ThreadSafe
+public class ThreadLocalIdentifierGenerator implements IdentifierGenerator {
+	
+	
+	/**
+	 * The default size of the per-thread random byte buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 512;
+	
+	
+	/**
+	 * The default number of random bytes a thread generates before its
+	 * DRBG gets reseeded from the shared source.
+	 */
+	public static final long DEFAULT_RESEED_INTERVAL = 1L << 20;
+	
+	
+	/**
+	 * The seed length, in bytes.
+	 */
+	private static final int SEED_LENGTH = 32;
+	
+	
+	/**
+	 * The Base64URL alphabet.
+	 */
+	private static final char[] BASE64URL_ALPHABET =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	
+	
+	/**
+	 * Per-thread generator state.
+	 */
+	private static final class ThreadState {
+		
+		
+		/**
+		 * The DRBG.
+		 */
+		private final SecureRandom drbg;
+		
+		
+		/**
+		 * The random byte buffer.
+		 */
+		private final byte[] buffer;
+		
+		
+		/**
+		 * The position of the next unused byte in the buffer.
+		 */
+		private int pos;
+		
+		
+		/**
+		 * The number of bytes generated since the last (re)seed.
+		 */
+		private long bytesSinceSeed;
+		
+		
+		/**
+		 * Creates a new thread state.
+		 *
+		 * @param drbg       The seeded DRBG.
+		 * @param bufferSize The buffer size.
+		 */
+		private ThreadState(final SecureRandom drbg, final int bufferSize) {
+			this.drbg = drbg;
+			buffer = new byte[bufferSize];
+			pos = bufferSize; // empty
+		}
+	}
+	
+	
+	/**
+	 * The shared seed source.
+	 */
+	private final SecureRandom seedSource;
+	
+	
+	/**
+	 * The size of the per-thread random byte buffer.
+	 */
+	private final int bufferSize;
+	
+	
+	/**
+	 * The reseed interval, in bytes.
+	 */
+	private final long reseedInterval;
+	
+	
+	/**
+	 * The per-thread generator states.
+	 */
+	private final ThreadLocal<ThreadState> threadState = new ThreadLocal<>();
+	
+	
+	/**
+	 * Creates a new thread-scalable identifier generator with the default
+	 * buffer size and reseed interval.
+	 *
+	 * @param seedSource The shared seed source. Must not be
+	 *                   {@code null}.
+	 */
+	public ThreadLocalIdentifierGenerator(final SecureRandom seedSource) {
+		
+		this(seedSource, DEFAULT_BUFFER_SIZE, DEFAULT_RESEED_INTERVAL);
+	}
+	
+	
+	/**
+	 * Creates a new thread-scalable identifier generator.
+	 *
+	 * @param seedSource     The shared seed source. Must not be
+	 *                       {@code null}.
+	 * @param bufferSize     The size of the per-thread random byte
+	 *                       buffer. Must be positive.
+	 * @param reseedInterval The number of random bytes a thread
+	 *                       generates before its DRBG gets reseeded.
+	 *                       Must be positive.
+	 */
+	public ThreadLocalIdentifierGenerator(final SecureRandom seedSource,
+					      final int bufferSize,
+					      final long reseedInterval) {
+		
+		if (seedSource == null) {
+			throw new IllegalArgumentException("The seed source must not be null");
+		}
+		this.seedSource = seedSource;
+		
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+		this.bufferSize = bufferSize;
+		
+		if (reseedInterval < 1) {
+			throw new IllegalArgumentException("The reseed interval must be positive");
+		}
+		this.reseedInterval = reseedInterval;
+	}
+	
+	
+	/**
+	 * Returns the shared seed source.
+	 *
+	 * @return The seed source.
+	 */
+	public SecureRandom getSeedSource() {
+		return seedSource;
+	}
+	
+	
+	/**
+	 * Returns the size of the per-thread random byte buffer.
+	 *
+	 * @return The buffer size.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	
+	/**
+	 * Returns the reseed interval.
+	 *
+	 * @return The number of random bytes a thread generates before its
+	 *         DRBG gets reseeded.
+	 */
+	public long getReseedInterval() {
+		return reseedInterval;
+	}
+	
+	
+	/**
+	 * Returns a seed from the shared seed source.
+	 *
+	 * @return The seed.
+	 */
+	private byte[] nextSeed() {
+		
+		byte[] seed = new byte[SEED_LENGTH];
+		seedSource.nextBytes(seed);
+		return seed;
+	}
+	
+	
+	/**
+	 * Creates a new DRBG seeded from the shared seed source.
+	 *
+	 * @return The DRBG.
+	 */
+	private SecureRandom createDRBG() {
+		
+		SecureRandom drbg;
+		try {
+			drbg = SecureRandom.getInstance("DRBG");
+		} catch (NoSuchAlgorithmException e) {
+			try {
+				drbg = SecureRandom.getInstance("SHA1PRNG");
+			} catch (NoSuchAlgorithmException e2) {
+				drbg = new SecureRandom();
+			}
+		}
+		
+		// Seeding before first use makes SHA1PRNG derive its output
+		// from the seed only, DRBG mixes it into its own entropy
+		drbg.setSeed(nextSeed());
+		return drbg;
+	}
+	
+	
+	/**
+	 * Returns the generator state for the current thread.
+	 *
+	 * @return The thread state.
+	 */
+	private ThreadState getThreadState() {
+		
+		ThreadState state = threadState.get();
+		
+		if (state == null) {
+			state = new ThreadState(createDRBG(), bufferSize);
+			threadState.set(state);
+		}
+		
+		return state;
+	}
+	
+	
+	/**
+	 * Fills the specified array with random bytes from the current thread
+	 * buffer, refilling the buffer as needed.
+	 *
+	 * @param bytes The byte array to fill. Must not be {@code null}.
+	 */
+	void nextBytes(final byte[] bytes) {
+		
+		ThreadState state = getThreadState();
+		
+		if (state.bytesSinceSeed >= reseedInterval) {
+			state.drbg.setSeed(nextSeed());
+			state.bytesSinceSeed = 0L;
+			state.pos = state.buffer.length; // discard
+		}
+		
+		int filled = 0;
+		
+		while (filled < bytes.length) {
+			
+			if (state.pos == state.buffer.length) {
+				// Bulk refill
+				state.drbg.nextBytes(state.buffer);
+				state.bytesSinceSeed += state.buffer.length;
+				state.pos = 0;
+			}
+			
+			int n = Math.min(bytes.length - filled, state.buffer.length - state.pos);
+			System.arraycopy(state.buffer, state.pos, bytes, filled, n);
+			
+			// Don't keep handed out bytes in the buffer
+			Arrays.fill(state.buffer, state.pos, state.pos + n, (byte)0);
+			
+			state.pos += n;
+			filled += n;
+		}
+	}
+	
+	
+	@Override
+	public String generate(final int byteLength) {
+		
+		if (byteLength < 1) {
+			throw new IllegalArgumentException("The byte length must be a positive integer");
+		}
+		
+		byte[] bytes = new byte[byteLength];
+		nextBytes(bytes);
+		String value = encodeBase64URL(bytes);
+		Arrays.fill(bytes, (byte)0);
+		return value;
+	}
+	
+	
+	/**
+	 * Base64URL-encodes the specified bytes, without padding.
+	 *
+	 * @param bytes The bytes to encode. Must not be {@code null}.
+	 *
+	 * @return The Base64URL-encoded string.
+	 */
+	static String encodeBase64URL(final byte[] bytes) {
+		
+		int fullGroups = bytes.length / 3;
+		int remainder = bytes.length % 3;
+		
+		char[] out = new char[fullGroups * 4 + (remainder == 0 ? 0 : remainder + 1)];
+		
+		int in = 0;
+		int o = 0;
+		
+		for (int i=0; i < fullGroups; i++) {
+			int bits = (bytes[in++] & 0xff) << 16 | (bytes[in++] & 0xff) << 8 | (bytes[in++] & 0xff);
+			out[o++] = BASE64URL_ALPHABET[bits >>> 18];
+			out[o++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3f];
+			out[o++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3f];
+			out[o++] = BASE64URL_ALPHABET[bits & 0x3f];
+		}
+		
+		if (remainder == 1) {
+			int bits = (bytes[in] & 0xff) << 4;
+			out[o++] = BASE64URL_ALPHABET[bits >>> 6];
+			out[o] = BASE64URL_ALPHABET[bits & 0x3f];
+		} else if (remainder == 2) {
+			int bits = (bytes[in] & 0xff) << 10 | (bytes[in + 1] & 0xff) << 2;
+			out[o++] = BASE64URL_ALPHABET[bits >>> 12];
+			out[o++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3f];
+			out[o] = BASE64URL_ALPHABET[bits & 0x3f];
+		}
+		
+		return new String(out);
+	}
+}
@@ -0,0 +1,821 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.introspection;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionRequest;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionResponse;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.Token;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.ExpiringCache;
+
+
+/**
+ * Caching token introspection client for protected resources. Saves an
+ * introspection call to the authorisation server for each request with an
+ * opaque token that was seen recently.
+ *
+ * <p>Features:
+ *
+ * <ul>
+ *     <li>The introspection responses are cached by SHA-256 hash of the
+ *         token value, the tokens themselves are not kept.
+ *     <li>Responses for active tokens are cached until the earliest of the
+ *         token expiration time ({@code exp}) and the configured maximum
+ *         lifetime. Responses for inactive tokens are cached for the
+ *         (typically short) configured negative cache lifetime.
+ *     <li>The number of cached responses is bounded.
+ *     <li>Concurrent introspections of the same token are coalesced into a
+ *         single call to the authorisation server.
+ *     <li>{@link #invalidate(Token) Invalidation} of a token also applies
+ *         to introspection calls and refreshes for it that are in
+ *         progress, their responses are not cached.
+ *     <li>Optional refresh-ahead: a cached response for an active token
+ *         that is used within the configured time before its cache
+ *         expiration gets refreshed in the background, so that frequently
+ *         used tokens don't incur an introspection call in the request
+ *         path. Token revocation will then be noticed within the maximum
+ *         lifetime.
+ * </ul>
+ *
+ * <p>The request submitter can be authenticated with a
+ * {@link ClientAuthentication} or an {@link AccessToken}. Extending classes
+ * may override {@link #createRequest(Token)}, for example to create a new
+ * client authentication JWT for each call.
+ *
+ * <p>The client should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * CachingTokenIntrospectionClient client = new CachingTokenIntrospectionClient(
+ *         URI.create("https://c2id.com/token/introspect"),
+ *         new ClientSecretBasic(rsID, rsSecret));
+ *
+ * TokenIntrospectionSuccessResponse response = client.introspect(accessToken);
+ *
+ * if (! response.isActive()) {
+ *     // Invalid, expired or revoked token
+ * }
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OAuth 2.0 Token Introspection (RFC 7662).
+ * </ul>
+ */
+@ThreadSafe
+public class CachingTokenIntrospectionClient {
+	
+	
+	/**
+	 * The default HTTP connect and read timeout, in milliseconds.
+	 */
+	public static final int DEFAULT_HTTP_TIMEOUT = 1000;
+	
+	
+	/**
+	 * The default maximum cache lifetime of introspection responses for
+	 * active tokens, in seconds.
+	 */
+	public static final long DEFAULT_MAX_CACHE_LIFETIME_SECONDS = 60L;
+	
+	
+	/**
+	 * The default cache lifetime of introspection responses for inactive
+	 * tokens, in seconds.
+	 */
+	public static final long DEFAULT_NEGATIVE_CACHE_LIFETIME_SECONDS = 5L;
+	
+	
+	/**
+	 * The default maximum number of cached introspection responses.
+	 */
+	public static final int DEFAULT_MAX_CACHE_SIZE = 10_000;
+	
+	
+	/**
+	 * Cache entry.
+	 */
+	private static final class CacheEntry {
+		
+		
+		/**
+		 * The introspection response.
+		 */
+		private final TokenIntrospectionSuccessResponse response;
+		
+		
+		/**
+		 * The parsed-once view of the response.
+		 */
+		private final TokenIntrospectionView view;
+		
+		
+		/**
+		 * The time after which use of the entry triggers a refresh, in
+		 * milliseconds since the epoch, {@link Long#MAX_VALUE} if
+		 * never.
+		 */
+		private final long refreshAt;
+		
+		
+		/**
+		 * Set when a refresh has been triggered.
+		 */
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		
+		
+		/**
+		 * Creates a new cache entry.
+		 *
+		 * @param response  The introspection response.
+		 * @param refreshAt The refresh time, in milliseconds since the
+		 *                  epoch.
+		 */
+		private CacheEntry(final TokenIntrospectionSuccessResponse response,
+				   final long refreshAt) {
+			this.response = response;
+			view = new TokenIntrospectionView(response);
+			this.refreshAt = refreshAt;
+		}
+	}
+	
+	
+	/**
+	 * Introspection call in progress. Invalidation of the token marks the
+	 * call as stale, so that its response doesn't get cached.
+	 */
+	private static final class Load extends FutureTask<TokenIntrospectionSuccessResponse> {
+		
+		
+		/**
+		 * Set when the token was invalidated while the call was in
+		 * progress.
+		 */
+		private final AtomicBoolean stale;
+		
+		
+		/**
+		 * Creates a new introspection call.
+		 *
+		 * @param callable The introspection callable.
+		 * @param stale    The stale flag, shared with the callable.
+		 */
+		private Load(final Callable<TokenIntrospectionSuccessResponse> callable,
+			     final AtomicBoolean stale) {
+			super(callable);
+			this.stale = stale;
+		}
+	}
+	
+	
+	/**
+	 * The token introspection endpoint.
+	 */
+	private final URI endpoint;
+	
+	
+	/**
+	 * The client authentication, {@code null} if none.
+	 */
+	private final ClientAuthentication clientAuth;
+	
+	
+	/**
+	 * The client authorisation, {@code null} if none.
+	 */
+	private final AccessToken clientAuthz;
+	
+	
+	/**
+	 * The HTTP connect timeout, in milliseconds.
+	 */
+	private final int connectTimeout;
+	
+	
+	/**
+	 * The HTTP read timeout, in milliseconds.
+	 */
+	private final int readTimeout;
+	
+	
+	/**
+	 * The maximum cache lifetime for active tokens, in milliseconds.
+	 */
+	private final long maxCacheLifetimeMs;
+	
+	
+	/**
+	 * The cache lifetime for inactive tokens, in milliseconds.
+	 */
+	private final long negativeCacheLifetimeMs;
+	
+	
+	/**
+	 * The refresh-ahead time, in milliseconds, zero if disabled.
+	 */
+	private final long refreshAheadMs;
+	
+	
+	/**
+	 * The cached introspection responses, keyed by token hash.
+	 */
+	private final ExpiringCache<String,CacheEntry> cache;
+	
+	
+	/**
+	 * The introspection calls in progress, keyed by token hash.
+	 */
+	private final ConcurrentHashMap<String,Load> inFlight = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The executor for the background refreshes, {@code null} if
+	 * refresh-ahead is disabled.
+	 */
+	private final ExecutorService refreshExecutor;
+	
+	
+	/**
+	 * Creates a new caching token introspection client with the default
+	 * HTTP timeouts, cache lifetimes and size, and no refresh-ahead.
+	 *
+	 * @param endpoint   The token introspection endpoint. Must not be
+	 *                   {@code null}.
+	 * @param clientAuth The client authentication, {@code null} if none.
+	 */
+	public CachingTokenIntrospectionClient(final URI endpoint,
+					       final ClientAuthentication clientAuth) {
+		
+		this(endpoint, clientAuth, null,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_MAX_CACHE_LIFETIME_SECONDS,
+			DEFAULT_NEGATIVE_CACHE_LIFETIME_SECONDS,
+			DEFAULT_MAX_CACHE_SIZE,
+			0L);
+	}
+	
+	
+	/**
+	 * Creates a new caching token introspection client with the default
+	 * HTTP timeouts, cache lifetimes and size, and no refresh-ahead.
+	 *
+	 * @param endpoint    The token introspection endpoint. Must not be
+	 *                    {@code null}.
+	 * @param clientAuthz The client authorisation, {@code null} if none.
+	 */
+	public CachingTokenIntrospectionClient(final URI endpoint,
+					       final AccessToken clientAuthz) {
+		
+		this(endpoint, null, clientAuthz,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_MAX_CACHE_LIFETIME_SECONDS,
+			DEFAULT_NEGATIVE_CACHE_LIFETIME_SECONDS,
+			DEFAULT_MAX_CACHE_SIZE,
+			0L);
+	}
+	
+	
+	/**
+	 * Creates a new caching token introspection client.
+	 *
+	 * @param endpoint                     The token introspection
+	 *                                     endpoint. Must not be
+	 *                                     {@code null}.
+	 * @param clientAuth                   The client authentication,
+	 *                                     {@code null} if none.
+	 * @param clientAuthz                  The client authorisation,
+	 *                                     {@code null} if none.
+	 * @param connectTimeout               The HTTP connect timeout, in
+	 *                                     milliseconds, zero implies no
+	 *                                     timeout. Must not be negative.
+	 * @param readTimeout                  The HTTP read timeout, in
+	 *                                     milliseconds, zero implies no
+	 *                                     timeout. Must not be negative.
+	 * @param maxCacheLifetimeSeconds      The maximum cache lifetime of
+	 *                                     responses for active tokens, in
+	 *                                     seconds, zero to disable. Must
+	 *                                     not be negative.
+	 * @param negativeCacheLifetimeSeconds The cache lifetime of responses
+	 *                                     for inactive tokens, in seconds,
+	 *                                     zero to disable. Must not be
+	 *                                     negative.
+	 * @param maxCacheSize                 The maximum number of cached
+	 *                                     responses. Must be positive.
+	 * @param refreshAheadSeconds          The time before cache expiration
+	 *                                     when use of a cached response
+	 *                                     for an active token triggers a
+	 *                                     background refresh, in seconds,
+	 *                                     zero to disable. Must not be
+	 *                                     negative.
+	 */
+	public CachingTokenIntrospectionClient(final URI endpoint,
+					       final ClientAuthentication clientAuth,
+					       final AccessToken clientAuthz,
+					       final int connectTimeout,
+					       final int readTimeout,
+					       final long maxCacheLifetimeSeconds,
+					       final long negativeCacheLifetimeSeconds,
+					       final int maxCacheSize,
+					       final long refreshAheadSeconds) {
+		
+		if (endpoint == null) {
+			throw new IllegalArgumentException("The token introspection endpoint must not be null");
+		}
+		this.endpoint = endpoint;
+		
+		if (clientAuth != null && clientAuthz != null) {
+			throw new IllegalArgumentException("Either client authentication or client authorization must be specified, not both");
+		}
+		this.clientAuth = clientAuth;
+		this.clientAuthz = clientAuthz;
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP connect timeout must not be negative");
+		}
+		this.connectTimeout = connectTimeout;
+		
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP read timeout must not be negative");
+		}
+		this.readTimeout = readTimeout;
+		
+		if (maxCacheLifetimeSeconds < 0) {
+			throw new IllegalArgumentException("The max cache lifetime must not be negative");
+		}
+		maxCacheLifetimeMs = maxCacheLifetimeSeconds * 1000L;
+		
+		if (negativeCacheLifetimeSeconds < 0) {
+			throw new IllegalArgumentException("The negative cache lifetime must not be negative");
+		}
+		negativeCacheLifetimeMs = negativeCacheLifetimeSeconds * 1000L;
+		
+		cache = new ExpiringCache<>(maxCacheSize);
+		
+		if (refreshAheadSeconds < 0) {
+			throw new IllegalArgumentException("The refresh-ahead time must not be negative");
+		}
+		refreshAheadMs = refreshAheadSeconds * 1000L;
+		
+		if (refreshAheadMs > 0L) {
+			refreshExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("token-introspection-refresh"));
+		} else {
+			refreshExecutor = null;
+		}
+	}
+	
+	
+	/**
+	 * Returns the token introspection endpoint.
+	 *
+	 * @return The token introspection endpoint.
+	 */
+	public URI getEndpoint() {
+		return endpoint;
+	}
+	
+	
+	/**
+	 * Returns the maximum cache lifetime of responses for active tokens.
+	 *
+	 * @return The maximum cache lifetime, in seconds.
+	 */
+	public long getMaxCacheLifetimeSeconds() {
+		return maxCacheLifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the cache lifetime of responses for inactive tokens.
+	 *
+	 * @return The negative cache lifetime, in seconds.
+	 */
+	public long getNegativeCacheLifetimeSeconds() {
+		return negativeCacheLifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of cached introspection responses.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxCacheSize() {
+		return cache.getMaxSize();
+	}
+	
+	
+	/**
+	 * Returns the refresh-ahead time.
+	 *
+	 * @return The refresh-ahead time, in seconds, zero if disabled.
+	 */
+	public long getRefreshAheadSeconds() {
+		return refreshAheadMs / 1000L;
+	}
+	
+	
+	/**
+	 * Introspects the specified token. Returns the cached response if
+	 * available, else calls the token introspection endpoint.
+	 *
+	 * @param token The access or refresh token. Must not be {@code null}.
+	 *
+	 * @return The token introspection success response, with the
+	 *         {@code active} parameter set to {@code false} if the token
+	 *         is invalid, expired or revoked.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response, such as for an invalid client.
+	 */
+	public TokenIntrospectionSuccessResponse introspect(final Token token)
+		throws IOException, GeneralException {
+		
+		String key = computeCacheKey(token);
+		
+		CacheEntry entry = getCachedEntry(key, token);
+		
+		if (entry != null) {
+			return entry.response;
+		}
+		
+		return load(key, token);
+	}
+	
+	
+	/**
+	 * Introspects the specified token and returns a parsed-once view of
+	 * the response. Cached responses share the same view, so parameters
+	 * parsed on one request are readily available to the next.
+	 *
+	 * @param token The access or refresh token. Must not be {@code null}.
+	 *
+	 * @return The token introspection view, with the {@code active}
+	 *         parameter set to {@code false} if the token is invalid,
+	 *         expired or revoked.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response, such as for an invalid client.
+	 */
+	public TokenIntrospectionView introspectView(final Token token)
+		throws IOException, GeneralException {
+		
+		String key = computeCacheKey(token);
+		
+		CacheEntry entry = getCachedEntry(key, token);
+		
+		if (entry != null) {
+			return entry.view;
+		}
+		
+		TokenIntrospectionSuccessResponse response = load(key, token);
+		
+		entry = cache.get(key);
+		
+		if (entry != null && entry.response == response) {
+			return entry.view;
+		}
+		
+		// Not cached
+		return new TokenIntrospectionView(response);
+	}
+	
+	
+	/**
+	 * Returns the unexpired cache entry for the specified token,
+	 * triggering a background refresh if due.
+	 *
+	 * @param key   The cache key.
+	 * @param token The token.
+	 *
+	 * @return The cache entry, {@code null} if none or expired.
+	 */
+	private CacheEntry getCachedEntry(final String key, final Token token) {
+		
+		long now = System.currentTimeMillis();
+		
+		CacheEntry entry = cache.get(key, now);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+			scheduleRefresh(key, token);
+		}
+		
+		return entry;
+	}
+	
+	
+	/**
+	 * Schedules a background refresh of the cached response for the
+	 * specified token.
+	 *
+	 * @param key   The cache key.
+	 * @param token The token.
+	 */
+	private void scheduleRefresh(final String key, final Token token) {
+		
+		try {
+			refreshExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					// On failure the current entry stays until
+					// its expiration
+					load(key, token);
+					return null;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Shut down
+		}
+	}
+	
+	
+	/**
+	 * Calls the token introspection endpoint for the specified token and
+	 * caches the response. Concurrent calls for the same token are
+	 * coalesced. The response is not cached if the token gets
+	 * invalidated meanwhile.
+	 *
+	 * @param key   The cache key.
+	 * @param token The token.
+	 *
+	 * @return The token introspection success response.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response.
+	 */
+	private TokenIntrospectionSuccessResponse load(final String key, final Token token)
+		throws IOException, GeneralException {
+		
+		final AtomicBoolean stale = new AtomicBoolean();
+		Load task = new Load(new Callable<TokenIntrospectionSuccessResponse>() {
+			@Override
+			public TokenIntrospectionSuccessResponse call() throws Exception {
+				TokenIntrospectionSuccessResponse response = introspectUpstream(token);
+				cacheResponse(key, response, stale);
+				return response;
+			}
+		}, stale);
+		
+		Load existing = inFlight.putIfAbsent(key, task);
+		
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+		} else {
+			task = existing;
+		}
+		
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for token introspection", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			} else if (cause instanceof GeneralException) {
+				throw (GeneralException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else {
+				throw new GeneralException(cause.getMessage(), cause);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Creates a token introspection request for the specified token.
+	 *
+	 * @param token The token. Must not be {@code null}.
+	 *
+	 * @return The token introspection request.
+	 */
+	protected TokenIntrospectionRequest createRequest(final Token token) {
+		
+		if (clientAuthz != null) {
+			return new TokenIntrospectionRequest(endpoint, clientAuthz, token);
+		} else if (clientAuth != null) {
+			return new TokenIntrospectionRequest(endpoint, clientAuth, token);
+		} else {
+			return new TokenIntrospectionRequest(endpoint, token);
+		}
+	}
+	
+	
+	/**
+	 * Calls the token introspection endpoint for the specified token,
+	 * bypassing the cache.
+	 *
+	 * @param token The token. Must not be {@code null}.
+	 *
+	 * @return The token introspection success response.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response.
+	 */
+	protected TokenIntrospectionSuccessResponse introspectUpstream(final Token token)
+		throws IOException, GeneralException {
+		
+		HTTPRequest httpRequest = createRequest(token).toHTTPRequest();
+		httpRequest.setConnectTimeout(connectTimeout);
+		httpRequest.setReadTimeout(readTimeout);
+		
+		TokenIntrospectionResponse response = TokenIntrospectionResponse.parse(httpRequest.send());
+		
+		if (! response.indicatesSuccess()) {
+			throw new GeneralException(response.toErrorResponse().getErrorObject());
+		}
+		
+		return response.toSuccessResponse();
+	}
+	
+	
+	/**
+	 * Caches the specified introspection response, unless the token was
+	 * invalidated while the call was in progress.
+	 *
+	 * @param key      The cache key.
+	 * @param response The token introspection success response.
+	 * @param stale    The stale flag of the introspection call.
+	 */
+	private void cacheResponse(final String key,
+				   final TokenIntrospectionSuccessResponse response,
+				   final AtomicBoolean stale) {
+		
+		if (stale.get()) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		long expiresAt;
+		long refreshAt = Long.MAX_VALUE;
+		
+		if (response.isActive()) {
+			
+			expiresAt = now + maxCacheLifetimeMs;
+			
+			Date exp = response.getExpirationTime();
+			if (exp != null) {
+				expiresAt = Math.min(expiresAt, exp.getTime());
+			}
+			
+			if (refreshAheadMs > 0L && (exp == null || exp.getTime() > now + maxCacheLifetimeMs)) {
+				// Refresh only when the token outlives the cache
+				// entry
+				refreshAt = expiresAt - refreshAheadMs;
+			}
+		
+		} else {
+			expiresAt = now + negativeCacheLifetimeMs;
+		}
+		
+		CacheEntry entry = new CacheEntry(response, refreshAt);
+		cache.put(key, entry, expiresAt, now);
+		
+		if (stale.get()) {
+			// Invalidated since the check above
+			cache.remove(key, entry);
+		}
+	}
+	
+	
+	/**
+	 * Computes the cache key for the specified token.
+	 *
+	 * @param token The token. Must not be {@code null}.
+	 *
+	 * @return The cache key, the BASE64URL-encoded SHA-256 hash of the
+	 *         token value.
+	 */
+	static String computeCacheKey(final Token token) {
+		
+		MessageDigest sha256;
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		
+		return Base64URL.encode(sha256.digest(token.getValue().getBytes(StandardCharsets.UTF_8))).toString();
+	}
+	
+	
+	/**
+	 * Removes the cached introspection response for the specified token,
+	 * for example after it was revoked. An introspection call or refresh
+	 * for the token that is in progress will not cache its response.
+	 *
+	 * @param token The token. Must not be {@code null}.
+	 */
+	public void invalidate(final Token token) {
+		
+		String key = computeCacheKey(token);
+		
+		// Mark before removing the cached response, a call putting it
+		// afterwards will see the mark
+		Load load = inFlight.get(key);
+		if (load != null) {
+			load.stale.set(true);
+			// Subsequent introspections must not join the stale call
+			inFlight.remove(key, load);
+		}
+		
+		cache.remove(key);
+	}
+	
+	
+	/**
+	 * Removes the expired introspection responses from the cache.
+	 *
+	 * @return The number of removed responses.
+	 */
+	public int purgeExpired() {
+		
+		return cache.purgeExpired();
+	}
+	
+	
+	/**
+	 * Returns the number of cached introspection responses.
+	 *
+	 * @return The cache size.
+	 */
+	public int getCacheSize() {
+		
+		return cache.size();
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public void clearCache() {
+		
+		cache.clear();
+	}
+	
+	
+	/**
+	 * Shuts down this client and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.introspection;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jcip.annotations.Immutable;
+
+import com.nimbusds.oauth2.sdk.Scope;
+
+
+/**
+ * Bit mask representation of the scope values known to a protected
+ * resource, up to 64. Each known scope value is assigned a bit, in
+ * iteration order, so that scope checks can be made with a single
+ * bitwise operation.
+ *
+ * <p>Required masks must be created with {@link #toRequiredMask(Scope)},
+ * which rejects unknown scope values. An unknown value has no bit, so
+ * ignoring it in a required mask would let any token pass the check for
+ * it.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * ScopeMask scopeMask = new ScopeMask(new Scope("read", "write", "admin"));
+ *
+ * long required = scopeMask.toRequiredMask(new Scope("read", "write"));
+ *
+ * if (view.hasScope(scopeMask, required)) {
+ *     // Authorised
+ * }
+ * </pre>
+ */
+@Immutable
+public final class ScopeMask {
+	
+	
+	/**
+	 * The maximum number of scope values.
+	 */
+	public static final int MAX_SIZE = 64;
+	
+	
+	/**
+	 * The known scope values.
+	 */
+	private final Scope scope;
+	
+	
+	/**
+	 * The bit of each scope value.
+	 */
+	private final Map<String,Long> bits;
+	
+	
+	/**
+	 * Creates a new scope mask.
+	 *
+	 * @param scope The scope values known to the protected resource.
+	 *              Must not be {@code null} or contain more than
+	 *              {@link #MAX_SIZE} values.
+	 */
+	public ScopeMask(final Scope scope) {
+		
+		if (scope == null) {
+			throw new IllegalArgumentException("The scope must not be null");
+		}
+		
+		if (scope.size() > MAX_SIZE) {
+			throw new IllegalArgumentException("The scope must not have more than " + MAX_SIZE + " values");
+		}
+		
+		this.scope = new Scope(scope);
+		
+		Map<String,Long> map = new HashMap<>();
+		int i = 0;
+		for (Scope.Value value: scope) {
+			map.put(value.getValue(), 1L << i++);
+		}
+		bits = Collections.unmodifiableMap(map);
+	}
+	
+	
+	/**
+	 * Returns the known scope values.
+	 *
+	 * @return The scope values.
+	 */
+	public Scope getScope() {
+		
+		return new Scope(scope);
+	}
+	
+	
+	/**
+	 * Returns the bit for the specified scope value.
+	 *
+	 * @param value The scope value. Must not be {@code null}.
+	 *
+	 * @return The bit, zero if the scope value isn't known.
+	 */
+	public long getBit(final String value) {
+		
+		Long bit = bits.get(value);
+		return bit != null ? bit : 0L;
+	}
+	
+	
+	/**
+	 * Returns the mask for the specified granted scope values. Unknown
+	 * values are ignored. Must not be used for required masks, see
+	 * {@link #toRequiredMask(Collection)}.
+	 *
+	 * @param values The scope values, {@code null} if none.
+	 *
+	 * @return The mask.
+	 */
+	public long toMask(final Collection<String> values) {
+		
+		if (values == null) {
+			return 0L;
+		}
+		
+		long mask = 0L;
+		for (String value: values) {
+			mask |= getBit(value);
+		}
+		return mask;
+	}
+	
+	
+	/**
+	 * Returns the mask for the specified granted scope. Unknown values
+	 * are ignored. Must not be used for required masks, see
+	 * {@link #toRequiredMask(Scope)}.
+	 *
+	 * @param scope The scope, {@code null} if none.
+	 *
+	 * @return The mask.
+	 */
+	public long toMask(final Scope scope) {
+		
+		return scope != null ? toMask(scope.toStringList()) : 0L;
+	}
+	
+	
+	/**
+	 * Returns the mask for the specified required scope values.
+	 *
+	 * @param values The scope values, {@code null} if none.
+	 *
+	 * @return The mask.
+	 *
+	 * @throws IllegalArgumentException If a scope value isn't known.
+	 */
+	public long toRequiredMask(final Collection<String> values) {
+		
+		if (values == null) {
+			return 0L;
+		}
+		
+		long mask = 0L;
+		for (String value: values) {
+			long bit = getBit(value);
+			if (bit == 0L) {
+				throw new IllegalArgumentException("Unknown scope value: " + value);
+			}
+			mask |= bit;
+		}
+		return mask;
+	}
+	
+	
+	/**
+	 * Returns the mask for the specified required scope.
+	 *
+	 * @param scope The scope, {@code null} if none.
+	 *
+	 * @return The mask.
+	 *
+	 * @throws IllegalArgumentException If a scope value isn't known.
+	 */
+	public long toRequiredMask(final Scope scope) {
+		
+		return scope != null ? toRequiredMask(scope.toStringList()) : 0L;
+	}
+	
+	
+	/**
+	 * Returns the scope for the specified mask.
+	 *
+	 * @param mask The mask.
+	 *
+	 * @return The scope, empty if none.
+	 */
+	public Scope toScope(final long mask) {
+		
+		Scope out = new Scope();
+		int i = 0;
+		for (Scope.Value value: scope) {
+			if ((mask & (1L << i++)) != 0L) {
+				out.add(value);
+			}
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the specified mask includes all bits of the
+	 * required mask.
+	 *
+	 * @param mask     The mask.
+	 * @param required The required mask.
+	 *
+	 * @return {@code true} if all required bits are set, else
+	 *         {@code false}.
+	 */
+	public static boolean containsAll(final long mask, final long required) {
+		
+		return (mask & required) == required;
+	}
+}
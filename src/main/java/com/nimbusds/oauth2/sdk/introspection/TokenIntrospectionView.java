@@ -0,0 +1,563 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.introspection;
+
+
+import java.util.*;
+
+import net.jcip.annotations.ThreadSafe;
+import net.minidev.json.JSONObject;
+
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.X509CertificateConfirmation;
+import com.nimbusds.oauth2.sdk.dpop.JWKThumbprintConfirmation;
+import com.nimbusds.oauth2.sdk.id.*;
+import com.nimbusds.oauth2.sdk.token.AccessTokenType;
+
+
+/**
+ * Parsed-once, immutable view of a token introspection success response,
+ * for protected resources that check the same (cached) response on many
+ * requests. Each parameter is parsed on first access and the result is
+ * kept, the time parameters are available as seconds since the epoch and
+ * the scope as a {@link ScopeMask bit mask}.
+ *
+ * <p>The view is a snapshot of the response parameters at the time of
+ * its creation.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * TokenIntrospectionView view = new TokenIntrospectionView(response);
+ *
+ * if (! view.isActive() || view.isExpired(System.currentTimeMillis() / 1000)) {
+ *     // Reject
+ * }
+ *
+ * if (! view.hasScope(scopeMask, requiredScopeMask)) {
+ *     // Reject
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public final class TokenIntrospectionView {
+	
+	
+	/**
+	 * Indicates a time parameter that is not specified or invalid.
+	 */
+	public static final long NOT_SPECIFIED = -1L;
+	
+	
+	/**
+	 * Marks a parameter that hasn't been parsed yet.
+	 */
+	private static final Object UNPARSED = new Object();
+	
+	
+	/**
+	 * Scope mask computed for a particular {@link ScopeMask}.
+	 */
+	private static final class ComputedScopeMask {
+		
+		
+		/**
+		 * The scope mask.
+		 */
+		private final ScopeMask scopeMask;
+		
+		
+		/**
+		 * The computed mask.
+		 */
+		private final long mask;
+		
+		
+		/**
+		 * Creates a new computed scope mask.
+		 *
+		 * @param scopeMask The scope mask.
+		 * @param mask      The computed mask.
+		 */
+		private ComputedScopeMask(final ScopeMask scopeMask, final long mask) {
+			this.scopeMask = scopeMask;
+			this.mask = mask;
+		}
+	}
+	
+	
+	/**
+	 * The response, on a snapshot of the parameters.
+	 */
+	private final TokenIntrospectionSuccessResponse response;
+	
+	
+	/**
+	 * The active status.
+	 */
+	private final boolean active;
+	
+	
+	/**
+	 * The expiration time, in seconds since the epoch.
+	 */
+	private final long exp;
+	
+	
+	/**
+	 * The issue time, in seconds since the epoch.
+	 */
+	private final long iat;
+	
+	
+	/**
+	 * The not-before time, in seconds since the epoch.
+	 */
+	private final long nbf;
+	
+	
+	/**
+	 * The scope values, unmodifiable.
+	 */
+	private volatile Object scopeValues = UNPARSED;
+	
+	
+	/**
+	 * The last computed scope mask.
+	 */
+	private volatile ComputedScopeMask computedScopeMask;
+	
+	
+	/**
+	 * The client ID.
+	 */
+	private volatile Object clientID = UNPARSED;
+	
+	
+	/**
+	 * The username.
+	 */
+	private volatile Object username = UNPARSED;
+	
+	
+	/**
+	 * The token type.
+	 */
+	private volatile Object tokenType = UNPARSED;
+	
+	
+	/**
+	 * The subject.
+	 */
+	private volatile Object sub = UNPARSED;
+	
+	
+	/**
+	 * The audience, unmodifiable.
+	 */
+	private volatile Object aud = UNPARSED;
+	
+	
+	/**
+	 * The issuer.
+	 */
+	private volatile Object iss = UNPARSED;
+	
+	
+	/**
+	 * The JWT ID.
+	 */
+	private volatile Object jti = UNPARSED;
+	
+	
+	/**
+	 * The X.509 certificate confirmation.
+	 */
+	private volatile Object x5tConfirmation = UNPARSED;
+	
+	
+	/**
+	 * The JWK thumbprint confirmation.
+	 */
+	private volatile Object jktConfirmation = UNPARSED;
+	
+	
+	/**
+	 * Creates a new parsed-once view of the specified token introspection
+	 * success response.
+	 *
+	 * @param response The token introspection success response. Must not
+	 *                 be {@code null}.
+	 */
+	public TokenIntrospectionView(final TokenIntrospectionSuccessResponse response) {
+		
+		if (response == null) {
+			throw new IllegalArgumentException("The token introspection response must not be null");
+		}
+		
+		this.response = new TokenIntrospectionSuccessResponse(new JSONObject(response.getParameters()));
+		
+		active = this.response.isActive();
+		exp = toEpochSeconds(this.response.getExpirationTime());
+		iat = toEpochSeconds(this.response.getIssueTime());
+		nbf = toEpochSeconds(this.response.getNotBeforeTime());
+	}
+	
+	
+	/**
+	 * Returns the seconds since the epoch for the specified date.
+	 *
+	 * @param date The date, {@code null} if not specified.
+	 *
+	 * @return The seconds since the epoch, {@link #NOT_SPECIFIED} if not
+	 *         specified.
+	 */
+	private static long toEpochSeconds(final Date date) {
+		
+		return date != null ? date.getTime() / 1000L : NOT_SPECIFIED;
+	}
+	
+	
+	/**
+	 * Returns the active status for the token.
+	 *
+	 * @return {@code true} if the token is active, else {@code false}.
+	 */
+	public boolean isActive() {
+		return active;
+	}
+	
+	
+	/**
+	 * Returns the token expiration time.
+	 *
+	 * @return The expiration time, in seconds since the epoch,
+	 *         {@link #NOT_SPECIFIED} if not specified.
+	 */
+	public long getExpirationTimeEpochSeconds() {
+		return exp;
+	}
+	
+	
+	/**
+	 * Returns the token issue time.
+	 *
+	 * @return The issue time, in seconds since the epoch,
+	 *         {@link #NOT_SPECIFIED} if not specified.
+	 */
+	public long getIssueTimeEpochSeconds() {
+		return iat;
+	}
+	
+	
+	/**
+	 * Returns the token not-before time.
+	 *
+	 * @return The not-before time, in seconds since the epoch,
+	 *         {@link #NOT_SPECIFIED} if not specified.
+	 */
+	public long getNotBeforeTimeEpochSeconds() {
+		return nbf;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the token has expired at the specified time.
+	 *
+	 * @param nowEpochSeconds The time, in seconds since the epoch.
+	 *
+	 * @return {@code true} if an expiration time is specified and the
+	 *         token has expired, else {@code false}.
+	 */
+	public boolean isExpired(final long nowEpochSeconds) {
+		
+		return exp != NOT_SPECIFIED && nowEpochSeconds >= exp;
+	}
+	
+	
+	/**
+	 * Returns the token scope values.
+	 *
+	 * @return The scope values, as unmodifiable set, empty if not
+	 *         specified.
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<String> getScopeValues() {
+		
+		Object v = scopeValues;
+		if (v == UNPARSED) {
+			Scope scope = response.getScope();
+			v = scope != null ? Collections.unmodifiableSet(new LinkedHashSet<>(scope.toStringList())) : Collections.<String>emptySet();
+			scopeValues = v;
+		}
+		return (Set<String>)v;
+	}
+	
+	
+	/**
+	 * Returns the token scope. A new {@link Scope} instance is returned
+	 * on each call.
+	 *
+	 * @return The token scope, {@code null} if not specified.
+	 */
+	public Scope getScope() {
+		
+		return getScopeValues().isEmpty() ? null : Scope.parse(getScopeValues());
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the token scope includes the specified
+	 * value.
+	 *
+	 * @param value The scope value. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the scope value is included, else
+	 *         {@code false}.
+	 */
+	public boolean hasScope(final String value) {
+		
+		return getScopeValues().contains(value);
+	}
+	
+	
+	/**
+	 * Returns the token scope as bit mask. The mask for the last used
+	 * scope mask is kept.
+	 *
+	 * @param scopeMask The scope mask. Must not be {@code null}.
+	 *
+	 * @return The mask.
+	 */
+	public long getScopeMask(final ScopeMask scopeMask) {
+		
+		ComputedScopeMask computed = computedScopeMask;
+		if (computed == null || computed.scopeMask != scopeMask) {
+			computed = new ComputedScopeMask(scopeMask, scopeMask.toMask(getScopeValues()));
+			computedScopeMask = computed;
+		}
+		return computed.mask;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the token scope includes all values of the
+	 * specified required mask.
+	 *
+	 * @param scopeMask The scope mask. Must not be {@code null}.
+	 * @param required  The required mask, as returned by
+	 *                  {@link ScopeMask#toRequiredMask(Scope)}.
+	 *
+	 * @return {@code true} if all required scope values are included,
+	 *         else {@code false}.
+	 */
+	public boolean hasScope(final ScopeMask scopeMask, final long required) {
+		
+		return ScopeMask.containsAll(getScopeMask(scopeMask), required);
+	}
+	
+	
+	/**
+	 * Returns the identifier of the OAuth 2.0 client that requested the
+	 * token.
+	 *
+	 * @return The client identifier, {@code null} if not specified.
+	 */
+	public ClientID getClientID() {
+		
+		Object v = clientID;
+		if (v == UNPARSED) {
+			v = response.getClientID();
+			clientID = v;
+		}
+		return (ClientID)v;
+	}
+	
+	
+	/**
+	 * Returns the username of the resource owner who authorised the token.
+	 *
+	 * @return The username, {@code null} if not specified.
+	 */
+	public String getUsername() {
+		
+		Object v = username;
+		if (v == UNPARSED) {
+			v = response.getUsername();
+			username = v;
+		}
+		return (String)v;
+	}
+	
+	
+	/**
+	 * Returns the access token type.
+	 *
+	 * @return The token type, {@code null} if not specified.
+	 */
+	public AccessTokenType getTokenType() {
+		
+		Object v = tokenType;
+		if (v == UNPARSED) {
+			v = response.getTokenType();
+			tokenType = v;
+		}
+		return (AccessTokenType)v;
+	}
+	
+	
+	/**
+	 * Returns the subject of the token.
+	 *
+	 * @return The token subject, {@code null} if not specified.
+	 */
+	public Subject getSubject() {
+		
+		Object v = sub;
+		if (v == UNPARSED) {
+			v = response.getSubject();
+			sub = v;
+		}
+		return (Subject)v;
+	}
+	
+	
+	/**
+	 * Returns the intended audience for the token.
+	 *
+	 * @return The token audience, as unmodifiable list, {@code null} if
+	 *         not specified.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Audience> getAudience() {
+		
+		Object v = aud;
+		if (v == UNPARSED) {
+			List<Audience> audList = response.getAudience();
+			v = audList != null ? Collections.unmodifiableList(audList) : null;
+			aud = v;
+		}
+		return (List<Audience>)v;
+	}
+	
+	
+	/**
+	 * Returns the token issuer.
+	 *
+	 * @return The token issuer, {@code null} if not specified.
+	 */
+	public Issuer getIssuer() {
+		
+		Object v = iss;
+		if (v == UNPARSED) {
+			v = response.getIssuer();
+			iss = v;
+		}
+		return (Issuer)v;
+	}
+	
+	
+	/**
+	 * Returns the token identifier.
+	 *
+	 * @return The token identifier, {@code null} if not specified.
+	 */
+	public JWTID getJWTID() {
+		
+		Object v = jti;
+		if (v == UNPARSED) {
+			v = response.getJWTID();
+			jti = v;
+		}
+		return (JWTID)v;
+	}
+	
+	
+	/**
+	 * Returns the client X.509 certificate confirmation, for a mutual TLS
+	 * client certificate bound access token.
+	 *
+	 * @return The client X.509 certificate confirmation, {@code null} if
+	 *         not specified.
+	 */
+	public X509CertificateConfirmation getX509CertificateConfirmation() {
+		
+		Object v = x5tConfirmation;
+		if (v == UNPARSED) {
+			v = response.getX509CertificateConfirmation();
+			x5tConfirmation = v;
+		}
+		return (X509CertificateConfirmation)v;
+	}
+	
+	
+	/**
+	 * Returns the JSON Web Key (JWK) SHA-256 thumbprint confirmation, for
+	 * OAuth 2.0 DPoP.
+	 *
+	 * @return The JWK SHA-256 thumbprint confirmation, {@code null} if not
+	 *         specified.
+	 */
+	public JWKThumbprintConfirmation getJWKThumbprintConfirmation() {
+		
+		Object v = jktConfirmation;
+		if (v == UNPARSED) {
+			v = response.getJWKThumbprintConfirmation();
+			jktConfirmation = v;
+		}
+		return (JWKThumbprintConfirmation)v;
+	}
+	
+	
+	/**
+	 * Returns the string parameter with the specified name. Not cached.
+	 *
+	 * @param name The parameter name. Must not be {@code null}.
+	 *
+	 * @return The parameter value, {@code null} if not specified or if
+	 *         parsing failed.
+	 */
+	public String getStringParameter(final String name) {
+		
+		return response.getStringParameter(name);
+	}
+	
+	
+	/**
+	 * Returns a copy of the response parameters.
+	 *
+	 * @return The parameters, as JSON object.
+	 */
+	public JSONObject getParameters() {
+		
+		return new JSONObject(response.getParameters());
+	}
+	
+	
+	/**
+	 * Returns a token introspection success response with a copy of the
+	 * parameters.
+	 *
+	 * @return The token introspection success response.
+	 */
+	public TokenIntrospectionSuccessResponse toResponse() {
+		
+		return new TokenIntrospectionSuccessResponse(getParameters());
+	}
+}
@@ -0,0 +1,526 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.par;
+
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.AuthorizationRequest;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.PushedAuthorizationErrorResponse;
+import com.nimbusds.oauth2.sdk.PushedAuthorizationResponse;
+import com.nimbusds.oauth2.sdk.PushedAuthorizationSuccessResponse;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Identifier;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.timer.TimingWheel;
+
+
+/**
+ * In-memory store for pushed authorisation requests (PAR). Assigns each
+ * stored request a {@code request_uri} and lets it be redeemed once, by the
+ * client that pushed it, until the request expires.
+ *
+ * <p>The requests are kept in lock-striped shards, so that concurrent
+ * requests contend only when they fall into the same shard. The number of
+ * stored requests is bounded by a configured capacity. Expired requests are
+ * removed by a background task which advances a {@link TimingWheel}, so
+ * that the cost of the removal is proportional to the number of expiring
+ * requests and not to the size of the store. The store should be
+ * {@link #shutdown() shut down} when no longer in use.
+ *
+ * <p>Example use at the PAR endpoint:
+ *
+ * <pre>
+ * PushedAuthorizationRequest parRequest = PushedAuthorizationRequest.parse(httpRequest);
+ * // Authenticate the client, validate the authorisation request...
+ * return parStore.put(parRequest.getAuthorizationRequest()).toHTTPResponse();
+ * </pre>
+ *
+ * <p>At the authorisation endpoint the request can be redeemed with
+ * {@link #redeem(URI, ClientID)}, or by an
+ * {@link com.nimbusds.openid.connect.sdk.op.AuthenticationRequestResolver}
+ * configured with the store.
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OAuth 2.0 Pushed Authorization Requests (RFC 9126).
+ * </ul>
+ */
+@ThreadSafe
+public class PushedAuthorizationRequestStore {
+	
+	
+	/**
+	 * The prefix of the assigned {@code request_uri} values.
+	 */
+	public static final String REQUEST_URI_PREFIX = "urn:ietf:params:oauth:request_uri:";
+	
+	
+	/**
+	 * The default request lifetime, in seconds.
+	 */
+	public static final long DEFAULT_LIFETIME_SECONDS = 60L;
+	
+	
+	/**
+	 * The default capacity.
+	 */
+	public static final int DEFAULT_CAPACITY = 100_000;
+	
+	
+	/**
+	 * The byte length of the random part of the assigned
+	 * {@code request_uri} values.
+	 */
+	private static final int REQUEST_URI_BYTE_LENGTH = 16;
+	
+	
+	/**
+	 * The number of shards, must be a power of two.
+	 */
+	private static final int NUM_SHARDS = 64;
+	
+	
+	/**
+	 * The timing wheel tick duration, in milliseconds.
+	 */
+	private static final long TICK_MS = 1000L;
+	
+	
+	/**
+	 * The timing wheel size.
+	 */
+	private static final int WHEEL_SIZE = 256;
+	
+	
+	/**
+	 * The request lifetime, in milliseconds.
+	 */
+	private final long lifetimeMs;
+	
+	
+	/**
+	 * The capacity.
+	 */
+	private final int capacity;
+	
+	
+	/**
+	 * The shards.
+	 */
+	private final Shard[] shards;
+	
+	
+	/**
+	 * The number of stored requests.
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+	
+	
+	/**
+	 * The expiration timing wheel.
+	 */
+	private final TimingWheel<Entry> wheel = new TimingWheel<>(TICK_MS, WHEEL_SIZE);
+	
+	
+	/**
+	 * The timing wheel driver.
+	 */
+	private final ScheduledExecutorService ticker;
+	
+	
+	/**
+	 * Creates a new pushed authorisation request store with the default
+	 * request lifetime and capacity.
+	 */
+	public PushedAuthorizationRequestStore() {
+		
+		this(DEFAULT_LIFETIME_SECONDS, DEFAULT_CAPACITY);
+	}
+	
+	
+	/**
+	 * Creates a new pushed authorisation request store.
+	 *
+	 * @param lifetimeSeconds The request lifetime, in seconds. Must be
+	 *                        positive.
+	 * @param capacity        The maximum number of stored requests. Must
+	 *                        be positive.
+	 */
+	public PushedAuthorizationRequestStore(final long lifetimeSeconds, final int capacity) {
+		
+		if (lifetimeSeconds <= 0) {
+			throw new IllegalArgumentException("The lifetime must be positive");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("The capacity must be positive");
+		}
+		
+		lifetimeMs = lifetimeSeconds * 1000L;
+		this.capacity = capacity;
+		
+		shards = new Shard[NUM_SHARDS];
+		for (int i=0; i < NUM_SHARDS; i++) {
+			shards[i] = new Shard();
+		}
+		
+		ticker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("par-store-expiry"));
+		
+		ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				expire(System.currentTimeMillis());
+			}
+		}, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Returns the request lifetime.
+	 *
+	 * @return The request lifetime, in seconds.
+	 */
+	public long getLifetime() {
+		
+		return lifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the capacity.
+	 *
+	 * @return The maximum number of stored requests.
+	 */
+	public int getCapacity() {
+		
+		return capacity;
+	}
+	
+	
+	/**
+	 * Returns the number of stored requests.
+	 *
+	 * @return The number of stored requests, zero if none.
+	 */
+	public int size() {
+		
+		return size.get();
+	}
+	
+	
+	/**
+	 * Returns the shard for the specified key.
+	 *
+	 * @param key The key.
+	 *
+	 * @return The shard.
+	 */
+	private Shard shardFor(final String key) {
+		
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return shards[h & (NUM_SHARDS - 1)];
+	}
+	
+	
+	/**
+	 * Stores the specified authorisation request, which should have
+	 * already been validated, and assigns it a {@code request_uri}.
+	 *
+	 * @param request The authorisation request. Must not be
+	 *                {@code null}.
+	 *
+	 * @return The pushed authorisation success response with the assigned
+	 *         {@code request_uri} and the lifetime, or an error response
+	 *         with {@link OAuth2Error#TEMPORARILY_UNAVAILABLE} if the
+	 *         capacity is reached.
+	 */
+	public PushedAuthorizationResponse put(final AuthorizationRequest request) {
+		
+		if (request == null) {
+			throw new IllegalArgumentException("The authorization request must not be null");
+		}
+		
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			return new PushedAuthorizationErrorResponse(OAuth2Error.TEMPORARILY_UNAVAILABLE);
+		}
+		
+		long expiresAt = System.currentTimeMillis() + lifetimeMs;
+		
+		Entry entry;
+		while (true) {
+			String key = new Identifier(REQUEST_URI_BYTE_LENGTH).getValue();
+			entry = new Entry(key, request, expiresAt);
+			Shard shard = shardFor(key);
+			synchronized (shard) {
+				if (! shard.map.containsKey(key)) {
+					shard.map.put(key, entry);
+					break;
+				}
+			}
+		}
+		
+		entry.timeout = wheel.schedule(entry, expiresAt);
+		
+		return new PushedAuthorizationSuccessResponse(URI.create(REQUEST_URI_PREFIX + entry.key), lifetimeMs / 1000L);
+	}
+	
+	
+	/**
+	 * Returns the store key for the specified request URI.
+	 *
+	 * @param requestURI The request URI.
+	 *
+	 * @return The key, {@code null} if the request URI wasn't assigned by
+	 *         this store.
+	 */
+	private static String toKey(final URI requestURI) {
+		
+		if (requestURI == null) {
+			return null;
+		}
+		
+		String s = requestURI.toString();
+		
+		if (! s.startsWith(REQUEST_URI_PREFIX)) {
+			return null;
+		}
+		
+		return s.substring(REQUEST_URI_PREFIX.length());
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the specified request URI has the form of
+	 * a {@code request_uri} assigned by this store.
+	 *
+	 * @param requestURI The request URI, {@code null} if not specified.
+	 *
+	 * @return {@code true} if the URI has the
+	 *         {@link #REQUEST_URI_PREFIX assigned prefix}, else
+	 *         {@code false}.
+	 */
+	public static boolean isAssignedForm(final URI requestURI) {
+		
+		return toKey(requestURI) != null;
+	}
+	
+	
+	/**
+	 * Redeems the pushed authorisation request for the specified
+	 * {@code request_uri}. The request is removed, subsequent redemptions
+	 * of the same {@code request_uri} will return {@code null}.
+	 *
+	 * @param requestURI The request URI. Must not be {@code null}.
+	 *
+	 * @return The authorisation request, {@code null} if not found or
+	 *         expired.
+	 */
+	public AuthorizationRequest redeem(final URI requestURI) {
+		
+		return redeem(requestURI, null);
+	}
+	
+	
+	/**
+	 * Redeems the pushed authorisation request for the specified
+	 * {@code request_uri} and client. The request is removed, subsequent
+	 * redemptions of the same {@code request_uri} will return
+	 * {@code null}. A request pushed by another client is left in place.
+	 *
+	 * @param requestURI The request URI. Must not be {@code null}.
+	 * @param clientID   The ID of the client redeeming the request,
+	 *                   {@code null} to skip the check.
+	 *
+	 * @return The authorisation request, {@code null} if not found,
+	 *         expired or pushed by another client.
+	 */
+	public AuthorizationRequest redeem(final URI requestURI, final ClientID clientID) {
+		
+		String key = toKey(requestURI);
+		
+		if (key == null) {
+			return null;
+		}
+		
+		Shard shard = shardFor(key);
+		Entry entry;
+		
+		synchronized (shard) {
+			
+			entry = shard.map.get(key);
+			
+			if (entry == null) {
+				return null;
+			}
+			
+			if (entry.expiresAt > System.currentTimeMillis()
+				&& clientID != null
+				&& ! clientID.equals(entry.request.getClientID())) {
+				return null;
+			}
+			
+			shard.map.remove(key);
+		}
+		
+		size.decrementAndGet();
+		
+		TimingWheel.Timeout<Entry> timeout = entry.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		
+		if (entry.expiresAt <= System.currentTimeMillis()) {
+			return null;
+		}
+		
+		return entry.request;
+	}
+	
+	
+	/**
+	 * Removes the expired requests, as determined by the timing wheel.
+	 * Called periodically by the internal ticker.
+	 *
+	 * @param now The current time, in milliseconds since the epoch.
+	 *
+	 * @return The number of removed requests.
+	 */
+	int expire(final long now) {
+		
+		List<Entry> expired = wheel.advance(now);
+		
+		int count = 0;
+		
+		for (Entry entry: expired) {
+			
+			Shard shard = shardFor(entry.key);
+			boolean removed;
+			synchronized (shard) {
+				removed = shard.map.get(entry.key) == entry && shard.map.remove(entry.key) != null;
+			}
+			if (removed) {
+				size.decrementAndGet();
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	
+	/**
+	 * Removes all stored requests.
+	 */
+	public void clear() {
+		
+		for (Shard shard: shards) {
+			synchronized (shard) {
+				for (Entry entry: shard.map.values()) {
+					TimingWheel.Timeout<Entry> timeout = entry.timeout;
+					if (timeout != null) {
+						timeout.cancel();
+					}
+				}
+				size.addAndGet(-shard.map.size());
+				shard.map.clear();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Shuts down this store and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		ticker.shutdownNow();
+	}
+	
+	
+	/**
+	 * Shard of stored requests, guarded by its own monitor.
+	 */
+	private static final class Shard {
+		
+		
+		/**
+		 * The stored requests, keyed by the random part of the
+		 * request URI.
+		 */
+		private final Map<String,Entry> map = new HashMap<>();
+	}
+	
+	
+	/**
+	 * Stored request.
+	 */
+	private static final class Entry {
+		
+		
+		/**
+		 * The key, the random part of the request URI.
+		 */
+		private final String key;
+		
+		
+		/**
+		 * The authorisation request.
+		 */
+		private final AuthorizationRequest request;
+		
+		
+		/**
+		 * The expiration time, in milliseconds since the epoch.
+		 */
+		private final long expiresAt;
+		
+		
+		/**
+		 * The expiration timeout, {@code null} if not scheduled yet.
+		 */
+		private volatile TimingWheel.Timeout<Entry> timeout;
+		
+		
+		/**
+		 * Creates a new stored request.
+		 *
+		 * @param key       The key.
+		 * @param request   The authorisation request.
+		 * @param expiresAt The expiration time, in milliseconds since
+		 *                  the epoch.
+		 */
+		private Entry(final String key, final AuthorizationRequest request, final long expiresAt) {
+			this.key = key;
+			this.request = request;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.tokenmanager;
+
+
+import com.nimbusds.oauth2.sdk.token.Token;
+
+
+/**
+ * Callback for the per-token results of a {@link TokenBatchProcessor}
+ * batch. The methods are invoked concurrently from the worker threads and
+ * must be thread-safe.
+ *
+ * @param <T> The result type.
+ */
+public interface TokenBatchCallback<T> {
+	
+	
+	/**
+	 * Called when the operation for a token succeeded.
+	 *
+	 * @param token  The token.
+	 * @param result The result, {@code null} for a revocation.
+	 */
+	void onSuccess(final Token token, final T result);
+	
+	
+	/**
+	 * Called when the operation for a token failed, after all retries.
+	 *
+	 * @param token The token.
+	 * @param e     The exception, typically an
+	 *              {@link java.io.IOException} or
+	 *              {@link com.nimbusds.oauth2.sdk.GeneralException}.
+	 */
+	void onFailure(final Token token, final Exception e);
+}
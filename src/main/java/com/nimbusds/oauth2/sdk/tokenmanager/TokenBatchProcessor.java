@@ -0,0 +1,691 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.tokenmanager;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.*;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.Token;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+
+
+/**
+ * Batch processor for introspecting or revoking large numbers of tokens,
+ * for example in security sweeps or when terminating all sessions of a
+ * user or tenant.
+ *
+ * <p>Features:
+ *
+ * <ul>
+ *     <li>The tokens are consumed lazily from an iterator, so that they
+ *         can be streamed from a database or another source.
+ *     <li>The requests run concurrently on a bounded pool of worker
+ *         threads. The HTTP connections are kept alive and reused by the
+ *         workers.
+ *     <li>Backpressure: no more than the configured number of tokens are
+ *         taken from the iterator ahead of their completion.
+ *     <li>Requests failing with an I/O exception or a HTTP 429, 500, 502,
+ *         503 or 504 status are retried with exponential backoff.
+ *     <li>The result for each token is passed to a
+ *         {@link TokenBatchCallback}.
+ * </ul>
+ *
+ * <p>The requests are authenticated with a {@link ClientAuthentication}.
+ * Public clients are identified with a {@code client_id} in their
+ * revocation requests instead. Introspection requests can alternatively be
+ * authorised with an {@link AccessToken}. Extending classes may override
+ * {@link #createIntrospectionRequest(Token)} and
+ * {@link #createRevocationRequest(Token)}, for example to create a new
+ * client authentication JWT for each call.
+ *
+ * <p>The processor should be {@link #shutdown() shut down} when no longer
+ * in use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * TokenBatchProcessor processor = new TokenBatchProcessor(
+ *         null,
+ *         URI.create("https://c2id.com/token/revoke"),
+ *         new ClientSecretBasic(clientID, secret));
+ *
+ * int failures = processor.revoke(refreshTokens.iterator(), callback);
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OAuth 2.0 Token Introspection (RFC 7662).
+ *     <li>OAuth 2.0 Token Revocation (RFC 7009).
+ * </ul>
+ */
+@ThreadSafe
+public class TokenBatchProcessor {
+	
+	
+	/**
+	 * The default maximum number of concurrent requests.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 8;
+	
+	
+	/**
+	 * The default maximum number of pending tokens per batch.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 256;
+	
+	
+	/**
+	 * The default maximum number of retries per token.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	
+	
+	/**
+	 * The default initial retry delay, in milliseconds.
+	 */
+	public static final long DEFAULT_RETRY_DELAY_MS = 100L;
+	
+	
+	/**
+	 * The default HTTP connect and read timeout, in milliseconds.
+	 */
+	public static final int DEFAULT_HTTP_TIMEOUT = 5000;
+	
+	
+	/**
+	 * Token operation.
+	 *
+	 * @param <T> The result type.
+	 */
+	private interface Operation<T> {
+		
+		
+		/**
+		 * Creates the request for the specified token.
+		 *
+		 * @param token The token.
+		 *
+		 * @return The request.
+		 */
+		Request createRequest(final Token token);
+		
+		
+		/**
+		 * Handles the specified HTTP response.
+		 *
+		 * @param httpResponse The HTTP response.
+		 *
+		 * @return The result.
+		 *
+		 * @throws GeneralException If the response couldn't be parsed
+		 *                          or is an error.
+		 */
+		T handle(final HTTPResponse httpResponse)
+			throws GeneralException;
+	}
+	
+	
+	/**
+	 * Token introspection.
+	 */
+	private final Operation<TokenIntrospectionSuccessResponse> introspection =
+		new Operation<TokenIntrospectionSuccessResponse>() {
+			@Override
+			public Request createRequest(final Token token) {
+				return createIntrospectionRequest(token);
+			}
+			
+			@Override
+			public TokenIntrospectionSuccessResponse handle(final HTTPResponse httpResponse)
+				throws GeneralException {
+				
+				TokenIntrospectionResponse response = TokenIntrospectionResponse.parse(httpResponse);
+				
+				if (! response.indicatesSuccess()) {
+					throw new GeneralException(response.toErrorResponse().getErrorObject());
+				}
+				
+				return response.toSuccessResponse();
+			}
+		};
+	
+	
+	/**
+	 * Token revocation.
+	 */
+	private final Operation<Void> revocation =
+		new Operation<Void>() {
+			@Override
+			public Request createRequest(final Token token) {
+				return createRevocationRequest(token);
+			}
+			
+			@Override
+			public Void handle(final HTTPResponse httpResponse)
+				throws GeneralException {
+				
+				if (httpResponse.getStatusCode() != HTTPResponse.SC_OK) {
+					throw new GeneralException(ErrorObject.parse(httpResponse));
+				}
+				
+				return null;
+			}
+		};
+	
+	
+	/**
+	 * The token introspection endpoint, {@code null} if not specified.
+	 */
+	private final URI introspectionEndpoint;
+	
+	
+	/**
+	 * The token revocation endpoint, {@code null} if not specified.
+	 */
+	private final URI revocationEndpoint;
+	
+	
+	/**
+	 * The client authentication, {@code null} if none.
+	 */
+	private final ClientAuthentication clientAuth;
+	
+	
+	/**
+	 * The client identifier for revocation requests without client
+	 * authentication, {@code null} if none.
+	 */
+	private final ClientID clientID;
+	
+	
+	/**
+	 * The client authorisation for introspection requests, {@code null}
+	 * if none.
+	 */
+	private final AccessToken clientAuthz;
+	
+	
+	/**
+	 * The maximum number of pending tokens per batch.
+	 */
+	private final int maxPending;
+	
+	
+	/**
+	 * The maximum number of retries per token.
+	 */
+	private final int maxRetries;
+	
+	
+	/**
+	 * The initial retry delay, in milliseconds.
+	 */
+	private final long retryDelayMs;
+	
+	
+	/**
+	 * The HTTP connect timeout, in milliseconds.
+	 */
+	private final int connectTimeout;
+	
+	
+	/**
+	 * The HTTP read timeout, in milliseconds.
+	 */
+	private final int readTimeout;
+	
+	
+	/**
+	 * The worker thread pool.
+	 */
+	private final ExecutorService executor;
+	
+	
+	/**
+	 * Creates a new token batch processor with the default concurrency,
+	 * backpressure, retry and HTTP timeout settings.
+	 *
+	 * @param introspectionEndpoint The token introspection endpoint,
+	 *                              {@code null} if not specified.
+	 * @param revocationEndpoint    The token revocation endpoint,
+	 *                              {@code null} if not specified.
+	 * @param clientAuth            The client authentication. Must not
+	 *                              be {@code null} if a revocation
+	 *                              endpoint is specified.
+	 */
+	public TokenBatchProcessor(final URI introspectionEndpoint,
+				   final URI revocationEndpoint,
+				   final ClientAuthentication clientAuth) {
+		
+		this(introspectionEndpoint, revocationEndpoint, clientAuth,
+			DEFAULT_MAX_CONCURRENCY,
+			DEFAULT_MAX_PENDING,
+			DEFAULT_MAX_RETRIES,
+			DEFAULT_RETRY_DELAY_MS,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_HTTP_TIMEOUT);
+	}
+	
+	
+	/**
+	 * Creates a new token batch processor.
+	 *
+	 * @param introspectionEndpoint The token introspection endpoint,
+	 *                              {@code null} if not specified.
+	 * @param revocationEndpoint    The token revocation endpoint,
+	 *                              {@code null} if not specified.
+	 * @param clientAuth            The client authentication. Must not
+	 *                              be {@code null} if a revocation
+	 *                              endpoint is specified.
+	 * @param maxConcurrency        The maximum number of concurrent
+	 *                              requests. Must be positive.
+	 * @param maxPending            The maximum number of tokens per batch
+	 *                              taken from the iterator ahead of their
+	 *                              completion. Must not be less than the
+	 *                              maximum concurrency.
+	 * @param maxRetries            The maximum number of retries per
+	 *                              token, zero if none. Must not be
+	 *                              negative.
+	 * @param retryDelayMs          The initial retry delay, doubled on
+	 *                              each subsequent retry, in milliseconds.
+	 *                              Must not be negative.
+	 * @param connectTimeout        The HTTP connect timeout, in
+	 *                              milliseconds, zero implies no timeout.
+	 *                              Must not be negative.
+	 * @param readTimeout           The HTTP read timeout, in
+	 *                              milliseconds, zero implies no timeout.
+	 *                              Must not be negative.
+	 */
+	public TokenBatchProcessor(final URI introspectionEndpoint,
+				   final URI revocationEndpoint,
+				   final ClientAuthentication clientAuth,
+				   final int maxConcurrency,
+				   final int maxPending,
+				   final int maxRetries,
+				   final long retryDelayMs,
+				   final int connectTimeout,
+				   final int readTimeout) {
+		
+		this(introspectionEndpoint, revocationEndpoint, clientAuth, null, null,
+			maxConcurrency, maxPending, maxRetries, retryDelayMs, connectTimeout, readTimeout);
+	}
+	
+	
+	/**
+	 * Creates a new token batch processor.
+	 *
+	 * @param introspectionEndpoint The token introspection endpoint,
+	 *                              {@code null} if not specified.
+	 * @param revocationEndpoint    The token revocation endpoint,
+	 *                              {@code null} if not specified.
+	 * @param clientAuth            The client authentication,
+	 *                              {@code null} if none.
+	 * @param clientID              The client identifier for revocation
+	 *                              requests of a public client,
+	 *                              {@code null} if none. Must be
+	 *                              specified for revocation without
+	 *                              client authentication.
+	 * @param clientAuthz           The client authorisation for
+	 *                              introspection requests, {@code null}
+	 *                              if none. Must not be specified
+	 *                              together with client authentication.
+	 * @param maxConcurrency        The maximum number of concurrent
+	 *                              requests. Must be positive.
+	 * @param maxPending            The maximum number of tokens per batch
+	 *                              taken from the iterator ahead of their
+	 *                              completion. Must not be less than the
+	 *                              maximum concurrency.
+	 * @param maxRetries            The maximum number of retries per
+	 *                              token, zero if none. Must not be
+	 *                              negative.
+	 * @param retryDelayMs          The initial retry delay, doubled on
+	 *                              each subsequent retry, in milliseconds.
+	 *                              Must not be negative.
+	 * @param connectTimeout        The HTTP connect timeout, in
+	 *                              milliseconds, zero implies no timeout.
+	 *                              Must not be negative.
+	 * @param readTimeout           The HTTP read timeout, in
+	 *                              milliseconds, zero implies no timeout.
+	 *                              Must not be negative.
+	 */
+	public TokenBatchProcessor(final URI introspectionEndpoint,
+				   final URI revocationEndpoint,
+				   final ClientAuthentication clientAuth,
+				   final ClientID clientID,
+				   final AccessToken clientAuthz,
+				   final int maxConcurrency,
+				   final int maxPending,
+				   final int maxRetries,
+				   final long retryDelayMs,
+				   final int connectTimeout,
+				   final int readTimeout) {
+		
+		if (introspectionEndpoint == null && revocationEndpoint == null) {
+			throw new IllegalArgumentException("At least one of the token introspection or revocation endpoints must be specified");
+		}
+		this.introspectionEndpoint = introspectionEndpoint;
+		this.revocationEndpoint = revocationEndpoint;
+		
+		if (clientAuth != null && clientAuthz != null) {
+			throw new IllegalArgumentException("Either client authentication or client authorization must be specified, not both");
+		}
+		
+		if (revocationEndpoint != null && clientAuth == null && clientID == null) {
+			throw new IllegalArgumentException("The client ID must be specified for token revocation without client authentication");
+		}
+		this.clientAuth = clientAuth;
+		this.clientID = clientID;
+		this.clientAuthz = clientAuthz;
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		if (maxPending < maxConcurrency) {
+			throw new IllegalArgumentException("The max pending tokens must not be less than the max concurrency");
+		}
+		this.maxPending = maxPending;
+		
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("The max retries must not be negative");
+		}
+		this.maxRetries = maxRetries;
+		
+		if (retryDelayMs < 0) {
+			throw new IllegalArgumentException("The retry delay must not be negative");
+		}
+		this.retryDelayMs = retryDelayMs;
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP connect timeout must not be negative");
+		}
+		this.connectTimeout = connectTimeout;
+		
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP read timeout must not be negative");
+		}
+		this.readTimeout = readTimeout;
+		
+		executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("token-batch"));
+	}
+	
+	
+	/**
+	 * Returns the token introspection endpoint.
+	 *
+	 * @return The token introspection endpoint, {@code null} if not
+	 *         specified.
+	 */
+	public URI getIntrospectionEndpoint() {
+		return introspectionEndpoint;
+	}
+	
+	
+	/**
+	 * Returns the token revocation endpoint.
+	 *
+	 * @return The token revocation endpoint, {@code null} if not
+	 *         specified.
+	 */
+	public URI getRevocationEndpoint() {
+		return revocationEndpoint;
+	}
+	
+	
+	/**
+	 * Introspects the specified tokens. Blocks until all tokens are
+	 * processed.
+	 *
+	 * @param tokens   The tokens to introspect. Must not be {@code null}.
+	 * @param callback The callback for the per-token results. Must not
+	 *                 be {@code null}.
+	 *
+	 * @return The number of tokens for which the introspection failed,
+	 *         zero if none.
+	 *
+	 * @throws InterruptedException If interrupted while waiting. The
+	 *                              pending tokens are still processed.
+	 */
+	public int introspect(final Iterator<? extends Token> tokens,
+			      final TokenBatchCallback<TokenIntrospectionSuccessResponse> callback)
+		throws InterruptedException {
+		
+		if (introspectionEndpoint == null) {
+			throw new IllegalStateException("The token introspection endpoint is not specified");
+		}
+		
+		return process(tokens, introspection, callback);
+	}
+	
+	
+	/**
+	 * Revokes the specified tokens. Blocks until all tokens are
+	 * processed.
+	 *
+	 * @param tokens   The tokens to revoke. Must not be {@code null}.
+	 * @param callback The callback for the per-token results,
+	 *                 {@code null} if not required.
+	 *
+	 * @return The number of tokens for which the revocation failed, zero
+	 *         if none.
+	 *
+	 * @throws InterruptedException If interrupted while waiting. The
+	 *                              pending tokens are still processed.
+	 */
+	public int revoke(final Iterator<? extends Token> tokens,
+			  final TokenBatchCallback<Void> callback)
+		throws InterruptedException {
+		
+		if (revocationEndpoint == null) {
+			throw new IllegalStateException("The token revocation endpoint is not specified");
+		}
+		
+		return process(tokens, revocation, callback);
+	}
+	
+	
+	/**
+	 * Processes the specified tokens.
+	 *
+	 * @param tokens    The tokens.
+	 * @param operation The token operation.
+	 * @param callback  The callback, {@code null} if none.
+	 *
+	 * @return The number of failed tokens.
+	 *
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private <T> int process(final Iterator<? extends Token> tokens,
+				final Operation<T> operation,
+				final TokenBatchCallback<T> callback)
+		throws InterruptedException {
+		
+		final Semaphore pending = new Semaphore(maxPending);
+		final AtomicInteger failures = new AtomicInteger();
+		
+		while (tokens.hasNext()) {
+			
+			final Token token = tokens.next();
+			
+			if (token == null) {
+				continue;
+			}
+			
+			// Backpressure
+			pending.acquire();
+			
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							T result = execute(token, operation);
+							if (callback != null) {
+								callback.onSuccess(token, result);
+							}
+						} catch (IOException | GeneralException | RuntimeException e) {
+							failures.incrementAndGet();
+							if (callback != null) {
+								callback.onFailure(token, e);
+							}
+						} finally {
+							pending.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				pending.release();
+				failures.incrementAndGet();
+				if (callback != null) {
+					callback.onFailure(token, new IOException("The token batch processor is shut down", e));
+				}
+			}
+		}
+		
+		// Wait for completion
+		pending.acquire(maxPending);
+		pending.release(maxPending);
+		
+		return failures.get();
+	}
+	
+	
+	/**
+	 * Executes the request for the specified token, with retries.
+	 *
+	 * @param token     The token.
+	 * @param operation The token operation.
+	 *
+	 * @return The result.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or is
+	 *                          an error.
+	 */
+	private <T> T execute(final Token token,
+			      final Operation<T> operation)
+		throws IOException, GeneralException {
+		
+		for (int attempt=0; ; attempt++) {
+			
+			if (attempt > 0) {
+				try {
+					Thread.sleep(retryDelayMs << Math.min(attempt - 1, 16));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting to retry", e);
+				}
+			}
+			
+			HTTPResponse httpResponse;
+			try {
+				HTTPRequest httpRequest = operation.createRequest(token).toHTTPRequest();
+				httpRequest.setConnectTimeout(connectTimeout);
+				httpRequest.setReadTimeout(readTimeout);
+				httpResponse = httpRequest.send();
+			} catch (IOException e) {
+				if (attempt < maxRetries) {
+					continue;
+				}
+				throw e;
+			}
+			
+			if (isRetryable(httpResponse.getStatusCode()) && attempt < maxRetries) {
+				continue;
+			}
+			
+			return operation.handle(httpResponse);
+		}
+	}
+	
+	
+	/**
+	 * Returns {@code true} if a request with the specified HTTP status
+	 * code may be retried.
+	 *
+	 * @param statusCode The HTTP status code.
+	 *
+	 * @return {@code true} if the request may be retried.
+	 */
+	static boolean isRetryable(final int statusCode) {
+		
+		return statusCode == 429 ||
+			statusCode == 500 ||
+			statusCode == 502 ||
+			statusCode == 503 ||
+			statusCode == 504;
+	}
+	
+	
+	/**
+	 * Creates a token introspection request for the specified token.
+	 *
+	 * @param token The token. Must not be {@code null}.
+	 *
+	 * @return The token introspection request.
+	 */
+	protected TokenIntrospectionRequest createIntrospectionRequest(final Token token) {
+		
+		if (clientAuthz != null) {
+			return new TokenIntrospectionRequest(introspectionEndpoint, clientAuthz, token);
+		} else if (clientAuth != null) {
+			return new TokenIntrospectionRequest(introspectionEndpoint, clientAuth, token);
+		} else {
+			return new TokenIntrospectionRequest(introspectionEndpoint, token);
+		}
+	}
+	
+	
+	/**
+	 * Creates a token revocation request for the specified token.
+	 *
+	 * @param token The token. Must not be {@code null}.
+	 *
+	 * @return The token revocation request.
+	 */
+	protected TokenRevocationRequest createRevocationRequest(final Token token) {
+		
+		if (clientAuth != null) {
+			return new TokenRevocationRequest(revocationEndpoint, clientAuth, token);
+		} else {
+			return new TokenRevocationRequest(revocationEndpoint, clientID, token);
+		}
+	}
+	
+	
+	/**
+	 * Shuts down the worker thread pool.
+	 */
+	public void shutdown() {
+		
+		executor.shutdownNow();
+	}
+}
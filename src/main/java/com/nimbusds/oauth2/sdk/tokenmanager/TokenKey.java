@@ -0,0 +1,128 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.tokenmanager;
+
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import net.jcip.annotations.Immutable;
+
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+
+
+/**
+ * Key of the tokens held by a {@link TokenManager}: the client, the target
+ * resources (audience) and the scope of the tokens.
+ */
+@Immutable
+public final class TokenKey {
+	
+	
+	/**
+	 * The client ID.
+	 */
+	private final ClientID clientID;
+	
+	
+	/**
+	 * The resource URIs, {@code null} if not specified.
+	 */
+	private final List<URI> resources;
+	
+	
+	/**
+	 * The scope, {@code null} if not specified.
+	 */
+	private final Scope scope;
+	
+	
+	/**
+	 * Creates a new token key.
+	 *
+	 * @param clientID  The client ID. Must not be {@code null}.
+	 * @param resources The resource URIs, {@code null} if not specified.
+	 * @param scope     The scope, {@code null} if not specified.
+	 */
+	public TokenKey(final ClientID clientID, final List<URI> resources, final Scope scope) {
+		
+		if (clientID == null) {
+			throw new IllegalArgumentException("The client ID must not be null");
+		}
+		this.clientID = clientID;
+		this.resources = resources != null && ! resources.isEmpty() ? Collections.unmodifiableList(new ArrayList<>(resources)) : null;
+		this.scope = scope != null && ! scope.isEmpty() ? new Scope(scope) : null;
+	}
+	
+	
+	/**
+	 * Returns the client ID.
+	 *
+	 * @return The client ID.
+	 */
+	public ClientID getClientID() {
+		return clientID;
+	}
+	
+	
+	/**
+	 * Returns the resource URIs.
+	 *
+	 * @return The resource URIs, {@code null} if not specified.
+	 */
+	public List<URI> getResources() {
+		return resources;
+	}
+	
+	
+	/**
+	 * Returns the scope.
+	 *
+	 * @return The scope, {@code null} if not specified.
+	 */
+	public Scope getScope() {
+		return scope != null ? new Scope(scope) : null;
+	}
+	
+	
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof TokenKey)) return false;
+		TokenKey tokenKey = (TokenKey) o;
+		return clientID.equals(tokenKey.clientID) &&
+			Objects.equals(resources, tokenKey.resources) &&
+			Objects.equals(scope, tokenKey.scope);
+	}
+	
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(clientID, resources, scope);
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "[client_id=" + clientID + " resources=" + resources + " scope=" + scope + "]";
+	}
+}
@@ -0,0 +1,890 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.tokenmanager;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.*;
+import com.nimbusds.oauth2.sdk.auth.ClientAuthentication;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.RefreshToken;
+import com.nimbusds.oauth2.sdk.token.Tokens;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+
+
+/**
+ * Client-side token manager. Holds the current tokens of a client for each
+ * {@link TokenKey} (client, resources and scope) and keeps them fresh, so
+ * that threads sharing the tokens don't need to coordinate themselves.
+ *
+ * <p>Features:
+ *
+ * <ul>
+ *     <li>{@link #getAccessToken(TokenKey)} returns the current access
+ *         token with a single map lookup and volatile read, it never
+ *         blocks or calls the token endpoint.
+ *     <li>Proactive refresh: the tokens are refreshed on a background
+ *         scheduler ahead of the access token expiration, with the
+ *         refresh token if one was issued, else with the original
+ *         authorisation grant if it can be reused (client credentials,
+ *         password, JWT and SAML 2.0 bearer, and token exchange grants).
+ *         Failed refreshes are retried after the configured delay.
+ *     <li>Single-flight refresh: concurrent refreshes for the same key,
+ *         background or on demand, are collapsed into one token request.
+ *     <li>Refresh token rotation: the access and refresh tokens are
+ *         replaced together, in a single atomic update. If the token
+ *         response has no new refresh token the current one is kept.
+ *         On an {@link OAuth2Error#INVALID_GRANT invalid_grant} error
+ *         the tokens are discarded.
+ * </ul>
+ *
+ * <p>Extending classes may override
+ * {@link #createTokenRequest(TokenKey, ClientAuthentication, AuthorizationGrant)},
+ * for example to create a new client authentication JWT for each request.
+ *
+ * <p>The manager should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * TokenManager tokenManager = new TokenManager(URI.create("https://c2id.com/token"));
+ *
+ * TokenKey key = new TokenKey(clientID, resources, new Scope("read"));
+ *
+ * tokenManager.register(key, new ClientSecretBasic(clientID, secret), new ClientCredentialsGrant());
+ *
+ * // From any thread
+ * AccessToken accessToken = tokenManager.getAccessToken(key);
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>The OAuth 2.0 Authorization Framework (RFC 6749), sections 4.4
+ *         and 6.
+ *     <li>OAuth 2.0 Security Best Current Practice, section 4.13.2.
+ *     <li>Resource Indicators for OAuth 2.0 (RFC 8707).
+ * </ul>
+ */
+@ThreadSafe
+public class TokenManager {
+	
+	
+	/**
+	 * The default HTTP connect and read timeout, in milliseconds.
+	 */
+	public static final int DEFAULT_HTTP_TIMEOUT = 5000;
+	
+	
+	/**
+	 * The default time before the access token expiration when the
+	 * tokens get refreshed, in seconds.
+	 */
+	public static final long DEFAULT_REFRESH_AHEAD_SECONDS = 30L;
+	
+	
+	/**
+	 * The default delay before a failed refresh is retried, in seconds.
+	 */
+	public static final long DEFAULT_RETRY_DELAY_SECONDS = 5L;
+	
+	
+	/**
+	 * Token state, replaced atomically.
+	 */
+	private static final class TokenState {
+		
+		
+		/**
+		 * The tokens.
+		 */
+		private final Tokens tokens;
+		
+		
+		/**
+		 * The access token expiration time, in milliseconds since the
+		 * epoch, {@link Long#MAX_VALUE} if not known.
+		 */
+		private final long expiresAt;
+		
+		
+		/**
+		 * The time of the proactive refresh, in milliseconds since the
+		 * epoch, {@link Long#MAX_VALUE} if none.
+		 */
+		private final long refreshAt;
+		
+		
+		/**
+		 * Creates a new token state.
+		 *
+		 * @param tokens    The tokens.
+		 * @param expiresAt The expiration time.
+		 * @param refreshAt The refresh time.
+		 */
+		private TokenState(final Tokens tokens, final long expiresAt, final long refreshAt) {
+			this.tokens = tokens;
+			this.expiresAt = expiresAt;
+			this.refreshAt = refreshAt;
+		}
+	}
+	
+	
+	/**
+	 * Registration of a token key.
+	 */
+	private static final class Registration {
+		
+		
+		/**
+		 * The token key.
+		 */
+		private final TokenKey key;
+		
+		
+		/**
+		 * The client authentication, {@code null} for a public client.
+		 */
+		private final ClientAuthentication clientAuth;
+		
+		
+		/**
+		 * The reusable authorisation grant, {@code null} if none.
+		 */
+		private final AuthorizationGrant grant;
+		
+		
+		/**
+		 * The current token state, {@code null} if none.
+		 */
+		private final AtomicReference<TokenState> state = new AtomicReference<>();
+		
+		
+		/**
+		 * The token request in progress, {@code null} if none.
+		 */
+		private final AtomicReference<FutureTask<TokenState>> inFlight = new AtomicReference<>();
+		
+		
+		/**
+		 * The scheduled refresh, {@code null} if none.
+		 */
+		private volatile ScheduledFuture<?> scheduledRefresh;
+		
+		
+		/**
+		 * Creates a new registration.
+		 *
+		 * @param key        The token key.
+		 * @param clientAuth The client authentication, {@code null} if
+		 *                   none.
+		 * @param grant      The reusable authorisation grant,
+		 *                   {@code null} if none.
+		 */
+		private Registration(final TokenKey key,
+				     final ClientAuthentication clientAuth,
+				     final AuthorizationGrant grant) {
+			this.key = key;
+			this.clientAuth = clientAuth;
+			this.grant = grant;
+		}
+	}
+	
+	
+	/**
+	 * The token endpoint.
+	 */
+	private final URI tokenEndpoint;
+	
+	
+	/**
+	 * The HTTP connect timeout, in milliseconds.
+	 */
+	private final int connectTimeout;
+	
+	
+	/**
+	 * The HTTP read timeout, in milliseconds.
+	 */
+	private final int readTimeout;
+	
+	
+	/**
+	 * The refresh-ahead time, in milliseconds.
+	 */
+	private final long refreshAheadMs;
+	
+	
+	/**
+	 * The assumed access token lifetime when the token response doesn't
+	 * specify one, in milliseconds, zero if none.
+	 */
+	private final long defaultLifetimeMs;
+	
+	
+	/**
+	 * The retry delay, in milliseconds.
+	 */
+	private final long retryDelayMs;
+	
+	
+	/**
+	 * The registrations, keyed by token key.
+	 */
+	private final ConcurrentHashMap<TokenKey,Registration> registrations = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The scheduler for the proactive refreshes.
+	 */
+	private final ScheduledExecutorService scheduler;
+	
+	
+	/**
+	 * Creates a new token manager with the default HTTP timeouts,
+	 * refresh-ahead time and retry delay. Access tokens without a
+	 * specified lifetime are not refreshed proactively.
+	 *
+	 * @param tokenEndpoint The token endpoint. Must not be {@code null}.
+	 */
+	public TokenManager(final URI tokenEndpoint) {
+		
+		this(tokenEndpoint,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_HTTP_TIMEOUT,
+			DEFAULT_REFRESH_AHEAD_SECONDS,
+			0L,
+			DEFAULT_RETRY_DELAY_SECONDS);
+	}
+	
+	
+	/**
+	 * Creates a new token manager.
+	 *
+	 * @param tokenEndpoint          The token endpoint. Must not be
+	 *                               {@code null}.
+	 * @param connectTimeout         The HTTP connect timeout, in
+	 *                               milliseconds, zero implies no
+	 *                               timeout. Must not be negative.
+	 * @param readTimeout            The HTTP read timeout, in
+	 *                               milliseconds, zero implies no timeout.
+	 *                               Must not be negative.
+	 * @param refreshAheadSeconds    The time before the access token
+	 *                               expiration when the tokens get
+	 *                               refreshed, in seconds. For short-lived
+	 *                               tokens the refresh occurs no earlier
+	 *                               than half-way through the lifetime.
+	 *                               Must not be negative.
+	 * @param defaultLifetimeSeconds The assumed access token lifetime
+	 *                               when the token response doesn't
+	 *                               specify one, in seconds, zero if none.
+	 *                               Must not be negative.
+	 * @param retryDelaySeconds      The delay before a failed background
+	 *                               refresh is retried, in seconds. Must
+	 *                               be positive.
+	 */
+	public TokenManager(final URI tokenEndpoint,
+			    final int connectTimeout,
+			    final int readTimeout,
+			    final long refreshAheadSeconds,
+			    final long defaultLifetimeSeconds,
+			    final long retryDelaySeconds) {
+		
+		if (tokenEndpoint == null) {
+			throw new IllegalArgumentException("The token endpoint must not be null");
+		}
+		this.tokenEndpoint = tokenEndpoint;
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP connect timeout must not be negative");
+		}
+		this.connectTimeout = connectTimeout;
+		
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP read timeout must not be negative");
+		}
+		this.readTimeout = readTimeout;
+		
+		if (refreshAheadSeconds < 0) {
+			throw new IllegalArgumentException("The refresh-ahead time must not be negative");
+		}
+		refreshAheadMs = refreshAheadSeconds * 1000L;
+		
+		if (defaultLifetimeSeconds < 0) {
+			throw new IllegalArgumentException("The default access token lifetime must not be negative");
+		}
+		defaultLifetimeMs = defaultLifetimeSeconds * 1000L;
+		
+		if (retryDelaySeconds < 1) {
+			throw new IllegalArgumentException("The retry delay must be positive");
+		}
+		retryDelayMs = retryDelaySeconds * 1000L;
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("token-manager"));
+	}
+	
+	
+	/**
+	 * Returns the token endpoint.
+	 *
+	 * @return The token endpoint.
+	 */
+	public URI getTokenEndpoint() {
+		return tokenEndpoint;
+	}
+	
+	
+	/**
+	 * Returns the refresh-ahead time.
+	 *
+	 * @return The refresh-ahead time, in seconds.
+	 */
+	public long getRefreshAheadSeconds() {
+		return refreshAheadMs / 1000L;
+	}
+	
+	
+	/**
+	 * Registers the specified token key and obtains the initial tokens
+	 * with the specified authorisation grant. Replaces any previous
+	 * registration of the key.
+	 *
+	 * @param key        The token key. Must not be {@code null}.
+	 * @param clientAuth The client authentication, {@code null} for a
+	 *                   public client.
+	 * @param grant      The authorisation grant. If the grant can be
+	 *                   reused it is kept for the refreshes when no
+	 *                   refresh token was issued. Must not be
+	 *                   {@code null}.
+	 *
+	 * @return The access token.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response.
+	 */
+	public AccessToken register(final TokenKey key,
+				    final ClientAuthentication clientAuth,
+				    final AuthorizationGrant grant)
+		throws IOException, GeneralException {
+		
+		if (grant == null) {
+			throw new IllegalArgumentException("The authorization grant must not be null");
+		}
+		
+		Registration reg = new Registration(key, clientAuth, isReusable(grant) ? grant : null);
+		putRegistration(reg);
+		return refresh(reg, grant, null).tokens.getAccessToken();
+	}
+	
+	
+	/**
+	 * Registers the specified token key with tokens obtained by other
+	 * means, for example in an authorisation code flow. Replaces any
+	 * previous registration of the key. The tokens are refreshed with
+	 * the refresh token, if one is included.
+	 *
+	 * @param key        The token key. Must not be {@code null}.
+	 * @param clientAuth The client authentication, {@code null} for a
+	 *                   public client.
+	 * @param tokens     The tokens. Must not be {@code null}.
+	 */
+	public void register(final TokenKey key,
+			     final ClientAuthentication clientAuth,
+			     final Tokens tokens) {
+		
+		if (tokens == null) {
+			throw new IllegalArgumentException("The tokens must not be null");
+		}
+		
+		Registration reg = new Registration(key, clientAuth, null);
+		putRegistration(reg);
+		TokenState state = createState(tokens, System.currentTimeMillis());
+		reg.state.set(state);
+		scheduleRefresh(reg, state.refreshAt);
+	}
+	
+	
+	/**
+	 * Puts the specified registration, cancelling the scheduled refresh
+	 * of any replaced one.
+	 *
+	 * @param reg The registration.
+	 */
+	private void putRegistration(final Registration reg) {
+		
+		if (reg.key == null) {
+			throw new IllegalArgumentException("The token key must not be null");
+		}
+		
+		if (reg.clientAuth != null && ! reg.key.getClientID().equals(reg.clientAuth.getClientID())) {
+			throw new IllegalArgumentException("The client authentication doesn't match the client ID of the token key");
+		}
+		
+		Registration previous = registrations.put(reg.key, reg);
+		
+		if (previous != null) {
+			cancelScheduledRefresh(previous);
+		}
+	}
+	
+	
+	/**
+	 * Returns the registered token keys.
+	 *
+	 * @return The token keys, empty set if none.
+	 */
+	public Set<TokenKey> getTokenKeys() {
+		
+		return Collections.unmodifiableSet(new HashSet<>(registrations.keySet()));
+	}
+	
+	
+	/**
+	 * Returns the current access token for the specified key. Never
+	 * blocks or calls the token endpoint.
+	 *
+	 * @param key The token key. Must not be {@code null}.
+	 *
+	 * @return The access token, {@code null} if the key isn't registered,
+	 *         or the access token expired and couldn't be refreshed.
+	 */
+	public AccessToken getAccessToken(final TokenKey key) {
+		
+		Tokens tokens = getTokens(key);
+		return tokens != null ? tokens.getAccessToken() : null;
+	}
+	
+	
+	/**
+	 * Returns the current tokens for the specified key. Never blocks or
+	 * calls the token endpoint.
+	 *
+	 * @param key The token key. Must not be {@code null}.
+	 *
+	 * @return The tokens, {@code null} if the key isn't registered, or
+	 *         the access token expired and couldn't be refreshed.
+	 */
+	public Tokens getTokens(final TokenKey key) {
+		
+		Registration reg = registrations.get(key);
+		
+		if (reg == null) {
+			return null;
+		}
+		
+		TokenState state = reg.state.get();
+		
+		if (state == null || state.expiresAt <= System.currentTimeMillis()) {
+			return null;
+		}
+		
+		return state.tokens;
+	}
+	
+	
+	/**
+	 * Refreshes the tokens for the specified key, for example after the
+	 * access token was rejected by a resource server. Concurrent
+	 * refreshes are collapsed into a single token request. If a stale
+	 * access token is specified and the current access token is already
+	 * a different one, the current tokens are returned without a refresh,
+	 * so that many threads reporting the same rejected token cause a
+	 * single refresh.
+	 *
+	 * @param key        The token key. Must not be {@code null}.
+	 * @param staleToken The stale access token, {@code null} to refresh
+	 *                   unconditionally.
+	 *
+	 * @return The refreshed access token.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the key isn't registered, no refresh
+	 *                          token or reusable grant is available, the
+	 *                          response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response.
+	 */
+	public AccessToken refresh(final TokenKey key, final AccessToken staleToken)
+		throws IOException, GeneralException {
+		
+		Registration reg = registrations.get(key);
+		
+		if (reg == null) {
+			throw new GeneralException("No registration for token key " + key);
+		}
+		
+		return refresh(reg, null, staleToken).tokens.getAccessToken();
+	}
+	
+	
+	/**
+	 * Removes the registration of the specified key.
+	 *
+	 * @param key The token key. Must not be {@code null}.
+	 */
+	public void remove(final TokenKey key) {
+		
+		Registration reg = registrations.remove(key);
+		
+		if (reg != null) {
+			cancelScheduledRefresh(reg);
+		}
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the specified authorisation grant can be
+	 * used more than once.
+	 *
+	 * @param grant The authorisation grant.
+	 *
+	 * @return {@code true} if the grant is reusable, else {@code false}.
+	 */
+	static boolean isReusable(final AuthorizationGrant grant) {
+		
+		GrantType type = grant.getType();
+		return GrantType.CLIENT_CREDENTIALS.equals(type) ||
+			GrantType.PASSWORD.equals(type) ||
+			GrantType.JWT_BEARER.equals(type) ||
+			GrantType.SAML2_BEARER.equals(type) ||
+			GrantType.TOKEN_EXCHANGE.equals(type);
+	}
+	
+	
+	/**
+	 * Refreshes the tokens of the specified registration, joining any
+	 * token request already in progress.
+	 *
+	 * @param reg        The registration.
+	 * @param grant      The authorisation grant to use, {@code null} to
+	 *                   use the refresh token or the reusable grant.
+	 * @param staleToken The stale access token, {@code null} if not
+	 *                   specified.
+	 *
+	 * @return The new token state.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If no grant is available, the response
+	 *                          couldn't be parsed or the authorisation
+	 *                          server returned an error response.
+	 */
+	private TokenState refresh(final Registration reg,
+				   final AuthorizationGrant grant,
+				   final AccessToken staleToken)
+		throws IOException, GeneralException {
+		
+		if (staleToken != null) {
+			TokenState current = reg.state.get();
+			if (current != null &&
+			    current.expiresAt > System.currentTimeMillis() &&
+			    ! staleToken.equals(current.tokens.getAccessToken())) {
+				// Already refreshed
+				return current;
+			}
+		}
+		
+		FutureTask<TokenState> task = new FutureTask<>(new Callable<TokenState>() {
+			@Override
+			public TokenState call() throws Exception {
+				return requestAndUpdate(reg, grant);
+			}
+		});
+		
+		FutureTask<TokenState> existing = reg.inFlight.get();
+		
+		while (existing == null && ! reg.inFlight.compareAndSet(null, task)) {
+			existing = reg.inFlight.get();
+		}
+		
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				reg.inFlight.compareAndSet(task, null);
+			}
+		} else {
+			task = existing;
+		}
+		
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for token refresh", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			} else if (cause instanceof GeneralException) {
+				throw (GeneralException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else {
+				throw new GeneralException(cause.getMessage(), cause);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Makes a token request for the specified registration and updates
+	 * its token state. Must only be called by the single in-flight task.
+	 *
+	 * @param reg   The registration.
+	 * @param grant The authorisation grant to use, {@code null} to use
+	 *              the refresh token or the reusable grant.
+	 *
+	 * @return The new token state.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If no grant is available, the response
+	 *                          couldn't be parsed or the authorisation
+	 *                          server returned an error response.
+	 */
+	private TokenState requestAndUpdate(final Registration reg, final AuthorizationGrant grant)
+		throws IOException, GeneralException {
+		
+		TokenState current = reg.state.get();
+		RefreshToken refreshToken = current != null ? current.tokens.getRefreshToken() : null;
+		
+		AuthorizationGrant grantToUse = grant;
+		
+		if (grantToUse == null) {
+			if (refreshToken != null) {
+				grantToUse = new RefreshTokenGrant(refreshToken);
+			} else if (reg.grant != null) {
+				grantToUse = reg.grant;
+			} else {
+				throw new GeneralException("No refresh token or reusable grant for token key " + reg.key);
+			}
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		Tokens tokens;
+		try {
+			tokens = requestTokens(createTokenRequest(reg.key, reg.clientAuth, grantToUse));
+		} catch (GeneralException e) {
+			if (OAuth2Error.INVALID_GRANT.equals(e.getErrorObject())) {
+				// Refresh token or grant revoked
+				reg.state.compareAndSet(current, null);
+			}
+			throw e;
+		}
+		
+		if (tokens.getRefreshToken() == null && refreshToken != null && grantToUse instanceof RefreshTokenGrant) {
+			// No rotation, keep the current refresh token
+			tokens = new Tokens(tokens.getAccessToken(), refreshToken);
+		}
+		
+		TokenState updated = createState(tokens, now);
+		
+		// The in-flight task is the only writer, apart from removal on
+		// invalid grant and re-registration which uses a new state ref
+		reg.state.set(updated);
+		
+		if (registrations.get(reg.key) == reg) {
+			scheduleRefresh(reg, updated.refreshAt);
+		}
+		
+		return updated;
+	}
+	
+	
+	/**
+	 * Creates a token state for the specified tokens.
+	 *
+	 * @param tokens The tokens.
+	 * @param now    The time of the token request, in milliseconds since
+	 *               the epoch.
+	 *
+	 * @return The token state.
+	 */
+	private TokenState createState(final Tokens tokens, final long now) {
+		
+		long lifetimeMs = tokens.getAccessToken().getLifetime() * 1000L;
+		
+		if (lifetimeMs <= 0L) {
+			lifetimeMs = defaultLifetimeMs;
+		}
+		
+		if (lifetimeMs <= 0L) {
+			// No expiration, no proactive refresh
+			return new TokenState(tokens, Long.MAX_VALUE, Long.MAX_VALUE);
+		}
+		
+		long expiresAt = now + lifetimeMs;
+		long refreshAt = Math.max(now + lifetimeMs / 2, expiresAt - refreshAheadMs);
+		return new TokenState(tokens, expiresAt, refreshAt);
+	}
+	
+	
+	/**
+	 * Schedules a proactive refresh for the specified registration,
+	 * replacing any previously scheduled one.
+	 *
+	 * @param reg       The registration.
+	 * @param refreshAt The refresh time, in milliseconds since the epoch,
+	 *                  {@link Long#MAX_VALUE} if none.
+	 */
+	private void scheduleRefresh(final Registration reg, final long refreshAt) {
+		
+		cancelScheduledRefresh(reg);
+		
+		if (refreshAt == Long.MAX_VALUE) {
+			return;
+		}
+		
+		if (reg.grant == null) {
+			TokenState state = reg.state.get();
+			if (state == null || state.tokens.getRefreshToken() == null) {
+				// Cannot refresh
+				return;
+			}
+		}
+		
+		long delay = Math.max(0L, refreshAt - System.currentTimeMillis());
+		
+		try {
+			reg.scheduledRefresh = scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					backgroundRefresh(reg);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shut down
+		}
+	}
+	
+	
+	/**
+	 * Performs a background refresh for the specified registration,
+	 * rescheduling it on failure.
+	 *
+	 * @param reg The registration.
+	 */
+	private void backgroundRefresh(final Registration reg) {
+		
+		if (registrations.get(reg.key) != reg) {
+			// Removed or replaced
+			return;
+		}
+		
+		try {
+			refresh(reg, null, null);
+		} catch (IOException | GeneralException | RuntimeException e) {
+			if (reg.state.get() != null || reg.grant != null) {
+				scheduleRefresh(reg, System.currentTimeMillis() + retryDelayMs);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Cancels the scheduled refresh of the specified registration, if
+	 * any.
+	 *
+	 * @param reg The registration.
+	 */
+	private static void cancelScheduledRefresh(final Registration reg) {
+		
+		ScheduledFuture<?> scheduled = reg.scheduledRefresh;
+		
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			reg.scheduledRefresh = null;
+		}
+	}
+	
+	
+	/**
+	 * Creates a token request.
+	 *
+	 * @param key        The token key.
+	 * @param clientAuth The client authentication, {@code null} for a
+	 *                   public client.
+	 * @param grant      The authorisation grant.
+	 *
+	 * @return The token request.
+	 */
+	protected TokenRequest createTokenRequest(final TokenKey key,
+						  final ClientAuthentication clientAuth,
+						  final AuthorizationGrant grant) {
+		
+		// The scope of a refresh token grant is implied
+		Scope scope = grant instanceof RefreshTokenGrant ? null : key.getScope();
+		
+		if (clientAuth != null) {
+			return new TokenRequest(tokenEndpoint, clientAuth, grant, scope, key.getResources(), null);
+		} else {
+			return new TokenRequest(tokenEndpoint, key.getClientID(), grant, scope, key.getResources(), null, null);
+		}
+	}
+	
+	
+	/**
+	 * Sends the specified token request.
+	 *
+	 * @param request The token request. Must not be {@code null}.
+	 *
+	 * @return The tokens.
+	 *
+	 * @throws IOException      If the HTTP request failed.
+	 * @throws GeneralException If the response couldn't be parsed or the
+	 *                          authorisation server returned an error
+	 *                          response.
+	 */
+	protected Tokens requestTokens(final TokenRequest request)
+		throws IOException, GeneralException {
+		
+		HTTPRequest httpRequest = request.toHTTPRequest();
+		httpRequest.setConnectTimeout(connectTimeout);
+		httpRequest.setReadTimeout(readTimeout);
+		
+		TokenResponse response = TokenResponse.parse(httpRequest.send());
+		
+		if (! response.indicatesSuccess()) {
+			throw new GeneralException(response.toErrorResponse().getErrorObject());
+		}
+		
+		return response.toSuccessResponse().getTokens();
+	}
+	
+	
+	/**
+	 * Shuts down the background refresh scheduler.
+	 */
+	public void shutdown() {
+		
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util;
+
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Set;
+
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.ResponseMode;
+import com.nimbusds.oauth2.sdk.ResponseType;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.State;
+import com.nimbusds.openid.connect.sdk.Prompt;
+
+
+/**
+ * Authorisation request parameter parsing and validation utilities, shared
+ * by the OAuth 2.0 authorisation request and the OpenID Connect
+ * authentication request parsers, so that both produce identical errors.
+ *
+ * <p>The values are passed as already read from the parameters map. The
+ * client ID, redirection URI, response mode and state arguments are
+ * included in the thrown {@link ParseException} to enable an error
+ * response.
+ */
+public final class AuthorizationRequestUtils {
+	
+	
+	/**
+	 * Ensures no parameters are present more than once.
+	 *
+	 * @param repeatParams The names of the parameters present more than
+	 *                     once, {@code null} or empty if none.
+	 *
+	 * @throws ParseException If a parameter is present more than once.
+	 */
+	public static void ensureNoRepeatedParameters(final Set<String> repeatParams)
+		throws ParseException {
+		
+		if (CollectionUtils.isNotEmpty(repeatParams)) {
+			// Always result in non-redirecting error. Technically
+			// only duplicate client_id, state, redirect_uri,
+			// response_type, request_uri and request should
+			String msg = "Parameter(s) present more than once: " + repeatParams;
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.setDescription(msg));
+		}
+	}
+	
+	
+	/**
+	 * Parses the mandatory {@code client_id} parameter.
+	 *
+	 * @param value The parameter value, {@code null} if not specified.
+	 *
+	 * @return The client ID.
+	 *
+	 * @throws ParseException If the parameter is missing, with no
+	 *                        redirection.
+	 */
+	public static ClientID parseClientID(final String value)
+		throws ParseException {
+		
+		if (StringUtils.isBlank(value)) {
+			// No automatic redirection https://tools.ietf.org/html/rfc6749#section-4.1.2.1
+			String msg = "Missing client_id parameter";
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg));
+		}
+		
+		return new ClientID(value);
+	}
+	
+	
+	/**
+	 * Parses the optional {@code redirect_uri} parameter.
+	 *
+	 * @param value The parameter value, {@code null} if not specified.
+	 *
+	 * @return The redirection URI, {@code null} if not specified.
+	 *
+	 * @throws ParseException If the parameter is invalid, with no
+	 *                        redirection.
+	 */
+	public static URI parseRedirectionURI(final String value)
+		throws ParseException {
+		
+		if (StringUtils.isBlank(value)) {
+			return null;
+		}
+		
+		try {
+			return new URI(value);
+		} catch (URISyntaxException e) {
+			// No automatic redirection https://tools.ietf.org/html/rfc6749#section-4.1.2.1
+			String msg = "Invalid redirect_uri parameter: " + e.getMessage();
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg));
+		}
+	}
+	
+	
+	/**
+	 * Parses the {@code response_type} parameter.
+	 *
+	 * @param value       The parameter value, {@code null} if not
+	 *                    specified.
+	 * @param clientID    The client ID.
+	 * @param redirectURI The redirection URI, {@code null} if not
+	 *                    specified.
+	 * @param rm          The response mode, {@code null} if not
+	 *                    specified.
+	 * @param state       The state, {@code null} if not specified.
+	 *
+	 * @return The response type, {@code null} if not specified.
+	 *
+	 * @throws ParseException If the parameter is invalid.
+	 */
+	public static ResponseType parseResponseType(final String value,
+						     final ClientID clientID,
+						     final URI redirectURI,
+						     final ResponseMode rm,
+						     final State state)
+		throws ParseException {
+		
+		if (StringUtils.isBlank(value)) {
+			return null;
+		}
+		
+		try {
+			return ResponseType.parse(value);
+		} catch (ParseException e) {
+			// Only cause
+			String msg = "Invalid response_type parameter";
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
+				clientID, redirectURI, rm, state, e);
+		}
+	}
+	
+	
+	/**
+	 * Parses the optional {@code request_uri} parameter.
+	 *
+	 * @param value       The parameter value, {@code null} if not
+	 *                    specified.
+	 * @param clientID    The client ID.
+	 * @param redirectURI The redirection URI, {@code null} if not
+	 *                    specified.
+	 * @param impliedRM   The implied response mode.
+	 * @param state       The state, {@code null} if not specified.
+	 *
+	 * @return The request URI, {@code null} if not specified.
+	 *
+	 * @throws ParseException If the parameter is invalid.
+	 */
+	public static URI parseRequestURI(final String value,
+					  final ClientID clientID,
+					  final URI redirectURI,
+					  final ResponseMode impliedRM,
+					  final State state)
+		throws ParseException {
+		
+		if (StringUtils.isBlank(value)) {
+			return null;
+		}
+		
+		try {
+			return new URI(value);
+		} catch (URISyntaxException e) {
+			String msg = "Invalid request_uri parameter: " + e.getMessage();
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
+				clientID, redirectURI, impliedRM, state, e);
+		}
+	}
+	
+	
+	/**
+	 * Parses the optional {@code request} parameter.
+	 *
+	 * @param value       The parameter value, {@code null} if not
+	 *                    specified.
+	 * @param requestURI  The request URI, {@code null} if not specified.
+	 * @param clientID    The client ID.
+	 * @param redirectURI The redirection URI, {@code null} if not
+	 *                    specified.
+	 * @param impliedRM   The implied response mode.
+	 * @param state       The state, {@code null} if not specified.
+	 *
+	 * @return The request object, {@code null} if not specified.
+	 *
+	 * @throws ParseException If the parameter is invalid or present
+	 *                        together with a request URI.
+	 */
+	public static JWT parseRequestObject(final String value,
+					     final URI requestURI,
+					     final ClientID clientID,
+					     final URI redirectURI,
+					     final ResponseMode impliedRM,
+					     final State state)
+		throws ParseException {
+		
+		if (StringUtils.isBlank(value)) {
+			return null;
+		}
+		
+		// request_object and request_uri must not be present at the same time
+		if (requestURI != null) {
+			String msg = "Invalid request: Found mutually exclusive request and request_uri parameters";
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
+				clientID, redirectURI, impliedRM, state, null);
+		}
+		
+		try {
+			JWT requestObject = JWTParser.parse(value);
+			
+			if (requestObject instanceof SignedJWT) {
+				// Make sure the "sub" claim is not set to the client_id value
+				// https://tools.ietf.org/html/draft-ietf-oauth-jwsreq-29#section-10.8
+				JWTClaimsSet requestObjectClaims = requestObject.getJWTClaimsSet();
+				if (clientID.getValue().equals(requestObjectClaims.getSubject())) {
+					throw new java.text.ParseException("The JWT sub (subject) claim must not equal the client_id", 0);
+				}
+			}
+			
+			return requestObject;
+		
+		} catch (java.text.ParseException e) {
+			String msg = "Invalid request parameter: " + e.getMessage();
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
+				clientID, redirectURI, impliedRM, state, e);
+		}
+	}
+	
+	
+	/**
+	 * Ensures the response type is specified, unless the request is
+	 * passed in a JWT-secured authorisation request (JAR).
+	 *
+	 * @param rt            The response type, {@code null} if not
+	 *                      specified.
+	 * @param requestObject The request object, {@code null} if not
+	 *                      specified.
+	 * @param requestURI    The request URI, {@code null} if not
+	 *                      specified.
+	 * @param clientID      The client ID.
+	 * @param redirectURI   The redirection URI, {@code null} if not
+	 *                      specified.
+	 * @param rm            The response mode, {@code null} if not
+	 *                      specified.
+	 * @param state         The state, {@code null} if not specified.
+	 *
+	 * @throws ParseException If the response type is missing.
+	 */
+	public static void ensureResponseType(final ResponseType rt,
+					      final JWT requestObject,
+					      final URI requestURI,
+					      final ClientID clientID,
+					      final URI redirectURI,
+					      final ResponseMode rm,
+					      final State state)
+		throws ParseException {
+		
+		if (rt == null && requestObject == null && requestURI == null) {
+			String msg = "Missing response_type parameter";
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
+				clientID, redirectURI, ResponseMode.resolve(rm, null), state, null);
+		}
+	}
+	
+	
+	/**
+	 * Parses the optional {@code resource} parameters.
+	 *
+	 * @param values      The parameter values, {@code null} if not
+	 *                    specified.
+	 * @param clientID    The client ID.
+	 * @param redirectURI The redirection URI, {@code null} if not
+	 *                    specified.
+	 * @param impliedRM   The implied response mode.
+	 * @param state       The state, {@code null} if not specified.
+	 *
+	 * @return The resource URIs, {@code null} if not specified.
+	 *
+	 * @throws ParseException If a parameter is invalid.
+	 */
+	public static List<URI> parseResources(final List<String> values,
+					       final ClientID clientID,
+					       final URI redirectURI,
+					       final ResponseMode impliedRM,
+					       final State state)
+		throws ParseException {
+		
+		try {
+			return ResourceUtils.parseResourceURIs(values);
+		} catch (ParseException e) {
+			throw new ParseException(e.getMessage(), OAuth2Error.INVALID_RESOURCE.setDescription(e.getMessage()),
+				clientID, redirectURI, impliedRM, state, e);
+		}
+	}
+	
+	
+	/**
+	 * Parses the optional {@code prompt} parameter.
+	 *
+	 * @param value       The parameter value, {@code null} if not
+	 *                    specified.
+	 * @param clientID    The client ID.
+	 * @param redirectURI The redirection URI, {@code null} if not
+	 *                    specified.
+	 * @param impliedRM   The implied response mode.
+	 * @param state       The state, {@code null} if not specified.
+	 *
+	 * @return The prompt, {@code null} if not specified.
+	 *
+	 * @throws ParseException If the parameter is invalid.
+	 */
+	public static Prompt parsePrompt(final String value,
+					 final ClientID clientID,
+					 final URI redirectURI,
+					 final ResponseMode impliedRM,
+					 final State state)
+		throws ParseException {
+		
+		try {
+			return Prompt.parse(value);
+		
+		} catch (ParseException e) {
+			String msg = "Invalid prompt parameter: " + e.getMessage();
+			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
+				clientID, redirectURI, impliedRM, state, e);
+		}
+	}
+	
+	
+	/**
+	 * Prevents public instantiation.
+	 */
+	private AuthorizationRequestUtils() {}
+}
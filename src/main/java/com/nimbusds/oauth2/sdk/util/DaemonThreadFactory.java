@@ -0,0 +1,76 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util;
+
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+
+/**
+ * Thread factory for daemon threads named after a common prefix and a
+ * sequence number, e.g. {@code token-manager-1}, {@code token-manager-2}.
+ */
+@ThreadSafe
+public final class DaemonThreadFactory implements ThreadFactory {
+	
+	
+	/**
+	 * The thread name prefix.
+	 */
+	private final String namePrefix;
+	
+	
+	/**
+	 * The thread counter.
+	 */
+	private final AtomicInteger counter = new AtomicInteger();
+	
+	
+	/**
+	 * Creates a new daemon thread factory.
+	 *
+	 * @param namePrefix The thread name prefix. Must not be {@code null}.
+	 */
+	public DaemonThreadFactory(final String namePrefix) {
+		if (namePrefix == null) {
+			throw new IllegalArgumentException("The thread name prefix must not be null");
+		}
+		this.namePrefix = namePrefix;
+	}
+	
+	
+	/**
+	 * Returns the thread name prefix.
+	 *
+	 * @return The thread name prefix.
+	 */
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+	
+	
+	@Override
+	public Thread newThread(final Runnable r) {
+		Thread thread = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
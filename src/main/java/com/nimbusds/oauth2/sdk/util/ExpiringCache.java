@@ -0,0 +1,367 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util;
+
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+
+/**
+ * Size-bounded cache with an expiration time for each entry.
+ *
+ * <p>Lookups are lock-free. Updates are serialised and keep the entries
+ * ordered by expiration time as well, so that purging the expired entries
+ * and evicting the entry expiring first when the cache is full take
+ * logarithmic time rather than a scan of the whole cache.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+@ThreadSafe
+public class ExpiringCache<K,V> {
+	
+	
+	/**
+	 * Cache entry.
+	 */
+	private static final class Entry<K,V> {
+		
+		
+		/**
+		 * The key.
+		 */
+		private final K key;
+		
+		
+		/**
+		 * The value.
+		 */
+		private final V value;
+		
+		
+		/**
+		 * The expiration time, in milliseconds since the epoch.
+		 */
+		private final long expiresAt;
+		
+		
+		/**
+		 * The insertion sequence number, to order entries with the
+		 * same expiration time.
+		 */
+		private final long seq;
+		
+		
+		/**
+		 * Creates a new cache entry.
+		 *
+		 * @param key       The key.
+		 * @param value     The value.
+		 * @param expiresAt The expiration time, in milliseconds since
+		 *                  the epoch.
+		 * @param seq       The insertion sequence number.
+		 */
+		private Entry(final K key, final V value, final long expiresAt, final long seq) {
+			this.key = key;
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.seq = seq;
+		}
+	}
+	
+	
+	/**
+	 * Orders entries by expiration time, then insertion.
+	 */
+	private static final Comparator<Entry<?,?>> EXPIRATION_ORDER = new Comparator<Entry<?,?>>() {
+		@Override
+		public int compare(final Entry<?,?> a, final Entry<?,?> b) {
+			if (a.expiresAt != b.expiresAt) {
+				return a.expiresAt < b.expiresAt ? -1 : 1;
+			}
+			return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+		}
+	};
+	
+	
+	/**
+	 * The maximum number of entries.
+	 */
+	private final int maxSize;
+	
+	
+	/**
+	 * The entries by key.
+	 */
+	private final ConcurrentHashMap<K,Entry<K,V>> entries = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The entries by expiration time, guarded by this object.
+	 */
+	private final TreeSet<Entry<?,?>> expirationOrder = new TreeSet<>(EXPIRATION_ORDER);
+	
+	
+	/**
+	 * The insertion sequence counter, guarded by this object.
+	 */
+	private long seqCounter;
+	
+	
+	/**
+	 * Creates a new expiring cache.
+	 *
+	 * @param maxSize The maximum number of entries. Must be positive.
+	 */
+	public ExpiringCache(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The max cache size must be positive");
+		}
+		this.maxSize = maxSize;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of entries.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	
+	/**
+	 * Gets the cached value for the specified key.
+	 *
+	 * @param key The key. Must not be {@code null}.
+	 *
+	 * @return The value, {@code null} if not cached or expired.
+	 */
+	public V get(final K key) {
+		
+		return get(key, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Gets the cached value for the specified key.
+	 *
+	 * @param key The key. Must not be {@code null}.
+	 * @param now The current time, in milliseconds since the epoch.
+	 *
+	 * @return The value, {@code null} if not cached or expired.
+	 */
+	public V get(final K key, final long now) {
+		
+		Entry<K,V> entry = entries.get(key);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		if (entry.expiresAt <= now) {
+			removeEntry(entry);
+			return null;
+		}
+		
+		return entry.value;
+	}
+	
+	
+	/**
+	 * Puts a value into the cache, replacing any previous value for the
+	 * key. If the cache is full the entry expiring first is evicted.
+	 * Values which are already expired are not cached.
+	 *
+	 * @param key       The key. Must not be {@code null}.
+	 * @param value     The value. Must not be {@code null}.
+	 * @param expiresAt The expiration time, in milliseconds since the
+	 *                  epoch.
+	 */
+	public void put(final K key, final V value, final long expiresAt) {
+		
+		put(key, value, expiresAt, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Puts a value into the cache, replacing any previous value for the
+	 * key. If the cache is full the entry expiring first is evicted.
+	 * Values which are already expired are not cached.
+	 *
+	 * @param key       The key. Must not be {@code null}.
+	 * @param value     The value. Must not be {@code null}.
+	 * @param expiresAt The expiration time, in milliseconds since the
+	 *                  epoch.
+	 * @param now       The current time, in milliseconds since the
+	 *                  epoch.
+	 */
+	public synchronized void put(final K key, final V value, final long expiresAt, final long now) {
+		
+		if (expiresAt <= now) {
+			remove(key);
+			return;
+		}
+		
+		Entry<K,V> entry = new Entry<>(key, value, expiresAt, seqCounter++);
+		
+		Entry<K,V> previous = entries.put(key, entry);
+		
+		if (previous != null) {
+			expirationOrder.remove(previous);
+		}
+		
+		while (entries.size() > maxSize && ! expirationOrder.isEmpty()) {
+			Entry<?,?> first = expirationOrder.pollFirst();
+			entries.remove(first.key, first);
+		}
+		
+		expirationOrder.add(entry);
+	}
+	
+	
+	/**
+	 * Removes the specified entry.
+	 *
+	 * @param entry The entry.
+	 */
+	private synchronized void removeEntry(final Entry<K,V> entry) {
+		
+		if (entries.remove(entry.key, entry)) {
+			expirationOrder.remove(entry);
+		}
+	}
+	
+	
+	/**
+	 * Removes the cached value for the specified key.
+	 *
+	 * @param key The key. Must not be {@code null}.
+	 *
+	 * @return The removed value, {@code null} if none.
+	 */
+	public synchronized V remove(final K key) {
+		
+		Entry<K,V> entry = entries.remove(key);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		expirationOrder.remove(entry);
+		return entry.value;
+	}
+	
+	
+	/**
+	 * Removes the cached value for the specified key if it equals the
+	 * specified value.
+	 *
+	 * @param key   The key. Must not be {@code null}.
+	 * @param value The expected value. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the value was removed.
+	 */
+	public synchronized boolean remove(final K key, final V value) {
+		
+		Entry<K,V> entry = entries.get(key);
+		
+		if (entry == null || ! entry.value.equals(value)) {
+			return false;
+		}
+		
+		removeEntry(entry);
+		return true;
+	}
+	
+	
+	/**
+	 * Removes the expired entries.
+	 *
+	 * @return The number of removed entries.
+	 */
+	public int purgeExpired() {
+		
+		return purgeExpired(System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Removes the expired entries.
+	 *
+	 * @param now The current time, in milliseconds since the epoch.
+	 *
+	 * @return The number of removed entries.
+	 */
+	public synchronized int purgeExpired(final long now) {
+		
+		int count = 0;
+		while (! expirationOrder.isEmpty() && expirationOrder.first().expiresAt <= now) {
+			Entry<?,?> first = expirationOrder.pollFirst();
+			if (entries.remove(first.key, first)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * Returns the number of cached entries, including expired entries
+	 * which haven't been purged yet.
+	 *
+	 * @return The cache size.
+	 */
+	public int size() {
+		
+		return entries.size();
+	}
+	
+	
+	/**
+	 * Returns a snapshot of the cached values, including expired entries
+	 * which haven't been purged yet.
+	 *
+	 * @return The cached values, empty list if none.
+	 */
+	public List<V> values() {
+		
+		List<V> out = new ArrayList<>(entries.size());
+		for (Entry<K,V> entry: entries.values()) {
+			out.add(entry.value);
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public synchronized void clear() {
+		
+		entries.clear();
+		expirationOrder.clear();
+	}
+}
@@ -0,0 +1,372 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util.timer;
+
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+
+/**
+ * Hashed timing wheel, for tracking the deadlines of large numbers of
+ * elements with O(1) scheduling and cancellation.
+ *
+ * <p>The deadlines are rounded up to ticks of a fixed duration. Each tick
+ * maps to one of a fixed number of buckets, with deadlines more than one
+ * wheel revolution away sharing a bucket with nearer ones until they are
+ * due.
+ *
+ * <p>Elements can be scheduled and cancelled from any thread without
+ * locking. The wheel is advanced by a single driver thread at a time,
+ * typically once per tick, which collects the elements that are due.
+ *
+ * @param <E> The element type.
+ */
+@ThreadSafe
+public class TimingWheel<E> {
+	
+	
+	/**
+	 * Scheduled timeout state.
+	 */
+	private static final int PENDING = 0;
+	
+	
+	/**
+	 * Cancelled timeout state.
+	 */
+	private static final int CANCELLED = 1;
+	
+	
+	/**
+	 * Expired timeout state.
+	 */
+	private static final int EXPIRED = 2;
+	
+	
+	/**
+	 * Handle of an element scheduled in a timing wheel.
+	 *
+	 * @param <E> The element type.
+	 */
+	public static final class Timeout<E> {
+		
+		
+		/**
+		 * The element.
+		 */
+		private final E element;
+		
+		
+		/**
+		 * The deadline, in milliseconds since the epoch.
+		 */
+		private final long deadline;
+		
+		
+		/**
+		 * The deadline tick.
+		 */
+		private final long deadlineTick;
+		
+		
+		/**
+		 * The state.
+		 */
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		
+		
+		/**
+		 * The timing wheel.
+		 */
+		private final TimingWheel<E> wheel;
+		
+		
+		/**
+		 * Creates a new timeout.
+		 *
+		 * @param wheel    The timing wheel.
+		 * @param element  The element.
+		 * @param deadline The deadline, in milliseconds since the
+		 *                 epoch.
+		 */
+		private Timeout(final TimingWheel<E> wheel, final E element, final long deadline) {
+			this.wheel = wheel;
+			this.element = element;
+			this.deadline = deadline;
+			deadlineTick = wheel.toTick(deadline);
+		}
+		
+		
+		/**
+		 * Returns the element.
+		 *
+		 * @return The element.
+		 */
+		public E getElement() {
+			return element;
+		}
+		
+		
+		/**
+		 * Returns the deadline.
+		 *
+		 * @return The deadline, in milliseconds since the epoch.
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+		
+		
+		/**
+		 * Cancels this timeout.
+		 *
+		 * @return {@code true} if the timeout was cancelled,
+		 *         {@code false} if it already expired or was
+		 *         cancelled.
+		 */
+		public boolean cancel() {
+			
+			if (state.compareAndSet(PENDING, CANCELLED)) {
+				wheel.size.decrementAndGet();
+				return true;
+			}
+			return false;
+		}
+		
+		
+		/**
+		 * Returns {@code true} if this timeout was cancelled.
+		 *
+		 * @return {@code true} if cancelled, else {@code false}.
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+		
+		
+		/**
+		 * Returns {@code true} if this timeout expired.
+		 *
+		 * @return {@code true} if expired, else {@code false}.
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+	
+	
+	/**
+	 * The tick duration, in milliseconds.
+	 */
+	private final long tickMs;
+	
+	
+	/**
+	 * The bucket index mask.
+	 */
+	private final int mask;
+	
+	
+	/**
+	 * The buckets, accessed by the driver thread only.
+	 */
+	private final List<ArrayDeque<Timeout<E>>> buckets;
+	
+	
+	/**
+	 * The newly scheduled timeouts, to be moved into the buckets by the
+	 * driver thread.
+	 */
+	private final Queue<Timeout<E>> incoming = new ConcurrentLinkedQueue<>();
+	
+	
+	/**
+	 * The number of pending timeouts.
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+	
+	
+	/**
+	 * The next tick to process, -1 if not yet advanced.
+	 */
+	private long nextTick = -1L;
+	
+	
+	/**
+	 * Creates a new timing wheel.
+	 *
+	 * @param tickMs    The tick duration, in milliseconds. Must be
+	 *                  positive.
+	 * @param wheelSize The number of buckets, rounded up to a power of
+	 *                  two. Must be positive.
+	 */
+	public TimingWheel(final long tickMs, final int wheelSize) {
+		
+		if (tickMs < 1) {
+			throw new IllegalArgumentException("The tick duration must be positive");
+		}
+		this.tickMs = tickMs;
+		
+		if (wheelSize < 1 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("The wheel size must be positive and not greater than 2^30");
+		}
+		
+		int n = Integer.highestOneBit(wheelSize);
+		if (n < wheelSize) {
+			n <<= 1;
+		}
+		mask = n - 1;
+		
+		buckets = new ArrayList<>(n);
+		for (int i=0; i < n; i++) {
+			buckets.add(new ArrayDeque<Timeout<E>>());
+		}
+	}
+	
+	
+	/**
+	 * Returns the tick duration.
+	 *
+	 * @return The tick duration, in milliseconds.
+	 */
+	public long getTickMillis() {
+		return tickMs;
+	}
+	
+	
+	/**
+	 * Returns the number of buckets.
+	 *
+	 * @return The number of buckets.
+	 */
+	public int getWheelSize() {
+		return mask + 1;
+	}
+	
+	
+	/**
+	 * Returns the number of pending (not expired or cancelled) timeouts.
+	 *
+	 * @return The number of pending timeouts.
+	 */
+	public int size() {
+		return size.get();
+	}
+	
+	
+	/**
+	 * Returns the tick for the specified time, rounded up.
+	 *
+	 * @param time The time, in milliseconds since the epoch.
+	 *
+	 * @return The tick.
+	 */
+	private long toTick(final long time) {
+		
+		return (time + tickMs - 1) / tickMs;
+	}
+	
+	
+	/**
+	 * Schedules the specified element.
+	 *
+	 * @param element  The element. Must not be {@code null}.
+	 * @param deadline The deadline, in milliseconds since the epoch.
+	 *
+	 * @return The timeout handle.
+	 */
+	public Timeout<E> schedule(final E element, final long deadline) {
+		
+		if (element == null) {
+			throw new IllegalArgumentException("The element must not be null");
+		}
+		
+		Timeout<E> timeout = new Timeout<>(this, element, deadline);
+		size.incrementAndGet();
+		incoming.add(timeout);
+		return timeout;
+	}
+	
+	
+	/**
+	 * Advances the wheel to the specified time and returns the elements
+	 * which are due. Must not be called concurrently.
+	 *
+	 * @param now The current time, in milliseconds since the epoch.
+	 *
+	 * @return The due elements, in no particular order, empty list if
+	 *         none.
+	 */
+	public synchronized List<E> advance(final long now) {
+		
+		long currentTick = now / tickMs;
+		
+		if (nextTick < 0L) {
+			nextTick = currentTick;
+		}
+		
+		// Move the newly scheduled timeouts into the buckets, the due
+		// ones into the first bucket to process
+		Timeout<E> timeout;
+		while ((timeout = incoming.poll()) != null) {
+			if (timeout.state.get() != PENDING) {
+				continue;
+			}
+			long tick = Math.max(timeout.deadlineTick, nextTick);
+			buckets.get((int)(tick & mask)).add(timeout);
+		}
+		
+		if (currentTick < nextTick) {
+			return Collections.emptyList();
+		}
+		
+		List<E> due = new LinkedList<>();
+		
+		// Visit each bucket at most once, even if many ticks were
+		// skipped
+		long numTicks = Math.min(currentTick - nextTick + 1L, mask + 1L);
+		
+		for (long i=0; i < numTicks; i++) {
+			
+			Iterator<Timeout<E>> it = buckets.get((int)((nextTick + i) & mask)).iterator();
+			
+			while (it.hasNext()) {
+				
+				timeout = it.next();
+				
+				if (timeout.state.get() == CANCELLED) {
+					it.remove();
+				} else if (timeout.deadlineTick <= currentTick) {
+					it.remove();
+					if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+						size.decrementAndGet();
+						due.add(timeout.element);
+					}
+				}
+			}
+		}
+		
+		nextTick = currentTick + 1L;
+		
+		return due;
+	}
+}
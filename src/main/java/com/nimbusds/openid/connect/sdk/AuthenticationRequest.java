@@ -1659,218 +1659,312 @@ public class AuthenticationRequest extends AuthorizationRequest {
 	 */
 	public static AuthenticationRequest parse(final URI uri, final Map<String,List<String>> params)
 		throws ParseException {
-
-		// Parse and validate the core OAuth 2.0 autz request params in 
-		// the context of OIDC
-		AuthorizationRequest ar = AuthorizationRequest.parse(uri, params);
 		
-		Nonce nonce = Nonce.parse(MultivaluedMapUtils.getFirstValue(params, "nonce"));
+		// Single pass over the parameters, the OAuth 2.0 parameters
+		// are validated with the same helpers as
+		// AuthorizationRequest.parse, followed by the OpenID checks, to
+		// produce identical errors
+		Set<String> repeatParams = null;
+		Map<String,List<String>> customParams = null;
+		
+		String responseTypeValue = null;
+		String clientIDValue = null;
+		String redirectURIValue = null;
+		String scopeValue = null;
+		String stateValue = null;
+		String responseModeValue = null;
+		String codeChallengeValue = null;
+		String codeChallengeMethodValue = null;
+		List<String> resourceValues = null;
+		String includeGrantedScopesValue = null;
+		String requestURIValue = null;
+		String requestValue = null;
+		String promptValue = null;
+		String nonceValue = null;
+		boolean displayPresent = false;
+		String displayValue = null;
+		String maxAgeValue = null;
+		String uiLocalesValue = null;
+		String claimsLocalesValue = null;
+		String idTokenHintValue = null;
+		String loginHint = null;
+		String acrValuesValue = null;
+		String claimsValue = null;
+		String purpose = null;
+		
+		for (Map.Entry<String,List<String>> p: params.entrySet()) {
+			
+			String name = p.getKey();
+			List<String> values = p.getValue();
+			
+			if (values != null && values.size() > 1 && ! "resource".equals(name)) {
+				if (repeatParams == null) {
+					repeatParams = new HashSet<>();
+				}
+				repeatParams.add(name);
+			}
+			
+			String value = values == null || values.isEmpty() ? null : values.get(0);
+			
+			switch (name != null ? name : "") {
+				case "response_type": responseTypeValue = value; break;
+				case "client_id": clientIDValue = value; break;
+				case "redirect_uri": redirectURIValue = value; break;
+				case "scope": scopeValue = value; break;
+				case "state": stateValue = value; break;
+				case "response_mode": responseModeValue = value; break;
+				case "code_challenge": codeChallengeValue = value; break;
+				case "code_challenge_method": codeChallengeMethodValue = value; break;
+				case "resource": resourceValues = values; break;
+				case "include_granted_scopes": includeGrantedScopesValue = value; break;
+				case "request_uri": requestURIValue = value; break;
+				case "request": requestValue = value; break;
+				case "prompt": promptValue = value; break;
+				case "nonce": nonceValue = value; break;
+				case "display": displayPresent = true; displayValue = value; break;
+				case "max_age": maxAgeValue = value; break;
+				case "ui_locales": uiLocalesValue = value; break;
+				case "claims_locales": claimsLocalesValue = value; break;
+				case "id_token_hint": idTokenHintValue = value; break;
+				case "login_hint": loginHint = value; break;
+				case "acr_values": acrValuesValue = value; break;
+				case "claims": claimsValue = value; break;
+				case "purpose": purpose = value; break;
+				default:
+					// We have a custom parameter
+					if (customParams == null) {
+						customParams = new HashMap<>();
+					}
+					customParams.put(name, values);
+			}
+		}
+		
+		AuthorizationRequestUtils.ensureNoRepeatedParameters(repeatParams);
+		
+		// Parse response_mode, response_type, client_id, redirect_uri and state first,
+		// needed if parsing results in a error response
+		State state = State.parse(stateValue);
+		
+		// Optional response_mode
+		ResponseMode rm = null;
+		if (StringUtils.isNotBlank(responseModeValue)) {
+			rm = new ResponseMode(responseModeValue);
+		}
+		
+		// Mandatory client_id
+		ClientID clientID = AuthorizationRequestUtils.parseClientID(clientIDValue);
+		
+		// Optional redirect_uri
+		URI redirectURI = AuthorizationRequestUtils.parseRedirectionURI(redirectURIValue);
+		
+		// Mandatory response_type, unless in JAR
+		ResponseType rt = AuthorizationRequestUtils.parseResponseType(responseTypeValue, clientID, redirectURI, rm, state);
+		
+		ResponseMode impliedRM = ResponseMode.resolve(rm, rt);
+		
+		// Check for a JAR in request or request_uri parameters
+		URI requestURI = AuthorizationRequestUtils.parseRequestURI(requestURIValue, clientID, redirectURI, impliedRM, state);
+		
+		JWT requestObject = AuthorizationRequestUtils.parseRequestObject(requestValue, requestURI, clientID, redirectURI, impliedRM, state);
+		
+		// Response type mandatory, unless in JAR
+		AuthorizationRequestUtils.ensureResponseType(rt, requestObject, requestURI, clientID, redirectURI, rm, state);
+		
+		// Parse optional scope
+		Scope scope = null;
+		if (StringUtils.isNotBlank(scopeValue)) {
+			scope = Scope.parse(scopeValue);
+		}
+		
+		// Parse optional code challenge and method for PKCE
+		CodeChallenge codeChallenge = null;
+		CodeChallengeMethod codeChallengeMethod = null;
+		
+		if (StringUtils.isNotBlank(codeChallengeValue)) {
+			codeChallenge = CodeChallenge.parse(codeChallengeValue);
+		}
+		
+		if (codeChallenge != null && StringUtils.isNotBlank(codeChallengeMethodValue)) {
+			codeChallengeMethod = CodeChallengeMethod.parse(codeChallengeMethodValue);
+		}
+		
+		List<URI> resources = AuthorizationRequestUtils.parseResources(resourceValues, clientID, redirectURI, impliedRM, state);
+		
+		boolean includeGrantedScopes = "true".equals(includeGrantedScopesValue);
+		
+		Prompt prompt = AuthorizationRequestUtils.parsePrompt(promptValue, clientID, redirectURI, impliedRM, state);
 		
-		if (! ar.specifiesRequestObject()) {
+		// OpenID Connect specific parameters and checks
+		Nonce nonce = Nonce.parse(nonceValue);
+		
+		if (requestObject == null && requestURI == null) {
 			
 			// Required params if no JAR is present
 			
-			if (ar.getRedirectionURI() == null) {
+			if (redirectURI == null) {
 				String msg = "Missing redirect_uri parameter";
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					ar.getClientID(), null, ar.impliedResponseMode(), ar.getState());
+					clientID, null, impliedRM, state);
 			}
 			
-			if (ar.getScope() == null) {
+			if (scope == null) {
 				String msg = "Missing scope parameter";
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState());
+					clientID, redirectURI, impliedRM, state);
 			}
 			
 			// Check nonce requirement
-			if (nonce == null && Nonce.isRequired(ar.getResponseType())) {
-				String msg = "Missing nonce parameter: Required for response_type=" + ar.getResponseType();
+			if (nonce == null && Nonce.isRequired(rt)) {
+				String msg = "Missing nonce parameter: Required for response_type=" + rt;
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState());
+					clientID, redirectURI, impliedRM, state);
 			}
 		}
 		
 		// Check if present (not in JAR)
-		if (ar.getResponseType() != null) {
+		if (rt != null) {
 			try {
-				OIDCResponseTypeValidator.validate(ar.getResponseType());
+				OIDCResponseTypeValidator.validate(rt);
 			} catch (IllegalArgumentException e) {
 				String msg = "Unsupported response_type parameter: " + e.getMessage();
 				throw new ParseException(msg, OAuth2Error.UNSUPPORTED_RESPONSE_TYPE.appendDescription(": " + msg),
-					ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState());
+					clientID, redirectURI, impliedRM, state);
 			}
 		}
 		
 		// Check if present (not in JAR)
-		if (ar.getScope() != null && ! ar.getScope().contains(OIDCScopeValue.OPENID)) {
+		if (scope != null && ! scope.contains(OIDCScopeValue.OPENID)) {
 			String msg = "The scope must include an openid value";
 			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-				                 ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState());
+				clientID, redirectURI, impliedRM, state);
 		}
 		
 		Display display = null;
-
-		if (params.containsKey("display")) {
+		
+		if (displayPresent) {
 			try {
-				display = Display.parse(MultivaluedMapUtils.getFirstValue(params, "display"));
-
+				display = Display.parse(displayValue);
+				
 			} catch (ParseException e) {
 				String msg = "Invalid display parameter: " + e.getMessage();
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState(), e);
+					clientID, redirectURI, impliedRM, state, e);
 			}
 		}
-
-
-		String v = MultivaluedMapUtils.getFirstValue(params, "max_age");
-
+		
 		int maxAge = -1;
-
-		if (StringUtils.isNotBlank(v)) {
-
+		
+		if (StringUtils.isNotBlank(maxAgeValue)) {
+			
 			try {
-				maxAge = Integer.parseInt(v);
-
+				maxAge = Integer.parseInt(maxAgeValue);
+				
 			} catch (NumberFormatException e) {
-				String msg = "Invalid max_age parameter: " + v;
+				String msg = "Invalid max_age parameter: " + maxAgeValue;
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					                 ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState(), e);
+					clientID, redirectURI, impliedRM, state, e);
 			}
 		}
-
-
-		v = MultivaluedMapUtils.getFirstValue(params, "ui_locales");
-
+		
 		List<LangTag> uiLocales = null;
-
-		if (StringUtils.isNotBlank(v)) {
-
+		
+		if (StringUtils.isNotBlank(uiLocalesValue)) {
+			
 			uiLocales = new LinkedList<>();
-
-			StringTokenizer st = new StringTokenizer(v, " ");
-
+			
+			StringTokenizer st = new StringTokenizer(uiLocalesValue, " ");
+			
 			while (st.hasMoreTokens()) {
-
+				
 				try {
 					uiLocales.add(LangTag.parse(st.nextToken()));
-
+					
 				} catch (LangTagException e) {
 					String msg = "Invalid ui_locales parameter: " + e.getMessage();
 					throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-						                 ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState(), e);
+						clientID, redirectURI, impliedRM, state, e);
 				}
 			}
 		}
-
-
-		v = MultivaluedMapUtils.getFirstValue(params, "claims_locales");
-
+		
 		List<LangTag> claimsLocales = null;
-
-		if (StringUtils.isNotBlank(v)) {
-
+		
+		if (StringUtils.isNotBlank(claimsLocalesValue)) {
+			
 			claimsLocales = new LinkedList<>();
-
-			StringTokenizer st = new StringTokenizer(v, " ");
-
+			
+			StringTokenizer st = new StringTokenizer(claimsLocalesValue, " ");
+			
 			while (st.hasMoreTokens()) {
-
+				
 				try {
 					claimsLocales.add(LangTag.parse(st.nextToken()));
-
+					
 				} catch (LangTagException e) {
 					String msg = "Invalid claims_locales parameter: " + e.getMessage();
 					throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-						                 ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState(), e);
+						clientID, redirectURI, impliedRM, state, e);
 				}
 			}
 		}
-
-
-		v = MultivaluedMapUtils.getFirstValue(params, "id_token_hint");
 		
 		JWT idTokenHint = null;
 		
-		if (StringUtils.isNotBlank(v)) {
-		
+		if (StringUtils.isNotBlank(idTokenHintValue)) {
+			
 			try {
-				idTokenHint = JWTParser.parse(v);
+				idTokenHint = JWTParser.parse(idTokenHintValue);
 				
 			} catch (java.text.ParseException e) {
 				String msg = "Invalid id_token_hint parameter: " + e.getMessage();
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					                 ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState(), e);
+					clientID, redirectURI, impliedRM, state, e);
 			}
 		}
-
-		String loginHint = MultivaluedMapUtils.getFirstValue(params, "login_hint");
-
-
-		v = MultivaluedMapUtils.getFirstValue(params, "acr_values");
-
+		
 		List<ACR> acrValues = null;
-
-		if (StringUtils.isNotBlank(v)) {
-
+		
+		if (StringUtils.isNotBlank(acrValuesValue)) {
+			
 			acrValues = new LinkedList<>();
-
-			StringTokenizer st = new StringTokenizer(v, " ");
-
+			
+			StringTokenizer st = new StringTokenizer(acrValuesValue, " ");
+			
 			while (st.hasMoreTokens()) {
-
+				
 				acrValues.add(new ACR(st.nextToken()));
 			}
 		}
-
-
-		v = MultivaluedMapUtils.getFirstValue(params, "claims");
-
+		
 		OIDCClaimsRequest claims = null;
-
-		if (StringUtils.isNotBlank(v)) {
+		
+		if (StringUtils.isNotBlank(claimsValue)) {
 			try {
-				claims = OIDCClaimsRequest.parse(v);
+				claims = OIDCClaimsRequest.parse(claimsValue);
 			} catch (ParseException e) {
 				String msg = "Invalid claims parameter: " + e.getMessage();
 				throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-					                 ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState(), e);
+					clientID, redirectURI, impliedRM, state, e);
 			}
 		}
 		
-		String purpose = MultivaluedMapUtils.getFirstValue(params, "purpose");
-		
 		if (purpose != null && (purpose.length() < PURPOSE_MIN_LENGTH || purpose.length() > PURPOSE_MAX_LENGTH)) {
 			String msg = "Invalid purpose parameter: Must not be shorter than " + PURPOSE_MIN_LENGTH + " and longer than " + PURPOSE_MAX_LENGTH + " characters";
 			throw new ParseException(msg, OAuth2Error.INVALID_REQUEST.appendDescription(": " + msg),
-				ar.getClientID(), ar.getRedirectionURI(), ar.impliedResponseMode(), ar.getState());
+				clientID, redirectURI, impliedRM, state);
 		}
 		
-
-		// Parse additional custom parameters
-		Map<String,List<String>> customParams = null;
-
-		for (Map.Entry<String,List<String>> p: params.entrySet()) {
-
-			if (! REGISTERED_PARAMETER_NAMES.contains(p.getKey())) {
-				// We have a custom parameter
-				if (customParams == null) {
-					customParams = new HashMap<>();
-				}
-				customParams.put(p.getKey(), p.getValue());
-			}
-		}
-
-
 		return new AuthenticationRequest(
-			uri, ar.getResponseType(), ar.getResponseMode(), ar.getScope(), ar.getClientID(), ar.getRedirectionURI(), ar.getState(), nonce,
-			display, ar.getPrompt(), maxAge, uiLocales, claimsLocales,
+			uri, rt, rm, scope, clientID, redirectURI, state, nonce,
+			display, prompt, maxAge, uiLocales, claimsLocales,
 			idTokenHint, loginHint, acrValues, claims, purpose,
-			ar.getRequestObject(), ar.getRequestURI(),
-			ar.getCodeChallenge(), ar.getCodeChallengeMethod(),
-			ar.getResources(),
-			ar.includeGrantedScopes(),
+			requestObject, requestURI,
+			codeChallenge, codeChallengeMethod,
+			resources,
+			includeGrantedScopes,
 			customParams);
 	}
+
 	
 	
 	/**
@@ -0,0 +1,499 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.jcip.annotations.ThreadSafe;
+import net.minidev.json.JSONObject;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.RemoteJWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jose.util.ResourceRetriever;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.ExpiringCache;
+
+
+/**
+ * Verifier of aggregated OpenID claims. The JWTs of the claims sources are
+ * verified in parallel with the public JWK sets of their issuers, which must
+ * be registered in advance. Each issuer has a single shared JWK source, so a
+ * {@link RemoteJWKSet} gets its keys downloaded once and cached for all
+ * verifications.
+ *
+ * <p>The source JWTs must be signed (RSA, EC or EdDSA) and have an issuer
+ * ({@code iss}) claim matching a registered issuer. JWTs from unknown
+ * issuers are rejected.
+ *
+ * <p>Successfully verified JWTs are cached by their SHA-256 hash until the
+ * earliest of the JWT expiration time ({@code exp}) and the configured
+ * maximum cache lifetime.
+ *
+ * <p>The verifier should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * Map&lt;Issuer,URL&gt; jwkSetURLs = new HashMap&lt;&gt;();
+ * jwkSetURLs.put(new Issuer("https://claims.example.com"), new URL("https://claims.example.com/jwks.json"));
+ *
+ * AggregatedClaimsVerifier verifier = new AggregatedClaimsVerifier(
+ *         AggregatedClaimsVerifier.createRemoteJWKSources(jwkSetURLs, null));
+ *
+ * UserInfo userInfo = verifier.resolve(userInfoResponse.getUserInfo());
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OpenID Connect Core 1.0, section 5.6.2.
+ * </ul>
+ */
+@ThreadSafe
+public class AggregatedClaimsVerifier {
+	
+	
+	/**
+	 * The default maximum number of concurrent verifications.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+	
+	
+	/**
+	 * The default maximum cache lifetime, in seconds.
+	 */
+	public static final long DEFAULT_MAX_CACHE_LIFETIME_SECONDS = 300L;
+	
+	
+	/**
+	 * The default maximum number of cached verified JWTs.
+	 */
+	public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+	
+	
+	/**
+	 * The JWT processors, keyed by issuer.
+	 */
+	private final Map<Issuer,DefaultJWTProcessor<SecurityContext>> processors;
+	
+	
+	/**
+	 * The maximum cache lifetime, in milliseconds.
+	 */
+	private final long maxCacheLifetimeMs;
+	
+	
+	/**
+	 * The verified JWT claims, keyed by JWT hash.
+	 */
+	private final ExpiringCache<String,JWTClaimsSet> cache;
+	
+	
+	/**
+	 * The executor for the parallel verifications.
+	 */
+	private final ExecutorService executor;
+	
+	
+	/**
+	 * Creates a new aggregated claims verifier with the default maximum
+	 * concurrency, cache lifetime and cache size.
+	 *
+	 * @param jwkSources The public JWK sources of the trusted claims
+	 *                   source issuers. Must not be {@code null}.
+	 */
+	public AggregatedClaimsVerifier(final Map<Issuer,JWKSource<SecurityContext>> jwkSources) {
+		
+		this(jwkSources,
+			DEFAULT_MAX_CONCURRENCY,
+			DEFAULT_MAX_CACHE_LIFETIME_SECONDS,
+			DEFAULT_MAX_CACHE_SIZE);
+	}
+	
+	
+	/**
+	 * Creates a new aggregated claims verifier.
+	 *
+	 * @param jwkSources              The public JWK sources of the
+	 *                                trusted claims source issuers. Must
+	 *                                not be {@code null}.
+	 * @param maxConcurrency          The maximum number of concurrent
+	 *                                verifications. Must be positive.
+	 * @param maxCacheLifetimeSeconds The maximum cache lifetime, in
+	 *                                seconds, zero to disable caching.
+	 *                                Must not be negative.
+	 * @param maxCacheSize            The maximum number of cached
+	 *                                verified JWTs. Must be positive.
+	 */
+	public AggregatedClaimsVerifier(final Map<Issuer,JWKSource<SecurityContext>> jwkSources,
+					final int maxConcurrency,
+					final long maxCacheLifetimeSeconds,
+					final int maxCacheSize) {
+		
+		if (jwkSources == null) {
+			throw new IllegalArgumentException("The JWK sources must not be null");
+		}
+		
+		Map<Issuer,DefaultJWTProcessor<SecurityContext>> processorMap = new HashMap<>();
+		for (Map.Entry<Issuer,JWKSource<SecurityContext>> en: jwkSources.entrySet()) {
+			if (en.getKey() == null || en.getValue() == null) {
+				throw new IllegalArgumentException("The issuer and JWK source must not be null");
+			}
+			processorMap.put(en.getKey(), createJWTProcessor(en.getKey(), en.getValue()));
+		}
+		processors = Collections.unmodifiableMap(processorMap);
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		if (maxCacheLifetimeSeconds < 0) {
+			throw new IllegalArgumentException("The max cache lifetime must not be negative");
+		}
+		maxCacheLifetimeMs = maxCacheLifetimeSeconds * 1000L;
+		
+		cache = new ExpiringCache<>(maxCacheSize);
+		
+		executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("aggregated-claims-verifier"));
+	}
+	
+	
+	/**
+	 * Creates remote JWK sources for the specified claims source issuers.
+	 * Each issuer gets one {@link RemoteJWKSet} instance, which caches the
+	 * downloaded keys.
+	 *
+	 * @param jwkSetURLs        The JWK set URLs, keyed by issuer. Must
+	 *                          not be {@code null}.
+	 * @param resourceRetriever The resource retriever to use for the JWK
+	 *                          set downloads, {@code null} to use the
+	 *                          default.
+	 *
+	 * @return The JWK sources, keyed by issuer.
+	 */
+	public static Map<Issuer,JWKSource<SecurityContext>> createRemoteJWKSources(final Map<Issuer,URL> jwkSetURLs,
+										 final ResourceRetriever resourceRetriever) {
+		
+		Map<Issuer,JWKSource<SecurityContext>> out = new HashMap<>();
+		for (Map.Entry<Issuer,URL> en: jwkSetURLs.entrySet()) {
+			if (resourceRetriever != null) {
+				out.put(en.getKey(), new RemoteJWKSet<>(en.getValue(), resourceRetriever));
+			} else {
+				out.put(en.getKey(), new RemoteJWKSet<>(en.getValue()));
+			}
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * Creates a JWT processor for the specified claims source issuer.
+	 *
+	 * @param issuer    The issuer. Must not be {@code null}.
+	 * @param jwkSource The issuer public JWK source. Must not be
+	 *                  {@code null}.
+	 *
+	 * @return The JWT processor.
+	 */
+	private static DefaultJWTProcessor<SecurityContext> createJWTProcessor(final Issuer issuer,
+									  final JWKSource<SecurityContext> jwkSource) {
+		
+		DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+		jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(
+			new HashSet<>(JWSAlgorithm.Family.SIGNATURE),
+			jwkSource));
+		jwtProcessor.setJWTClaimsSetVerifier(new DefaultJWTClaimsVerifier<>(
+			new JWTClaimsSet.Builder().issuer(issuer.getValue()).build(),
+			Collections.<String>emptySet()));
+		return jwtProcessor;
+	}
+	
+	
+	/**
+	 * Returns the trusted claims source issuers.
+	 *
+	 * @return The issuers.
+	 */
+	public Set<Issuer> getIssuers() {
+		return processors.keySet();
+	}
+	
+	
+	/**
+	 * Returns the maximum cache lifetime.
+	 *
+	 * @return The maximum cache lifetime, in seconds.
+	 */
+	public long getMaxCacheLifetimeSeconds() {
+		return maxCacheLifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of cached verified JWTs.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxCacheSize() {
+		return cache.getMaxSize();
+	}
+	
+	
+	/**
+	 * Verifies the JWT of the specified aggregated claims source.
+	 *
+	 * @param aggregatedClaims The aggregated claims. Must not be
+	 *                         {@code null}.
+	 *
+	 * @return The verified JWT claims set.
+	 *
+	 * @throws BadJOSEException If the JWT was rejected.
+	 * @throws JOSEException    If an internal processing exception was
+	 *                          encountered.
+	 */
+	public JWTClaimsSet verify(final AggregatedClaims aggregatedClaims)
+		throws BadJOSEException, JOSEException {
+		
+		JWT jwt = aggregatedClaims.getClaimsJWT();
+		
+		String key = computeCacheKey(jwt);
+		long now = System.currentTimeMillis();
+		
+		JWTClaimsSet cached = cache.get(key, now);
+		
+		if (cached != null) {
+			return cached;
+		}
+		
+		if (! (jwt instanceof SignedJWT)) {
+			throw new BadJWTException("The aggregated claims JWT must be signed");
+		}
+		
+		String iss;
+		try {
+			iss = jwt.getJWTClaimsSet().getIssuer();
+		} catch (java.text.ParseException e) {
+			throw new BadJWTException("Invalid aggregated claims JWT: " + e.getMessage(), e);
+		}
+		
+		DefaultJWTProcessor<SecurityContext> jwtProcessor = iss != null ? processors.get(new Issuer(iss)) : null;
+		
+		if (jwtProcessor == null) {
+			throw new BadJWTException("Untrusted aggregated claims JWT issuer: " + iss);
+		}
+		
+		JWTClaimsSet claimsSet = jwtProcessor.process((SignedJWT)jwt, null);
+		
+		if (maxCacheLifetimeMs > 0L) {
+			long expiresAt = now + maxCacheLifetimeMs;
+			if (claimsSet.getExpirationTime() != null) {
+				expiresAt = Math.min(expiresAt, claimsSet.getExpirationTime().getTime());
+			}
+			if (expiresAt > now) {
+				cache.put(key, claimsSet, expiresAt, now);
+			}
+		}
+		
+		return claimsSet;
+	}
+	
+	
+	/**
+	 * Verifies the JWTs of the specified aggregated claims sources in
+	 * parallel.
+	 *
+	 * @param aggregatedClaims The aggregated claims. Must not be
+	 *                         {@code null}.
+	 *
+	 * @return The verified JWT claims sets, keyed by aggregated claims
+	 *         source. Sources which couldn't be verified are omitted.
+	 */
+	public Map<AggregatedClaims,JWTClaimsSet> verifyAll(final Collection<AggregatedClaims> aggregatedClaims) {
+		
+		Map<AggregatedClaims,JWTClaimsSet> verified = new HashMap<>();
+		
+		if (aggregatedClaims.size() == 1) {
+			// No need to hand over a single JWT
+			AggregatedClaims source = aggregatedClaims.iterator().next();
+			try {
+				verified.put(source, verify(source));
+			} catch (BadJOSEException | JOSEException e) {
+				// Leave unverified
+			}
+			return verified;
+		}
+		
+		Map<AggregatedClaims,Future<JWTClaimsSet>> pending = new HashMap<>();
+		
+		for (final AggregatedClaims source: aggregatedClaims) {
+			pending.put(source, executor.submit(new Callable<JWTClaimsSet>() {
+				@Override
+				public JWTClaimsSet call() throws Exception {
+					return verify(source);
+				}
+			}));
+		}
+		
+		for (Map.Entry<AggregatedClaims,Future<JWTClaimsSet>> en: pending.entrySet()) {
+			try {
+				verified.put(en.getKey(), en.getValue().get());
+			} catch (ExecutionException e) {
+				// Leave unverified
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				en.getValue().cancel(true);
+			}
+		}
+		
+		return verified;
+	}
+	
+	
+	/**
+	 * Verifies the JWTs of the specified aggregated claims sources in
+	 * parallel and returns their trusted claims merged into a single
+	 * claims set. Only the claims listed for each source are included.
+	 *
+	 * @param aggregatedClaims The aggregated claims. Must not be
+	 *                         {@code null}.
+	 *
+	 * @return The merged claims of the verified sources, empty claims set
+	 *         if none.
+	 */
+	public ClaimsSet verifyAndMerge(final Collection<AggregatedClaims> aggregatedClaims) {
+		
+		return new ClaimsSet(ExternalClaimsUtils.mergeResolvedClaims(
+			new JSONObject(),
+			verifyAll(aggregatedClaims)));
+	}
+	
+	
+	/**
+	 * Resolves the aggregated claims in the specified UserInfo claims
+	 * set. The claims of the verified sources are merged into the returned
+	 * claims set and their {@code _claim_names} and {@code _claim_sources}
+	 * references removed. Sources which couldn't be verified remain
+	 * referenced, they can be found with
+	 * {@link UserInfo#getAggregatedClaims()}.
+	 *
+	 * @param userInfo The UserInfo claims set. Must not be {@code null}.
+	 *
+	 * @return The UserInfo claims set with the verified aggregated
+	 *         claims, the original claims set if it has no aggregated
+	 *         claims or none could be verified.
+	 */
+	public UserInfo resolve(final UserInfo userInfo) {
+		
+		Set<AggregatedClaims> sources = userInfo.getAggregatedClaims();
+		
+		if (sources == null) {
+			return userInfo;
+		}
+		
+		Map<AggregatedClaims,JWTClaimsSet> verified = verifyAll(sources);
+		
+		if (verified.isEmpty()) {
+			return userInfo;
+		}
+		
+		return new UserInfo(ExternalClaimsUtils.mergeResolvedClaims(userInfo.toJSONObject(), verified));
+	}
+	
+	
+	/**
+	 * Computes the cache key for the specified JWT.
+	 *
+	 * @param jwt The JWT. Must not be {@code null}.
+	 *
+	 * @return The cache key, the BASE64URL-encoded SHA-256 hash of the
+	 *         serialised JWT.
+	 */
+	static String computeCacheKey(final JWT jwt) {
+		
+		String serialized = jwt.getParsedString() != null ? jwt.getParsedString() : jwt.serialize();
+		
+		MessageDigest sha256;
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		
+		return Base64URL.encode(sha256.digest(serialized.getBytes(StandardCharsets.US_ASCII))).toString();
+	}
+	
+	
+	/**
+	 * Removes the expired verified JWTs from the cache.
+	 *
+	 * @return The number of removed cache entries.
+	 */
+	public int purgeExpired() {
+		
+		return cache.purgeExpired();
+	}
+	
+	
+	/**
+	 * Returns the number of cached verified JWTs.
+	 *
+	 * @return The cache size.
+	 */
+	public int getCacheSize() {
+		
+		return cache.size();
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public void clearCache() {
+		
+		cache.clear();
+	}
+	
+	
+	/**
+	 * Shuts down this verifier and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		executor.shutdownNow();
+	}
+}
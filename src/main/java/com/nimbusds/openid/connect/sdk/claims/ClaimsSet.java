@@ -28,6 +28,7 @@ import net.minidev.json.JSONObject;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.util.DateUtils;
 import com.nimbusds.langtag.LangTag;
+import com.nimbusds.langtag.LangTagException;
 import com.nimbusds.langtag.LangTagUtils;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.id.Audience;
@@ -75,17 +76,27 @@ public class ClaimsSet implements JSONAware {
 
 
 	/**
-	 * The JSON object representation of the claims set.
+	 * The JSON object representation of the claims set. To be modified
+	 * through the setters only, which keep the language-tag index.
 	 */
 	protected final JSONObject claims;
 
 
+	/**
+	 * Index of the language-tagged claim names, keyed by base claim name,
+	 * maintained by the setters. {@code null} if the claims set was
+	 * created from a JSON object, which may be modified by other means.
+	 */
+	private final Map<String,Set<String>> langTagIndex;
+
+
 	/**
 	 * Creates a new empty claims set.
 	 */
 	public ClaimsSet() {
 
 		claims = new JSONObject();
+		langTagIndex = new HashMap<>();
 	}
 
 
@@ -100,6 +111,9 @@ public class ClaimsSet implements JSONAware {
 			throw new IllegalArgumentException("The JSON object must not be null");
 
 		claims = jsonObject;
+
+		// The JSON object is shared with the caller, don't index
+		langTagIndex = null;
 	}
 
 
@@ -122,6 +136,12 @@ public class ClaimsSet implements JSONAware {
 	public void putAll(final Map<String,Object> claims) {
 
 		this.claims.putAll(claims);
+
+		if (langTagIndex != null) {
+			for (String name: claims.keySet()) {
+				updateLangTagIndex(name, true);
+			}
+		}
 	}
 
 
@@ -192,7 +212,7 @@ public class ClaimsSet implements JSONAware {
 	 */
 	public <T> Map<LangTag,T> getLangTaggedClaim(final String name, final Class<T> clazz) {
 
-		Map<LangTag,Object> matches = LangTagUtils.find(name, claims);
+		Map<LangTag,Object> matches = findLangTagged(name);
 		Map<LangTag,T> out = new HashMap<>();
 
 		for (Map.Entry<LangTag,Object> entry: matches.entrySet()) {
@@ -211,6 +231,87 @@ public class ClaimsSet implements JSONAware {
 	}
 
 
+	/**
+	 * Finds all instances, including language-tagged, of a claim with the
+	 * specified base name. Equivalent to {@link LangTagUtils#find}, but
+	 * looks up the language-tagged instances in the index, if kept,
+	 * instead of scanning all claims.
+	 *
+	 * @param name The claim name. Must not be {@code null}.
+	 *
+	 * @return The matching claim values, empty map if none. A
+	 *         {@code null} key indicates the value has no language tag.
+	 */
+	private Map<LangTag,Object> findLangTagged(final String name) {
+
+		if (langTagIndex == null || name.indexOf('#') >= 0) {
+			// Not indexed, base names with a '#' neither
+			return LangTagUtils.find(name, claims);
+		}
+
+		Map<LangTag,Object> matches = new HashMap<>();
+
+		if (claims.containsKey(name)) {
+			matches.put(null, claims.get(name));
+		}
+
+		Set<String> keys = langTagIndex.get(name);
+
+		if (keys == null) {
+			return matches;
+		}
+
+		for (String key: keys) {
+
+			LangTag langTag = null;
+			try {
+				langTag = LangTag.parse(key.substring(name.length() + 1));
+			} catch (LangTagException e) {
+				// null
+			}
+			matches.put(langTag, claims.get(key));
+		}
+
+		return matches;
+	}
+
+
+	/**
+	 * Updates the language-tag index after a claim was put or removed.
+	 * The index must be kept.
+	 *
+	 * @param name    The claim name, with an optional language tag.
+	 * @param present {@code true} if the claim was put, {@code false} if
+	 *                removed.
+	 */
+	private void updateLangTagIndex(final String name, final boolean present) {
+
+		int pos = name.indexOf('#');
+
+		if (pos >= 0) {
+
+			String baseName = name.substring(0, pos);
+
+			if (present) {
+				Set<String> keys = langTagIndex.get(baseName);
+				if (keys == null) {
+					keys = new HashSet<>();
+					langTagIndex.put(baseName, keys);
+				}
+				keys.add(name);
+			} else {
+				Set<String> keys = langTagIndex.get(baseName);
+				if (keys != null) {
+					keys.remove(name);
+					if (keys.isEmpty()) {
+						langTagIndex.remove(baseName);
+					}
+				}
+			}
+		}
+	}
+
+
 	/**
 	 * Sets a claim.
 	 *
@@ -226,6 +327,10 @@ public class ClaimsSet implements JSONAware {
 			claims.put(name, value);
 		else
 			claims.remove(name);
+
+		if (langTagIndex != null) {
+			updateLangTagIndex(name, value != null);
+		}
 	}
 
 
@@ -346,7 +451,7 @@ public class ClaimsSet implements JSONAware {
 		if (value != null)
 			setClaim(name, value.toString());
 		else
-			claims.remove(name);
+			setClaim(name, null);
 	}
 
 
@@ -380,7 +485,7 @@ public class ClaimsSet implements JSONAware {
 		if (value != null)
 			setClaim(name, value.toString());
 		else
-			claims.remove(name);
+			setClaim(name, null);
 	}
 
 
@@ -416,7 +521,7 @@ public class ClaimsSet implements JSONAware {
 		if (value != null)
 			setClaim(name, DateUtils.toSecondsSinceEpoch(value));
 		else
-			claims.remove(name);
+			setClaim(name, null);
 	}
 
 
@@ -883,6 +883,17 @@ public class ClaimsSetRequest implements JSONAware {
 	}
 	
 	
+	/**
+	 * Compiles this claims set request, for repeated filtering of claims
+	 * sets with it.
+	 *
+	 * @return The compiled claims set request.
+	 */
+	public CompiledClaimsSetRequest compile() {
+		return new CompiledClaimsSetRequest(this);
+	}
+	
+	
 	/**
 	 * Returns the JSON object representation of this claims set request.
 	 *
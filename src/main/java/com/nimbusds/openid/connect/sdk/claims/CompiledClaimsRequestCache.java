@@ -0,0 +1,341 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.openid.connect.sdk.OIDCClaimsRequest;
+
+
+/**
+ * Cache of compiled OpenID claims requests, keyed by the claims request
+ * JSON string. Clients typically repeat the same {@code claims}
+ * authorisation request parameter, the cache saves parsing and compiling it
+ * for each request.
+ *
+ * <p>Lookups are lock-free. The cache is bounded by a maximum size, when
+ * full the least recently used entry is evicted to make room. The recency
+ * is approximate under concurrent access.
+ */
+@ThreadSafe
+public class CompiledClaimsRequestCache {
+	
+	
+	/**
+	 * The default maximum cache size.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	
+	
+	/**
+	 * The maximum cache size.
+	 */
+	private final int maxSize;
+	
+	
+	/**
+	 * The compiled claims requests, keyed by claims request JSON string.
+	 */
+	private final ConcurrentHashMap<String,Entry> cache = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * Logical clock for recording the last access of the entries.
+	 */
+	private final AtomicLong accessClock = new AtomicLong();
+	
+	
+	/**
+	 * Creates a new compiled claims request cache with the default
+	 * maximum size.
+	 */
+	public CompiledClaimsRequestCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+	
+	
+	/**
+	 * Creates a new compiled claims request cache.
+	 *
+	 * @param maxSize The maximum cache size. Must be positive.
+	 */
+	public CompiledClaimsRequestCache(final int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("The maximum cache size must be positive");
+		}
+		this.maxSize = maxSize;
+	}
+	
+	
+	/**
+	 * Returns the maximum cache size.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	
+	/**
+	 * Returns the cache entry for the specified claims request JSON,
+	 * parsing and compiling it on a cache miss.
+	 *
+	 * @param json The OpenID claims request JSON. Must not be
+	 *             {@code null}.
+	 *
+	 * @return The cache entry.
+	 *
+	 * @throws ParseException If parsing failed.
+	 */
+	private Entry get(final String json)
+		throws ParseException {
+		
+		Entry entry = lookup(json);
+		
+		if (entry != null) {
+			return entry;
+		}
+		
+		return store(json, new Entry(OIDCClaimsRequest.parse(json)));
+	}
+	
+	
+	/**
+	 * Returns the cache entry for the specified claims request, compiling
+	 * it on a cache miss.
+	 *
+	 * @param claimsRequest The OpenID claims request. Must not be
+	 *                      {@code null}.
+	 *
+	 * @return The cache entry.
+	 */
+	private Entry get(final OIDCClaimsRequest claimsRequest) {
+		
+		String json = claimsRequest.toJSONString();
+		
+		Entry entry = lookup(json);
+		
+		if (entry != null) {
+			return entry;
+		}
+		
+		return store(json, new Entry(claimsRequest));
+	}
+	
+	
+	/**
+	 * Looks up the cache entry for the specified claims request JSON,
+	 * marking it as recently used.
+	 *
+	 * @param json The claims request JSON.
+	 *
+	 * @return The cache entry, {@code null} if not found.
+	 */
+	private Entry lookup(final String json) {
+		
+		Entry entry = cache.get(json);
+		
+		if (entry != null) {
+			entry.lastAccess = accessClock.incrementAndGet();
+		}
+		
+		return entry;
+	}
+	
+	
+	/**
+	 * Stores the specified cache entry, unless an entry for the claims
+	 * request JSON was stored concurrently. Evicts the least recently used
+	 * entries if the maximum size is exceeded.
+	 *
+	 * @param json  The claims request JSON.
+	 * @param entry The cache entry.
+	 *
+	 * @return The stored cache entry.
+	 */
+	private Entry store(final String json, final Entry entry) {
+		
+		entry.lastAccess = accessClock.incrementAndGet();
+		
+		Entry existing = cache.putIfAbsent(json, entry);
+		
+		if (existing != null) {
+			return existing;
+		}
+		
+		while (cache.size() > maxSize) {
+			evictLeastRecentlyUsed();
+		}
+		
+		return entry;
+	}
+	
+	
+	/**
+	 * Evicts the least recently used entry. Called on a cache miss only,
+	 * when the cost of the scan is small compared to parsing and
+	 * compiling the claims request.
+	 */
+	private void evictLeastRecentlyUsed() {
+		
+		Map.Entry<String,Entry> eldest = null;
+		
+		for (Map.Entry<String,Entry> en: cache.entrySet()) {
+			if (eldest == null || en.getValue().lastAccess < eldest.getValue().lastAccess) {
+				eldest = en;
+			}
+		}
+		
+		if (eldest != null) {
+			cache.remove(eldest.getKey(), eldest.getValue());
+		}
+	}
+	
+	
+	/**
+	 * Returns the compiled UserInfo claims request for the specified
+	 * OpenID claims request JSON.
+	 *
+	 * @param json The OpenID claims request JSON. Must not be
+	 *             {@code null}.
+	 *
+	 * @return The compiled UserInfo claims request, {@code null} if not
+	 *         specified.
+	 *
+	 * @throws ParseException If parsing failed.
+	 */
+	public CompiledClaimsSetRequest getUserInfoClaimsRequest(final String json)
+		throws ParseException {
+		
+		return get(json).userInfo;
+	}
+	
+	
+	/**
+	 * Returns the compiled UserInfo claims request for the specified
+	 * OpenID claims request.
+	 *
+	 * @param claimsRequest The OpenID claims request. Must not be
+	 *                      {@code null}.
+	 *
+	 * @return The compiled UserInfo claims request, {@code null} if not
+	 *         specified.
+	 */
+	public CompiledClaimsSetRequest getUserInfoClaimsRequest(final OIDCClaimsRequest claimsRequest) {
+		
+		return get(claimsRequest).userInfo;
+	}
+	
+	
+	/**
+	 * Returns the compiled ID token claims request for the specified
+	 * OpenID claims request JSON.
+	 *
+	 * @param json The OpenID claims request JSON. Must not be
+	 *             {@code null}.
+	 *
+	 * @return The compiled ID token claims request, {@code null} if not
+	 *         specified.
+	 *
+	 * @throws ParseException If parsing failed.
+	 */
+	public CompiledClaimsSetRequest getIDTokenClaimsRequest(final String json)
+		throws ParseException {
+		
+		return get(json).idToken;
+	}
+	
+	
+	/**
+	 * Returns the compiled ID token claims request for the specified
+	 * OpenID claims request.
+	 *
+	 * @param claimsRequest The OpenID claims request. Must not be
+	 *                      {@code null}.
+	 *
+	 * @return The compiled ID token claims request, {@code null} if not
+	 *         specified.
+	 */
+	public CompiledClaimsSetRequest getIDTokenClaimsRequest(final OIDCClaimsRequest claimsRequest) {
+		
+		return get(claimsRequest).idToken;
+	}
+	
+	
+	/**
+	 * Returns the number of cached claims requests.
+	 *
+	 * @return The cache size.
+	 */
+	public int size() {
+		return cache.size();
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+	
+	
+	/**
+	 * Compiled OpenID claims request.
+	 */
+	private static final class Entry {
+		
+		
+		/**
+		 * The compiled ID token claims request, {@code null} if not
+		 * specified.
+		 */
+		private final CompiledClaimsSetRequest idToken;
+		
+		
+		/**
+		 * The compiled UserInfo claims request, {@code null} if not
+		 * specified.
+		 */
+		private final CompiledClaimsSetRequest userInfo;
+		
+		
+		/**
+		 * The logical time of the last access.
+		 */
+		private volatile long lastAccess;
+		
+		
+		/**
+		 * Compiles the specified OpenID claims request.
+		 *
+		 * @param claimsRequest The OpenID claims request.
+		 */
+		private Entry(final OIDCClaimsRequest claimsRequest) {
+			idToken = claimsRequest.getIDTokenClaimsRequest() != null ? claimsRequest.getIDTokenClaimsRequest().compile() : null;
+			userInfo = claimsRequest.getUserInfoClaimsRequest() != null ? claimsRequest.getUserInfoClaimsRequest().compile() : null;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import net.jcip.annotations.Immutable;
+import net.minidev.json.JSONObject;
+
+
+/**
+ * Compiled claims set request, for repeated filtering of claims sets, such as
+ * UserInfo, with the same request. The requested claim names are put into
+ * hash sets, so that {@link #apply} projects a claims set onto the request
+ * in a single pass over its claims.
+ *
+ * <p>Matching rules:
+ *
+ * <ul>
+ *     <li>A claim requested without a language tag, e.g. {@code name},
+ *         matches the claim without a language tag as well as all its
+ *         language tagged variants, e.g. {@code name#de-DE}.
+ *     <li>A claim requested with a language tag, e.g. {@code name#de-DE},
+ *         matches only the claim with that language tag. Language tags are
+ *         compared case-insensitively.
+ * </ul>
+ *
+ * <p>The compiled request is a snapshot of the {@link ClaimsSetRequest} at
+ * the time of compilation. Subsequent changes to the original request are
+ * not reflected.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * CompiledClaimsSetRequest compiled = claimsRequest.getUserInfoClaimsRequest().compile();
+ *
+ * UserInfo released = compiled.apply(userInfo);
+ * </pre>
+ */
+@Immutable
+public final class CompiledClaimsSetRequest {
+	
+	
+	/**
+	 * The names of the claims requested without a language tag.
+	 */
+	private final Set<String> names;
+	
+	
+	/**
+	 * The names of the claims requested with a language tag, with the
+	 * language tag in lower case.
+	 */
+	private final Set<String> langTaggedNames;
+	
+	
+	/**
+	 * The names of the claims requested as essential, with the optional
+	 * language tag appended.
+	 */
+	private final Set<String> essentialNames;
+	
+	
+	/**
+	 * Compiles the specified claims set request.
+	 *
+	 * @param claimsSetRequest The claims set request. Must not be
+	 *                         {@code null}.
+	 */
+	CompiledClaimsSetRequest(final ClaimsSetRequest claimsSetRequest) {
+		
+		Set<String> names = new HashSet<>();
+		Set<String> langTaggedNames = new HashSet<>();
+		Set<String> essentialNames = new HashSet<>();
+		
+		for (ClaimsSetRequest.Entry en: claimsSetRequest.getEntries()) {
+			
+			if (en.getLangTag() == null) {
+				names.add(en.getClaimName());
+			} else {
+				langTaggedNames.add(en.getClaimName() + "#" + en.getLangTag().toString().toLowerCase(Locale.ROOT));
+			}
+			
+			if (ClaimRequirement.ESSENTIAL.equals(en.getClaimRequirement())) {
+				essentialNames.add(en.getClaimName(true));
+			}
+		}
+		
+		this.names = Collections.unmodifiableSet(names);
+		this.langTaggedNames = Collections.unmodifiableSet(langTaggedNames);
+		this.essentialNames = Collections.unmodifiableSet(essentialNames);
+	}
+	
+	
+	/**
+	 * Returns the names of the requested claims, with the optional
+	 * language tags appended.
+	 *
+	 * @return The claim names, empty set if none.
+	 */
+	public Set<String> getClaimNames() {
+		
+		Set<String> out = new HashSet<>(names);
+		out.addAll(langTaggedNames);
+		return Collections.unmodifiableSet(out);
+	}
+	
+	
+	/**
+	 * Returns the names of the claims requested as essential, with the
+	 * optional language tags appended.
+	 *
+	 * @return The essential claim names, empty set if none.
+	 */
+	public Set<String> getEssentialClaimNames() {
+		
+		return essentialNames;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the claim with the specified name is
+	 * requested.
+	 *
+	 * @param claimName The claim name, with optional language tag
+	 *                  appended. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the claim matches the request, else
+	 *         {@code false}.
+	 */
+	public boolean matches(final String claimName) {
+		
+		if (names.contains(claimName)) {
+			return true;
+		}
+		
+		int pos = claimName.indexOf('#');
+		
+		if (pos < 1) {
+			return false;
+		}
+		
+		// Wildcard match for all language tags
+		if (names.contains(claimName.substring(0, pos))) {
+			return true;
+		}
+		
+		return ! langTaggedNames.isEmpty()
+			&& (langTaggedNames.contains(claimName) || langTaggedNames.contains(claimName.substring(0, pos + 1) + claimName.substring(pos + 1).toLowerCase(Locale.ROOT)));
+	}
+	
+	
+	/**
+	 * Applies this compiled request to the specified claims.
+	 *
+	 * @param claims The claims as JSON object. Must not be {@code null}.
+	 *
+	 * @return The requested claims found in the JSON object, empty JSON
+	 *         object if none.
+	 */
+	public JSONObject apply(final JSONObject claims) {
+		
+		JSONObject out = new JSONObject();
+		
+		for (Map.Entry<String,Object> en: claims.entrySet()) {
+			if (matches(en.getKey())) {
+				out.put(en.getKey(), en.getValue());
+			}
+		}
+		
+		return out;
+	}
+	
+	
+	/**
+	 * Applies this compiled request to the specified claims set.
+	 *
+	 * @param claimsSet The claims set. Must not be {@code null}.
+	 *
+	 * @return The requested claims found in the claims set, as JSON
+	 *         object, empty JSON object if none.
+	 */
+	public JSONObject apply(final ClaimsSet claimsSet) {
+		
+		// Read the claims directly, without an intermediate copy
+		return apply(claimsSet.claims);
+	}
+	
+	
+	/**
+	 * Applies this compiled request to the specified UserInfo. The
+	 * subject claim is always retained.
+	 *
+	 * @param userInfo The UserInfo. Must not be {@code null}.
+	 *
+	 * @return The UserInfo with the subject and the requested claims
+	 *         found in the original UserInfo.
+	 */
+	public UserInfo apply(final UserInfo userInfo) {
+		
+		JSONObject out = apply(userInfo.claims);
+		out.put(UserInfo.SUB_CLAIM_NAME, userInfo.getSubject().getValue());
+		return new UserInfo(out);
+	}
+	
+	
+	/**
+	 * Returns the names of the essential claims that are missing in the
+	 * specified claims set. Language tags are compared
+	 * case-insensitively.
+	 *
+	 * @param claimsSet The claims set. Must not be {@code null}.
+	 *
+	 * @return The names of the missing essential claims, empty set if
+	 *         none.
+	 */
+	public Set<String> getMissingEssentialClaimNames(final ClaimsSet claimsSet) {
+		
+		if (essentialNames.isEmpty()) {
+			return Collections.emptySet();
+		}
+		
+		JSONObject claims = claimsSet.claims;
+		
+		Set<String> missing = new HashSet<>();
+		for (String name: essentialNames) {
+			if (claims.get(name) == null && ! containsLangTaggedClaim(claims, name)) {
+				missing.add(name);
+			}
+		}
+		return missing;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the specified claims contain a non-null
+	 * claim with the specified language tagged name, comparing the
+	 * language tag case-insensitively.
+	 *
+	 * @param claims    The claims as JSON object. Must not be
+	 *                  {@code null}.
+	 * @param claimName The claim name, with optional language tag
+	 *                  appended. Must not be {@code null}.
+	 *
+	 * @return {@code true} if a matching claim is found, {@code false}
+	 *         if not or the claim name has no language tag.
+	 */
+	private static boolean containsLangTaggedClaim(final JSONObject claims, final String claimName) {
+		
+		int pos = claimName.indexOf('#');
+		
+		if (pos < 1) {
+			return false;
+		}
+		
+		int tagLength = claimName.length() - pos - 1;
+		
+		for (Map.Entry<String,Object> en: claims.entrySet()) {
+			
+			String key = en.getKey();
+			
+			if (en.getValue() != null
+				&& key != null
+				&& key.length() == claimName.length()
+				&& key.regionMatches(0, claimName, 0, pos + 1)
+				&& key.regionMatches(true, pos + 1, claimName, pos + 1, tagLength)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
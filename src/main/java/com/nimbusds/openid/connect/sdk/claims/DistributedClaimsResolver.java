@@ -0,0 +1,652 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.proc.JWTProcessor;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.ExpiringCache;
+
+
+/**
+ * Resolver of distributed OpenID claims. The claims sources referenced in a
+ * UserInfo claims set are fetched in parallel, the returned JWTs are
+ * verified and the claims are merged into a new UserInfo claims set.
+ *
+ * <p>Each claims source is requested with the configured HTTP connect and
+ * read timeouts. The resolution waits for each source up to the configured
+ * resolution timeout, counted from when its fetch starts, so that sources
+ * queued behind others for an executor thread get their full time. Any
+ * source that hasn't returned by then is left unresolved.
+ *
+ * <p>The verified claims are cached by source endpoint, access token and
+ * security context until the earliest of the JWT expiration time
+ * ({@code exp}) and the configured maximum cache lifetime.
+ *
+ * <p>The resolver should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * DistributedClaimsResolver&lt;SecurityContext&gt; resolver = new DistributedClaimsResolver&lt;&gt;(
+ *         jwtProcessor, 1000, 1000, 2500, 4, 300L, 1000);
+ *
+ * UserInfo userInfo = resolver.resolve(userInfoResponse.getUserInfo(), null);
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OpenID Connect Core 1.0, section 5.6.2.
+ * </ul>
+ */
+@ThreadSafe
+public class DistributedClaimsResolver<C extends SecurityContext> {
+	
+	
+	/**
+	 * The default maximum number of concurrent fetches.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+	
+	
+	/**
+	 * The default maximum cache lifetime, in seconds.
+	 */
+	public static final long DEFAULT_MAX_CACHE_LIFETIME_SECONDS = 300L;
+	
+	
+	/**
+	 * The default maximum number of cached claims sources.
+	 */
+	public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+	
+	
+	/**
+	 * The processor for verifying the returned JWTs.
+	 */
+	private final JWTProcessor<C> jwtProcessor;
+	
+	
+	/**
+	 * The HTTP connect timeout, in milliseconds.
+	 */
+	private final int connectTimeout;
+	
+	
+	/**
+	 * The HTTP read timeout, in milliseconds.
+	 */
+	private final int readTimeout;
+	
+	
+	/**
+	 * The resolution timeout for each claims source, in milliseconds,
+	 * zero implies no timeout.
+	 */
+	private final int resolveTimeout;
+	
+	
+	/**
+	 * The maximum cache lifetime, in milliseconds.
+	 */
+	private final long maxCacheLifetimeMs;
+	
+	
+	/**
+	 * The verified claims, keyed by source endpoint and access token
+	 * hash, and security context.
+	 */
+	private final ExpiringCache<Map.Entry<String,C>,JWTClaimsSet> cache;
+	
+	
+	/**
+	 * The executor for the parallel fetches.
+	 */
+	private final ExecutorService executor;
+	
+	
+	/**
+	 * Creates a new distributed claims resolver with the default maximum
+	 * concurrency, cache lifetime and cache size. The resolution timeout
+	 * is the sum of the HTTP connect and read timeouts.
+	 *
+	 * @param jwtProcessor   The processor for verifying the JWTs returned
+	 *                       by the claims sources. Must not be
+	 *                       {@code null}.
+	 * @param connectTimeout The HTTP connect timeout, in milliseconds,
+	 *                       zero implies no timeout. Must not be
+	 *                       negative.
+	 * @param readTimeout    The HTTP read timeout, in milliseconds, zero
+	 *                       implies no timeout. Must not be negative.
+	 */
+	public DistributedClaimsResolver(final JWTProcessor<C> jwtProcessor,
+					 final int connectTimeout,
+					 final int readTimeout) {
+		
+		this(jwtProcessor, connectTimeout, readTimeout, connectTimeout + readTimeout,
+			DEFAULT_MAX_CONCURRENCY,
+			DEFAULT_MAX_CACHE_LIFETIME_SECONDS,
+			DEFAULT_MAX_CACHE_SIZE);
+	}
+	
+	
+	/**
+	 * Creates a new distributed claims resolver. The resolution timeout
+	 * is the sum of the HTTP connect and read timeouts.
+	 *
+	 * @param jwtProcessor            The processor for verifying the JWTs
+	 *                                returned by the claims sources. Must
+	 *                                not be {@code null}.
+	 * @param connectTimeout          The HTTP connect timeout, in
+	 *                                milliseconds, zero implies no
+	 *                                timeout. Must not be negative.
+	 * @param readTimeout             The HTTP read timeout, in
+	 *                                milliseconds, zero implies no
+	 *                                timeout. Must not be negative.
+	 * @param maxConcurrency          The maximum number of concurrent
+	 *                                fetches. Must be positive.
+	 * @param maxCacheLifetimeSeconds The maximum cache lifetime, in
+	 *                                seconds, zero to disable caching.
+	 *                                Must not be negative.
+	 * @param maxCacheSize            The maximum number of cached claims
+	 *                                sources. Must be positive.
+	 */
+	public DistributedClaimsResolver(final JWTProcessor<C> jwtProcessor,
+					 final int connectTimeout,
+					 final int readTimeout,
+					 final int maxConcurrency,
+					 final long maxCacheLifetimeSeconds,
+					 final int maxCacheSize) {
+		
+		this(jwtProcessor, connectTimeout, readTimeout, connectTimeout + readTimeout,
+			maxConcurrency, maxCacheLifetimeSeconds, maxCacheSize);
+	}
+	
+	
+	/**
+	 * Creates a new distributed claims resolver.
+	 *
+	 * @param jwtProcessor            The processor for verifying the JWTs
+	 *                                returned by the claims sources. Must
+	 *                                not be {@code null}.
+	 * @param connectTimeout          The HTTP connect timeout, in
+	 *                                milliseconds, zero implies no
+	 *                                timeout. Must not be negative.
+	 * @param readTimeout             The HTTP read timeout, in
+	 *                                milliseconds, zero implies no
+	 *                                timeout. Must not be negative.
+	 * @param resolveTimeout          The resolution timeout for each
+	 *                                claims source, in milliseconds,
+	 *                                counted from when its fetch starts,
+	 *                                zero implies no timeout. Must not be
+	 *                                negative.
+	 * @param maxConcurrency          The maximum number of concurrent
+	 *                                fetches. Must be positive.
+	 * @param maxCacheLifetimeSeconds The maximum cache lifetime, in
+	 *                                seconds, zero to disable caching.
+	 *                                Must not be negative.
+	 * @param maxCacheSize            The maximum number of cached claims
+	 *                                sources. Must be positive.
+	 */
+	public DistributedClaimsResolver(final JWTProcessor<C> jwtProcessor,
+					 final int connectTimeout,
+					 final int readTimeout,
+					 final int resolveTimeout,
+					 final int maxConcurrency,
+					 final long maxCacheLifetimeSeconds,
+					 final int maxCacheSize) {
+		
+		if (jwtProcessor == null) {
+			throw new IllegalArgumentException("The JWT processor must not be null");
+		}
+		this.jwtProcessor = jwtProcessor;
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP connect timeout must not be negative");
+		}
+		this.connectTimeout = connectTimeout;
+		
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The HTTP read timeout must not be negative");
+		}
+		this.readTimeout = readTimeout;
+		
+		if (resolveTimeout < 0) {
+			throw new IllegalArgumentException("The resolve timeout must not be negative");
+		}
+		this.resolveTimeout = resolveTimeout;
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		if (maxCacheLifetimeSeconds < 0) {
+			throw new IllegalArgumentException("The max cache lifetime must not be negative");
+		}
+		maxCacheLifetimeMs = maxCacheLifetimeSeconds * 1000L;
+		
+		cache = new ExpiringCache<>(maxCacheSize);
+		
+		executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("distributed-claims-resolver"));
+	}
+	
+	
+	/**
+	 * Returns the processor for verifying the returned JWTs.
+	 *
+	 * @return The JWT processor.
+	 */
+	public JWTProcessor<C> getJWTProcessor() {
+		return jwtProcessor;
+	}
+	
+	
+	/**
+	 * Returns the HTTP connect timeout.
+	 *
+	 * @return The HTTP connect timeout, in milliseconds.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+	
+	
+	/**
+	 * Returns the HTTP read timeout.
+	 *
+	 * @return The HTTP read timeout, in milliseconds.
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+	
+	
+	/**
+	 * Returns the resolution timeout for each claims source, counted from
+	 * when its fetch starts.
+	 *
+	 * @return The resolution timeout, in milliseconds, zero if none.
+	 */
+	public int getResolveTimeout() {
+		return resolveTimeout;
+	}
+	
+	
+	/**
+	 * Returns the maximum cache lifetime.
+	 *
+	 * @return The maximum cache lifetime, in seconds.
+	 */
+	public long getMaxCacheLifetimeSeconds() {
+		return maxCacheLifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of cached claims sources.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxCacheSize() {
+		return cache.getMaxSize();
+	}
+	
+	
+	/**
+	 * Resolves the distributed claims in the specified UserInfo claims
+	 * set. The claims sources are fetched in parallel. The claims of the
+	 * successfully fetched and verified sources are merged into the
+	 * returned claims set and their {@code _claim_names} and
+	 * {@code _claim_sources} references removed. Sources which couldn't be
+	 * fetched or verified remain referenced, they can be found with
+	 * {@link UserInfo#getDistributedClaims()}.
+	 *
+	 * @param userInfo The UserInfo claims set. Must not be {@code null}.
+	 * @param context  Optional context to pass to the JWT processor,
+	 *                 {@code null} if not required.
+	 *
+	 * @return The UserInfo claims set with the resolved distributed
+	 *         claims, the original claims set if it has no distributed
+	 *         claims or none could be resolved.
+	 */
+	public UserInfo resolve(final UserInfo userInfo, final C context) {
+		
+		Set<DistributedClaims> sources = userInfo.getDistributedClaims();
+		
+		if (sources == null) {
+			return userInfo;
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		Map<DistributedClaims,JWTClaimsSet> resolved = new HashMap<>();
+		Map<FetchTask,Future<JWTClaimsSet>> pending = new HashMap<>();
+		
+		for (DistributedClaims source: sources) {
+			
+			JWTClaimsSet cached = cache.get(createCacheKey(source, context), now);
+			
+			if (cached != null) {
+				resolved.put(source, cached);
+				continue;
+			}
+			
+			FetchTask task = new FetchTask(source, context);
+			pending.put(task, executor.submit(task));
+		}
+		
+		for (Map.Entry<FetchTask,Future<JWTClaimsSet>> en: pending.entrySet()) {
+			
+			Future<JWTClaimsSet> future = en.getValue();
+			
+			try {
+				if (resolveTimeout > 0) {
+					resolved.put(en.getKey().source, await(en.getKey(), future));
+				} else {
+					resolved.put(en.getKey().source, future.get());
+				}
+			} catch (TimeoutException e) {
+				future.cancel(true);
+			} catch (ExecutionException e) {
+				// Fetching or verification failed, leave unresolved
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+			}
+		}
+		
+		if (resolved.isEmpty()) {
+			return userInfo;
+		}
+		
+		return new UserInfo(ExternalClaimsUtils.mergeResolvedClaims(userInfo.toJSONObject(), resolved));
+	}
+	
+	
+	/**
+	 * Waits for the result of the specified fetch task, up to the
+	 * resolution timeout counted from when the task started.
+	 *
+	 * @param task   The fetch task.
+	 * @param future The future of the fetch task.
+	 *
+	 * @return The verified JWT claims set.
+	 *
+	 * @throws TimeoutException     If the resolution timed out, or the
+	 *                              resolver was shut down before the
+	 *                              task started.
+	 * @throws ExecutionException   If fetching or verification failed.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private JWTClaimsSet await(final FetchTask task, final Future<JWTClaimsSet> future)
+		throws TimeoutException, ExecutionException, InterruptedException {
+		
+		// The task may be queued behind other fetches
+		while (! task.started.await(resolveTimeout, TimeUnit.MILLISECONDS)) {
+			if (executor.isShutdown()) {
+				throw new TimeoutException();
+			}
+		}
+		
+		long remaining = Math.max(0L, task.startedAt + resolveTimeout - System.currentTimeMillis());
+		
+		return future.get(remaining, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Fetches and verifies the claims of the specified distributed claims
+	 * source, bypassing the cache lookup. The verified claims are put into
+	 * the cache.
+	 *
+	 * @param source  The distributed claims source. Must not be
+	 *                {@code null}.
+	 * @param context Optional context to pass to the JWT processor,
+	 *                {@code null} if not required.
+	 *
+	 * @return The verified JWT claims set.
+	 *
+	 * @throws IOException      If the HTTP request failed, the source
+	 *                          returned an error or an invalid JWT.
+	 * @throws BadJOSEException If the JWT was rejected.
+	 * @throws JOSEException    If an internal processing exception was
+	 *                          encountered.
+	 */
+	public JWTClaimsSet fetch(final DistributedClaims source, final C context)
+		throws IOException, BadJOSEException, JOSEException {
+		
+		HTTPRequest httpRequest = new HTTPRequest(HTTPRequest.Method.GET, source.getSourceEndpoint().toURL());
+		httpRequest.setConnectTimeout(connectTimeout);
+		httpRequest.setReadTimeout(readTimeout);
+		httpRequest.setAccept("application/jwt");
+		if (source.getAccessToken() != null) {
+			httpRequest.setAuthorization("Bearer " + source.getAccessToken().getValue());
+		}
+		
+		HTTPResponse httpResponse = httpRequest.send();
+		
+		if (! httpResponse.indicatesSuccess()) {
+			throw new IOException("HTTP " + httpResponse.getStatusCode() + ": " + httpResponse.getStatusMessage());
+		}
+		
+		if (httpResponse.getContent() == null) {
+			throw new IOException("Missing distributed claims JWT");
+		}
+		
+		JWT jwt;
+		try {
+			jwt = JWTParser.parse(httpResponse.getContent().trim());
+		} catch (java.text.ParseException e) {
+			throw new IOException("Invalid distributed claims JWT: " + e.getMessage(), e);
+		}
+		
+		JWTClaimsSet claimsSet = jwtProcessor.process(jwt, context);
+		
+		if (maxCacheLifetimeMs > 0L) {
+			long now = System.currentTimeMillis();
+			long expiresAt = now + maxCacheLifetimeMs;
+			if (claimsSet.getExpirationTime() != null) {
+				expiresAt = Math.min(expiresAt, claimsSet.getExpirationTime().getTime());
+			}
+			if (expiresAt > now) {
+				cache.put(createCacheKey(source, context), claimsSet, expiresAt, now);
+			}
+		}
+		
+		return claimsSet;
+	}
+	
+	
+	/**
+	 * Returns the cached verified claims of the specified distributed
+	 * claims source.
+	 *
+	 * @param source  The distributed claims source. Must not be
+	 *                {@code null}.
+	 * @param context The context the claims were fetched with,
+	 *                {@code null} if none.
+	 *
+	 * @return The verified JWT claims set, {@code null} if not cached or
+	 *         expired.
+	 */
+	public JWTClaimsSet getCachedClaims(final DistributedClaims source, final C context) {
+		
+		return cache.get(createCacheKey(source, context));
+	}
+	
+	
+	/**
+	 * Creates the cache key for the specified distributed claims source
+	 * and context. Claims fetched and verified with one security context
+	 * are not returned for another, the contexts are compared with
+	 * {@link Object#equals}.
+	 *
+	 * @param source  The distributed claims source.
+	 * @param context The context, {@code null} if none.
+	 *
+	 * @return The cache key.
+	 */
+	private Map.Entry<String,C> createCacheKey(final DistributedClaims source, final C context) {
+		
+		return new AbstractMap.SimpleImmutableEntry<>(computeCacheKey(source), context);
+	}
+	
+	
+	/**
+	 * Computes the cache key for the specified distributed claims source.
+	 * The access token is included as a SHA-256 hash only.
+	 *
+	 * @param source The distributed claims source. Must not be
+	 *               {@code null}.
+	 *
+	 * @return The cache key.
+	 */
+	static String computeCacheKey(final DistributedClaims source) {
+		
+		String endpoint = source.getSourceEndpoint().toString();
+		
+		if (source.getAccessToken() == null) {
+			return endpoint;
+		}
+		
+		MessageDigest sha256;
+		try {
+			sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		
+		byte[] hash = sha256.digest(source.getAccessToken().getValue().getBytes(StandardCharsets.UTF_8));
+		return endpoint + " " + Base64URL.encode(hash);
+	}
+	
+	
+	/**
+	 * Removes the expired claims from the cache.
+	 *
+	 * @return The number of removed cache entries.
+	 */
+	public int purgeExpired() {
+		
+		return cache.purgeExpired();
+	}
+	
+	
+	/**
+	 * Returns the number of cached claims sources.
+	 *
+	 * @return The cache size.
+	 */
+	public int getCacheSize() {
+		
+		return cache.size();
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public void clearCache() {
+		
+		cache.clear();
+	}
+	
+	
+	/**
+	 * Task fetching a distributed claims source, recording its start
+	 * time.
+	 */
+	private final class FetchTask implements Callable<JWTClaimsSet> {
+		
+		
+		/**
+		 * The distributed claims source.
+		 */
+		private final DistributedClaims source;
+		
+		
+		/**
+		 * The context to pass to the JWT processor, {@code null} if
+		 * none.
+		 */
+		private final C context;
+		
+		
+		/**
+		 * Released when the task starts.
+		 */
+		private final CountDownLatch started = new CountDownLatch(1);
+		
+		
+		/**
+		 * The start time, in milliseconds since the epoch.
+		 */
+		private volatile long startedAt;
+		
+		
+		/**
+		 * Creates a new fetch task.
+		 *
+		 * @param source  The distributed claims source.
+		 * @param context The context, {@code null} if none.
+		 */
+		private FetchTask(final DistributedClaims source, final C context) {
+			this.source = source;
+			this.context = context;
+		}
+		
+		
+		@Override
+		public JWTClaimsSet call()
+			throws IOException, BadJOSEException, JOSEException {
+			
+			startedAt = System.currentTimeMillis();
+			started.countDown();
+			return fetch(source, context);
+		}
+	}
+	
+	
+	/**
+	 * Shuts down this resolver and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		executor.shutdownNow();
+	}
+}
@@ -22,6 +22,8 @@ import java.util.*;
 
 import net.minidev.json.JSONObject;
 
+import com.nimbusds.jwt.JWTClaimsSet;
+
 
 /**
  * Aggregated and distributed claims utilities.
@@ -29,6 +31,14 @@ import net.minidev.json.JSONObject;
 class ExternalClaimsUtils {
 	
 	
+	/**
+	 * The names of the claims which are never merged from external
+	 * sources.
+	 */
+	static final Set<String> PROTECTED_CLAIM_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+		"sub", "iss", "aud", "exp", "iat", "nbf", "_claim_names", "_claim_sources")));
+	
+	
 	/**
 	 * Gets the {@code _claim_sources} JSON objects from the specified
 	 * claims set JSON object.
@@ -127,6 +137,197 @@ class ExternalClaimsUtils {
 	}
 	
 	
+	/**
+	 * Merges the specified resolved external claims (aggregated or
+	 * distributed) into a copy of the claims set JSON object. The
+	 * {@code _claim_names} and {@code _claim_sources} references to the
+	 * resolved sources are removed.
+	 *
+	 * <p>The {@link #PROTECTED_CLAIM_NAMES protected claims}, such as
+	 * {@code sub} and {@code iss}, are never taken from a source. If a
+	 * claim is resolved from more than one source with different values
+	 * the value of the source listed first in the {@code _claim_names}
+	 * reference is kept, or if the reference isn't a list, the value of
+	 * the source with the lowest ID. The {@code _claim_names} and
+	 * {@code _claim_sources} references to the sources whose value wasn't
+	 * taken are kept. The exception is {@code verified_claims}, the
+	 * differing values of which are merged into a JSON array in the same
+	 * source order, as permitted by OpenID Connect for Identity
+	 * Assurance.
+	 *
+	 * @param claims   The claims set JSON object. Must not be
+	 *                 {@code null}.
+	 * @param resolved The verified claims of the resolved sources. Must
+	 *                 not be {@code null}.
+	 *
+	 * @return The merged claims set JSON object.
+	 */
+	static JSONObject mergeResolvedClaims(final JSONObject claims, final Map<? extends ExternalClaims,JWTClaimsSet> resolved) {
+		
+		JSONObject out = new JSONObject(claims);
+		
+		JSONObject claimNames = new JSONObject();
+		if (claims.get("_claim_names") instanceof JSONObject) {
+			claimNames.putAll((JSONObject)claims.get("_claim_names"));
+		}
+		
+		JSONObject claimSources = new JSONObject();
+		if (claims.get("_claim_sources") instanceof JSONObject) {
+			claimSources.putAll((JSONObject)claims.get("_claim_sources"));
+		}
+		
+		// Source values by claim name, sorted by source ID
+		Map<String,SortedMap<String,Object>> values = new HashMap<>();
+		
+		for (Map.Entry<? extends ExternalClaims,JWTClaimsSet> en: resolved.entrySet()) {
+			
+			String sourceID = en.getKey().getSourceID();
+			Map<String,Object> sourceClaims = en.getValue().toJSONObject();
+			
+			for (String name: en.getKey().getNames()) {
+				
+				if (name.equals("_claim_names") || name.equals("_claim_sources")) {
+					continue;
+				}
+				
+				Object value = sourceClaims.get(name);
+				
+				if (value != null && ! PROTECTED_CLAIM_NAMES.contains(name)) {
+					SortedMap<String,Object> nameValues = values.get(name);
+					if (nameValues == null) {
+						nameValues = new TreeMap<>();
+						values.put(name, nameValues);
+					}
+					nameValues.put(sourceID, value);
+				}
+				
+				Object ref = claimNames.get(name);
+				
+				if (sourceID.equals(ref)) {
+					claimNames.remove(name);
+				} else if (ref instanceof List) {
+					List<Object> remainingRefs = new LinkedList<>((List<?>)ref);
+					remainingRefs.remove(sourceID);
+					if (remainingRefs.isEmpty()) {
+						claimNames.remove(name);
+					} else {
+						claimNames.put(name, remainingRefs);
+					}
+				}
+			}
+			
+			claimSources.remove(sourceID);
+		}
+		
+		Object originalClaimNames = claims.get("_claim_names");
+		
+		Object originalClaimSources = claims.get("_claim_sources");
+		
+		for (Map.Entry<String,SortedMap<String,Object>> en: values.entrySet()) {
+			
+			String name = en.getKey();
+			
+			// Source IDs and values in reference order, then by ID
+			List<String> sourceIDs = new ArrayList<>();
+			List<Object> sourceValues = new ArrayList<>();
+			
+			Object ref = originalClaimNames instanceof JSONObject ? ((JSONObject)originalClaimNames).get(name) : null;
+			if (ref instanceof List) {
+				for (Object sourceID: (List<?>)ref) {
+					if (sourceID instanceof String && en.getValue().containsKey(sourceID) && ! sourceIDs.contains(sourceID)) {
+						sourceIDs.add((String)sourceID);
+						sourceValues.add(en.getValue().get(sourceID));
+					}
+				}
+			}
+			for (Map.Entry<String,Object> sourceValue: en.getValue().entrySet()) {
+				if (! sourceIDs.contains(sourceValue.getKey())) {
+					sourceIDs.add(sourceValue.getKey());
+					sourceValues.add(sourceValue.getValue());
+				}
+			}
+			
+			if ("verified_claims".equals(name) && sourceValues.size() > 1) {
+				out.put(name, mergeVerifiedClaims(sourceValues));
+				continue;
+			}
+			
+			Object value = sourceValues.get(0);
+			out.put(name, value);
+			
+			// Keep the references to the sources whose value wasn't taken
+			List<Object> remainingRefs = new LinkedList<>();
+			if (claimNames.get(name) instanceof List) {
+				remainingRefs.addAll((List<?>)claimNames.get(name));
+			} else if (claimNames.get(name) != null) {
+				remainingRefs.add(claimNames.get(name));
+			}
+			
+			for (int i=1; i < sourceValues.size(); i++) {
+				
+				if (value.equals(sourceValues.get(i))) {
+					continue;
+				}
+				
+				String sourceID = sourceIDs.get(i);
+				remainingRefs.add(sourceID);
+				
+				if (originalClaimSources instanceof JSONObject && ((JSONObject)originalClaimSources).containsKey(sourceID)) {
+					claimSources.put(sourceID, ((JSONObject)originalClaimSources).get(sourceID));
+				}
+			}
+			
+			if (remainingRefs.size() == 1 && ! (ref instanceof List)) {
+				claimNames.put(name, remainingRefs.get(0));
+			} else if (! remainingRefs.isEmpty()) {
+				claimNames.put(name, remainingRefs);
+			}
+		}
+		
+		if (claimNames.isEmpty()) {
+			out.remove("_claim_names");
+		} else {
+			out.put("_claim_names", claimNames);
+		}
+		
+		if (claimSources.isEmpty()) {
+			out.remove("_claim_sources");
+		} else {
+			out.put("_claim_sources", claimSources);
+		}
+		
+		return out;
+	}
+	
+	
+	/**
+	 * Merges the specified {@code verified_claims} values from multiple
+	 * sources into a JSON array, omitting duplicates.
+	 *
+	 * @param sourceValues The {@code verified_claims} values, JSON objects
+	 *                     or JSON arrays, in source order.
+	 *
+	 * @return The merged {@code verified_claims} JSON array.
+	 */
+	private static List<Object> mergeVerifiedClaims(final List<Object> sourceValues) {
+		
+		List<Object> merged = new ArrayList<>();
+		
+		for (Object value: sourceValues) {
+			
+			List<?> items = value instanceof List ? (List<?>)value : Collections.singletonList(value);
+			
+			for (Object item: items) {
+				if (! merged.contains(item)) {
+					merged.add(item);
+				}
+			}
+		}
+		
+		return merged;
+	}
+	
+	
 	/**
 	 * Prevents public instantiation.
 	 */
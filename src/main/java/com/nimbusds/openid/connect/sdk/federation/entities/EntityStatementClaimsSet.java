@@ -18,9 +18,7 @@
 package com.nimbusds.openid.connect.sdk.federation.entities;
 
 
-import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 import net.minidev.json.JSONObject;
 
@@ -161,6 +159,12 @@ public class EntityStatementClaimsSet extends CommonClaimsSet {
 	public static final String POLICY_LANGUAGE_CRITICAL_CLAIM_NAME = "policy_language_crit";
 	
 	
+	/**
+	 * The trust mark issuers claim name.
+	 */
+	public static final String TRUST_MARK_ISSUERS_CLAIM_NAME = "trust_mark_issuers";
+	
+	
 	/**
 	 * Creates a new federation entity statement claims set with the
 	 * minimum required claims.
@@ -856,4 +860,63 @@ public class EntityStatementClaimsSet extends CommonClaimsSet {
 		
 		setClaim(POLICY_LANGUAGE_CRITICAL_CLAIM_NAME, extNames);
 	}
+	
+	
+	/**
+	 * Gets the trust mark issuers. Intended for the self-issued statements
+	 * of trust anchors.
+	 *
+	 * @return The accepted issuers for each trust mark ID, {@code null}
+	 *         if not specified or if parsing failed.
+	 */
+	public Map<Identifier,List<EntityID>> getTrustMarkIssuers() {
+		
+		JSONObject o = getJSONObjectClaim(TRUST_MARK_ISSUERS_CLAIM_NAME);
+		
+		if (o == null) {
+			return null;
+		}
+		
+		Map<Identifier,List<EntityID>> issuers = new LinkedHashMap<>();
+		
+		try {
+			for (String id: o.keySet()) {
+				List<EntityID> entityIDs = new LinkedList<>();
+				for (String value: JSONObjectUtils.getStringList(o, id)) {
+					entityIDs.add(EntityID.parse(value));
+				}
+				issuers.put(new Identifier(id), entityIDs);
+			}
+		} catch (ParseException e) {
+			return null;
+		}
+		
+		return issuers;
+	}
+	
+	
+	/**
+	 * Sets the trust mark issuers. Intended for the self-issued statements
+	 * of trust anchors.
+	 *
+	 * @param issuers The accepted issuers for each trust mark ID,
+	 *                {@code null} if not specified.
+	 */
+	public void setTrustMarkIssuers(final Map<Identifier,List<EntityID>> issuers) {
+		
+		if (issuers == null) {
+			setClaim(TRUST_MARK_ISSUERS_CLAIM_NAME, null);
+			return;
+		}
+		
+		JSONObject o = new JSONObject();
+		for (Map.Entry<Identifier,List<EntityID>> en: issuers.entrySet()) {
+			List<String> values = new LinkedList<>();
+			for (EntityID entityID: en.getValue()) {
+				values.add(entityID.getValue());
+			}
+			o.put(en.getKey().getValue(), values);
+		}
+		setClaim(TRUST_MARK_ISSUERS_CLAIM_NAME, o);
+	}
 }
@@ -0,0 +1,390 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.policy;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.Immutable;
+import net.minidev.json.JSONObject;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.util.JSONUtils;
+import com.nimbusds.openid.connect.sdk.federation.policy.language.*;
+import com.nimbusds.openid.connect.sdk.federation.policy.operations.PolicyOperationFactory;
+
+
+/**
+ * Compiled metadata policy, for repeated application of the same policy to
+ * many metadata documents. The entries of the original
+ * {@link MetadataPolicy} are flattened into arrays of policy operations with
+ * their types resolved in advance, so that {@link #apply} performs a single
+ * pass over the policy entries without per-call allocations of entry and
+ * operation list objects.
+ *
+ * <p>The compiled policy is a snapshot of the {@link MetadataPolicy} at the
+ * time of compilation. The policy operations are copied with a
+ * {@link PolicyOperationFactory}, so that subsequent changes to the
+ * original metadata policy, or reconfiguration of its policy operations,
+ * are not reflected. The operations are never exposed, the
+ * {@link #toMetadataPolicy} method returns copies of them.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * MetadataPolicy policy = MetadataPolicy.parse(policySpec);
+ * CompiledMetadataPolicy compiledPolicy = policy.compile();
+ *
+ * for (JSONObject metadata: metadataDocuments) {
+ *     JSONObject out = compiledPolicy.apply(metadata);
+ * }
+ * </pre>
+ */
+@Immutable
+public final class CompiledMetadataPolicy {
+	
+	
+	/**
+	 * Untyped operation.
+	 */
+	private static final int UNTYPED_OP = 0;
+	
+	
+	/**
+	 * Boolean operation.
+	 */
+	private static final int BOOLEAN_OP = 1;
+	
+	
+	/**
+	 * String operation.
+	 */
+	private static final int STRING_OP = 2;
+	
+	
+	/**
+	 * String list operation.
+	 */
+	private static final int STRING_LIST_OP = 3;
+	
+	
+	/**
+	 * Unsupported operation.
+	 */
+	private static final int UNSUPPORTED_OP = -1;
+	
+	
+	/**
+	 * The metadata parameter names, in policy entry order.
+	 */
+	private final String[] parameterNames;
+	
+	
+	/**
+	 * The policy operations for each metadata parameter name, in
+	 * application order.
+	 */
+	private final PolicyOperation[][] operations;
+	
+	
+	/**
+	 * The resolved types of the policy operations.
+	 */
+	private final int[][] operationTypes;
+	
+	
+	/**
+	 * The factory for copying the policy operations.
+	 */
+	private final PolicyOperationFactory factory;
+	
+	
+	/**
+	 * Compiles the specified metadata policy.
+	 *
+	 * @param metadataPolicy The metadata policy. Must not be
+	 *                       {@code null}.
+	 * @param factory        The factory for copying the policy
+	 *                       operations. Must not be {@code null}.
+	 *
+	 * @throws IllegalArgumentException If a policy operation isn't
+	 *                                  supported by the factory.
+	 */
+	CompiledMetadataPolicy(final MetadataPolicy metadataPolicy, final PolicyOperationFactory factory) {
+		
+		if (factory == null) {
+			throw new IllegalArgumentException("The policy operation factory must not be null");
+		}
+		this.factory = factory;
+		
+		int numEntries = metadataPolicy.entrySet().size();
+		parameterNames = new String[numEntries];
+		operations = new PolicyOperation[numEntries][];
+		operationTypes = new int[numEntries][];
+		
+		int i = 0;
+		for (MetadataPolicyEntry en: metadataPolicy.entrySet()) {
+			
+			parameterNames[i] = en.getParameterName();
+			
+			List<PolicyOperation> opList = en.getPolicyOperations();
+			
+			if (opList == null) {
+				operations[i] = new PolicyOperation[0];
+				operationTypes[i] = new int[0];
+			} else {
+				operations[i] = new PolicyOperation[opList.size()];
+				operationTypes[i] = new int[opList.size()];
+				int j = 0;
+				for (PolicyOperation op: opList) {
+					operations[i][j] = copy(op, factory);
+					operationTypes[i][j] = resolveType(operations[i][j]);
+					j++;
+				}
+			}
+			i++;
+		}
+	}
+	
+	
+	/**
+	 * Copies the specified policy operation, by creating a new instance
+	 * with the factory and configuring it from the JSON representation of
+	 * the original.
+	 *
+	 * @param op      The policy operation. Must not be {@code null}.
+	 * @param factory The policy operation factory. Must not be
+	 *                {@code null}.
+	 *
+	 * @return The policy operation copy.
+	 *
+	 * @throws IllegalArgumentException If the policy operation isn't
+	 *                                  supported by the factory.
+	 */
+	private static PolicyOperation copy(final PolicyOperation op, final PolicyOperationFactory factory) {
+		
+		OperationName name = op.getOperationName();
+		
+		PolicyOperation copy = factory.createForName(name);
+		
+		if (copy == null || copy.getClass() != op.getClass()) {
+			throw new IllegalArgumentException("Unsupported policy operation: " + name);
+		}
+		
+		Object config;
+		try {
+			config = op.toJSONObjectEntry().getValue();
+		} catch (IllegalStateException e) {
+			// Not initialized, the copy fails the same way on apply
+			return copy;
+		}
+		
+		try {
+			copy.parseConfiguration(config);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid " + name + " policy operation configuration: " + e.getMessage(), e);
+		}
+		
+		return copy;
+	}
+	
+	
+	/**
+	 * Resolves the type of the specified policy operation.
+	 *
+	 * @param op The policy operation. Must not be {@code null}.
+	 *
+	 * @return The operation type.
+	 */
+	private static int resolveType(final PolicyOperation op) {
+		
+		// Same precedence as PolicyOperationApplication
+		if (op instanceof UntypedOperation) {
+			return UNTYPED_OP;
+		} else if (op instanceof BooleanOperation) {
+			return BOOLEAN_OP;
+		} else if (op instanceof StringOperation) {
+			return STRING_OP;
+		} else if (op instanceof StringListOperation) {
+			return STRING_LIST_OP;
+		} else {
+			return UNSUPPORTED_OP;
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of compiled policy entries.
+	 *
+	 * @return The number of policy entries.
+	 */
+	public int size() {
+		
+		return parameterNames.length;
+	}
+	
+	
+	/**
+	 * Applies this compiled policy to the specified metadata. The result
+	 * is identical to {@link MetadataPolicy#apply(JSONObject)}.
+	 *
+	 * @param metadata The metadata as JSON object. May be {@code null}.
+	 *
+	 * @return The resulting metadata, {@code null} if not specified.
+	 *
+	 * @throws PolicyViolationException On a policy violation.
+	 */
+	public JSONObject apply(final JSONObject metadata)
+		throws PolicyViolationException {
+		
+		if (metadata == null) {
+			return null;
+		}
+		
+		// Single bulk copy, only the entries subject to policy get
+		// overwritten or removed
+		JSONObject out = new JSONObject(metadata);
+		
+		for (int i=0; i < parameterNames.length; i++) {
+			
+			Object value = metadata.get(parameterNames[i]);
+			Object outputValue = applyEntry(i, value);
+			
+			if (outputValue == value) {
+				// Unchanged
+				if (value == null) {
+					// Remove null-valued members, as in MetadataPolicy.apply
+					out.remove(parameterNames[i]);
+				}
+				continue;
+			}
+			
+			if (outputValue != null) {
+				out.put(parameterNames[i], outputValue);
+			} else {
+				out.remove(parameterNames[i]);
+			}
+		}
+		
+		return out;
+	}
+	
+	
+	/**
+	 * Applies the policy operations of the specified entry.
+	 *
+	 * @param entryIndex The entry index.
+	 * @param value      The parameter value, {@code null} if not
+	 *                   specified.
+	 *
+	 * @return The resulting value, can be {@code null}.
+	 *
+	 * @throws PolicyViolationException On a policy violation.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object applyEntry(final int entryIndex, final Object value)
+		throws PolicyViolationException {
+		
+		PolicyOperation[] ops = operations[entryIndex];
+		int[] opTypes = operationTypes[entryIndex];
+		
+		Object updatedValue = value;
+		
+		// Set when the value was output by a string list operation and
+		// needs no further type checking
+		boolean isStringList = false;
+		
+		for (int j=0; j < ops.length; j++) {
+			
+			switch (opTypes[j]) {
+				
+				case UNTYPED_OP:
+					updatedValue = ((UntypedOperation)ops[j]).apply(updatedValue);
+					isStringList = false;
+					break;
+				
+				case BOOLEAN_OP:
+					if (! (updatedValue instanceof Boolean)) {
+						throw new PolicyViolationException("The value must be a boolean");
+					}
+					updatedValue = ((BooleanOperation)ops[j]).apply((Boolean)updatedValue);
+					isStringList = false;
+					break;
+				
+				case STRING_OP:
+					if (updatedValue != null && ! (updatedValue instanceof String)) {
+						throw new PolicyViolationException("The value must be a string");
+					}
+					updatedValue = ((StringOperation)ops[j]).apply((String)updatedValue);
+					isStringList = false;
+					break;
+				
+				case STRING_LIST_OP:
+					List<String> stringList;
+					if (updatedValue == null) {
+						stringList = null;
+					} else if (isStringList) {
+						stringList = (List<String>)updatedValue;
+					} else if (updatedValue instanceof List) {
+						try {
+							stringList = JSONUtils.toStringList(updatedValue);
+						} catch (ParseException e) {
+							throw new PolicyViolationException("The value must be a string list", e);
+						}
+					} else {
+						throw new PolicyViolationException("The value must be a string list");
+					}
+					updatedValue = ((StringListOperation)ops[j]).apply(stringList);
+					isStringList = updatedValue != null;
+					break;
+				
+				default:
+					throw new PolicyViolationException("Unsupported policy operation: " + ops[j].getClass().getName());
+			}
+		}
+		
+		return updatedValue;
+	}
+	
+	
+	/**
+	 * Returns a metadata policy representation of this compiled policy.
+	 * The policy operations are copies.
+	 *
+	 * @return The metadata policy.
+	 */
+	public MetadataPolicy toMetadataPolicy() {
+		
+		MetadataPolicy policy = new MetadataPolicy();
+		for (int i=0; i < parameterNames.length; i++) {
+			List<PolicyOperation> opList = new ArrayList<>(operations[i].length);
+			for (PolicyOperation op: operations[i]) {
+				opList.add(copy(op, factory));
+			}
+			policy.put(parameterNames[i], opList);
+		}
+		return policy;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return toMetadataPolicy().toJSONString();
+	}
+}
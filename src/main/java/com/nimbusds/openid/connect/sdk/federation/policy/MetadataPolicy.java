@@ -113,6 +113,46 @@ public class MetadataPolicy implements JSONAware {
 	}
 	
 	
+	/**
+	 * Compiles this policy for repeated application to metadata. The
+	 * compiled policy is a snapshot, subsequent changes to this metadata
+	 * policy are not reflected in it. This method is intended for
+	 * policies with standard {@link PolicyOperation}s only. Uses the
+	 * default {@link DefaultPolicyOperationFactory policy operation}
+	 * factory to copy the operations.
+	 *
+	 * @return The compiled metadata policy.
+	 *
+	 * @throws IllegalArgumentException If the policy includes a
+	 *                                  non-standard policy operation.
+	 */
+	public CompiledMetadataPolicy compile() {
+		
+		return compile(MetadataPolicyEntry.DEFAULT_POLICY_OPERATION_FACTORY);
+	}
+	
+	
+	/**
+	 * Compiles this policy for repeated application to metadata. The
+	 * compiled policy is a snapshot, subsequent changes to this metadata
+	 * policy are not reflected in it. This method is intended for
+	 * policies including non-standard {@link PolicyOperation}s.
+	 *
+	 * @param factory The policy operation factory to copy the operations.
+	 *                Must not be {@code null}.
+	 *
+	 * @return The compiled metadata policy.
+	 *
+	 * @throws IllegalArgumentException If the policy includes a policy
+	 *                                  operation not supported by the
+	 *                                  factory.
+	 */
+	public CompiledMetadataPolicy compile(final PolicyOperationFactory factory) {
+		
+		return new CompiledMetadataPolicy(this, factory);
+	}
+	
+	
 	/**
 	 * Puts a policy entry for a metadata parameter.
 	 *
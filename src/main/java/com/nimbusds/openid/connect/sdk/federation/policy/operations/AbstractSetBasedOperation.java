@@ -36,7 +36,7 @@ abstract class AbstractSetBasedOperation implements PolicyOperation, StringListC
 	
 	
 	/**
-	 * The set configuration.
+	 * The set configuration, hash-based for O(1) lookups.
 	 */
 	protected Set<String> setConfig;
 	
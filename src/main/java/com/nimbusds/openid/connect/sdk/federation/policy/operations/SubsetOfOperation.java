@@ -101,8 +101,13 @@ public class SubsetOfOperation extends AbstractSetBasedOperation implements Stri
 			return Collections.emptyList();
 		}
 		
-		Set<String> setValue = new LinkedHashSet<>(stringList);
-		setValue.retainAll(setConfig);
-		return Collections.unmodifiableList(new LinkedList<>(setValue));
+		// Single pass, set config lookups are O(1)
+		Set<String> setValue = new LinkedHashSet<>();
+		for (String item: stringList) {
+			if (setConfig.contains(item)) {
+				setValue.add(item);
+			}
+		}
+		return Collections.unmodifiableList(new ArrayList<>(setValue));
 	}
 }
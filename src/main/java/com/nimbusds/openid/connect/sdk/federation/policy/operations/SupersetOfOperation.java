@@ -98,9 +98,13 @@ public class SupersetOfOperation extends AbstractSetBasedOperation implements Po
 			throw new PolicyViolationException("Value not specified");
 		}
 		
+		// Index the value once instead of scanning the list for each
+		// required value
+		Set<String> setValue = new HashSet<>(stringList);
+		
 		List<String> missingValues = new LinkedList<>();
 		for (String requiredValue: setConfig) {
-			if (! stringList.contains(requiredValue)) {
+			if (! setValue.contains(requiredValue)) {
 				missingValues.add(requiredValue);
 			}
 		}
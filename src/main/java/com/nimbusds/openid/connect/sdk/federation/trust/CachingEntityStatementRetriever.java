@@ -0,0 +1,343 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.net.URI;
+import java.util.*;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.oauth2.sdk.util.ExpiringCache;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+
+
+/**
+ * Caching entity statement retriever. Keeps the retrieved self-issued
+ * statements and the statements issued by superiors, indexed by issuer and
+ * subject entity ID, until their expiration time. Cache misses and expired
+ * statements are fetched from the underlying retriever.
+ *
+ * <p>The number of cached statements is limited. When the cache is full the
+ * statement expiring first is evicted.
+ *
+ * <p>The cache can also be populated directly with statements that were
+ * retrieved and verified by other means, for instance by a
+ * {@link FederationCrawler}.
+ *
+ * <p>Note that the cache doesn't verify the signatures of the statements
+ * that pass through it. The resolved trust chains must be verified as
+ * usual.
+ */
+@ThreadSafe
+public class CachingEntityStatementRetriever implements EntityStatementRetriever {
+	
+	
+	/**
+	 * The default maximum number of cached entity statements.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10_000;
+	
+	
+	/**
+	 * The underlying retriever.
+	 */
+	private final EntityStatementRetriever retriever;
+	
+	
+	/**
+	 * The cached entity statements, keyed by issuer and subject entity
+	 * ID.
+	 */
+	private final ExpiringCache<Map.Entry<EntityID,EntityID>,EntityStatement> statements;
+	
+	
+	/**
+	 * Creates a new caching entity statement retriever with the default
+	 * maximum size.
+	 *
+	 * @param retriever The underlying entity statement retriever to use on
+	 *                  cache misses. Must not be {@code null}.
+	 */
+	public CachingEntityStatementRetriever(final EntityStatementRetriever retriever) {
+		
+		this(retriever, DEFAULT_MAX_SIZE);
+	}
+	
+	
+	/**
+	 * Creates a new caching entity statement retriever.
+	 *
+	 * @param retriever The underlying entity statement retriever to use on
+	 *                  cache misses. Must not be {@code null}.
+	 * @param maxSize   The maximum number of cached entity statements.
+	 *                  Must be positive.
+	 */
+	public CachingEntityStatementRetriever(final EntityStatementRetriever retriever, final int maxSize) {
+		if (retriever == null) {
+			throw new IllegalArgumentException("The entity statement retriever must not be null");
+		}
+		this.retriever = retriever;
+		statements = new ExpiringCache<>(maxSize);
+	}
+	
+	
+	/**
+	 * Returns the maximum number of cached entity statements.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxSize() {
+		return statements.getMaxSize();
+	}
+	
+	
+	/**
+	 * Returns the underlying entity statement retriever.
+	 *
+	 * @return The underlying entity statement retriever.
+	 */
+	public EntityStatementRetriever getRetriever() {
+		return retriever;
+	}
+	
+	
+	@Override
+	public EntityStatement fetchSelfIssuedEntityStatement(final EntityID target)
+		throws ResolveException {
+		
+		EntityStatement statement = getCachedSelfIssuedEntityStatement(target);
+		
+		if (statement != null) {
+			return statement;
+		}
+		
+		statement = retriever.fetchSelfIssuedEntityStatement(target);
+		put(statement);
+		return statement;
+	}
+	
+	
+	@Override
+	public EntityStatement fetchEntityStatement(final URI federationAPIEndpoint, final EntityID issuer, final EntityID subject)
+		throws ResolveException {
+		
+		EntityStatement statement = getCachedEntityStatement(issuer, subject);
+		
+		if (statement != null) {
+			return statement;
+		}
+		
+		statement = retriever.fetchEntityStatement(federationAPIEndpoint, issuer, subject);
+		put(statement);
+		return statement;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the specified entity statement has expired
+	 * or is about to expire.
+	 *
+	 * @param statement The entity statement. Must not be {@code null}.
+	 * @param horizon   The time horizon. Must not be {@code null}.
+	 *
+	 * @return {@code true} if the statement expiration time is missing or
+	 *         before the specified time horizon, else {@code false}.
+	 */
+	static boolean expiresBefore(final EntityStatement statement, final Date horizon) {
+		
+		Date exp = statement.getClaimsSet().getExpirationTime();
+		return exp == null || exp.before(horizon);
+	}
+	
+	
+	/**
+	 * Creates a cache key.
+	 *
+	 * @param issuer  The issuer entity ID. Must not be {@code null}.
+	 * @param subject The subject entity ID. Must not be {@code null}.
+	 *
+	 * @return The cache key.
+	 */
+	private static Map.Entry<EntityID,EntityID> createKey(final EntityID issuer, final EntityID subject) {
+		
+		return new AbstractMap.SimpleImmutableEntry<>(issuer, subject);
+	}
+	
+	
+	/**
+	 * Puts an entity statement into the cache, replacing any previously
+	 * cached statement with the same issuer and subject. Statements
+	 * without an expiration time are not cached. If the cache is full the
+	 * statement expiring first is evicted.
+	 *
+	 * @param statement The entity statement. Must not be {@code null}.
+	 */
+	public void put(final EntityStatement statement) {
+		
+		Map.Entry<EntityID,EntityID> key = createKey(
+			statement.getClaimsSet().getIssuerEntityID(),
+			statement.getClaimsSet().getSubjectEntityID());
+		
+		Date exp = statement.getClaimsSet().getExpirationTime();
+		
+		if (exp == null) {
+			statements.remove(key);
+			return;
+		}
+		
+		statements.put(key, statement, exp.getTime());
+	}
+	
+	
+	/**
+	 * Returns the cached self-issued statement for the specified entity.
+	 *
+	 * @param entityID The entity ID. Must not be {@code null}.
+	 *
+	 * @return The self-issued entity statement, {@code null} if not cached
+	 *         or expired.
+	 */
+	public EntityStatement getCachedSelfIssuedEntityStatement(final EntityID entityID) {
+		
+		return statements.get(createKey(entityID, entityID));
+	}
+	
+	
+	/**
+	 * Returns the cached statement issued by a superior about the
+	 * specified subject entity.
+	 *
+	 * @param issuer  The issuer entity ID. Must not be {@code null}.
+	 * @param subject The subject entity ID. Must not be {@code null}.
+	 *
+	 * @return The entity statement, {@code null} if not cached or
+	 *         expired.
+	 */
+	public EntityStatement getCachedEntityStatement(final EntityID issuer, final EntityID subject) {
+		
+		if (issuer.equals(subject)) {
+			return null;
+		}
+		
+		return statements.get(createKey(issuer, subject));
+	}
+	
+	
+	/**
+	 * Returns the cached statements issued by superiors about the
+	 * specified subject entity.
+	 *
+	 * @param subject The subject entity ID. Must not be {@code null}.
+	 *
+	 * @return The unexpired entity statements, keyed by issuer entity ID,
+	 *         empty map if none.
+	 */
+	public Map<EntityID,EntityStatement> getCachedEntityStatementsAbout(final EntityID subject) {
+		
+		Date now = new Date();
+		Map<EntityID,EntityStatement> out = new HashMap<>();
+		for (EntityStatement statement: statements.values()) {
+			if (! statement.getClaimsSet().isSelfStatement()
+				&& subject.equals(statement.getClaimsSet().getSubjectEntityID())
+				&& ! expiresBefore(statement, now)) {
+				out.put(statement.getClaimsSet().getIssuerEntityID(), statement);
+			}
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * Returns the IDs of the entities with a cached self-issued statement.
+	 *
+	 * @return The entity IDs, empty set if none.
+	 */
+	public Set<EntityID> getCachedEntityIDs() {
+		
+		Set<EntityID> out = new HashSet<>();
+		for (EntityStatement statement: statements.values()) {
+			if (statement.getClaimsSet().isSelfStatement()) {
+				out.add(statement.getEntityID());
+			}
+		}
+		return Collections.unmodifiableSet(out);
+	}
+	
+	
+	/**
+	 * Returns all cached entity statements, including expired ones which
+	 * haven't been purged yet.
+	 *
+	 * @return The cached entity statements, empty list if none.
+	 */
+	public List<EntityStatement> getCachedEntityStatements() {
+		
+		return new LinkedList<>(statements.values());
+	}
+	
+	
+	/**
+	 * Removes the cached statements for the specified entity, self-issued
+	 * as well as issued by superiors.
+	 *
+	 * @param entityID The entity ID. Must not be {@code null}.
+	 */
+	public void invalidate(final EntityID entityID) {
+		
+		for (EntityStatement statement: statements.values()) {
+			if (entityID.equals(statement.getClaimsSet().getSubjectEntityID())) {
+				statements.remove(
+					createKey(statement.getClaimsSet().getIssuerEntityID(), entityID),
+					statement);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Removes the expired entity statements from the cache.
+	 *
+	 * @return The number of removed statements.
+	 */
+	public int purgeExpired() {
+		
+		return statements.purgeExpired();
+	}
+	
+	
+	/**
+	 * Returns the number of cached entity statements.
+	 *
+	 * @return The number of cached statements, zero if none.
+	 */
+	public int size() {
+		
+		return statements.size();
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public void clear() {
+		
+		statements.clear();
+	}
+}
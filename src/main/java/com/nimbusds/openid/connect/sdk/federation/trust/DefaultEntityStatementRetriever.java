@@ -21,6 +21,7 @@ package com.nimbusds.openid.connect.sdk.federation.trust;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -30,6 +31,9 @@ import com.nimbusds.oauth2.sdk.WellKnownPathComposeStrategy;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 import com.nimbusds.oauth2.sdk.util.StringUtils;
+import com.nimbusds.openid.connect.sdk.federation.api.EntityListingRequest;
+import com.nimbusds.openid.connect.sdk.federation.api.EntityListingResponse;
+import com.nimbusds.openid.connect.sdk.federation.api.EntityListingSpec;
 import com.nimbusds.openid.connect.sdk.federation.api.FetchEntityStatementRequest;
 import com.nimbusds.openid.connect.sdk.federation.api.FetchEntityStatementResponse;
 import com.nimbusds.openid.connect.sdk.federation.config.FederationEntityConfigurationRequest;
@@ -42,9 +46,10 @@ import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
  * The default entity statement retriever for resolving trust chains. Supports
  * the {@link WellKnownPathComposeStrategy#POSTFIX postfix} and
  * {@link WellKnownPathComposeStrategy#INFIX infix} well-known path composition
- * strategies.
+ * strategies. Can also retrieve the entity listings of federation
+ * authorities.
  */
-public class DefaultEntityStatementRetriever implements EntityStatementRetriever {
+public class DefaultEntityStatementRetriever implements EntityStatementRetriever, EntityListingRetriever {
 	
 	
 	/**
@@ -74,7 +79,7 @@ public class DefaultEntityStatementRetriever implements EntityStatementRetriever
 	/**
 	 * Running list of the recorded HTTP requests.
 	 */
-	private final List<URI> recordedRequests = new LinkedList<>();
+	private final List<URI> recordedRequests = Collections.synchronizedList(new LinkedList<URI>());
 	
 	
 	/**
@@ -218,6 +223,42 @@ public class DefaultEntityStatementRetriever implements EntityStatementRetriever
 	}
 	
 	
+	@Override
+	public List<EntityID> fetchEntityListing(final URI federationAPIEndpoint, final EntityID issuer)
+		throws ResolveException {
+		
+		EntityListingRequest request = new EntityListingRequest(federationAPIEndpoint, issuer.toIssuer(), EntityListingSpec.ALL);
+		HTTPRequest httpRequest = request.toHTTPRequest();
+		applyTimeouts(httpRequest);
+		
+		record(httpRequest);
+		
+		HTTPResponse httpResponse;
+		try {
+			httpResponse = httpRequest.send();
+		} catch (IOException e) {
+			throw new ResolveException("Couldn't fetch entity listing from " + issuer + " at " + federationAPIEndpoint + ": " + e.getMessage(), e);
+		}
+		
+		EntityListingResponse response;
+		try {
+			response = EntityListingResponse.parse(httpResponse);
+		} catch (ParseException e) {
+			throw new ResolveException("Error parsing entity listing response from " + issuer + " at " + federationAPIEndpoint + ": " + e.getMessage(), e);
+		}
+		
+		if (! response.indicatesSuccess()) {
+			ErrorObject errorObject = response.toErrorResponse().getErrorObject();
+			throw new ResolveException("Entity listing error response from " + issuer + " at " + federationAPIEndpoint + ": " +
+				errorObject.getHTTPStatusCode() +
+				(errorObject.getCode() != null ? " " + errorObject.getCode() : ""),
+				errorObject);
+		}
+		
+		return response.toSuccessResponse().getEntityListing();
+	}
+	
+	
 	private void record(final HTTPRequest httpRequest) {
 		
 		URI uri = null;
@@ -0,0 +1,50 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.net.URI;
+import java.util.List;
+
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+
+
+/**
+ * Retriever of the subordinate entities listed by a federation authority.
+ */
+public interface EntityListingRetriever {
+	
+	
+	/**
+	 * Fetches the entity listing of an authority from its federation API
+	 * endpoint.
+	 *
+	 * @param federationAPIEndpoint The federation API endpoint. Must not
+	 *                              be {@code null}.
+	 * @param issuer                The listing issuer, typically the ID
+	 *                              of the entity operating the endpoint.
+	 *                              Must not be {@code null}.
+	 *
+	 * @return The IDs of the immediate subordinate entities, empty list if
+	 *         none.
+	 *
+	 * @throws ResolveException If fetching failed.
+	 */
+	List<EntityID> fetchEntityListing(final URI federationAPIEndpoint, final EntityID issuer)
+		throws ResolveException;
+}
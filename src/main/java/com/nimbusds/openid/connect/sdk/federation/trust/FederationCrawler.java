@@ -0,0 +1,746 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+import com.nimbusds.openid.connect.sdk.federation.entities.FederationEntityMetadata;
+import com.nimbusds.openid.connect.sdk.federation.trust.constraints.TrustChainConstraints;
+
+
+/**
+ * Federation crawler. Starts from a trust anchor and walks down the
+ * federation tree, using the entity listings of the trust anchor and the
+ * intermediates to enumerate their subordinates. The statements about the
+ * subordinates and their self-issued statements are fetched in parallel,
+ * verified, and put into a {@link CachingEntityStatementRetriever}, so that
+ * the subsequent trust chain resolutions can be served from the cache.
+ *
+ * <p>Repeated crawls are incremental: statements which are cached and don't
+ * expire within the configured refresh-ahead time are not fetched again, and
+ * the entity listing of an authority is only fetched again together with its
+ * self-issued statement.
+ *
+ * <p>The crawler can {@link #startAutoRefresh() refresh} the cache
+ * automatically. The next crawl is then scheduled from the expiration times
+ * ({@code exp}) of the obtained statements, so that the statement expiring
+ * first gets fetched again the refresh-ahead time before it expires.
+ *
+ * <p>The crawler should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(new DefaultEntityStatementRetriever());
+ *
+ * FederationCrawler crawler = new FederationCrawler(
+ *         trustAnchor,
+ *         trustAnchorJWKSet,
+ *         cache,
+ *         new DefaultEntityStatementRetriever());
+ *
+ * Set&lt;EntityID&gt; entities = crawler.crawl();
+ *
+ * TrustChainResolver resolver = new TrustChainResolver(
+ *         Collections.singletonMap(trustAnchor, trustAnchorJWKSet),
+ *         TrustChainConstraints.NO_CONSTRAINTS,
+ *         cache);
+ * </pre>
+ */
+@ThreadSafe
+public class FederationCrawler {
+	
+	
+	/**
+	 * The default maximum number of concurrent fetches.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 8;
+	
+	
+	/**
+	 * The default refresh-ahead time, in seconds.
+	 */
+	public static final long DEFAULT_REFRESH_AHEAD_SECONDS = 60;
+	
+	
+	/**
+	 * The minimum interval between automatic refreshes, in seconds. Also
+	 * the retry interval when a crawl obtained no statements.
+	 */
+	public static final long MIN_REFRESH_INTERVAL_SECONDS = 30;
+	
+	
+	/**
+	 * The trust anchor.
+	 */
+	private final EntityID trustAnchor;
+	
+	
+	/**
+	 * The trust anchor JWK set, {@code null} if not specified.
+	 */
+	private final JWKSet trustAnchorJWKSet;
+	
+	
+	/**
+	 * The entity statement cache to populate.
+	 */
+	private final CachingEntityStatementRetriever cache;
+	
+	
+	/**
+	 * The entity listing retriever.
+	 */
+	private final EntityListingRetriever listingRetriever;
+	
+	
+	/**
+	 * The constraints to apply during the crawl.
+	 */
+	private final TrustChainConstraints constraints;
+	
+	
+	/**
+	 * The refresh-ahead time, in milliseconds.
+	 */
+	private final long refreshAheadMs;
+	
+	
+	/**
+	 * The executor for the parallel fetches.
+	 */
+	private final ExecutorService executor;
+	
+	
+	/**
+	 * The scheduler for the automatic refreshes, {@code null} if not
+	 * started.
+	 */
+	private final AtomicReference<ScheduledExecutorService> refreshScheduler = new AtomicReference<>();
+	
+	
+	/**
+	 * The earliest expiration time of the statements obtained during the
+	 * ongoing crawl, in milliseconds since the epoch.
+	 */
+	private final AtomicLong earliestExpiration = new AtomicLong(Long.MAX_VALUE);
+	
+	
+	/**
+	 * The time when the statement expiring first should be fetched again,
+	 * in milliseconds since the epoch, {@link Long#MAX_VALUE} if not
+	 * determined.
+	 */
+	private volatile long nextRefreshTime = Long.MAX_VALUE;
+	
+	
+	/**
+	 * The last entity listings of the authorities, with the expiration
+	 * time of the self-issued statement they were fetched with.
+	 */
+	private final ConcurrentHashMap<EntityID,Map.Entry<Date,List<EntityID>>> listings = new ConcurrentHashMap<>();
+	
+	
+	/**
+	 * The exceptions accumulated during the last crawl.
+	 */
+	private final List<Throwable> accumulatedExceptions = Collections.synchronizedList(new LinkedList<Throwable>());
+	
+	
+	/**
+	 * Creates a new federation crawler with the default maximum
+	 * concurrency and refresh-ahead time, and
+	 * {@link TrustChainConstraints#NO_CONSTRAINTS no constraints}.
+	 *
+	 * @param trustAnchor       The trust anchor. Must not be {@code null}.
+	 * @param trustAnchorJWKSet The trust anchor public JWK set,
+	 *                          {@code null} to use the JWK set in its
+	 *                          self-issued statement.
+	 * @param cache             The entity statement cache to populate.
+	 *                          Must not be {@code null}.
+	 * @param listingRetriever  The entity listing retriever. Must not be
+	 *                          {@code null}.
+	 */
+	public FederationCrawler(final EntityID trustAnchor,
+				 final JWKSet trustAnchorJWKSet,
+				 final CachingEntityStatementRetriever cache,
+				 final EntityListingRetriever listingRetriever) {
+		
+		this(trustAnchor, trustAnchorJWKSet, cache, listingRetriever,
+			TrustChainConstraints.NO_CONSTRAINTS,
+			DEFAULT_MAX_CONCURRENCY,
+			DEFAULT_REFRESH_AHEAD_SECONDS);
+	}
+	
+	
+	/**
+	 * Creates a new federation crawler.
+	 *
+	 * @param trustAnchor         The trust anchor. Must not be
+	 *                            {@code null}.
+	 * @param trustAnchorJWKSet   The trust anchor public JWK set,
+	 *                            {@code null} to use the JWK set in its
+	 *                            self-issued statement.
+	 * @param cache               The entity statement cache to populate.
+	 *                            Must not be {@code null}.
+	 * @param listingRetriever    The entity listing retriever. Must not
+	 *                            be {@code null}.
+	 * @param constraints         The constraints to apply during the
+	 *                            crawl. Must not be {@code null}.
+	 * @param maxConcurrency      The maximum number of concurrent
+	 *                            fetches. Must be positive.
+	 * @param refreshAheadSeconds The time before expiration when cached
+	 *                            statements get fetched again, in
+	 *                            seconds. Must not be negative.
+	 */
+	public FederationCrawler(final EntityID trustAnchor,
+				 final JWKSet trustAnchorJWKSet,
+				 final CachingEntityStatementRetriever cache,
+				 final EntityListingRetriever listingRetriever,
+				 final TrustChainConstraints constraints,
+				 final int maxConcurrency,
+				 final long refreshAheadSeconds) {
+		
+		if (trustAnchor == null) {
+			throw new IllegalArgumentException("The trust anchor must not be null");
+		}
+		this.trustAnchor = trustAnchor;
+		
+		this.trustAnchorJWKSet = trustAnchorJWKSet;
+		
+		if (cache == null) {
+			throw new IllegalArgumentException("The entity statement cache must not be null");
+		}
+		this.cache = cache;
+		
+		if (listingRetriever == null) {
+			throw new IllegalArgumentException("The entity listing retriever must not be null");
+		}
+		this.listingRetriever = listingRetriever;
+		
+		if (constraints == null) {
+			throw new IllegalArgumentException("The trust chain constraints must not be null");
+		}
+		this.constraints = constraints;
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		if (refreshAheadSeconds < 0) {
+			throw new IllegalArgumentException("The refresh-ahead time must not be negative");
+		}
+		refreshAheadMs = refreshAheadSeconds * 1000L;
+		
+		executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("federation-crawler"));
+	}
+	
+	
+	/**
+	 * Returns the trust anchor.
+	 *
+	 * @return The trust anchor.
+	 */
+	public EntityID getTrustAnchor() {
+		return trustAnchor;
+	}
+	
+	
+	/**
+	 * Returns the populated entity statement cache.
+	 *
+	 * @return The entity statement cache.
+	 */
+	public CachingEntityStatementRetriever getCache() {
+		return cache;
+	}
+	
+	
+	/**
+	 * Returns the configured constraints.
+	 *
+	 * @return The constraints.
+	 */
+	public TrustChainConstraints getConstraints() {
+		return constraints;
+	}
+	
+	
+	/**
+	 * Crawls the federation, starting from the trust anchor. Fetches only
+	 * the statements that aren't cached or are about to expire.
+	 * Unreachable entities and statements which fail verification are
+	 * skipped and recorded in the {@link #getAccumulatedExceptions()
+	 * accumulated exceptions}.
+	 *
+	 * @return The IDs of the discovered entities, including the trust
+	 *         anchor, empty set if the trust anchor couldn't be retrieved.
+	 */
+	public synchronized Set<EntityID> crawl() {
+		
+		accumulatedExceptions.clear();
+		earliestExpiration.set(Long.MAX_VALUE);
+		
+		try {
+			return crawl(new Date(new Date().getTime() + refreshAheadMs));
+		} finally {
+			long earliest = earliestExpiration.get();
+			nextRefreshTime = earliest != Long.MAX_VALUE ? earliest - refreshAheadMs : Long.MAX_VALUE;
+		}
+	}
+	
+	
+	/**
+	 * Crawls the federation, starting from the trust anchor.
+	 *
+	 * @param horizon The refresh time horizon. Must not be {@code null}.
+	 *
+	 * @return The IDs of the discovered entities, including the trust
+	 *         anchor, empty set if the trust anchor couldn't be retrieved.
+	 */
+	private Set<EntityID> crawl(final Date horizon) {
+		
+		EntityStatement anchorStatement;
+		try {
+			anchorStatement = obtainTrustAnchorStatement(horizon);
+		} catch (ResolveException e) {
+			accumulatedExceptions.add(e);
+			return Collections.emptySet();
+		}
+		
+		final Set<EntityID> discovered = Collections.newSetFromMap(new ConcurrentHashMap<EntityID,Boolean>());
+		discovered.add(trustAnchor);
+		
+		List<EntityStatement> authorities = Collections.singletonList(anchorStatement);
+		int numIntermediates = 0;
+		
+		while (! authorities.isEmpty() && constraints.isPermitted(numIntermediates)) {
+			
+			// Fetch the listings of the current level in parallel
+			Map<EntityStatement,Future<List<EntityID>>> listingFutures = new LinkedHashMap<>();
+			for (final EntityStatement authority: authorities) {
+				listingFutures.put(authority, executor.submit(new Callable<List<EntityID>>() {
+					@Override
+					public List<EntityID> call() throws ResolveException {
+						return obtainListing(authority, horizon);
+					}
+				}));
+			}
+			
+			// Fetch the subordinates in parallel
+			List<Future<EntityStatement>> subordinateFutures = new LinkedList<>();
+			for (Map.Entry<EntityStatement,Future<List<EntityID>>> en: listingFutures.entrySet()) {
+				
+				final EntityStatement authority = en.getKey();
+				
+				List<EntityID> listing = awaitResult(en.getValue());
+				if (listing == null) {
+					continue;
+				}
+				
+				for (final EntityID subordinate: listing) {
+					
+					if (! constraints.isPermitted(subordinate)) {
+						accumulatedExceptions.add(new ResolveException("Reached entity which isn't permitted according to constraints: " + subordinate));
+						continue;
+					}
+					
+					if (! discovered.add(subordinate)) {
+						continue; // already visited
+					}
+					
+					subordinateFutures.add(executor.submit(new Callable<EntityStatement>() {
+						@Override
+						public EntityStatement call() throws ResolveException {
+							return obtainSubordinateStatements(authority, subordinate, horizon);
+						}
+					}));
+				}
+			}
+			
+			// The subordinates which are authorities make up the next level
+			List<EntityStatement> nextLevel = new LinkedList<>();
+			for (Future<EntityStatement> future: subordinateFutures) {
+				EntityStatement subordinateStatement = awaitResult(future);
+				if (subordinateStatement != null && getFederationAPIEndpoint(subordinateStatement) != null) {
+					nextLevel.add(subordinateStatement);
+				}
+			}
+			
+			authorities = nextLevel;
+			numIntermediates++;
+		}
+		
+		return Collections.unmodifiableSet(new HashSet<>(discovered));
+	}
+	
+	
+	/**
+	 * Returns the time when the statement expiring first, among those
+	 * obtained during the last crawl, should be fetched again. This is
+	 * its expiration time minus the refresh-ahead time.
+	 *
+	 * @return The next refresh time, {@code null} if no statements were
+	 *         obtained.
+	 */
+	public Date getNextRefreshTime() {
+		
+		long t = nextRefreshTime;
+		return t != Long.MAX_VALUE ? new Date(t) : null;
+	}
+	
+	
+	/**
+	 * Starts the automatic refresh of the cache. The first crawl is
+	 * started immediately, the next ones are scheduled at the
+	 * {@link #getNextRefreshTime() next refresh time}, but not sooner
+	 * than {@link #MIN_REFRESH_INTERVAL_SECONDS}. Has no effect if
+	 * already started.
+	 */
+	public void startAutoRefresh() {
+		
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("federation-crawler-refresh"));
+		
+		if (! refreshScheduler.compareAndSet(null, scheduler)) {
+			scheduler.shutdownNow();
+			return;
+		}
+		
+		scheduleRefresh(scheduler, 0L);
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the automatic refresh is started.
+	 *
+	 * @return {@code true} if started, else {@code false}.
+	 */
+	public boolean isAutoRefreshStarted() {
+		
+		return refreshScheduler.get() != null;
+	}
+	
+	
+	/**
+	 * Schedules a crawl followed by the scheduling of the next one.
+	 *
+	 * @param scheduler The refresh scheduler. Must not be {@code null}.
+	 * @param delayMs   The delay, in milliseconds.
+	 */
+	private void scheduleRefresh(final ScheduledExecutorService scheduler, final long delayMs) {
+		
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					crawl();
+					
+					long minIntervalMs = MIN_REFRESH_INTERVAL_SECONDS * 1000L;
+					long nextDelayMs = nextRefreshTime != Long.MAX_VALUE ? nextRefreshTime - new Date().getTime() : minIntervalMs;
+					scheduleRefresh(scheduler, Math.max(minIntervalMs, nextDelayMs));
+				}
+			}, delayMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shut down
+		}
+	}
+	
+	
+	/**
+	 * Tracks the expiration time of the specified obtained statement.
+	 *
+	 * @param statement The entity statement. Must not be {@code null}.
+	 */
+	private void trackExpiration(final EntityStatement statement) {
+		
+		Date exp = statement.getClaimsSet().getExpirationTime();
+		
+		if (exp == null) {
+			return;
+		}
+		
+		long current;
+		do {
+			current = earliestExpiration.get();
+			if (exp.getTime() >= current) {
+				return;
+			}
+		} while (! earliestExpiration.compareAndSet(current, exp.getTime()));
+	}
+	
+	
+	/**
+	 * Waits for the result of the specified fetch task.
+	 *
+	 * @param future The future. Must not be {@code null}.
+	 *
+	 * @return The result, {@code null} if the task failed.
+	 */
+	private <T> T awaitResult(final Future<T> future) {
+		
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			accumulatedExceptions.add(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			accumulatedExceptions.add(e);
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * Obtains the verified self-issued statement of the trust anchor.
+	 *
+	 * @param horizon The refresh time horizon. Must not be {@code null}.
+	 *
+	 * @return The trust anchor statement.
+	 *
+	 * @throws ResolveException If retrieval or verification failed.
+	 */
+	private EntityStatement obtainTrustAnchorStatement(final Date horizon)
+		throws ResolveException {
+		
+		EntityStatement cached = cache.getCachedSelfIssuedEntityStatement(trustAnchor);
+		if (cached != null && ! CachingEntityStatementRetriever.expiresBefore(cached, horizon)) {
+			trackExpiration(cached);
+			return cached;
+		}
+		
+		EntityStatement statement = cache.getRetriever().fetchSelfIssuedEntityStatement(trustAnchor);
+		
+		ensureIssuerAndSubject(statement, trustAnchor, trustAnchor);
+		
+		try {
+			if (trustAnchorJWKSet != null) {
+				statement.verifySignature(trustAnchorJWKSet);
+			} else {
+				statement.verifySignatureOfSelfStatement();
+			}
+		} catch (BadJOSEException | JOSEException e) {
+			throw new ResolveException("Invalid self-issued entity statement for trust anchor " + trustAnchor + ": " + e.getMessage(), e);
+		}
+		
+		cache.put(statement);
+		trackExpiration(statement);
+		return statement;
+	}
+	
+	
+	/**
+	 * Obtains the entity listing of the specified authority.
+	 *
+	 * @param authority The self-issued statement of the authority. Must
+	 *                  not be {@code null}.
+	 * @param horizon   The refresh time horizon. Must not be
+	 *                  {@code null}.
+	 *
+	 * @return The subordinate entity IDs, empty list if none.
+	 *
+	 * @throws ResolveException If retrieval failed.
+	 */
+	private List<EntityID> obtainListing(final EntityStatement authority, final Date horizon)
+		throws ResolveException {
+		
+		EntityID authorityID = authority.getEntityID();
+		Date exp = authority.getClaimsSet().getExpirationTime();
+		
+		Map.Entry<Date,List<EntityID>> cached = listings.get(authorityID);
+		if (cached != null && exp != null && exp.equals(cached.getKey()) && ! exp.before(horizon)) {
+			return cached.getValue();
+		}
+		
+		URI federationAPIEndpoint = getFederationAPIEndpoint(authority);
+		if (federationAPIEndpoint == null) {
+			throw new ResolveException("No federation API URI in metadata for " + authorityID);
+		}
+		
+		List<EntityID> listing = listingRetriever.fetchEntityListing(federationAPIEndpoint, authorityID);
+		if (listing == null) {
+			listing = Collections.emptyList();
+		}
+		
+		listings.put(authorityID, new AbstractMap.SimpleImmutableEntry<>(exp, listing));
+		return listing;
+	}
+	
+	
+	/**
+	 * Obtains and verifies the statement of the specified authority about
+	 * the subordinate, followed by the self-issued statement of the
+	 * subordinate.
+	 *
+	 * @param authority   The self-issued statement of the authority. Must
+	 *                    not be {@code null}.
+	 * @param subordinate The subordinate entity ID. Must not be
+	 *                    {@code null}.
+	 * @param horizon     The refresh time horizon. Must not be
+	 *                    {@code null}.
+	 *
+	 * @return The self-issued statement of the subordinate.
+	 *
+	 * @throws ResolveException If retrieval or verification failed.
+	 */
+	private EntityStatement obtainSubordinateStatements(final EntityStatement authority,
+							    final EntityID subordinate,
+							    final Date horizon)
+		throws ResolveException {
+		
+		EntityID authorityID = authority.getEntityID();
+		
+		EntityStatement superiorStatement = cache.getCachedEntityStatement(authorityID, subordinate);
+		
+		if (superiorStatement == null || CachingEntityStatementRetriever.expiresBefore(superiorStatement, horizon)) {
+			
+			superiorStatement = cache.getRetriever().fetchEntityStatement(getFederationAPIEndpoint(authority), authorityID, subordinate);
+			
+			ensureIssuerAndSubject(superiorStatement, authorityID, subordinate);
+			
+			try {
+				superiorStatement.verifySignature(authority.getClaimsSet().getJWKSet());
+			} catch (BadJOSEException | JOSEException e) {
+				throw new ResolveException("Invalid entity statement from " + authorityID + " about " + subordinate + ": " + e.getMessage(), e);
+			}
+			
+			cache.put(superiorStatement);
+		}
+		
+		trackExpiration(superiorStatement);
+		
+		EntityStatement selfStatement = cache.getCachedSelfIssuedEntityStatement(subordinate);
+		
+		if (selfStatement == null || CachingEntityStatementRetriever.expiresBefore(selfStatement, horizon)) {
+			
+			selfStatement = cache.getRetriever().fetchSelfIssuedEntityStatement(subordinate);
+			
+			ensureIssuerAndSubject(selfStatement, subordinate, subordinate);
+			
+			// The subordinate keys are vouched for by the superior
+			JWKSet jwkSet = superiorStatement.getClaimsSet().getJWKSet();
+			
+			if (jwkSet == null) {
+				throw new ResolveException("Missing JWK set in entity statement from " + authorityID + " about " + subordinate);
+			}
+			
+			try {
+				selfStatement.verifySignature(jwkSet);
+			} catch (BadJOSEException | JOSEException e) {
+				throw new ResolveException("Invalid self-issued entity statement for " + subordinate + ": " + e.getMessage(), e);
+			}
+			
+			cache.put(selfStatement);
+		}
+		
+		trackExpiration(selfStatement);
+		
+		return selfStatement;
+	}
+	
+	
+	/**
+	 * Ensures the specified fetched entity statement has the expected
+	 * issuer and subject, so that a statement about another entity is
+	 * never cached and crawled under the requested entity ID.
+	 *
+	 * @param statement The entity statement. Must not be {@code null}.
+	 * @param issuer    The expected issuer. Must not be {@code null}.
+	 * @param subject   The expected subject, equal to the issuer for a
+	 *                  self-issued statement. Must not be {@code null}.
+	 *
+	 * @throws ResolveException If the issuer or subject don't match.
+	 */
+	private static void ensureIssuerAndSubject(final EntityStatement statement,
+						   final EntityID issuer,
+						   final EntityID subject)
+		throws ResolveException {
+		
+		EntityID iss = statement.getClaimsSet().getIssuerEntityID();
+		EntityID sub = statement.getClaimsSet().getSubjectEntityID();
+		
+		if (issuer.equals(subject)) {
+			if (! statement.getClaimsSet().isSelfStatement() || ! subject.equals(statement.getEntityID())) {
+				throw new ResolveException("Unexpected self-issued entity statement for " + subject + ": Found issuer " + iss + " and subject " + sub);
+			}
+		} else if (! issuer.equals(iss) || ! subject.equals(sub)) {
+			throw new ResolveException("Unexpected entity statement from " + issuer + " about " + subject + ": Found issuer " + iss + " and subject " + sub);
+		}
+	}
+	
+	
+	/**
+	 * Returns the federation API endpoint of the entity with the specified
+	 * self-issued statement.
+	 *
+	 * @param selfStatement The self-issued statement. Must not be
+	 *                      {@code null}.
+	 *
+	 * @return The federation API endpoint, {@code null} if not specified.
+	 */
+	private static URI getFederationAPIEndpoint(final EntityStatement selfStatement) {
+		
+		FederationEntityMetadata metadata = selfStatement.getClaimsSet().getFederationEntityMetadata();
+		
+		if (metadata == null) {
+			return null;
+		}
+		
+		return metadata.getFederationAPIEndpointURI();
+	}
+	
+	
+	/**
+	 * Returns the exceptions accumulated during the last crawl.
+	 *
+	 * @return The exceptions, empty list if none.
+	 */
+	public List<Throwable> getAccumulatedExceptions() {
+		
+		synchronized (accumulatedExceptions) {
+			return Collections.unmodifiableList(new ArrayList<>(accumulatedExceptions));
+		}
+	}
+	
+	
+	/**
+	 * Shuts down this crawler and frees any associated resources.
+	 */
+	public void shutdown() {
+		
+		ScheduledExecutorService scheduler = refreshScheduler.get();
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+
+
+/**
+ * Local file for persisting federation entity statements across restarts. Enables an entity statement cache to start warm, without having
+ * to fetch every federation entity again from the network.
+ *
+ * <p>Each record is a line with the entity statement JWT in compact
+ * serialisation. Lines starting with {@code #} are comments. The file is replaced atomically on
+ * each {@link #write write}, where supported by the file system. Partially
+ * written or otherwise corrupted records are skipped on reading.
+ *
+ * <p>On {@link #read reading} the expired statements are skipped and the
+ * signatures of the remaining statements are verified again, top-down from
+ * the trust anchors: the statements of an authority about its subordinates
+ * with the authority keys, and the self-issued statements of the
+ * subordinates with the keys vouched for by their superiors. Statements
+ * which fail verification or can't be linked to a trust anchor are skipped,
+ * as are the self-issued statements of subordinates whose superior
+ * statement doesn't include a JWK set. If the file has more than one
+ * self-issued statement for an entity the first which verifies is used.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * FederationSnapshotFile snapshot = new FederationSnapshotFile(new File("federation.snapshot"));
+ *
+ * // On startup
+ * snapshot.restore(cache, trustAnchors);
+ *
+ * // After a crawl, periodically or on shutdown
+ * snapshot.save(cache);
+ * </pre>
+ */
+@ThreadSafe
+public class FederationSnapshotFile {
+	
+	
+	/**
+	 * The comment line prefix.
+	 */
+	private static final String COMMENT_PREFIX = "#";
+	
+	
+	/**
+	 * The file header.
+	 */
+	private static final String HEADER = COMMENT_PREFIX + " Federation entity statements snapshot, format 2";
+	
+	
+	/**
+	 * The snapshot file.
+	 */
+	private final File file;
+	
+	
+	/**
+	 * Creates a new federation snapshot file.
+	 *
+	 * @param file The file. Need not exist yet. Must not be {@code null}.
+	 */
+	public FederationSnapshotFile(final File file) {
+		if (file == null) {
+			throw new IllegalArgumentException("The file must not be null");
+		}
+		this.file = file;
+	}
+	
+	
+	/**
+	 * Returns the snapshot file.
+	 *
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	
+	/**
+	 * Writes the unexpired statements from the specified collection to
+	 * the snapshot file, replacing its previous content. The file is
+	 * replaced atomically where supported by the file system.
+	 *
+	 * @param statements The entity statements. Must not be {@code null}.
+	 *
+	 * @return The number of written statements.
+	 *
+	 * @throws IOException If writing failed.
+	 */
+	public synchronized int write(final Collection<EntityStatement> statements)
+		throws IOException {
+		
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		
+		Date now = new Date();
+		int count = 0;
+		
+		try {
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+				writer.write(HEADER);
+				writer.write('\n');
+				for (EntityStatement statement: statements) {
+					if (CachingEntityStatementRetriever.expiresBefore(statement, now)) {
+						continue;
+					}
+					writeRecord(writer, statement);
+					count++;
+				}
+			}
+			
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// Atomic move not supported
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+		
+		return count;
+	}
+	
+	
+	/**
+	 * Saves the cached unexpired statements of the specified entity
+	 * statement cache to the snapshot file, replacing its previous
+	 * content.
+	 *
+	 * @param cache The entity statement cache. Must not be {@code null}.
+	 *
+	 * @return The number of saved statements.
+	 *
+	 * @throws IOException If writing failed.
+	 */
+	public int save(final CachingEntityStatementRetriever cache)
+		throws IOException {
+		
+		return write(cache.getCachedEntityStatements());
+	}
+	
+	
+	/**
+	 * Writes a single record.
+	 *
+	 * @param writer    The writer. Must not be {@code null}.
+	 * @param statement The entity statement. Must not be {@code null}.
+	 *
+	 * @throws IOException If writing failed.
+	 */
+	private static void writeRecord(final Writer writer, final EntityStatement statement)
+		throws IOException {
+		
+		writer.write(statement.getSignedStatement().serialize());
+		writer.write('\n');
+	}
+	
+	
+	/**
+	 * Reads the unexpired entity statements from the snapshot file and
+	 * verifies their signatures, top-down from the specified trust
+	 * anchors.
+	 *
+	 * @param trustAnchors The trust anchors with their public JWK sets,
+	 *                     a {@code null} JWK set to use the JWK set in
+	 *                     the self-issued trust anchor statement. Must not
+	 *                     be {@code null}.
+	 *
+	 * @return The verified entity statements, empty list if the file
+	 *         doesn't exist or no statements were found.
+	 *
+	 * @throws IOException If reading failed.
+	 */
+	public synchronized List<EntityStatement> read(final Map<EntityID,JWKSet> trustAnchors)
+		throws IOException {
+		
+		if (! file.exists()) {
+			return Collections.emptyList();
+		}
+		
+		Date now = new Date();
+		
+		// Unexpired self-issued statements, in file order
+		Map<EntityID,List<EntityStatement>> selfStatements = new HashMap<>();
+		Map<EntityID,List<EntityStatement>> superiorStatementsByIssuer = new HashMap<>();
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			
+			String line;
+			while ((line = reader.readLine()) != null) {
+				
+				if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+					continue;
+				}
+				
+				// Skip the fetch time of format 1 records
+				String jwt = line.substring(line.lastIndexOf(' ') + 1);
+				
+				EntityStatement statement;
+				try {
+					statement = EntityStatement.parse(jwt);
+				} catch (ParseException e) {
+					continue; // corrupted or truncated record
+				}
+				
+				if (CachingEntityStatementRetriever.expiresBefore(statement, now)) {
+					continue;
+				}
+				
+				if (statement.getClaimsSet().isSelfStatement()) {
+					add(selfStatements, statement.getEntityID(), statement);
+				} else {
+					add(superiorStatementsByIssuer, statement.getClaimsSet().getIssuerEntityID(), statement);
+				}
+			}
+		}
+		
+		List<EntityStatement> verified = new LinkedList<>();
+		
+		// The verified self-issued statements of the authorities to
+		// process next
+		Deque<EntityStatement> authorities = new LinkedList<>();
+		Set<EntityID> visited = new HashSet<>();
+		
+		for (Map.Entry<EntityID,JWKSet> anchor: trustAnchors.entrySet()) {
+			
+			List<EntityStatement> candidates = selfStatements.get(anchor.getKey());
+			if (candidates == null) {
+				continue;
+			}
+			
+			for (EntityStatement anchorStatement: candidates) {
+				
+				JWKSet anchorJWKSet = anchor.getValue() != null ? anchor.getValue() : anchorStatement.getClaimsSet().getJWKSet();
+				
+				if (verify(anchorStatement, anchorJWKSet)) {
+					verified.add(anchorStatement);
+					authorities.add(anchorStatement);
+					visited.add(anchor.getKey());
+					break;
+				}
+			}
+		}
+		
+		while (! authorities.isEmpty()) {
+			
+			EntityStatement authority = authorities.remove();
+			
+			List<EntityStatement> aboutSubordinates = superiorStatementsByIssuer.get(authority.getEntityID());
+			if (aboutSubordinates == null) {
+				continue;
+			}
+			
+			for (EntityStatement statement: aboutSubordinates) {
+				
+				if (! verify(statement, authority.getClaimsSet().getJWKSet())) {
+					continue;
+				}
+				verified.add(statement);
+				
+				EntityID subordinate = statement.getClaimsSet().getSubjectEntityID();
+				if (! visited.add(subordinate)) {
+					continue; // reached via another authority
+				}
+				
+				List<EntityStatement> candidates = selfStatements.get(subordinate);
+				if (candidates == null) {
+					continue;
+				}
+				
+				for (EntityStatement selfStatement: candidates) {
+					if (verify(selfStatement, statement.getClaimsSet().getJWKSet())) {
+						verified.add(selfStatement);
+						authorities.add(selfStatement);
+						break;
+					}
+				}
+			}
+		}
+		
+		return verified;
+	}
+	
+	
+	/**
+	 * Adds the specified entity statement to a multi-valued map.
+	 *
+	 * @param map       The map. Must not be {@code null}.
+	 * @param key       The key. Must not be {@code null}.
+	 * @param statement The entity statement. Must not be {@code null}.
+	 */
+	private static void add(final Map<EntityID,List<EntityStatement>> map, final EntityID key, final EntityStatement statement) {
+		
+		List<EntityStatement> list = map.get(key);
+		if (list == null) {
+			list = new LinkedList<>();
+			map.put(key, list);
+		}
+		list.add(statement);
+	}
+	
+	
+	/**
+	 * Verifies the signature of the specified entity statement.
+	 *
+	 * @param statement The entity statement. Must not be {@code null}.
+	 * @param jwkSet    The JWK set, {@code null} if missing.
+	 *
+	 * @return {@code true} if the signature is valid and the statement
+	 *         not expired, {@code false} if invalid or the JWK set is
+	 *         missing.
+	 */
+	private static boolean verify(final EntityStatement statement, final JWKSet jwkSet) {
+		
+		if (jwkSet == null) {
+			return false;
+		}
+		
+		try {
+			statement.verifySignature(jwkSet);
+			return true;
+		} catch (BadJOSEException | JOSEException e) {
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Reads the verified unexpired entity statements from the snapshot
+	 * file and puts them into the specified entity statement cache.
+	 *
+	 * @param cache        The entity statement cache. Must not be
+	 *                     {@code null}.
+	 * @param trustAnchors The trust anchors with their public JWK sets,
+	 *                     a {@code null} JWK set to use the JWK set in
+	 *                     the self-issued trust anchor statement. Must not
+	 *                     be {@code null}.
+	 *
+	 * @return The number of restored statements.
+	 *
+	 * @throws IOException If reading failed.
+	 */
+	public int restore(final CachingEntityStatementRetriever cache, final Map<EntityID,JWKSet> trustAnchors)
+		throws IOException {
+		
+		List<EntityStatement> statements = read(trustAnchors);
+		
+		for (EntityStatement statement: statements) {
+			cache.put(statement);
+		}
+		
+		return statements.size();
+	}
+}
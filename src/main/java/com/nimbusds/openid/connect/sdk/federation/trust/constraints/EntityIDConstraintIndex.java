@@ -0,0 +1,268 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust.constraints;
+
+
+import java.util.*;
+
+import net.jcip.annotations.Immutable;
+
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+
+
+/**
+ * Compiled index of entity ID constraints. Matches an entity ID against all
+ * indexed constraints in time proportional to the length of the entity ID,
+ * regardless of the number of constraints.
+ *
+ * <ul>
+ *     <li>{@link ExactMatchEntityIDConstraint}s are put into a hash set.
+ *     <li>{@link SubtreeEntityIDConstraint}s are put into a trie, one per
+ *         scheme, keyed by the reversed characters of their host and path
+ *         pattern. Walking the trie backwards from the end of the entity
+ *         ID finds any pattern that is a suffix of it.
+ *     <li>Other {@link EntityIDConstraint} implementations are matched
+ *         one by one.
+ * </ul>
+ */
+@Immutable
+final class EntityIDConstraintIndex {
+	
+	
+	/**
+	 * Trie node.
+	 */
+	private static final class Node {
+		
+		
+		/**
+		 * The child labels, sorted.
+		 */
+		private char[] labels = new char[0];
+		
+		
+		/**
+		 * The child nodes, in label order.
+		 */
+		private Node[] children = new Node[0];
+		
+		
+		/**
+		 * {@code true} if a pattern ends at this node.
+		 */
+		private boolean terminal;
+		
+		
+		/**
+		 * Returns the child node for the specified label.
+		 *
+		 * @param label The label.
+		 *
+		 * @return The child node, {@code null} if none.
+		 */
+		Node getChild(final char label) {
+			
+			int pos = Arrays.binarySearch(labels, label);
+			return pos >= 0 ? children[pos] : null;
+		}
+		
+		
+		/**
+		 * Returns the child node for the specified label, adding it if
+		 * it doesn't exist.
+		 *
+		 * @param label The label.
+		 *
+		 * @return The child node.
+		 */
+		Node addChild(final char label) {
+			
+			int pos = Arrays.binarySearch(labels, label);
+			
+			if (pos >= 0) {
+				return children[pos];
+			}
+			
+			int insertPos = -pos - 1;
+			
+			char[] newLabels = new char[labels.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, insertPos);
+			System.arraycopy(labels, insertPos, newLabels, insertPos + 1, labels.length - insertPos);
+			newLabels[insertPos] = label;
+			
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(children, 0, newChildren, 0, insertPos);
+			System.arraycopy(children, insertPos, newChildren, insertPos + 1, children.length - insertPos);
+			newChildren[insertPos] = new Node();
+			
+			labels = newLabels;
+			children = newChildren;
+			
+			return newChildren[insertPos];
+		}
+	}
+	
+	
+	/**
+	 * The exact match entity IDs.
+	 */
+	private final Set<EntityID> exactMatches = new HashSet<>();
+	
+	
+	/**
+	 * The trie root for the subtree patterns with https scheme.
+	 */
+	private final Node httpsSubtrees = new Node();
+	
+	
+	/**
+	 * The trie root for the subtree patterns with http scheme.
+	 */
+	private final Node httpSubtrees = new Node();
+	
+	
+	/**
+	 * The constraints of other types, matched one by one.
+	 */
+	private final List<EntityIDConstraint> otherConstraints = new ArrayList<>();
+	
+	
+	/**
+	 * {@code true} if no constraints are indexed.
+	 */
+	private final boolean empty;
+	
+	
+	/**
+	 * Creates a new index of the specified entity ID constraints.
+	 *
+	 * @param constraints The entity ID constraints. Must not be
+	 *                    {@code null}.
+	 */
+	EntityIDConstraintIndex(final Collection<EntityIDConstraint> constraints) {
+		
+		for (EntityIDConstraint constraint: constraints) {
+			
+			if (constraint instanceof ExactMatchEntityIDConstraint) {
+				exactMatches.add(((ExactMatchEntityIDConstraint)constraint).getEntityID());
+			} else if (constraint instanceof SubtreeEntityIDConstraint) {
+				SubtreeEntityIDConstraint subtree = (SubtreeEntityIDConstraint)constraint;
+				Node root = SubtreeEntityIDConstraint.HTTPS_SCHEME.equals(subtree.getScheme()) ? httpsSubtrees : httpSubtrees;
+				insert(root, subtree.getHostNameAndRemainderPattern());
+			} else if (constraint != null) {
+				otherConstraints.add(constraint);
+			}
+		}
+		
+		empty = constraints.isEmpty();
+	}
+	
+	
+	/**
+	 * Inserts the specified pattern into a trie, in reverse character
+	 * order.
+	 *
+	 * @param root    The trie root. Must not be {@code null}.
+	 * @param pattern The pattern. Must not be {@code null}.
+	 */
+	private static void insert(final Node root, final String pattern) {
+		
+		Node node = root;
+		for (int i=pattern.length() - 1; i >= 0; i--) {
+			node = node.addChild(pattern.charAt(i));
+		}
+		node.terminal = true;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if a pattern in the specified trie is a suffix
+	 * of the specified string, starting at the given offset.
+	 *
+	 * @param root   The trie root. Must not be {@code null}.
+	 * @param s      The string. Must not be {@code null}.
+	 * @param offset The offset in the string.
+	 *
+	 * @return {@code true} if a suffix was found, else {@code false}.
+	 */
+	private static boolean matchesSuffix(final Node root, final String s, final int offset) {
+		
+		Node node = root;
+		for (int i=s.length() - 1; i >= offset; i--) {
+			node = node.getChild(s.charAt(i));
+			if (node == null) {
+				return false;
+			}
+			if (node.terminal) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the index has no constraints.
+	 *
+	 * @return {@code true} if empty, else {@code false}.
+	 */
+	boolean isEmpty() {
+		
+		return empty;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if any of the indexed constraints matches the
+	 * specified entity ID.
+	 *
+	 * @param entityID The entity ID. Must not be {@code null}.
+	 *
+	 * @return {@code true} if a constraint matches, else {@code false}.
+	 */
+	boolean matches(final EntityID entityID) {
+		
+		if (empty) {
+			return false;
+		}
+		
+		if (exactMatches.contains(entityID)) {
+			return true;
+		}
+		
+		String value = entityID.getValue();
+		
+		if (value.startsWith(SubtreeEntityIDConstraint.HTTPS_SCHEME)) {
+			if (matchesSuffix(httpsSubtrees, value, SubtreeEntityIDConstraint.HTTPS_SCHEME.length())) {
+				return true;
+			}
+		} else if (value.startsWith(SubtreeEntityIDConstraint.HTTP_SCHEME)) {
+			if (matchesSuffix(httpSubtrees, value, SubtreeEntityIDConstraint.HTTP_SCHEME.length())) {
+				return true;
+			}
+		}
+		
+		for (EntityIDConstraint constraint: otherConstraints) {
+			if (constraint.matches(entityID)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
@@ -59,6 +59,16 @@ public final class ExactMatchEntityIDConstraint extends EntityIDConstraint {
 	}
 	
 	
+	/**
+	 * Returns the exact entity ID to match.
+	 *
+	 * @return The entity ID.
+	 */
+	EntityID getEntityID() {
+		return entityID;
+	}
+	
+	
 	@Override
 	public boolean matches(final EntityID entityID) {
 		return this.entityID.equals(entityID);
@@ -42,9 +42,27 @@ import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
 public final class SubtreeEntityIDConstraint extends EntityIDConstraint {
 	
 	
+	/**
+	 * The https scheme prefix.
+	 */
+	static final String HTTPS_SCHEME = "https://";
+	
+	
+	/**
+	 * The http scheme prefix.
+	 */
+	static final String HTTP_SCHEME = "http://";
+	
+	
+	/**
+	 * The scheme prefix.
+	 */
 	private final String scheme;
 	
 	
+	/**
+	 * The host name and remainder pattern, starts with dot.
+	 */
 	private final String hostNameAndRemainderPattern;
 	
 	
@@ -56,10 +74,10 @@ public final class SubtreeEntityIDConstraint extends EntityIDConstraint {
 	 */
 	public SubtreeEntityIDConstraint(final String entityIDPattern) {
 		
-		if (entityIDPattern.startsWith("https://")) {
-			scheme = "https://";
-		} else if (entityIDPattern.startsWith("http://")) {
-			scheme = "http://";
+		if (entityIDPattern.startsWith(HTTPS_SCHEME)) {
+			scheme = HTTPS_SCHEME;
+		} else if (entityIDPattern.startsWith(HTTP_SCHEME)) {
+			scheme = HTTP_SCHEME;
 		} else {
 			throw new IllegalArgumentException("The entity ID pattern must be an URI with https or http scheme");
 		}
@@ -72,15 +90,35 @@ public final class SubtreeEntityIDConstraint extends EntityIDConstraint {
 	}
 	
 	
+	/**
+	 * Returns the scheme prefix.
+	 *
+	 * @return {@code https://} or {@code http://}.
+	 */
+	String getScheme() {
+		return scheme;
+	}
+	
+	
+	/**
+	 * Returns the host name and remainder pattern.
+	 *
+	 * @return The pattern, starts with dot.
+	 */
+	String getHostNameAndRemainderPattern() {
+		return hostNameAndRemainderPattern;
+	}
+	
+	
 	@Override
 	public boolean matches(final EntityID entityID) {
 		
 		String schemeIN;
 		
-		if (entityID.getValue().startsWith("https://")) {
-			schemeIN = "https://";
-		} else if (entityID.getValue().startsWith("http://")) {
-			schemeIN = "http://";
+		if (entityID.getValue().startsWith(HTTPS_SCHEME)) {
+			schemeIN = HTTPS_SCHEME;
+		} else if (entityID.getValue().startsWith(HTTP_SCHEME)) {
+			schemeIN = HTTP_SCHEME;
 		} else {
 			return false;
 		}
@@ -83,6 +83,18 @@ public final class TrustChainConstraints implements JSONAware {
 	private final List<EntityIDConstraint> excludedEntities;
 	
 	
+	/**
+	 * The compiled index of the permitted entities.
+	 */
+	private final EntityIDConstraintIndex permittedIndex;
+	
+	
+	/**
+	 * The compiled index of the excluded entities.
+	 */
+	private final EntityIDConstraintIndex excludedIndex;
+	
+	
 	/**
 	 * Creates a new no constraints instance.
 	 */
@@ -117,6 +129,8 @@ public final class TrustChainConstraints implements JSONAware {
 		this.maxPathLength = maxPathLength;
 		this.permittedEntities = permittedEntities != null ? permittedEntities : Collections.<EntityIDConstraint>emptyList();
 		this.excludedEntities = excludedEntities != null ? excludedEntities : Collections.<EntityIDConstraint>emptyList();
+		permittedIndex = new EntityIDConstraintIndex(this.permittedEntities);
+		excludedIndex = new EntityIDConstraintIndex(this.excludedEntities);
 	}
 	
 	
@@ -149,32 +163,17 @@ public final class TrustChainConstraints implements JSONAware {
 	 */
 	public boolean isPermitted(final EntityID entityID) {
 		
-		if (getExcludedEntities().isEmpty() && getPermittedEntities().isEmpty()) {
-			return true;
+		// Indexed lookups, independent of the number of constraints
+		if (excludedIndex.matches(entityID)) {
+			return false;
 		}
 		
-		if (! getExcludedEntities().isEmpty()) {
-			
-			for (EntityIDConstraint constraint: getExcludedEntities()) {
-				if (constraint.matches(entityID)) {
-					return false;
-				}
-			}
-		}
-		
-		if (! getPermittedEntities().isEmpty()) {
-			
-			for (EntityIDConstraint constraint: getPermittedEntities()) {
-				if (constraint.matches(entityID)) {
-					return true;
-				}
-			}
-		} else {
+		if (permittedIndex.isEmpty()) {
 			// If passed so far - always permitted
 			return true;
 		}
 		
-		return false;
+		return permittedIndex.matches(entityID);
 	}
 	
 	
@@ -0,0 +1,683 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust.marks;
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.*;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.id.Identifier;
+import com.nimbusds.oauth2.sdk.util.DaemonThreadFactory;
+import com.nimbusds.oauth2.sdk.util.ExpiringCache;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+import com.nimbusds.openid.connect.sdk.federation.entities.FederationEntityMetadata;
+import com.nimbusds.openid.connect.sdk.federation.trust.ResolveException;
+import com.nimbusds.openid.connect.sdk.federation.trust.TrustChain;
+import com.nimbusds.openid.connect.sdk.federation.trust.TrustChainResolver;
+import com.nimbusds.openid.connect.sdk.federation.trust.TrustChainSet;
+
+
+/**
+ * Trust mark verifier. Verifies the signatures of trust marks with the keys
+ * of their issuers, obtained by resolving a trust chain from the issuer up to
+ * one of the trust anchors configured in a {@link TrustChainResolver}. The
+ * issuer keys are those vouched for by its immediate superior in the chain,
+ * or the configured keys if the issuer is a trust anchor itself. The marks
+ * of an entity are verified in parallel.
+ *
+ * <p>The issuer must also be authorised for the trust mark ID. The accepted
+ * issuers for a trust mark ID can be configured explicitly, else they are
+ * taken from the {@code trust_mark_issuers} of the trust anchor at the end
+ * of the issuer's trust chain.
+ *
+ * <p>Positive verification results are cached by the SHA-256 hash of the
+ * trust mark JWT, until the mark expires, the issuer trust chain used to
+ * verify it expires, or the configured maximum cache lifetime elapses,
+ * whichever comes first. Marks which fail verification are not cached. The
+ * number of cached marks is limited, when full the mark expiring first is
+ * evicted.
+ *
+ * <p>The verifier should be {@link #shutdown() shut down} when no longer in
+ * use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * TrustMarkVerifier verifier = new TrustMarkVerifier(trustChainResolver);
+ *
+ * Map&lt;SignedJWT,Throwable&gt; failures = new HashMap&lt;&gt;();
+ * Set&lt;Identifier&gt; trustMarkIDs = verifier.verifyTrustMarks(entityConfiguration, failures);
+ *
+ * if (trustMarkIDs.contains(new Identifier("https://refeds.org/sirtfi"))) {
+ *     // Entity has valid mark
+ * }
+ * </pre>
+ *
+ * <p>Related specifications:
+ *
+ * <ul>
+ *     <li>OpenID Connect Federation 1.0, sections 4.3 and 5.1.1.
+ * </ul>
+ */
+@ThreadSafe
+public class TrustMarkVerifier {
+	
+	
+	/**
+	 * The default maximum number of concurrent verifications.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 4;
+	
+	
+	/**
+	 * The default maximum cache lifetime of a verified trust mark, in
+	 * seconds.
+	 */
+	public static final long DEFAULT_MAX_CACHE_LIFETIME_SECONDS = 3600;
+	
+	
+	/**
+	 * The default maximum number of cached verified trust marks.
+	 */
+	public static final int DEFAULT_MAX_CACHE_SIZE = 10_000;
+	
+	
+	/**
+	 * The SHA-256 message digest for each thread.
+	 */
+	private static final ThreadLocal<MessageDigest> SHA_256 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+	};
+	
+	
+	/**
+	 * The JWS verifier factory for each thread.
+	 */
+	private static final ThreadLocal<DefaultJWSVerifierFactory> JWS_VERIFIER_FACTORY = new ThreadLocal<DefaultJWSVerifierFactory>() {
+		@Override
+		protected DefaultJWSVerifierFactory initialValue() {
+			return new DefaultJWSVerifierFactory();
+		}
+	};
+	
+	
+	/**
+	 * The trust chain resolver for the trust mark issuers.
+	 */
+	private final TrustChainResolver resolver;
+	
+	
+	/**
+	 * The explicitly configured accepted issuers for each trust mark ID.
+	 */
+	private final Map<Identifier,Set<EntityID>> trustMarkIssuers;
+	
+	
+	/**
+	 * The maximum cache lifetime, in milliseconds.
+	 */
+	private final long maxCacheLifetimeMs;
+	
+	
+	/**
+	 * The executor for the parallel verifications.
+	 */
+	private final ExecutorService executor;
+	
+	
+	/**
+	 * The verified trust marks, keyed by Base64URL-encoded SHA-256 hash
+	 * of the trust mark JWT.
+	 */
+	private final ExpiringCache<String,TrustMarkClaimsSet> cache;
+	
+	
+	/**
+	 * Creates a new trust mark verifier with the default maximum
+	 * concurrency, cache lifetime and size. The accepted issuers for the
+	 * trust mark IDs are taken from the {@code trust_mark_issuers} of the
+	 * trust anchors.
+	 *
+	 * @param resolver The trust chain resolver for the trust mark
+	 *                 issuers. Must not be {@code null}.
+	 */
+	public TrustMarkVerifier(final TrustChainResolver resolver) {
+		
+		this(resolver, Collections.<Identifier,Set<EntityID>>emptyMap());
+	}
+	
+	
+	/**
+	 * Creates a new trust mark verifier with the default maximum
+	 * concurrency, cache lifetime and size.
+	 *
+	 * @param resolver         The trust chain resolver for the trust mark
+	 *                         issuers. Must not be {@code null}.
+	 * @param trustMarkIssuers The accepted issuers for each trust mark
+	 *                         ID. For trust mark IDs not in the map the
+	 *                         {@code trust_mark_issuers} of the trust
+	 *                         anchors apply. Empty if none. Must not be
+	 *                         {@code null}.
+	 */
+	public TrustMarkVerifier(final TrustChainResolver resolver,
+				 final Map<Identifier,Set<EntityID>> trustMarkIssuers) {
+		
+		this(resolver, trustMarkIssuers, DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_CACHE_LIFETIME_SECONDS, DEFAULT_MAX_CACHE_SIZE);
+	}
+	
+	
+	/**
+	 * Creates a new trust mark verifier.
+	 *
+	 * @param resolver                The trust chain resolver for the
+	 *                                trust mark issuers. Must not be
+	 *                                {@code null}.
+	 * @param trustMarkIssuers        The accepted issuers for each trust
+	 *                                mark ID. For trust mark IDs not in
+	 *                                the map the {@code trust_mark_issuers}
+	 *                                of the trust anchors apply. Empty if
+	 *                                none. Must not be {@code null}.
+	 * @param maxConcurrency          The maximum number of concurrent
+	 *                                verifications. Must be positive.
+	 * @param maxCacheLifetimeSeconds The maximum cache lifetime of a
+	 *                                verified trust mark, in seconds.
+	 *                                Zero disables caching. Must not be
+	 *                                negative.
+	 * @param maxCacheSize            The maximum number of cached
+	 *                                verified trust marks. Must be
+	 *                                positive.
+	 */
+	public TrustMarkVerifier(final TrustChainResolver resolver,
+				 final Map<Identifier,Set<EntityID>> trustMarkIssuers,
+				 final int maxConcurrency,
+				 final long maxCacheLifetimeSeconds,
+				 final int maxCacheSize) {
+		
+		if (resolver == null) {
+			throw new IllegalArgumentException("The trust chain resolver must not be null");
+		}
+		this.resolver = resolver;
+		
+		if (trustMarkIssuers == null) {
+			throw new IllegalArgumentException("The trust mark issuers must not be null");
+		}
+		this.trustMarkIssuers = Collections.unmodifiableMap(new HashMap<>(trustMarkIssuers));
+		
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The max concurrency must be positive");
+		}
+		
+		if (maxCacheLifetimeSeconds < 0) {
+			throw new IllegalArgumentException("The max cache lifetime must not be negative");
+		}
+		maxCacheLifetimeMs = maxCacheLifetimeSeconds * 1000L;
+		
+		cache = new ExpiringCache<>(maxCacheSize);
+		
+		executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("trust-mark-verifier"));
+	}
+	
+	
+	/**
+	 * Returns the trust chain resolver for the trust mark issuers.
+	 *
+	 * @return The trust chain resolver.
+	 */
+	public TrustChainResolver getTrustChainResolver() {
+		return resolver;
+	}
+	
+	
+	/**
+	 * Returns the explicitly configured accepted issuers for each trust
+	 * mark ID.
+	 *
+	 * @return The trust mark issuers, empty map if none.
+	 */
+	public Map<Identifier,Set<EntityID>> getTrustMarkIssuers() {
+		return trustMarkIssuers;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of cached verified trust marks.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxCacheSize() {
+		return cache.getMaxSize();
+	}
+	
+	
+	/**
+	 * Computes the cache key for the specified trust mark.
+	 *
+	 * @param trustMark The trust mark. Must not be {@code null}.
+	 *
+	 * @return The Base64URL-encoded SHA-256 hash of the trust mark JWT.
+	 */
+	private static String computeCacheKey(final SignedJWT trustMark) {
+		
+		byte[] hash = SHA_256.get().digest(trustMark.serialize().getBytes(StandardCharsets.US_ASCII));
+		return Base64URL.encode(hash).toString();
+	}
+	
+	
+	/**
+	 * Verifies the specified trust mark.
+	 *
+	 * @param trustMark The trust mark. Must not be {@code null}.
+	 * @param subject   The expected subject entity, {@code null} if not
+	 *                  checked.
+	 *
+	 * @return The verified trust mark claims.
+	 *
+	 * @throws BadJOSEException If the trust mark is invalid, expired, has
+	 *                          an unexpected subject, or its issuer isn't
+	 *                          authorised for the trust mark ID.
+	 * @throws JOSEException    On an internal JOSE exception.
+	 * @throws ResolveException If no trust chain could be resolved for
+	 *                          the trust mark issuer.
+	 */
+	public TrustMarkClaimsSet verify(final SignedJWT trustMark, final EntityID subject)
+		throws BadJOSEException, JOSEException, ResolveException {
+		
+		long now = new Date().getTime();
+		
+		String cacheKey = computeCacheKey(trustMark);
+		
+		TrustMarkClaimsSet cached = cache.get(cacheKey, now);
+		
+		if (cached != null) {
+			checkSubject(cached, subject);
+			return cached;
+		}
+		
+		TrustMarkClaimsSet claimsSet;
+		try {
+			claimsSet = new TrustMarkClaimsSet(trustMark.getJWTClaimsSet());
+		} catch (java.text.ParseException | ParseException e) {
+			throw new BadJOSEException("Invalid trust mark: " + e.getMessage(), e);
+		}
+		
+		checkSubject(claimsSet, subject);
+		
+		Date exp = claimsSet.getExpirationTime();
+		if (exp != null && exp.getTime() <= now) {
+			throw new BadJOSEException("Expired trust mark");
+		}
+		
+		Identifier id = claimsSet.getID();
+		EntityID issuer = new EntityID(claimsSet.getIssuer().getValue());
+		
+		Set<EntityID> acceptedIssuers = trustMarkIssuers.get(id);
+		if (acceptedIssuers != null && ! acceptedIssuers.contains(issuer)) {
+			throw new BadJOSEException("Trust mark issuer not authorised for " + id + ": " + issuer);
+		}
+		
+		Map.Entry<JWKSet,Date> issuerKeys = resolveIssuerKeys(issuer, id, acceptedIssuers != null);
+		
+		verifySignature(trustMark, issuerKeys.getKey());
+		
+		long expiresAt = now + maxCacheLifetimeMs;
+		if (exp != null) {
+			expiresAt = Math.min(expiresAt, exp.getTime());
+		}
+		if (issuerKeys.getValue() != null) {
+			expiresAt = Math.min(expiresAt, issuerKeys.getValue().getTime());
+		}
+		
+		cache.put(cacheKey, claimsSet, expiresAt, now);
+		
+		return claimsSet;
+	}
+	
+	
+	/**
+	 * Resolves the keys of the specified trust mark issuer through a
+	 * trust chain ending at a configured trust anchor.
+	 *
+	 * @param issuer     The trust mark issuer. Must not be {@code null}.
+	 * @param id         The trust mark ID. Must not be {@code null}.
+	 * @param authorised {@code true} if the issuer is already authorised
+	 *                   for the trust mark ID, {@code false} if the
+	 *                   {@code trust_mark_issuers} of the trust anchor
+	 *                   must be checked.
+	 *
+	 * @return The issuer JWK set with the time when it expires,
+	 *         {@code null} if not limited.
+	 *
+	 * @throws BadJOSEException If the issuer isn't authorised for the
+	 *                          trust mark ID.
+	 * @throws JOSEException    On an internal JOSE exception.
+	 * @throws ResolveException If no trust chain could be resolved for
+	 *                          the issuer.
+	 */
+	private Map.Entry<JWKSet,Date> resolveIssuerKeys(final EntityID issuer,
+							 final Identifier id,
+							 final boolean authorised)
+		throws BadJOSEException, JOSEException, ResolveException {
+		
+		if (resolver.getTrustAnchors().containsKey(issuer)) {
+			
+			EntityStatement anchorStatement = fetchTrustAnchorStatement(issuer);
+			
+			if (! authorised && ! isListedIssuer(anchorStatement, id, issuer)) {
+				throw new BadJOSEException("Trust mark issuer not authorised for " + id + ": " + issuer);
+			}
+			
+			JWKSet jwkSet = resolver.getTrustAnchors().get(issuer);
+			if (jwkSet == null) {
+				jwkSet = anchorStatement.getClaimsSet().getJWKSet();
+			}
+			return new AbstractMap.SimpleImmutableEntry<>(jwkSet, anchorStatement.getClaimsSet().getExpirationTime());
+		}
+		
+		TrustChainSet chains = resolver.resolveTrustChains(issuer);
+		
+		for (TrustChain chain: chains) {
+			
+			if (! authorised && ! isListedIssuer(fetchTrustAnchorStatement(chain.getTrustAnchorEntityID()), id, issuer)) {
+				continue;
+			}
+			
+			// The issuer keys vouched for by its superior
+			JWKSet jwkSet = chain.getSuperiorStatements().get(0).getClaimsSet().getJWKSet();
+			return new AbstractMap.SimpleImmutableEntry<>(jwkSet, chain.resolveExpirationTime());
+		}
+		
+		throw new BadJOSEException("Trust mark issuer not authorised for " + id + ": " + issuer);
+	}
+	
+	
+	/**
+	 * Fetches and verifies the self-issued statement of the specified
+	 * trust anchor.
+	 *
+	 * @param anchor The trust anchor. Must not be {@code null}.
+	 *
+	 * @return The trust anchor statement.
+	 *
+	 * @throws ResolveException If retrieval or verification failed.
+	 */
+	private EntityStatement fetchTrustAnchorStatement(final EntityID anchor)
+		throws ResolveException {
+		
+		EntityStatement statement = resolver.getEntityStatementRetriever().fetchSelfIssuedEntityStatement(anchor);
+		
+		JWKSet jwkSet = resolver.getTrustAnchors().get(anchor);
+		
+		try {
+			if (jwkSet != null) {
+				statement.verifySignature(jwkSet);
+			} else {
+				statement.verifySignatureOfSelfStatement();
+			}
+		} catch (BadJOSEException | JOSEException e) {
+			throw new ResolveException("Invalid self-issued entity statement for trust anchor " + anchor + ": " + e.getMessage(), e);
+		}
+		
+		return statement;
+	}
+	
+	
+	/**
+	 * Returns {@code true} if the specified issuer is listed for the trust
+	 * mark ID in the {@code trust_mark_issuers} of the trust anchor.
+	 *
+	 * @param anchorStatement The self-issued statement of the trust
+	 *                        anchor. Must not be {@code null}.
+	 * @param id              The trust mark ID. Must not be {@code null}.
+	 * @param issuer          The trust mark issuer. Must not be
+	 *                        {@code null}.
+	 *
+	 * @return {@code true} if listed, else {@code false}.
+	 */
+	private static boolean isListedIssuer(final EntityStatement anchorStatement,
+					      final Identifier id,
+					      final EntityID issuer) {
+		
+		Map<Identifier,List<EntityID>> listed = anchorStatement.getClaimsSet().getTrustMarkIssuers();
+		
+		return listed != null && listed.get(id) != null && listed.get(id).contains(issuer);
+	}
+	
+	
+	/**
+	 * Checks the subject of the specified trust mark claims.
+	 *
+	 * @param claimsSet The trust mark claims. Must not be {@code null}.
+	 * @param subject   The expected subject entity, {@code null} if not
+	 *                  checked.
+	 *
+	 * @throws BadJOSEException If the subject doesn't match.
+	 */
+	private static void checkSubject(final TrustMarkClaimsSet claimsSet, final EntityID subject)
+		throws BadJOSEException {
+		
+		if (subject != null && ! subject.getValue().equals(claimsSet.getSubject().getValue())) {
+			throw new BadJOSEException("Trust mark subject mismatch: " + claimsSet.getSubject());
+		}
+	}
+	
+	
+	/**
+	 * Verifies the signature of the specified trust mark.
+	 *
+	 * @param trustMark The trust mark. Must not be {@code null}.
+	 * @param jwkSet    The JWK set of the trust mark issuer,
+	 *                  {@code null} if missing.
+	 *
+	 * @throws BadJOSEException If the signature is invalid.
+	 * @throws JOSEException    On an internal JOSE exception.
+	 */
+	private static void verifySignature(final SignedJWT trustMark, final JWKSet jwkSet)
+		throws BadJOSEException, JOSEException {
+		
+		if (jwkSet == null) {
+			throw new BadJOSEException("Trust mark rejected: Missing issuer JWK set");
+		}
+		
+		List<JWK> jwkMatches = new JWKSelector(JWKMatcher.forJWSHeader(trustMark.getHeader())).select(jwkSet);
+		
+		if (jwkMatches.isEmpty()) {
+			throw new BadJOSEException("Trust mark rejected: Another JOSE algorithm expected, or no matching key(s) found");
+		}
+		
+		DefaultJWSVerifierFactory verifierFactory = JWS_VERIFIER_FACTORY.get();
+		
+		for (JWK candidateJWK: jwkMatches) {
+			
+			if (candidateJWK instanceof AsymmetricJWK) {
+				PublicKey publicKey = ((AsymmetricJWK)candidateJWK).toPublicKey();
+				JWSVerifier jwsVerifier = verifierFactory.createJWSVerifier(trustMark.getHeader(), publicKey);
+				if (trustMark.verify(jwsVerifier)) {
+					return; // success
+				}
+			}
+		}
+		
+		throw new BadJOSEException("Trust mark rejected: Invalid signature");
+	}
+	
+	
+	/**
+	 * Verifies the specified trust marks of an entity in parallel. The
+	 * trust marks which fail verification are reported in the specified
+	 * failures map.
+	 *
+	 * @param subject    The subject entity. Must not be {@code null}.
+	 * @param trustMarks The trust marks of the entity, {@code null} if
+	 *                   none.
+	 * @param failures   Receives the trust marks which couldn't be
+	 *                   verified, with the cause. Must not be
+	 *                   {@code null}.
+	 *
+	 * @return The IDs of the verified trust marks, empty set if none.
+	 */
+	public Set<Identifier> verifyTrustMarks(final EntityID subject,
+						final List<SignedJWT> trustMarks,
+						final Map<SignedJWT,Throwable> failures) {
+		
+		if (failures == null) {
+			throw new IllegalArgumentException("The failures map must not be null");
+		}
+		
+		if (trustMarks == null || trustMarks.isEmpty()) {
+			return Collections.emptySet();
+		}
+		
+		Set<Identifier> verifiedIDs = new HashSet<>();
+		Map<SignedJWT,Future<TrustMarkClaimsSet>> futures = new LinkedHashMap<>();
+		
+		long now = new Date().getTime();
+		
+		for (final SignedJWT trustMark: trustMarks) {
+			
+			// Serve cache hits in the calling thread
+			TrustMarkClaimsSet cached = cache.get(computeCacheKey(trustMark), now);
+			if (cached != null && subject.getValue().equals(cached.getSubject().getValue())) {
+				verifiedIDs.add(cached.getID());
+				continue;
+			}
+			
+			futures.put(trustMark, executor.submit(new Callable<TrustMarkClaimsSet>() {
+				@Override
+				public TrustMarkClaimsSet call() throws Exception {
+					return verify(trustMark, subject);
+				}
+			}));
+		}
+		
+		boolean interrupted = false;
+		
+		for (Map.Entry<SignedJWT,Future<TrustMarkClaimsSet>> en: futures.entrySet()) {
+			
+			if (interrupted) {
+				en.getValue().cancel(true);
+				failures.put(en.getKey(), new InterruptedException("Trust mark verification interrupted"));
+				continue;
+			}
+			
+			try {
+				verifiedIDs.add(en.getValue().get().getID());
+			} catch (ExecutionException e) {
+				failures.put(en.getKey(), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				interrupted = true;
+				en.getValue().cancel(true);
+				failures.put(en.getKey(), e);
+			}
+		}
+		
+		return Collections.unmodifiableSet(verifiedIDs);
+	}
+	
+	
+	/**
+	 * Verifies the trust marks in the federation entity metadata of the
+	 * specified self-issued entity statement (entity configuration). The
+	 * trust marks which fail verification are reported in the specified
+	 * failures map.
+	 *
+	 * @param entityConfiguration The self-issued entity statement. Must
+	 *                            not be {@code null}.
+	 * @param failures            Receives the trust marks which couldn't
+	 *                            be verified, with the cause. Must not be
+	 *                            {@code null}.
+	 *
+	 * @return The IDs of the verified trust marks, empty set if none.
+	 */
+	public Set<Identifier> verifyTrustMarks(final EntityStatement entityConfiguration,
+						final Map<SignedJWT,Throwable> failures) {
+		
+		FederationEntityMetadata metadata = entityConfiguration.getClaimsSet().getFederationEntityMetadata();
+		
+		if (metadata == null) {
+			if (failures == null) {
+				throw new IllegalArgumentException("The failures map must not be null");
+			}
+			return Collections.emptySet();
+		}
+		
+		return verifyTrustMarks(entityConfiguration.getEntityID(), metadata.getTrustMarks(), failures);
+	}
+	
+	
+	/**
+	 * Removes the expired trust marks from the cache.
+	 *
+	 * @return The number of removed trust marks.
+	 */
+	public int purgeExpired() {
+		
+		return cache.purgeExpired();
+	}
+	
+	
+	/**
+	 * Returns the number of cached verified trust marks.
+	 *
+	 * @return The number of cached trust marks, zero if none.
+	 */
+	public int getCacheSize() {
+		
+		return cache.size();
+	}
+	
+	
+	/**
+	 * Clears the cache of verified trust marks.
+	 */
+	public void clearCache() {
+		
+		cache.clear();
+	}
+	
+	
+	/**
+	 * Shuts down the verifier, interrupting any ongoing verifications.
+	 */
+	public void shutdown() {
+		
+		executor.shutdownNow();
+	}
+}
@@ -20,6 +20,10 @@ package com.nimbusds.openid.connect.sdk.id;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.oauth2.sdk.id.Subject;
@@ -52,6 +56,47 @@ public class HashBasedPairwiseSubjectCodec extends PairwiseSubjectCodec {
 	public static final String HASH_ALGORITHM = "SHA-256";
 
 
+	/**
+	 * Message digest for reuse by a thread, with the security provider it
+	 * was obtained for.
+	 */
+	private static final class CachedDigest {
+
+
+		/**
+		 * The requested security provider, {@code null} for the
+		 * default.
+		 */
+		private final Provider provider;
+
+
+		/**
+		 * The message digest.
+		 */
+		private final MessageDigest digest;
+
+
+		/**
+		 * Creates a new cached message digest.
+		 *
+		 * @param provider The requested security provider,
+		 *                 {@code null} for the default.
+		 * @param digest   The message digest.
+		 */
+		private CachedDigest(final Provider provider, final MessageDigest digest) {
+			this.provider = provider;
+			this.digest = digest;
+		}
+	}
+
+
+	/**
+	 * The message digests for reuse by each thread, to save a provider
+	 * lookup and allocation per encode operation.
+	 */
+	private final ThreadLocal<CachedDigest> cachedDigest = new ThreadLocal<>();
+
+
 	/**
 	 * Creates a new hash-based codec for pairwise subject identifiers.
 	 *
@@ -75,13 +120,26 @@ public class HashBasedPairwiseSubjectCodec extends PairwiseSubjectCodec {
 	}
 
 
-	@Override
-	public Subject encode(final SectorID sectorID, final Subject localSub) {
+	/**
+	 * Returns a reset message digest for the current thread.
+	 *
+	 * @return The message digest.
+	 */
+	private MessageDigest getMessageDigest() {
+
+		Provider provider = getProvider();
+
+		CachedDigest cached = cachedDigest.get();
+
+		if (cached != null && cached.provider == provider) {
+			cached.digest.reset();
+			return cached.digest;
+		}
 
 		MessageDigest sha256;
 		try {
-			if (getProvider() != null) {
-				sha256 = MessageDigest.getInstance(HASH_ALGORITHM, getProvider());
+			if (provider != null) {
+				sha256 = MessageDigest.getInstance(HASH_ALGORITHM, provider);
 			} else {
 				sha256 = MessageDigest.getInstance(HASH_ALGORITHM);
 			}
@@ -89,7 +147,48 @@ public class HashBasedPairwiseSubjectCodec extends PairwiseSubjectCodec {
 			throw new RuntimeException(e.getMessage(), e);
 		}
 
-		sha256.update(sectorID.getValue().getBytes(CHARSET));
+		cachedDigest.set(new CachedDigest(provider, sha256));
+		return sha256;
+	}
+
+
+	@Override
+	public Subject encode(final SectorID sectorID, final Subject localSub) {
+
+		return encode(getMessageDigest(), sectorID.getValue().getBytes(CHARSET), localSub);
+	}
+
+
+	@Override
+	public Map<Subject,Subject> encode(final SectorID sectorID, final Collection<Subject> localSubs) {
+
+		MessageDigest sha256 = getMessageDigest();
+		byte[] sectorIDBytes = sectorID.getValue().getBytes(CHARSET);
+
+		Map<Subject,Subject> out = new LinkedHashMap<>();
+		for (Subject localSub: localSubs) {
+			out.put(localSub, encode(sha256, sectorIDBytes, localSub));
+		}
+		return out;
+	}
+
+
+	/**
+	 * Encodes a new pairwise subject identifier.
+	 *
+	 * @param sha256        The message digest, reset. Must not be
+	 *                      {@code null}.
+	 * @param sectorIDBytes The sector identifier bytes. Must not be
+	 *                      {@code null}.
+	 * @param localSub      The local subject identifier. Must not be
+	 *                      {@code null}.
+	 *
+	 * @return The pairwise subject identifier.
+	 */
+	private Subject encode(final MessageDigest sha256, final byte[] sectorIDBytes, final Subject localSub) {
+
+		// digest() resets the message digest for the next use
+		sha256.update(sectorIDBytes);
 		sha256.update(localSub.getValue().getBytes(CHARSET));
 		byte[] hash = sha256.digest(getSalt());
 
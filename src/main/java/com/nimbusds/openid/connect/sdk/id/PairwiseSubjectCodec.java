@@ -22,6 +22,8 @@ import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.Provider;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import net.jcip.annotations.ThreadSafe;
@@ -142,6 +144,29 @@ public abstract class PairwiseSubjectCodec {
 	public abstract Subject encode(final SectorID sectorID, final Subject localSub);
 
 
+	/**
+	 * Encodes new pairwise subject identifiers from the specified sector
+	 * identifier and local subjects. Intended for bulk operations, such as
+	 * exports to a relying party. Codecs may override this method to
+	 * reuse the sector identifier encoding between subjects.
+	 *
+	 * @param sectorID  The sector identifier. Must not be {@code null}.
+	 * @param localSubs The local subject identifiers. Must not be
+	 *                  {@code null}.
+	 *
+	 * @return The pairwise subject identifiers, keyed by local subject
+	 *         identifier, in iteration order of the local subjects.
+	 */
+	public Map<Subject,Subject> encode(final SectorID sectorID, final Collection<Subject> localSubs) {
+
+		Map<Subject,Subject> out = new LinkedHashMap<>();
+		for (Subject localSub: localSubs) {
+			out.put(localSub, encode(sectorID, localSub));
+		}
+		return out;
+	}
+
+
 	/**
 	 * Decodes the specified pairwise subject identifier to produce the
 	 * matching sector identifier and local subject. Throws a
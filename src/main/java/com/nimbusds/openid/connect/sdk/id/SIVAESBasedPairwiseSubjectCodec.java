@@ -18,8 +18,7 @@
 package com.nimbusds.openid.connect.sdk.id;
 
 
-import java.util.AbstractMap;
-import java.util.Map;
+import java.util.*;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -167,48 +166,131 @@ public class SIVAESBasedPairwiseSubjectCodec extends PairwiseSubjectCodec {
 	}
 	
 	
-	private static String escapeSeparator(final String s) {
+	/**
+	 * Appends the specified string to a string builder, escaping the
+	 * '|' separator chars.
+	 *
+	 * @param sb The string builder. Must not be {@code null}.
+	 * @param s  The string to append. Must not be {@code null}.
+	 */
+	private static void appendEscaped(final StringBuilder sb, final String s) {
 		
-		return s.replace("|", "\\|");
+		for (int i=0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '|') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
 	}
 	
 	
 	@Override
 	public Subject encode(final SectorID sectorID, final Subject localSub) {
 		
-		// Escape separator chars
-		final String escapedSectorIDString = escapeSeparator(sectorID.getValue());
-		final String escapedLocalSub = escapeSeparator(localSub.getValue());
+		StringBuilder sb = new StringBuilder();
+		appendEscaped(sb, sectorID.getValue());
+		sb.append('|');
+		return encode(sb, localSub);
+	}
+	
+	
+	@Override
+	public Map<Subject,Subject> encode(final SectorID sectorID, final Collection<Subject> localSubs) {
+		
+		// Escape the sector ID once
+		StringBuilder sb = new StringBuilder();
+		appendEscaped(sb, sectorID.getValue());
+		sb.append('|');
+		final int prefixLength = sb.length();
 		
-		StringBuilder optionalPadding = new StringBuilder();
+		Map<Subject,Subject> out = new LinkedHashMap<>();
+		for (Subject localSub: localSubs) {
+			sb.setLength(prefixLength);
+			out.put(localSub, encode(sb, localSub));
+		}
+		return out;
+	}
+	
+	
+	/**
+	 * Encodes a new pairwise subject identifier.
+	 *
+	 * @param sb       String builder with the escaped sector ID and '|'
+	 *                 delimiter. Must not be {@code null}.
+	 * @param localSub The local subject identifier. Must not be
+	 *                 {@code null}.
+	 *
+	 * @return The pairwise subject identifier.
+	 */
+	private Subject encode(final StringBuilder sb, final Subject localSub) {
+		
+		int localSubStart = sb.length();
+		appendEscaped(sb, localSub.getValue());
 		
 		if (padSubjectToLength > 0) {
 			// Apply padding
-			int paddingLength = padSubjectToLength - escapedLocalSub.length();
+			int paddingLength = padSubjectToLength - (sb.length() - localSubStart);
 			
-			if (paddingLength == 1) {
-				
-				optionalPadding = new StringBuilder("|");
-				
-			} else if (paddingLength > 1) {
-				
-				optionalPadding = new StringBuilder("|");
+			if (paddingLength > 0) {
+				sb.append('|');
 				int i = paddingLength;
 				while (--i > 0) {
-					optionalPadding.append("0"); // pad with 0
+					sb.append('0'); // pad with 0
 				}
 			}
 		}
 		
-		// Join parameters, delimited by '|'
-		final String plainTextString = (escapedSectorIDString + '|' + escapedLocalSub + optionalPadding);
-		
-		byte[] plainText = plainTextString.getBytes(CHARSET);
+		byte[] plainText = sb.toString().getBytes(CHARSET);
 		byte[] cipherText = AES_SIV.encrypt(aesCtrKey, macKey, plainText);
 		return new Subject(Base64URL.encode(cipherText).toString());
 	}
 	
 	
+	/**
+	 * Splits the specified plain text along the '|' delimiter chars that
+	 * are not escaped, and unescapes the delimiter chars in the tokens.
+	 * Trailing empty tokens are discarded.
+	 *
+	 * @param plainText The plain text. Must not be {@code null}.
+	 *
+	 * @return The tokens.
+	 */
+	static List<String> split(final String plainText) {
+		
+		List<String> tokens = new ArrayList<>(3);
+		StringBuilder token = new StringBuilder(plainText.length());
+		
+		for (int i=0; i < plainText.length(); i++) {
+			
+			char c = plainText.charAt(i);
+			
+			if (c == '|') {
+				if (i > 0 && plainText.charAt(i - 1) == '\\') {
+					// Escaped delimiter, drop the preceding backslash
+					token.setCharAt(token.length() - 1, '|');
+				} else {
+					tokens.add(token.toString());
+					token.setLength(0);
+				}
+			} else {
+				token.append(c);
+			}
+		}
+		
+		tokens.add(token.toString());
+		
+		// Discard trailing empty tokens, as String.split does, unless
+		// the plain text itself is empty
+		int size = tokens.size();
+		while (size > 1 && tokens.get(size - 1).isEmpty()) {
+			tokens.remove(--size);
+		}
+		
+		return tokens;
+	}
+	
+	
 	@Override
 	public Map.Entry<SectorID, Subject> decode(final Subject pairwiseSubject)
 		throws InvalidPairwiseSubjectException {
@@ -222,19 +304,14 @@ public class SIVAESBasedPairwiseSubjectCodec extends PairwiseSubjectCodec {
 			throw new InvalidPairwiseSubjectException("Decryption failed: " + e.getMessage(), e);
 		}
 		
-		// Split along the '|' delimiter
-		String[] parts = new String(plainText, CHARSET).split("(?<!\\\\)\\|");
-		
-		// Unescape delimiter
-		for (int i=0; i<parts.length; i++) {
-			parts[i] = parts[i].replace("\\|", "|");
-		}
+		// Split along the '|' delimiter and unescape
+		List<String> parts = split(new String(plainText, CHARSET));
 		
 		// Check format
-		if (parts.length > 3) {
-			throw new InvalidPairwiseSubjectException("Invalid format: Unexpected number of tokens: " + parts.length);
+		if (parts.size() < 2 || parts.size() > 3) {
+			throw new InvalidPairwiseSubjectException("Invalid format: Unexpected number of tokens: " + parts.size());
 		}
 		
-		return new AbstractMap.SimpleImmutableEntry<>(new SectorID(parts[0]), new Subject(parts[1]));
+		return new AbstractMap.SimpleImmutableEntry<>(new SectorID(parts.get(0)), new Subject(parts.get(1)));
 	}
 }
@@ -33,8 +33,10 @@ import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.jwt.proc.JWTProcessor;
+import com.nimbusds.oauth2.sdk.AuthorizationRequest;
 import com.nimbusds.oauth2.sdk.OAuth2Error;
 import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.par.PushedAuthorizationRequestStore;
 import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
 
 import net.jcip.annotations.ThreadSafe;
@@ -55,6 +57,15 @@ import net.jcip.annotations.ThreadSafe;
  * {@link ResourceRetriever JWT retriever} must be provided, otherwise only
  * inlined request objects can be processed.
  *
+ * <p>Clients may reuse a {@code request_uri} for many authentication
+ * requests. To cache the downloaded request objects use a
+ * {@link CachingRequestObjectRetriever}.
+ *
+ * <p>Pushed authorisation requests are resolved when a
+ * {@link PushedAuthorizationRequestStore PAR store} is provided at
+ * construction time. A {@code request_uri} assigned by the store is redeemed
+ * from it, once, by the client that pushed the request.
+ *
  * <p>Related specifications:
  *
  * <ul>
@@ -77,6 +88,12 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 	private final ResourceRetriever jwtRetriever;
 
 
+	/**
+	 * Optional store of pushed authorisation requests.
+	 */
+	private final PushedAuthorizationRequestStore parStore;
+
+
 	/**
 	 * Creates a new minimal OpenID Connect authentication request
 	 * resolver. It will not process OpenID Connect request objects and
@@ -86,6 +103,7 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 	public AuthenticationRequestResolver() {
 		jwtProcessor = null;
 		jwtRetriever = null;
+		parStore = null;
 	}
 	
 	
@@ -105,6 +123,7 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 			throw new IllegalArgumentException("The JWT processor must not be null");
 		this.jwtProcessor = jwtProcessor;
 		jwtRetriever = null;
+		parStore = null;
 	}
 	
 	
@@ -130,6 +149,34 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 		if (jwtRetriever == null)
 			throw new IllegalArgumentException("The JWT retriever must not be null");
 		this.jwtRetriever = jwtRetriever;
+		parStore = null;
+	}
+	
+	
+	/**
+	 * Creates a new OpenID Connect authentication request resolver that
+	 * supports pushed authorisation requests, and optionally OpenID
+	 * Connect request objects passed by value or by reference.
+	 *
+	 * @param jwtProcessor A configured JWT processor providing JWS
+	 *                     validation and optional JWE decryption of the
+	 *                     request objects, {@code null} if request
+	 *                     objects aren't supported.
+	 * @param jwtRetriever A configured JWT retriever for OpenID Connect
+	 *                     request objects passed by URI, {@code null} if
+	 *                     not supported.
+	 * @param parStore     The store of pushed authorisation requests.
+	 *                     Must not be {@code null}.
+	 */
+	public AuthenticationRequestResolver(final JWTProcessor<C> jwtProcessor,
+					     final ResourceRetriever jwtRetriever,
+					     final PushedAuthorizationRequestStore parStore) {
+		this.jwtProcessor = jwtProcessor;
+		this.jwtRetriever = jwtRetriever;
+
+		if (parStore == null)
+			throw new IllegalArgumentException("The PAR store must not be null");
+		this.parStore = parStore;
 	}
 	
 	
@@ -155,6 +202,17 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 	}
 
 
+	/**
+	 * Returns the store of pushed authorisation requests.
+	 *
+	 * @return The PAR store, {@code null} if not specified.
+	 */
+	public PushedAuthorizationRequestStore getPARStore() {
+	
+		return parStore;
+	}
+
+
 	/**
 	 * Reformats the specified JWT claims set to a
 	 * {@literal java.util.Map} instance.
@@ -211,6 +269,10 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 			return request;
 		}
 
+		if (parStore != null && PushedAuthorizationRequestStore.isAssignedForm(request.getRequestURI())) {
+			return resolvePushed(request, securityContext);
+		}
+
 		final JWT jwt;
 
 		if (request.getRequestURI() != null) {
@@ -254,9 +316,11 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 				request, e);
 		}
 
-		Map<String,List<String>> finalParams = new HashMap<>();
-		finalParams.putAll(request.toParameters());
-		finalParams.putAll(reformatClaims(jwtClaims)); // Merge params from request object
+		// Merge params from request object straight into the (fresh)
+		// output map of the original request, the final request is
+		// parsed once from it to apply the regular validation
+		Map<String,List<String>> finalParams = request.toParameters();
+		finalParams.putAll(reformatClaims(jwtClaims));
 		finalParams.remove("request"); // make sure request object is deleted
 		finalParams.remove("request_uri"); // make sure request_uri is deleted
 
@@ -270,4 +334,57 @@ public class AuthenticationRequestResolver<C extends SecurityContext> {
 				request, e);
 		}
 	}
+
+
+
+	/**
+	 * Resolves the specified OpenID Connect authentication request by
+	 * redeeming the pushed authorisation request for its
+	 * {@code request_uri}. The parameters of the pushed request replace
+	 * those of the authentication request. A request object in the
+	 * pushed request is resolved as usual.
+	 *
+	 * @param request         The OpenID Connect authentication request.
+	 *                        Must not be {@code null}.
+	 * @param securityContext Optional security context to pass to the JWT
+	 *                        processor, {@code null} if not specified.
+	 *
+	 * @return The resolved authentication request.
+	 *
+	 * @throws ResolveException If the request couldn't be resolved.
+	 * @throws JOSEException    If an invalid request JWT is found.
+	 */
+	private AuthenticationRequest resolvePushed(final AuthenticationRequest request,
+						    final C securityContext)
+		throws ResolveException, JOSEException {
+
+		AuthorizationRequest pushed = parStore.redeem(request.getRequestURI(), request.getClientID());
+
+		if (pushed == null) {
+			throw new ResolveException(OAuth2Error.INVALID_REQUEST_URI.setDescription("Invalid, expired or already used request_uri"), request);
+		}
+
+		AuthenticationRequest resolved;
+
+		if (pushed instanceof AuthenticationRequest) {
+			resolved = new AuthenticationRequest.Builder((AuthenticationRequest) pushed)
+				.endpointURI(request.getEndpointURI())
+				.build();
+		} else {
+			try {
+				resolved = AuthenticationRequest.parse(request.getEndpointURI(), pushed.toParameters());
+			} catch (ParseException e) {
+				throw new ResolveException("Couldn't create final OpenID authentication request: " + e.getMessage(),
+					"Invalid pushed authorization request parameter(s): " + e.getMessage(), // error_description for client
+					request, e);
+			}
+		}
+
+		if (resolved.getRequestURI() != null) {
+			// Not allowed in pushed requests
+			throw new ResolveException(OAuth2Error.INVALID_REQUEST_URI.setDescription("Nested request_uri not allowed"), request);
+		}
+
+		return resolve(resolved, securityContext);
+	}
 }
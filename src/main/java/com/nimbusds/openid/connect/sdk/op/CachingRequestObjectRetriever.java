@@ -0,0 +1,506 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.op;
+
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.oauth2.sdk.util.ExpiringCache;
+
+
+/**
+ * Caching retriever of OpenID Connect request objects passed by URL (using
+ * the authentication {@code request_uri} parameter). Clients may reuse the
+ * same {@code request_uri} in many authentication requests while the request
+ * object remains valid, the cache saves a download for each of them.
+ *
+ * <p>A retrieved request object is cached by URL until the earliest of:
+ *
+ * <ul>
+ *     <li>The configured maximum cache lifetime.
+ *     <li>The lifetime allowed by the {@code Cache-Control} or
+ *         {@code Expires} HTTP response headers. Request objects with a
+ *         {@code no-store} or {@code no-cache} directive are not cached.
+ *     <li>The expiration time ({@code exp}) of the request object, if
+ *         signed or plain.
+ * </ul>
+ *
+ * <p>The HTTP response headers are only available when the request objects
+ * are downloaded by the retriever itself, with a
+ * {@link DefaultResourceRetriever} subject to the configured HTTP timeouts
+ * and size limit. When an underlying {@link ResourceRetriever} is specified
+ * the request objects are fetched with it and cached according to the
+ * maximum cache lifetime and the request object expiration time.
+ *
+ * <p>The cache holds the retrieved content only. The request objects still
+ * get validated by the {@link AuthenticationRequestResolver} on each use.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * AuthenticationRequestResolver&lt;?&gt; resolver = new AuthenticationRequestResolver&lt;&gt;(
+ *         jwtProcessor,
+ *         new CachingRequestObjectRetriever(1000, 1000, 51200, 300L, 1000));
+ * </pre>
+ */
+@ThreadSafe
+public class CachingRequestObjectRetriever implements ResourceRetriever {
+	
+	
+	/**
+	 * The default maximum cache lifetime, in seconds.
+	 */
+	public static final long DEFAULT_MAX_CACHE_LIFETIME_SECONDS = 300L;
+	
+	
+	/**
+	 * The default maximum number of cached request objects.
+	 */
+	public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+	
+	
+	/**
+	 * The default HTTP entity size limit for downloaded request objects,
+	 * in bytes.
+	 */
+	public static final int DEFAULT_HTTP_SIZE_LIMIT = 51200;
+	
+	
+	/**
+	 * Resource retriever which records the HTTP caching headers of the
+	 * last retrieval by the calling thread.
+	 */
+	private static final class HeaderRecordingRetriever extends DefaultResourceRetriever {
+		
+		
+		/**
+		 * The connection of the last retrieval by the calling thread.
+		 */
+		private final ThreadLocal<HttpURLConnection> lastConnection = new ThreadLocal<>();
+		
+		
+		/**
+		 * Creates a new header recording retriever.
+		 *
+		 * @param connectTimeout The HTTP connect timeout, in
+		 *                       milliseconds, zero implies none.
+		 * @param readTimeout    The HTTP read timeout, in milliseconds,
+		 *                       zero implies none.
+		 * @param sizeLimit      The HTTP entity size limit, in bytes,
+		 *                       zero implies none.
+		 */
+		private HeaderRecordingRetriever(final int connectTimeout,
+						 final int readTimeout,
+						 final int sizeLimit) {
+			
+			// Keep the connection for reading the headers
+			super(connectTimeout, readTimeout, sizeLimit, false);
+		}
+		
+		
+		@Override
+		protected HttpURLConnection openConnection(final URL url)
+			throws IOException {
+			
+			HttpURLConnection con = super.openConnection(url);
+			lastConnection.set(con);
+			return con;
+		}
+		
+		
+		/**
+		 * Retrieves the resource at the specified URL and resolves its
+		 * HTTP cache lifetime.
+		 *
+		 * @param url The URL. Must not be {@code null}.
+		 * @param now The current time, in milliseconds since the
+		 *            epoch.
+		 *
+		 * @return The retrieved resource and its HTTP cache lifetime,
+		 *         in milliseconds.
+		 *
+		 * @throws IOException If the retrieval failed.
+		 */
+		private Map.Entry<Resource,Long> retrieveResource(final URL url, final long now)
+			throws IOException {
+			
+			try {
+				Resource resource = retrieveResource(url);
+				HttpURLConnection con = lastConnection.get();
+				long lifetime = resolveHTTPCacheLifetime(
+					con.getHeaderField("Cache-Control"),
+					con.getHeaderField("Expires"),
+					now);
+				return new AbstractMap.SimpleImmutableEntry<>(resource, lifetime);
+			} finally {
+				lastConnection.remove();
+			}
+		}
+	}
+	
+	
+	/**
+	 * The underlying retriever, {@code null} if the request objects are
+	 * downloaded directly.
+	 */
+	private final ResourceRetriever retriever;
+	
+	
+	/**
+	 * The retriever for direct downloads, {@code null} if an underlying
+	 * retriever is specified.
+	 */
+	private final HeaderRecordingRetriever httpRetriever;
+	
+	
+	/**
+	 * The maximum cache lifetime, in milliseconds.
+	 */
+	private final long maxCacheLifetimeMs;
+	
+	
+	/**
+	 * The cached request objects, keyed by URL string.
+	 */
+	private final ExpiringCache<String,Resource> cache;
+	
+	
+	/**
+	 * Creates a new caching request object retriever which downloads the
+	 * request objects directly, honouring the HTTP caching headers. The
+	 * HTTP entity size limit is set to {@link #DEFAULT_HTTP_SIZE_LIMIT}.
+	 *
+	 * @param connectTimeout           The HTTP connect timeout, in
+	 *                                 milliseconds, zero implies none.
+	 *                                 Must not be negative.
+	 * @param readTimeout              The HTTP read timeout, in
+	 *                                 milliseconds, zero implies none.
+	 *                                 Must not be negative.
+	 * @param maxCacheLifetimeSeconds  The maximum cache lifetime, in
+	 *                                 seconds. Must be positive.
+	 * @param maxCacheSize             The maximum number of cached
+	 *                                 request objects. Must be positive.
+	 */
+	public CachingRequestObjectRetriever(final int connectTimeout,
+					     final int readTimeout,
+					     final long maxCacheLifetimeSeconds,
+					     final int maxCacheSize) {
+		
+		this(connectTimeout, readTimeout, DEFAULT_HTTP_SIZE_LIMIT, maxCacheLifetimeSeconds, maxCacheSize);
+	}
+	
+	
+	/**
+	 * Creates a new caching request object retriever which downloads the
+	 * request objects directly, honouring the HTTP caching headers.
+	 *
+	 * @param connectTimeout           The HTTP connect timeout, in
+	 *                                 milliseconds, zero implies none.
+	 *                                 Must not be negative.
+	 * @param readTimeout              The HTTP read timeout, in
+	 *                                 milliseconds, zero implies none.
+	 *                                 Must not be negative.
+	 * @param sizeLimit                The HTTP entity size limit, in
+	 *                                 bytes. Must be positive.
+	 * @param maxCacheLifetimeSeconds  The maximum cache lifetime, in
+	 *                                 seconds. Must be positive.
+	 * @param maxCacheSize             The maximum number of cached
+	 *                                 request objects. Must be positive.
+	 */
+	public CachingRequestObjectRetriever(final int connectTimeout,
+					     final int readTimeout,
+					     final int sizeLimit,
+					     final long maxCacheLifetimeSeconds,
+					     final int maxCacheSize) {
+		
+		this(null, connectTimeout, readTimeout, sizeLimit, maxCacheLifetimeSeconds, maxCacheSize);
+	}
+	
+	
+	/**
+	 * Creates a new caching request object retriever which fetches the
+	 * request objects with the specified underlying retriever.
+	 *
+	 * @param retriever                The underlying retriever. Must not
+	 *                                 be {@code null}.
+	 * @param maxCacheLifetimeSeconds  The maximum cache lifetime, in
+	 *                                 seconds. Must be positive.
+	 * @param maxCacheSize             The maximum number of cached
+	 *                                 request objects. Must be positive.
+	 */
+	public CachingRequestObjectRetriever(final ResourceRetriever retriever,
+					     final long maxCacheLifetimeSeconds,
+					     final int maxCacheSize) {
+		
+		this(retriever, 0, 0, DEFAULT_HTTP_SIZE_LIMIT, maxCacheLifetimeSeconds, maxCacheSize);
+		
+		if (retriever == null) {
+			throw new IllegalArgumentException("The resource retriever must not be null");
+		}
+	}
+	
+	
+	/**
+	 * Creates a new caching request object retriever.
+	 *
+	 * @param retriever                The underlying retriever,
+	 *                                 {@code null} to download directly.
+	 * @param connectTimeout           The HTTP connect timeout, in
+	 *                                 milliseconds, zero implies none.
+	 * @param readTimeout              The HTTP read timeout, in
+	 *                                 milliseconds, zero implies none.
+	 * @param sizeLimit                The HTTP entity size limit, in
+	 *                                 bytes, ignored if an underlying
+	 *                                 retriever is specified.
+	 * @param maxCacheLifetimeSeconds  The maximum cache lifetime, in
+	 *                                 seconds.
+	 * @param maxCacheSize             The maximum number of cached
+	 *                                 request objects.
+	 */
+	private CachingRequestObjectRetriever(final ResourceRetriever retriever,
+					      final int connectTimeout,
+					      final int readTimeout,
+					      final int sizeLimit,
+					      final long maxCacheLifetimeSeconds,
+					      final int maxCacheSize) {
+		
+		if (connectTimeout < 0) {
+			throw new IllegalArgumentException("The connect timeout must not be negative");
+		}
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("The read timeout must not be negative");
+		}
+		if (sizeLimit <= 0) {
+			throw new IllegalArgumentException("The size limit must be positive");
+		}
+		if (maxCacheLifetimeSeconds <= 0) {
+			throw new IllegalArgumentException("The maximum cache lifetime must be positive");
+		}
+		if (maxCacheSize <= 0) {
+			throw new IllegalArgumentException("The maximum cache size must be positive");
+		}
+		this.retriever = retriever;
+		httpRetriever = retriever == null ? new HeaderRecordingRetriever(connectTimeout, readTimeout, sizeLimit) : null;
+		this.maxCacheLifetimeMs = maxCacheLifetimeSeconds * 1000L;
+		this.cache = new ExpiringCache<>(maxCacheSize);
+	}
+	
+	
+	/**
+	 * Returns the underlying retriever.
+	 *
+	 * @return The underlying retriever, {@code null} if the request
+	 *         objects are downloaded directly.
+	 */
+	public ResourceRetriever getResourceRetriever() {
+		return retriever;
+	}
+	
+	
+	/**
+	 * Returns the maximum cache lifetime.
+	 *
+	 * @return The maximum cache lifetime, in seconds.
+	 */
+	public long getMaxCacheLifetimeSeconds() {
+		return maxCacheLifetimeMs / 1000L;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of cached request objects.
+	 *
+	 * @return The maximum cache size.
+	 */
+	public int getMaxCacheSize() {
+		return cache.getMaxSize();
+	}
+	
+	
+	@Override
+	public Resource retrieveResource(final URL url)
+		throws IOException {
+		
+		String key = url.toString();
+		long now = System.currentTimeMillis();
+		
+		Resource cached = cache.get(key, now);
+		
+		if (cached != null) {
+			return cached;
+		}
+		
+		Resource resource;
+		long lifetimeMs;
+		
+		if (retriever != null) {
+			resource = retriever.retrieveResource(url);
+			lifetimeMs = maxCacheLifetimeMs;
+		} else {
+			Map.Entry<Resource,Long> retrieved = httpRetriever.retrieveResource(url, now);
+			resource = retrieved.getKey();
+			lifetimeMs = Math.min(maxCacheLifetimeMs, retrieved.getValue());
+		}
+		
+		if (lifetimeMs <= 0L || resource.getContent() == null) {
+			return resource;
+		}
+		
+		long expiresAt = now + lifetimeMs;
+		
+		Date exp = getExpirationTime(resource.getContent());
+		if (exp != null) {
+			expiresAt = Math.min(expiresAt, exp.getTime());
+		}
+		
+		cache.put(key, resource, expiresAt, now);
+		
+		return resource;
+	}
+	
+	
+	/**
+	 * Resolves the cache lifetime allowed by the specified
+	 * {@code Cache-Control} and {@code Expires} HTTP response headers.
+	 *
+	 * @param cacheControl The {@code Cache-Control} header value,
+	 *                     {@code null} if none.
+	 * @param expires      The {@code Expires} header value, {@code null}
+	 *                     if none.
+	 * @param now          The current time, in milliseconds since the
+	 *                     epoch.
+	 *
+	 * @return The cache lifetime in milliseconds, zero if the response
+	 *         must not be cached, {@link Long#MAX_VALUE} if not
+	 *         restricted by the headers.
+	 */
+	static long resolveHTTPCacheLifetime(final String cacheControl, final String expires, final long now) {
+		
+		if (cacheControl != null) {
+			
+			for (String directive: cacheControl.split(",")) {
+				
+				String d = directive.trim().toLowerCase(Locale.ROOT);
+				
+				if (d.equals("no-store") || d.equals("no-cache") || d.startsWith("no-cache=")) {
+					return 0L;
+				}
+				
+				if (d.startsWith("max-age=")) {
+					try {
+						return Math.max(0L, Long.parseLong(d.substring("max-age=".length()).replace("\"", "")) * 1000L);
+					} catch (NumberFormatException e) {
+						return 0L; // treat as stale
+					}
+				}
+			}
+		}
+		
+		if (expires != null) {
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			try {
+				return Math.max(0L, format.parse(expires.trim()).getTime() - now);
+			} catch (java.text.ParseException e) {
+				return 0L; // invalid dates represent the past
+			}
+		}
+		
+		return Long.MAX_VALUE;
+	}
+	
+	
+	/**
+	 * Returns the expiration time of the specified request object, if it
+	 * is signed or plain.
+	 *
+	 * @param content The request object content.
+	 *
+	 * @return The expiration time, {@code null} if not specified, or the
+	 *         request object is encrypted or couldn't be parsed.
+	 */
+	private static Date getExpirationTime(final String content) {
+		
+		try {
+			JWT jwt = JWTParser.parse(content);
+			JWTClaimsSet claimsSet = jwt.getJWTClaimsSet();
+			return claimsSet != null ? claimsSet.getExpirationTime() : null;
+		} catch (java.text.ParseException e) {
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Removes the expired request objects from the cache.
+	 *
+	 * @return The number of removed request objects.
+	 */
+	public int purgeExpired() {
+		
+		return cache.purgeExpired();
+	}
+	
+	
+	/**
+	 * Removes the cached request object for the specified URL.
+	 *
+	 * @param url The request object URL. Must not be {@code null}.
+	 */
+	public void invalidate(final URL url) {
+		
+		cache.remove(url.toString());
+	}
+	
+	
+	/**
+	 * Returns the number of cached request objects, including expired
+	 * ones which haven't been purged yet.
+	 *
+	 * @return The cache size.
+	 */
+	public int getCacheSize() {
+		
+		return cache.size();
+	}
+	
+	
+	/**
+	 * Clears the cache.
+	 */
+	public void clearCache() {
+		
+		cache.clear();
+	}
+}
@@ -19,6 +19,7 @@ package com.nimbusds.oauth2.sdk;
 
 
 import com.nimbusds.oauth2.sdk.tokenexchange.TokenExchangeGrant;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +36,7 @@ import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.auth.Secret;
 import com.nimbusds.oauth2.sdk.ciba.CIBAGrant;
 import com.nimbusds.oauth2.sdk.device.DeviceCodeGrant;
+import com.nimbusds.oauth2.sdk.util.MultivaluedMapUtils;
 
 
 /**
@@ -212,4 +214,168 @@ public class AuthorizationGrantTest extends TestCase {
 			assertEquals("Invalid or unsupported grant type: no-such-grant", e.getMessage());
 		}
 	}
+	
+	
+	/**
+	 * Custom grant for the parser registration tests.
+	 */
+	static class CustomGrant extends AuthorizationGrant {
+		
+		
+		static final GrantType GRANT_TYPE = new GrantType("urn:example:grant-type:custom");
+		
+		
+		private final String token;
+		
+		
+		CustomGrant(final String token) {
+			super(GRANT_TYPE);
+			this.token = token;
+		}
+		
+		
+		String getToken() {
+			return token;
+		}
+		
+		
+		@Override
+		public Map<String,List<String>> toParameters() {
+			Map<String,List<String>> params = new HashMap<>();
+			params.put("grant_type", Collections.singletonList(GRANT_TYPE.getValue()));
+			params.put("custom_token", Collections.singletonList(token));
+			return params;
+		}
+		
+		
+		static final AuthorizationGrantParser PARSER = new AuthorizationGrantParser() {
+			@Override
+			public AuthorizationGrant parse(final Map<String,List<String>> params) throws ParseException {
+				String token = MultivaluedMapUtils.getFirstValue(params, "custom_token");
+				if (token == null) {
+					throw new ParseException("Missing custom_token parameter", OAuth2Error.INVALID_REQUEST);
+				}
+				return new CustomGrant(token);
+			}
+		};
+	}
+	
+	
+	public void testBuiltInParsersRegistered() {
+		
+		for (GrantType grantType: Arrays.asList(
+			GrantType.AUTHORIZATION_CODE,
+			GrantType.REFRESH_TOKEN,
+			GrantType.PASSWORD,
+			GrantType.CLIENT_CREDENTIALS,
+			GrantType.JWT_BEARER,
+			GrantType.SAML2_BEARER,
+			GrantType.DEVICE_CODE,
+			GrantType.CIBA,
+			GrantType.TOKEN_EXCHANGE)) {
+			assertNotNull(AuthorizationGrant.getParser(grantType));
+		}
+		
+		assertNull(AuthorizationGrant.getParser(GrantType.IMPLICIT));
+	}
+	
+	
+	public void testRegisterCustomParser()
+		throws ParseException {
+		
+		Map<String,List<String>> params = new HashMap<>();
+		params.put("grant_type", Collections.singletonList(CustomGrant.GRANT_TYPE.getValue()));
+		params.put("custom_token", Collections.singletonList("xyz"));
+		
+		try {
+			AuthorizationGrant.parse(params);
+			fail();
+		} catch (ParseException e) {
+			assertEquals("Invalid or unsupported grant type: urn:example:grant-type:custom", e.getMessage());
+			assertEquals(OAuth2Error.UNSUPPORTED_GRANT_TYPE, e.getErrorObject());
+		}
+		
+		AuthorizationGrant.registerParser(CustomGrant.GRANT_TYPE, CustomGrant.PARSER);
+		try {
+			assertEquals(CustomGrant.PARSER, AuthorizationGrant.getParser(CustomGrant.GRANT_TYPE));
+			
+			CustomGrant grant = (CustomGrant)AuthorizationGrant.parse(params);
+			assertEquals(CustomGrant.GRANT_TYPE, grant.getType());
+			assertEquals("xyz", grant.getToken());
+			
+			params.remove("custom_token");
+			try {
+				AuthorizationGrant.parse(params);
+				fail();
+			} catch (ParseException e) {
+				assertEquals("Missing custom_token parameter", e.getMessage());
+			}
+		} finally {
+			assertEquals(CustomGrant.PARSER, AuthorizationGrant.unregisterParser(CustomGrant.GRANT_TYPE));
+		}
+		
+		assertNull(AuthorizationGrant.getParser(CustomGrant.GRANT_TYPE));
+	}
+	
+	
+	public void testRejectReplaceBuiltInParser() {
+		
+		AuthorizationGrantParser builtIn = AuthorizationGrant.getParser(GrantType.CLIENT_CREDENTIALS);
+		
+		try {
+			AuthorizationGrant.registerParser(GrantType.CLIENT_CREDENTIALS, CustomGrant.PARSER);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The parser for the built-in grant type client_credentials cannot be replaced", e.getMessage());
+		}
+		
+		// Equal grant type value
+		try {
+			AuthorizationGrant.registerParser(new GrantType("client_credentials"), CustomGrant.PARSER);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The parser for the built-in grant type client_credentials cannot be replaced", e.getMessage());
+		}
+		
+		try {
+			AuthorizationGrant.unregisterParser(GrantType.CLIENT_CREDENTIALS);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The parser for the built-in grant type client_credentials cannot be unregistered", e.getMessage());
+		}
+		
+		assertSame(builtIn, AuthorizationGrant.getParser(GrantType.CLIENT_CREDENTIALS));
+	}
+	
+	
+	public void testRegisterParser_nullArgs() {
+		
+		try {
+			AuthorizationGrant.registerParser(null, CustomGrant.PARSER);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The grant type must not be null", e.getMessage());
+		}
+		
+		try {
+			AuthorizationGrant.registerParser(CustomGrant.GRANT_TYPE, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The grant parser must not be null", e.getMessage());
+		}
+		
+		try {
+			AuthorizationGrant.unregisterParser(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The grant type must not be null", e.getMessage());
+		}
+		
+		try {
+			AuthorizationGrant.getParser(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The grant type must not be null", e.getMessage());
+		}
+	}
 }
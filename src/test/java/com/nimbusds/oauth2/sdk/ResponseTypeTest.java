@@ -263,4 +263,43 @@ public class ResponseTypeTest extends TestCase {
 		
 		assertEquals(ResponseType.parse("code id_token"), ResponseType.parse("id_token code"));
 	}
+	
+	
+	public void testParse_canonicalValues()
+		throws Exception {
+		
+		ResponseType rt = ResponseType.parse("code id_token token none");
+		
+		for (ResponseType.Value v: rt) {
+			if ("code".equals(v.getValue())) {
+				assertSame(ResponseType.Value.CODE, v);
+			} else if ("token".equals(v.getValue())) {
+				assertSame(ResponseType.Value.TOKEN, v);
+			} else if ("id_token".equals(v.getValue())) {
+				assertSame(OIDCResponseTypeValue.ID_TOKEN, v);
+			} else {
+				assertSame(OIDCResponseTypeValue.NONE, v);
+			}
+		}
+		
+		assertEquals(4, rt.size());
+	}
+	
+	
+	public void testImpliedFlows_customValues()
+		throws Exception {
+		
+		for (String s: Arrays.asList("code x", "token x", "id_token x", "code id_token x", "x", "none", "code none")) {
+			ResponseType rt = ResponseType.parse(s);
+			assertFalse(s, rt.impliesCodeFlow());
+			assertFalse(s, rt.impliesImplicitFlow());
+			assertFalse(s, rt.impliesHybridFlow());
+		}
+		
+		ResponseType rt = new ResponseType("x");
+		rt.add(ResponseType.Value.CODE);
+		assertFalse(rt.impliesCodeFlow());
+		rt.remove(new ResponseType.Value("x"));
+		assertTrue(rt.impliesCodeFlow());
+	}
 }
@@ -19,6 +19,7 @@ package com.nimbusds.oauth2.sdk;
 
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertNotEquals;
@@ -163,4 +164,22 @@ public class ScopeTest extends TestCase {
 		assertTrue(scope.contains("admin"));
 		assertEquals(3, scope.size());
 	}
+	
+	
+	public void testParse_canonicalValues() {
+		
+		Scope scope = Scope.parse("openid email custom");
+		
+		assertSame(Scope.parse("openid").iterator().next(), scope.iterator().next());
+		assertSame(new Scope("email").iterator().next(), Scope.parse(Collections.singletonList("email")).iterator().next());
+		
+		for (Scope.Value v: scope) {
+			assertNull(v.getRequirement());
+		}
+		
+		assertEquals("openid email custom", scope.toString());
+		assertTrue(scope.contains("openid"));
+		assertTrue(scope.contains("custom"));
+		assertFalse(scope.contains("profile"));
+	}
 }
@@ -1927,4 +1927,29 @@ public class TokenRequestTest extends TestCase {
 			assertEquals("Invalid request: Missing or empty subject_token parameter", e.getErrorObject().getDescription());
 		}
 	}
+	
+	
+	public void testParse_registeredCustomGrant()
+		throws Exception {
+		
+		AuthorizationGrant.registerParser(AuthorizationGrantTest.CustomGrant.GRANT_TYPE, AuthorizationGrantTest.CustomGrant.PARSER);
+		
+		try {
+			HTTPRequest httpRequest = new HTTPRequest(HTTPRequest.Method.POST, new URL("https://c2id.com/token"));
+			httpRequest.setEntityContentType(ContentType.APPLICATION_URLENCODED);
+			httpRequest.setAuthorization(new ClientSecretBasic(new ClientID("123"), new Secret("secret")).toHTTPAuthorizationHeader());
+			httpRequest.setQuery("grant_type=urn%3Aexample%3Agrant-type%3Acustom&custom_token=xyz&scope=read&ext=1");
+			
+			TokenRequest tokenRequest = TokenRequest.parse(httpRequest);
+			
+			AuthorizationGrantTest.CustomGrant grant = (AuthorizationGrantTest.CustomGrant)tokenRequest.getAuthorizationGrant();
+			assertEquals("xyz", grant.getToken());
+			assertEquals(new ClientID("123"), tokenRequest.getClientAuthentication().getClientID());
+			assertEquals(new Scope("read"), tokenRequest.getScope());
+			
+			assertEquals(Collections.singletonList("1"), tokenRequest.getCustomParameter("ext"));
+		} finally {
+			AuthorizationGrant.unregisterParser(AuthorizationGrantTest.CustomGrant.GRANT_TYPE);
+		}
+	}
 }
@@ -0,0 +1,161 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.assertions.saml2;
+
+
+import java.util.Collections;
+import java.util.Date;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import com.nimbusds.oauth2.sdk.id.Audience;
+import com.nimbusds.oauth2.sdk.id.Identifier;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.oauth2.sdk.util.singleuse.AlreadyUsedException;
+
+
+public class DefaultSAML2AssertionSingleUseCheckerTest extends TestCase {
+	
+	
+	private static SAML2AssertionDetails createDetails(final Issuer issuer, final Identifier id, final Date exp) {
+		
+		return new SAML2AssertionDetails(
+			issuer,
+			new Subject("alice@wonderland.net"),
+			null,
+			null,
+			null,
+			Collections.singletonList(new Audience("https://c2id.com/token")),
+			exp,
+			null,
+			new Date(),
+			id,
+			null,
+			null);
+	}
+	
+	
+	public void testMarkAsUsed()
+		throws AlreadyUsedException {
+		
+		DefaultSAML2AssertionSingleUseChecker checker = new DefaultSAML2AssertionSingleUseChecker(60, 3600L);
+		
+		Date exp = new Date(new Date().getTime() + 60_000L);
+		Identifier id = new Identifier();
+		
+		checker.markAsUsed(createDetails(new Issuer("https://idp.example.com"), id, exp));
+		assertEquals(1, checker.getCacheSize());
+		
+		try {
+			checker.markAsUsed(createDetails(new Issuer("https://idp.example.com"), id, exp));
+			fail();
+		} catch (AlreadyUsedException e) {
+			assertEquals("Detected SAML 2.0 assertion ID replay", e.getMessage());
+		}
+		
+		// Same ID from another issuer
+		checker.markAsUsed(createDetails(new Issuer("https://other-idp.example.com"), id, exp));
+		assertEquals(2, checker.getCacheSize());
+		
+		checker.shutdown();
+	}
+	
+	
+	public void testRetainedUntilExpirationPlusClockSkew()
+		throws AlreadyUsedException {
+		
+		DefaultSAML2AssertionSingleUseChecker checker = new DefaultSAML2AssertionSingleUseChecker(60, 3600L);
+		
+		Date exp = new Date(new Date().getTime() - 30_000L);
+		Identifier id = new Identifier();
+		
+		checker.markAsUsed(createDetails(new Issuer("https://idp.example.com"), id, exp));
+		
+		// Within clock skew
+		checker.purgeExpired(new Date().getTime());
+		assertEquals(1, checker.getCacheSize());
+		
+		try {
+			checker.markAsUsed(createDetails(new Issuer("https://idp.example.com"), id, exp));
+			fail();
+		} catch (AlreadyUsedException e) {
+			// ok
+		}
+		
+		checker.purgeExpired(exp.getTime() + 60_001L);
+		assertEquals(0, checker.getCacheSize());
+		
+		checker.shutdown();
+	}
+	
+	
+	public void testReplaceExpiredNotYetPurged()
+		throws AlreadyUsedException {
+		
+		DefaultSAML2AssertionSingleUseChecker checker = new DefaultSAML2AssertionSingleUseChecker(0, 3600L);
+		
+		Identifier id = new Identifier();
+		
+		checker.markAsUsed(createDetails(new Issuer("https://idp.example.com"), id, new Date(new Date().getTime() - 1000L)));
+		
+		// The expired entry is replaced, expiration is checked by the
+		// details verifier
+		checker.markAsUsed(createDetails(new Issuer("https://idp.example.com"), id, new Date(new Date().getTime() + 60_000L)));
+		assertEquals(1, checker.getCacheSize());
+		
+		checker.shutdown();
+	}
+	
+	
+	public void testValidatorDetectsReplay()
+		throws Exception {
+		
+		SecretKey hmacKey = new SecretKeySpec(new byte[32], "HmacSha256");
+		
+		String xml = SAML2AssertionFactory.createAsString(
+			new SAML2AssertionDetails(new Issuer("https://saml.idp.com"), new Subject("alice@wonderland.net"), new Audience("https://c2id.com/token")),
+			SignatureConstants.ALGO_ID_MAC_HMAC_SHA256,
+			new BasicCredential(hmacKey));
+		
+		DefaultSAML2AssertionSingleUseChecker checker = new DefaultSAML2AssertionSingleUseChecker(60, 3600L);
+		
+		SAML2AssertionValidator validator = new SAML2AssertionValidator(
+			new SAML2AssertionDetailsVerifier(Collections.singleton(new Audience("https://c2id.com/token"))),
+			checker,
+			null);
+		
+		assertEquals(checker, validator.getSingleUseChecker());
+		assertNull(validator.getSignatureVerificationCache());
+		
+		validator.validate(xml, new Issuer("https://saml.idp.com"), hmacKey);
+		
+		try {
+			validator.validate(xml, new Issuer("https://saml.idp.com"), hmacKey);
+			fail();
+		} catch (BadSAML2AssertionException e) {
+			assertTrue(e.getMessage().startsWith("The SAML 2.0 assertion ID was used before: "));
+		}
+		
+		checker.shutdown();
+	}
+}
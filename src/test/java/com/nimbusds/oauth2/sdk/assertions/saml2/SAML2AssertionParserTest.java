@@ -0,0 +1,195 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.assertions.saml2;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.xml.sax.InputSource;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.id.Audience;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.id.Subject;
+
+
+public class SAML2AssertionParserTest extends TestCase {
+	
+	
+	private static final SecretKey HMAC_KEY = new SecretKeySpec(new byte[32], "HmacSha256");
+	
+	
+	private static String createAssertionXML()
+		throws Exception {
+		
+		SAML2AssertionDetails details = new SAML2AssertionDetails(
+			new Issuer("https://saml.idp.com"),
+			new Subject("alice@wonderland.net"),
+			new Audience("https://c2id.com/token"));
+		
+		return SAML2AssertionFactory.createAsString(details, SignatureConstants.ALGO_ID_MAC_HMAC_SHA256, new BasicCredential(HMAC_KEY));
+	}
+	
+	
+	public void testParseStringBytesAndStream()
+		throws Exception {
+		
+		String xml = createAssertionXML();
+		
+		Assertion a = SAML2AssertionValidator.parse(xml);
+		assertEquals("https://saml.idp.com", a.getIssuer().getValue());
+		assertEquals("alice@wonderland.net", a.getSubject().getNameID().getValue());
+		assertTrue(a.isSigned());
+		
+		a = SAML2AssertionValidator.parse(xml.getBytes(StandardCharsets.UTF_8));
+		assertEquals("https://saml.idp.com", a.getIssuer().getValue());
+		
+		a = SAML2AssertionValidator.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		assertEquals("https://saml.idp.com", a.getIssuer().getValue());
+	}
+	
+	
+	public void testParseAndValidate_pooledBuilder()
+		throws Exception {
+		
+		String xml = createAssertionXML();
+		
+		SAML2AssertionValidator validator = new SAML2AssertionValidator(
+			new SAML2AssertionDetailsVerifier(Collections.singleton(new Audience("https://c2id.com/token"))));
+		
+		// Signature verification relies on the DOM, which must outlive
+		// the reset of the pooled builder
+		for (int i=0; i < 3; i++) {
+			Assertion a = validator.validate(xml, new Issuer("https://saml.idp.com"), HMAC_KEY);
+			assertNotNull(a.getID());
+		}
+	}
+	
+	
+	public void testPool()
+		throws Exception {
+		
+		String xml = createAssertionXML();
+		
+		SAML2AssertionParser parser = new SAML2AssertionParser(1);
+		assertEquals(0, parser.getPoolSize());
+		
+		parser.parse(new InputSource(new StringReader(xml)));
+		assertEquals(1, parser.getPoolSize());
+		
+		parser.parse(new InputSource(new StringReader(xml)));
+		assertEquals(1, parser.getPoolSize());
+		
+		// Not pooled after a parse exception
+		try {
+			parser.parse(new InputSource(new StringReader("<invalid")));
+			fail();
+		} catch (ParseException e) {
+			assertTrue(e.getMessage().startsWith("SAML 2.0 assertion parsing failed: "));
+		}
+		assertEquals(0, parser.getPoolSize());
+	}
+	
+	
+	public void testPoolingDisabled()
+		throws Exception {
+		
+		SAML2AssertionParser parser = new SAML2AssertionParser(0);
+		parser.parse(new InputSource(new StringReader(createAssertionXML())));
+		assertEquals(0, parser.getPoolSize());
+	}
+	
+	
+	public void testNegativePoolSize() {
+		
+		try {
+			new SAML2AssertionParser(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max pool size must not be negative", e.getMessage());
+		}
+	}
+	
+	
+	public void testRejectDOCTYPE()
+		throws Exception {
+		
+		String xml = "<?xml version=\"1.0\"?>" +
+			"<!DOCTYPE foo [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+			"<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"abc\" Version=\"2.0\">" +
+			"<saml2:Issuer>&xxe;</saml2:Issuer>" +
+			"</saml2:Assertion>";
+		
+		try {
+			SAML2AssertionValidator.parse(xml);
+			fail();
+		} catch (ParseException e) {
+			assertTrue(e.getMessage().startsWith("SAML 2.0 assertion parsing failed: "));
+		}
+	}
+	
+	
+	public void testNotAssertion() {
+		
+		try {
+			SAML2AssertionValidator.parse("<saml2:Issuer xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\">https://saml.idp.com</saml2:Issuer>");
+			fail();
+		} catch (ParseException e) {
+			assertEquals("Top-level XML element not a SAML 2.0 assertion", e.getMessage());
+		}
+	}
+	
+	
+	public void testConcurrentParse()
+		throws Exception {
+		
+		final String xml = createAssertionXML();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		
+		List<Future<Assertion>> futures = new ArrayList<>();
+		for (int i=0; i < 64; i++) {
+			futures.add(executor.submit(new Callable<Assertion>() {
+				@Override
+				public Assertion call() throws Exception {
+					return SAML2AssertionValidator.parse(xml);
+				}
+			}));
+		}
+		
+		for (Future<Assertion> f: futures) {
+			assertEquals("alice@wonderland.net", f.get(10, TimeUnit.SECONDS).getSubject().getNameID().getValue());
+		}
+		
+		executor.shutdown();
+		
+		assertTrue(SAML2AssertionParser.getInstance().getPoolSize() <= SAML2AssertionParser.DEFAULT_MAX_POOL_SIZE);
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.assertions.saml2;
+
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.oauth2.sdk.id.Audience;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.id.Subject;
+
+
+public class SAML2SignatureVerificationCacheTest extends TestCase {
+	
+	
+	private static final SecretKey HMAC_KEY = new SecretKeySpec(new byte[32], "HmacSha256");
+	
+	
+	private static String createAssertionXML(final SecretKey key) {
+		
+		return SAML2AssertionFactory.createAsString(
+			new SAML2AssertionDetails(new Issuer("https://saml.idp.com"), new Subject("alice@wonderland.net"), new Audience("https://c2id.com/token")),
+			SignatureConstants.ALGO_ID_MAC_HMAC_SHA256,
+			new BasicCredential(key));
+	}
+	
+	
+	/**
+	 * Counts the cache hits.
+	 */
+	private static class CountingCache extends SAML2SignatureVerificationCache {
+		
+		final AtomicInteger hits = new AtomicInteger();
+		
+		CountingCache() {
+			super(60, 3600L);
+		}
+		
+		@Override
+		public boolean isVerified(final Base64URL digest) {
+			boolean verified = super.isVerified(digest);
+			if (verified) {
+				hits.incrementAndGet();
+			}
+			return verified;
+		}
+	}
+	
+	
+	public void testConstants() {
+		
+		assertEquals(10_000, SAML2SignatureVerificationCache.DEFAULT_MAX_SIZE);
+	}
+	
+	
+	public void testComputeDigest() {
+		
+		Base64URL digest = SAML2SignatureVerificationCache.computeDigest("<xml/>", HMAC_KEY);
+		assertEquals(43, digest.toString().length());
+		assertEquals(digest, SAML2SignatureVerificationCache.computeDigest("<xml/>", HMAC_KEY));
+		
+		assertFalse(digest.equals(SAML2SignatureVerificationCache.computeDigest("<xml />", HMAC_KEY)));
+		assertFalse(digest.equals(SAML2SignatureVerificationCache.computeDigest("<xml/>", new SecretKeySpec(new byte[16], "HmacSha256"))));
+	}
+	
+	
+	public void testPutAndExpire() {
+		
+		SAML2SignatureVerificationCache cache = new SAML2SignatureVerificationCache(0, 3600L, 2);
+		
+		Base64URL d1 = new Base64URL("d1");
+		Base64URL d2 = new Base64URL("d2");
+		Base64URL d3 = new Base64URL("d3");
+		
+		long now = new Date().getTime();
+		
+		assertFalse(cache.isVerified(d1));
+		
+		cache.put(d1, new Date(now + 60_000L));
+		assertTrue(cache.isVerified(d1));
+		
+		cache.put(d2, new Date(now - 1000L));
+		assertFalse(cache.isVerified(d2));
+		assertEquals(2, cache.getCacheSize());
+		
+		// Full
+		cache.put(d3, new Date(now + 60_000L));
+		assertFalse(cache.isVerified(d3));
+		assertEquals(2, cache.getCacheSize());
+		
+		cache.purgeExpired(now);
+		assertEquals(1, cache.getCacheSize());
+		
+		cache.put(d3, new Date(now + 60_000L));
+		assertTrue(cache.isVerified(d3));
+		
+		cache.shutdown();
+	}
+	
+	
+	public void testInvalidMaxSize() {
+		
+		try {
+			new SAML2SignatureVerificationCache(60, 3600L, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max cache size must be positive", e.getMessage());
+		}
+	}
+	
+	
+	public void testValidatorUsesCache()
+		throws Exception {
+		
+		String xml = createAssertionXML(HMAC_KEY);
+		
+		CountingCache cache = new CountingCache();
+		
+		SAML2AssertionValidator validator = new SAML2AssertionValidator(
+			new SAML2AssertionDetailsVerifier(Collections.singleton(new Audience("https://c2id.com/token"))),
+			null,
+			cache);
+		
+		assertNull(validator.getSingleUseChecker());
+		assertEquals(cache, validator.getSignatureVerificationCache());
+		
+		validator.validate(xml, new Issuer("https://saml.idp.com"), HMAC_KEY);
+		assertEquals(1, cache.getCacheSize());
+		assertEquals(0, cache.hits.get());
+		
+		validator.validate(xml, new Issuer("https://saml.idp.com"), HMAC_KEY);
+		assertEquals(1, cache.getCacheSize());
+		assertEquals(1, cache.hits.get());
+		
+		// Parsed assertion, digest of the DOM
+		Assertion assertion = SAML2AssertionValidator.parse(xml);
+		validator.validate(assertion, new Issuer("https://saml.idp.com"), HMAC_KEY);
+		validator.validate(assertion, new Issuer("https://saml.idp.com"), HMAC_KEY);
+		assertEquals(2, cache.getCacheSize());
+		assertEquals(2, cache.hits.get());
+		
+		// Another key must not hit the cache
+		try {
+			validator.validate(xml, new Issuer("https://saml.idp.com"), new SecretKeySpec(new byte[]{1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,32}, "HmacSha256"));
+			fail();
+		} catch (BadSAML2AssertionException e) {
+			assertTrue(e.getMessage().startsWith("Bad SAML 2.0 signature: "));
+		}
+		assertEquals(2, cache.hits.get());
+		
+		cache.shutdown();
+	}
+	
+	
+	public void testValidatorSkipsCacheWithSingleUseChecker()
+		throws Exception {
+		
+		String xml = createAssertionXML(HMAC_KEY);
+		
+		CountingCache cache = new CountingCache();
+		DefaultSAML2AssertionSingleUseChecker singleUseChecker = new DefaultSAML2AssertionSingleUseChecker(60, 3600L);
+		
+		SAML2AssertionValidator validator = new SAML2AssertionValidator(
+			new SAML2AssertionDetailsVerifier(Collections.singleton(new Audience("https://c2id.com/token"))),
+			singleUseChecker,
+			cache);
+		
+		validator.validate(xml, new Issuer("https://saml.idp.com"), HMAC_KEY);
+		assertEquals(0, cache.getCacheSize());
+		
+		try {
+			validator.validate(xml, new Issuer("https://saml.idp.com"), HMAC_KEY);
+			fail();
+		} catch (BadSAML2AssertionException e) {
+			assertTrue(e.getMessage().startsWith("The SAML 2.0 assertion ID was used before: "));
+		}
+		assertEquals(0, cache.getCacheSize());
+		assertEquals(0, cache.hits.get());
+		
+		singleUseChecker.shutdown();
+		cache.shutdown();
+	}
+	
+	
+	public void testValidatorDoesNotCacheBadSignature()
+		throws Exception {
+		
+		String xml = createAssertionXML(new SecretKeySpec(new byte[]{1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,32}, "HmacSha256"));
+		
+		SAML2SignatureVerificationCache cache = new SAML2SignatureVerificationCache(60, 3600L);
+		
+		SAML2AssertionValidator validator = new SAML2AssertionValidator(
+			new SAML2AssertionDetailsVerifier(Collections.singleton(new Audience("https://c2id.com/token"))),
+			null,
+			cache);
+		
+		for (int i=0; i < 2; i++) {
+			try {
+				validator.validate(xml, new Issuer("https://saml.idp.com"), HMAC_KEY);
+				fail();
+			} catch (BadSAML2AssertionException e) {
+				assertTrue(e.getMessage().startsWith("Bad SAML 2.0 signature: "));
+			}
+		}
+		
+		assertEquals(0, cache.getCacheSize());
+		
+		cache.shutdown();
+	}
+}
@@ -0,0 +1,430 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.ciba;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jadler.Jadler.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import com.nimbusds.oauth2.sdk.token.Tokens;
+
+
+public class CIBANotificationDispatcherTest {
+	
+	
+	private static final BearerAccessToken CLIENT_NOTIFICATION_TOKEN = new BearerAccessToken("8d67dc78-7faa-4d41-aabd-67707b374255");
+	
+	
+	private static class CollectingListener implements CIBANotificationListener {
+		
+		final Map<AuthRequestID,URI> delivered = new ConcurrentHashMap<>();
+		
+		final Map<AuthRequestID,Exception> failed = new ConcurrentHashMap<>();
+		
+		final List<CIBANotificationMetrics> metrics = new CopyOnWriteArrayList<>();
+		
+		final CountDownLatch latch;
+		
+		CollectingListener(final int expected) {
+			latch = new CountDownLatch(expected);
+		}
+		
+		@Override
+		public void onDelivered(final AuthRequestID authRequestID, final URI endpoint) {
+			delivered.put(authRequestID, endpoint);
+			latch.countDown();
+		}
+		
+		@Override
+		public void onFailed(final AuthRequestID authRequestID, final URI endpoint, final Exception e) {
+			failed.put(authRequestID, e);
+			latch.countDown();
+		}
+		
+		@Override
+		public void onMetrics(final CIBANotificationMetrics metrics) {
+			this.metrics.add(metrics);
+		}
+		
+		void await() throws InterruptedException {
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+	}
+	
+	
+	@After
+	public void tearDown() {
+		closeJadler();
+	}
+	
+	
+	private URI endpoint() {
+		return URI.create("http://localhost:" + port() + "/ciba");
+	}
+	
+	
+	private static CIBANotificationDispatcher createDispatcher(final int maxConnectionsPerEndpoint,
+								   final int maxPending,
+								   final CIBANotificationListener listener) {
+		return new CIBANotificationDispatcher(
+			4,
+			maxConnectionsPerEndpoint,
+			maxPending,
+			2,
+			10L,
+			50L,
+			1000,
+			5000,
+			listener,
+			0L);
+	}
+	
+	
+	@Test
+	public void testConstants() {
+		
+		assertEquals(16, CIBANotificationDispatcher.DEFAULT_MAX_CONCURRENCY);
+		assertEquals(4, CIBANotificationDispatcher.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT);
+		assertEquals(10_000, CIBANotificationDispatcher.DEFAULT_MAX_PENDING);
+		assertEquals(3, CIBANotificationDispatcher.DEFAULT_MAX_RETRIES);
+		assertEquals(500L, CIBANotificationDispatcher.DEFAULT_RETRY_DELAY_MS);
+		assertEquals(30_000L, CIBANotificationDispatcher.DEFAULT_MAX_RETRY_DELAY_MS);
+		assertEquals(5000, CIBANotificationDispatcher.DEFAULT_HTTP_TIMEOUT);
+		assertEquals(60_000L, CIBANotificationDispatcher.DEFAULT_METRICS_INTERVAL_MS);
+	}
+	
+	
+	@Test
+	public void testPingAndPush() throws InterruptedException {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/ciba")
+			.havingHeaderEqualTo("Authorization", CLIENT_NOTIFICATION_TOKEN.toAuthorizationHeader())
+			.respond()
+			.withStatus(204);
+		
+		CollectingListener listener = new CollectingListener(2);
+		CIBANotificationDispatcher dispatcher = createDispatcher(2, 100, listener);
+		
+		AuthRequestID pingID = new AuthRequestID();
+		AuthRequestID pushID = new AuthRequestID();
+		
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(endpoint(), CLIENT_NOTIFICATION_TOKEN, pingID)));
+		assertTrue(dispatcher.dispatch(new CIBATokenDelivery(endpoint(), CLIENT_NOTIFICATION_TOKEN, pushID, new Tokens(new BearerAccessToken(), null))));
+		
+		listener.await();
+		
+		assertEquals(endpoint(), listener.delivered.get(pingID));
+		assertEquals(endpoint(), listener.delivered.get(pushID));
+		assertTrue(listener.failed.isEmpty());
+		
+		verifyThatRequest()
+			.havingBodyEqualTo("{\"auth_req_id\":\"" + pingID + "\"}")
+			.receivedOnce();
+		
+		CIBANotificationMetrics metrics = dispatcher.getMetrics();
+		assertEquals(2L, metrics.getAcceptedCount());
+		assertEquals(2L, metrics.getDeliveredCount());
+		assertEquals(0L, metrics.getFailedCount());
+		assertEquals(0L, metrics.getRetryCount());
+		assertEquals(0L, metrics.getRejectedCount());
+		assertEquals(0, metrics.getPendingCount());
+		assertEquals(0, dispatcher.getPendingCount());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testRetryThenSuccess() throws InterruptedException {
+		
+		onRequest()
+			.havingPathEqualTo("/ciba")
+			.respond()
+			.withStatus(503)
+			.thenRespond()
+			.withStatus(200);
+		
+		CollectingListener listener = new CollectingListener(1);
+		CIBANotificationDispatcher dispatcher = createDispatcher(2, 100, listener);
+		
+		AuthRequestID id = new AuthRequestID();
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(endpoint(), CLIENT_NOTIFICATION_TOKEN, id)));
+		
+		listener.await();
+		
+		assertEquals(endpoint(), listener.delivered.get(id));
+		verifyThatRequest().havingPathEqualTo("/ciba").receivedTimes(2);
+		
+		assertEquals(1L, dispatcher.getMetrics().getRetryCount());
+		assertEquals(1L, dispatcher.getMetrics().getDeliveredCount());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testRetriesExhausted() throws InterruptedException {
+		
+		onRequest()
+			.havingPathEqualTo("/ciba")
+			.respond()
+			.withStatus(500);
+		
+		CollectingListener listener = new CollectingListener(1);
+		CIBANotificationDispatcher dispatcher = createDispatcher(2, 100, listener);
+		
+		AuthRequestID id = new AuthRequestID();
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(endpoint(), CLIENT_NOTIFICATION_TOKEN, id)));
+		
+		listener.await();
+		
+		GeneralException e = (GeneralException) listener.failed.get(id);
+		assertEquals("Unexpected HTTP status code: 500", e.getMessage());
+		verifyThatRequest().havingPathEqualTo("/ciba").receivedTimes(3);
+		
+		CIBANotificationMetrics metrics = dispatcher.getMetrics();
+		assertEquals(2L, metrics.getRetryCount());
+		assertEquals(1L, metrics.getFailedCount());
+		assertEquals(0L, metrics.getDeliveredCount());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testNoRetryOnClientError() throws InterruptedException {
+		
+		onRequest()
+			.havingPathEqualTo("/ciba")
+			.respond()
+			.withStatus(401);
+		
+		CollectingListener listener = new CollectingListener(1);
+		CIBANotificationDispatcher dispatcher = createDispatcher(2, 100, listener);
+		
+		AuthRequestID id = new AuthRequestID();
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(endpoint(), CLIENT_NOTIFICATION_TOKEN, id)));
+		
+		listener.await();
+		
+		assertEquals("Unexpected HTTP status code: 401", listener.failed.get(id).getMessage());
+		verifyThatRequest().havingPathEqualTo("/ciba").receivedOnce();
+		assertEquals(0L, dispatcher.getMetrics().getRetryCount());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testMaxConnectionsPerEndpoint() throws InterruptedException {
+		
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		
+		CollectingListener listener = new CollectingListener(10);
+		
+		CIBANotificationDispatcher dispatcher = new CIBANotificationDispatcher(
+			8, 2, 100, 0, 0L, 0L, 1000, 1000, listener, 0L) {
+			
+			@Override
+			protected HTTPResponse send(final HTTPRequest httpRequest) {
+				int n = inFlight.incrementAndGet();
+				synchronized (maxInFlight) {
+					maxInFlight.set(Math.max(maxInFlight.get(), n));
+				}
+				try {
+					Thread.sleep(50L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				inFlight.decrementAndGet();
+				return new HTTPResponse(204);
+			}
+		};
+		
+		for (int i=0; i < 10; i++) {
+			assertTrue(dispatcher.dispatch(new CIBAPingCallback(URI.create("https://client.example.com/ciba"), CLIENT_NOTIFICATION_TOKEN, new AuthRequestID())));
+		}
+		
+		listener.await();
+		
+		assertEquals(10, listener.delivered.size());
+		assertEquals(2, maxInFlight.get());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testQueueFull() throws InterruptedException {
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		CollectingListener listener = new CollectingListener(2);
+		
+		CIBANotificationDispatcher dispatcher = new CIBANotificationDispatcher(
+			1, 1, 2, 0, 0L, 0L, 1000, 1000, listener, 0L) {
+			
+			@Override
+			protected HTTPResponse send(final HTTPRequest httpRequest) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new HTTPResponse(204);
+			}
+		};
+		
+		URI endpoint = URI.create("https://client.example.com/ciba");
+		
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(endpoint, CLIENT_NOTIFICATION_TOKEN, new AuthRequestID())));
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(endpoint, CLIENT_NOTIFICATION_TOKEN, new AuthRequestID())));
+		assertFalse(dispatcher.dispatch(new CIBAPingCallback(endpoint, CLIENT_NOTIFICATION_TOKEN, new AuthRequestID())));
+		
+		assertEquals(2, dispatcher.getPendingCount());
+		assertEquals(1L, dispatcher.getMetrics().getRejectedCount());
+		
+		release.countDown();
+		listener.await();
+		
+		assertEquals(2, listener.delivered.size());
+		assertEquals(0, dispatcher.getPendingCount());
+		
+		dispatcher.shutdown();
+		
+		assertFalse(dispatcher.dispatch(new CIBAPingCallback(endpoint, CLIENT_NOTIFICATION_TOKEN, new AuthRequestID())));
+		assertEquals(2L, dispatcher.getMetrics().getRejectedCount());
+	}
+	
+	
+	@Test
+	public void testIOExceptionRetry() throws InterruptedException {
+		
+		final AtomicInteger calls = new AtomicInteger();
+		
+		CollectingListener listener = new CollectingListener(1);
+		
+		CIBANotificationDispatcher dispatcher = new CIBANotificationDispatcher(
+			1, 1, 10, 1, 1L, 1L, 1000, 1000, listener, 0L) {
+			
+			@Override
+			protected HTTPResponse send(final HTTPRequest httpRequest)
+				throws IOException {
+				if (calls.incrementAndGet() == 1) {
+					throw new IOException("Connection refused");
+				}
+				return new HTTPResponse(200);
+			}
+		};
+		
+		AuthRequestID id = new AuthRequestID();
+		assertTrue(dispatcher.dispatch(new CIBAPingCallback(URI.create("https://client.example.com/ciba"), CLIENT_NOTIFICATION_TOKEN, id)));
+		
+		listener.await();
+		
+		assertNotNull(listener.delivered.get(id));
+		assertEquals(2, calls.get());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testMetricsPublished() throws InterruptedException {
+		
+		CollectingListener listener = new CollectingListener(0);
+		
+		CIBANotificationDispatcher dispatcher = new CIBANotificationDispatcher(
+			1, 1, 10, 0, 0L, 0L, 1000, 1000, listener, 20L);
+		
+		Thread.sleep(200L);
+		
+		assertFalse(listener.metrics.isEmpty());
+		assertEquals(0L, listener.metrics.get(0).getAcceptedCount());
+		
+		dispatcher.shutdown();
+	}
+	
+	
+	@Test
+	public void testComputeRetryDelay() {
+		
+		for (int i=0; i < 100; i++) {
+			long delay = CIBANotificationDispatcher.computeRetryDelay(1, 100L, 1000L);
+			assertTrue(delay >= 50L && delay <= 100L);
+			
+			delay = CIBANotificationDispatcher.computeRetryDelay(3, 100L, 1000L);
+			assertTrue(delay >= 200L && delay <= 400L);
+			
+			delay = CIBANotificationDispatcher.computeRetryDelay(10, 100L, 1000L);
+			assertTrue(delay >= 500L && delay <= 1000L);
+			
+			delay = CIBANotificationDispatcher.computeRetryDelay(100, 100L, 1000L);
+			assertTrue(delay >= 500L && delay <= 1000L);
+		}
+		
+		assertEquals(0L, CIBANotificationDispatcher.computeRetryDelay(1, 0L, 0L));
+	}
+	
+	
+	@Test
+	public void testIsRetryable() {
+		
+		assertTrue(CIBANotificationDispatcher.isRetryable(429));
+		assertTrue(CIBANotificationDispatcher.isRetryable(500));
+		assertTrue(CIBANotificationDispatcher.isRetryable(503));
+		assertFalse(CIBANotificationDispatcher.isRetryable(400));
+		assertFalse(CIBANotificationDispatcher.isRetryable(401));
+		assertFalse(CIBANotificationDispatcher.isRetryable(404));
+	}
+	
+	
+	@Test
+	public void testMetricsAverage() {
+		
+		CIBANotificationMetrics metrics = new CIBANotificationMetrics(10L, 1L, 4L, 2L, 3L, 4, 400L);
+		assertEquals(100L, metrics.getAverageDeliveryTimeMs());
+		assertEquals("accepted=10 rejected=1 delivered=4 failed=2 retries=3 pending=4 avg_delivery_ms=100", metrics.toString());
+		
+		assertEquals(0L, new CIBANotificationMetrics(0L, 0L, 0L, 0L, 0L, 0, 0L).getAverageDeliveryTimeMs());
+	}
+}
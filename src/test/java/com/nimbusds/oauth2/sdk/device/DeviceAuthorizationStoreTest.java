@@ -0,0 +1,384 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.device;
+
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.auth.ClientSecretBasic;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Subject;
+
+
+public class DeviceAuthorizationStoreTest extends TestCase {
+	
+	
+	private static final ClientID CLIENT_ID = new ClientID("123");
+	
+	
+	private static void assertError(final DeviceAuthorizationStore<?> store, final DeviceCode deviceCode, final String expectedCode) {
+		
+		try {
+			store.poll(deviceCode, CLIENT_ID);
+			fail();
+		} catch (GeneralException e) {
+			assertEquals(expectedCode, e.getErrorObject().getCode());
+		}
+	}
+	
+	
+	public void testDefaults() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>();
+		
+		assertEquals(600L, store.getLifetimeSeconds());
+		assertEquals(5L, store.getIntervalSeconds());
+		assertEquals(0, store.size());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testCreateAndLookup() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>();
+		
+		DeviceAuthorizationRequest request = new DeviceAuthorizationRequest.Builder(CLIENT_ID)
+			.scope(new Scope("read"))
+			.build();
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(request);
+		
+		assertEquals(CLIENT_ID, entry.getClientID());
+		assertEquals(new Scope("read"), entry.getScope());
+		assertEquals(5L, entry.getInterval());
+		assertEquals(DeviceAuthorizationStore.Status.PENDING, entry.getStatus());
+		assertNull(entry.getAuthorization());
+		assertFalse(entry.isExpired(System.currentTimeMillis()));
+		
+		String userCode = entry.getUserCode().getValue();
+		assertEquals(9, userCode.length());
+		
+		assertSame(entry, store.getByDeviceCode(entry.getDeviceCode()));
+		assertSame(entry, store.getByUserCode(userCode));
+		assertSame(entry, store.getByUserCode(userCode.toLowerCase()));
+		assertSame(entry, store.getByUserCode(" " + userCode.replace("-", "  ") + " "));
+		
+		assertNull(store.getByDeviceCode(new DeviceCode()));
+		assertNull(store.getByUserCode("BBBB-BBBB"));
+		
+		assertEquals(1, store.size());
+		
+		DeviceAuthorizationSuccessResponse response = entry.toSuccessResponse(URI.create("https://c2id.com/device"), null);
+		assertEquals(entry.getDeviceCode(), response.getDeviceCode());
+		assertEquals(entry.getUserCode(), response.getUserCode());
+		assertEquals(URI.create("https://c2id.com/device"), response.getVerificationURI());
+		assertTrue(response.getLifetime() > 590L && response.getLifetime() <= 600L);
+		assertEquals(5L, response.getInterval());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testCreateWithClientAuthentication() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>();
+		
+		DeviceAuthorizationRequest request = new DeviceAuthorizationRequest.Builder(new ClientSecretBasic(CLIENT_ID, new Secret()))
+			.build();
+		
+		assertEquals(CLIENT_ID, store.create(request).getClientID());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testApproveAndPoll() throws GeneralException {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(600L, 0L, UserCode.LETTER_CHAR_SET, 8);
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		assertError(store, entry.getDeviceCode(), DeviceAuthorizationGrantError.AUTHORIZATION_PENDING.getCode());
+		
+		assertTrue(store.approve(entry.getUserCode().getValue().toLowerCase(), new Subject("alice")));
+		assertFalse(store.approve(entry.getUserCode().getValue(), new Subject("bob")));
+		assertFalse(store.deny(entry.getUserCode().getValue()));
+		
+		assertEquals(DeviceAuthorizationStore.Status.APPROVED, entry.getStatus());
+		
+		DeviceAuthorizationStore.Entry<Subject> approved = store.poll(entry.getDeviceCode(), CLIENT_ID);
+		assertSame(entry, approved);
+		assertEquals(new Subject("alice"), approved.getAuthorization());
+		
+		// Single use
+		assertError(store, entry.getDeviceCode(), OAuth2Error.INVALID_GRANT_CODE);
+		assertNull(store.getByDeviceCode(entry.getDeviceCode()));
+		assertNull(store.getByUserCode(entry.getUserCode().getValue()));
+		assertEquals(0, store.size());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testDeny() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(600L, 0L, UserCode.LETTER_CHAR_SET, 8);
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		assertTrue(store.deny(entry.getUserCode().getValue()));
+		assertEquals(DeviceAuthorizationStore.Status.DENIED, entry.getStatus());
+		
+		assertError(store, entry.getDeviceCode(), OAuth2Error.ACCESS_DENIED_CODE);
+		assertError(store, entry.getDeviceCode(), OAuth2Error.INVALID_GRANT_CODE);
+		
+		assertFalse(store.approve("XXXX-XXXX", new Subject("alice")));
+		
+		store.shutdown();
+	}
+	
+	
+	public void testWrongClient() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(600L, 0L, UserCode.LETTER_CHAR_SET, 8);
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(new ClientID("456"), null);
+		
+		assertError(store, entry.getDeviceCode(), OAuth2Error.INVALID_GRANT_CODE);
+		
+		store.shutdown();
+	}
+	
+	
+	public void testSlowDown() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>();
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		assertError(store, entry.getDeviceCode(), DeviceAuthorizationGrantError.AUTHORIZATION_PENDING.getCode());
+		assertEquals(5L, entry.getInterval());
+		
+		assertError(store, entry.getDeviceCode(), DeviceAuthorizationGrantError.SLOW_DOWN.getCode());
+		assertEquals(10L, entry.getInterval());
+		
+		assertError(store, entry.getDeviceCode(), DeviceAuthorizationGrantError.SLOW_DOWN.getCode());
+		assertEquals(15L, entry.getInterval());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testExpiration() throws InterruptedException {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(1L, 0L, UserCode.LETTER_CHAR_SET, 8);
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		Thread.sleep(1100L);
+		
+		assertTrue(entry.isExpired(System.currentTimeMillis()));
+		assertNull(store.getByDeviceCode(entry.getDeviceCode()));
+		assertNull(store.getByUserCode(entry.getUserCode().getValue()));
+		assertFalse(store.approve(entry.getUserCode().getValue(), new Subject("alice")));
+		
+		store.shutdown();
+	}
+	
+	
+	public void testPurgeExpired() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(1L, 0L, UserCode.LETTER_CHAR_SET, 8);
+		store.shutdown();
+		
+		long now = System.currentTimeMillis();
+		
+		store.create(CLIENT_ID, null);
+		store.create(CLIENT_ID, null);
+		
+		assertEquals(0, store.purgeExpired(now));
+		assertEquals(2, store.size());
+		
+		// User codes released, device codes retained for one interval
+		assertEquals(0, store.purgeExpired(now + 3000L));
+		assertEquals(2, store.size());
+		
+		assertEquals(2, store.purgeExpired(now + 5000L));
+		assertEquals(0, store.size());
+	}
+	
+	
+	public void testPollAfterPurgeExpired() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(1L, 5L, UserCode.LETTER_CHAR_SET, 8);
+		store.shutdown();
+		
+		long now = System.currentTimeMillis();
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		try {
+			Thread.sleep(1100L);
+		} catch (InterruptedException e) {
+			fail();
+		}
+		
+		store.purgeExpired(now + 3000L);
+		assertNull(store.getByUserCode(entry.getUserCode().getValue()));
+		assertFalse(store.approve(entry.getUserCode().getValue(), new Subject("alice")));
+		
+		assertError(store, entry.getDeviceCode(), DeviceAuthorizationGrantError.EXPIRED_TOKEN.getCode());
+		assertEquals(0, store.size());
+		
+		// Reported once, then unknown
+		assertError(store, entry.getDeviceCode(), OAuth2Error.INVALID_GRANT.getCode());
+	}
+	
+	
+	public void testDeviceCodeRetentionEnds() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(1L, 5L, UserCode.LETTER_CHAR_SET, 8);
+		store.shutdown();
+		
+		long now = System.currentTimeMillis();
+		
+		DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		assertEquals(0, store.purgeExpired(now + 3000L));
+		assertEquals(1, store.size());
+		
+		// Retained for the 5 second polling interval
+		assertEquals(0, store.purgeExpired(now + 7000L));
+		assertEquals(1, store.size());
+		
+		assertEquals(1, store.purgeExpired(now + 10_000L));
+		assertEquals(0, store.size());
+		
+		assertError(store, entry.getDeviceCode(), OAuth2Error.INVALID_GRANT.getCode());
+	}
+	
+	
+	public void testPollExpired() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(1L, 0L, UserCode.LETTER_CHAR_SET, 8);
+		store.shutdown();
+		
+		final DeviceAuthorizationStore.Entry<Subject> entry = store.create(CLIENT_ID, null);
+		
+		try {
+			Thread.sleep(1100L);
+		} catch (InterruptedException e) {
+			fail();
+		}
+		
+		assertError(store, entry.getDeviceCode(), DeviceAuthorizationGrantError.EXPIRED_TOKEN.getCode());
+		assertEquals(0, store.size());
+	}
+	
+	
+	public void testUserCodeCollision() {
+		
+		final Queue<String> codes = new LinkedList<>(Arrays.asList("BBBB-BBBB", "BBBB-BBBB", "bbbb bbbb", "CCCC-CCCC"));
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<Subject>() {
+			@Override
+			protected UserCode generateUserCode() {
+				return new UserCode(codes.remove());
+			}
+		};
+		
+		DeviceAuthorizationStore.Entry<Subject> first = store.create(CLIENT_ID, null);
+		DeviceAuthorizationStore.Entry<Subject> second = store.create(CLIENT_ID, null);
+		
+		assertEquals("BBBB-BBBB", first.getUserCode().getValue());
+		assertEquals("CCCC-CCCC", second.getUserCode().getValue());
+		assertTrue(codes.isEmpty());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testUserCodeCollision_exhausted() {
+		
+		DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<Subject>() {
+			@Override
+			protected UserCode generateUserCode() {
+				return new UserCode("BBBB-BBBB");
+			}
+		};
+		
+		store.create(CLIENT_ID, null);
+		
+		try {
+			store.create(CLIENT_ID, null);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("Couldn't generate a unique user code after 10 attempts", e.getMessage());
+		}
+		
+		assertEquals(1, store.size());
+		
+		store.shutdown();
+	}
+	
+	
+	public void testConcurrentCreate() throws Exception {
+		
+		// Small code space to force collisions
+		final DeviceAuthorizationStore<Subject> store = new DeviceAuthorizationStore<>(600L, 5L, "BCDF", 8);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<List<DeviceAuthorizationStore.Entry<Subject>>>> futures = new ArrayList<>();
+		
+		for (int i=0; i < 8; i++) {
+			futures.add(executor.submit(new Callable<List<DeviceAuthorizationStore.Entry<Subject>>>() {
+				@Override
+				public List<DeviceAuthorizationStore.Entry<Subject>> call() {
+					List<DeviceAuthorizationStore.Entry<Subject>> entries = new ArrayList<>();
+					for (int j=0; j < 250; j++) {
+						entries.add(store.create(CLIENT_ID, null));
+					}
+					return entries;
+				}
+			}));
+		}
+		
+		Set<UserCode> userCodes = new HashSet<>();
+		for (Future<List<DeviceAuthorizationStore.Entry<Subject>>> f: futures) {
+			for (DeviceAuthorizationStore.Entry<Subject> entry: f.get()) {
+				assertTrue(userCodes.add(entry.getUserCode()));
+				assertSame(entry, store.getByUserCode(entry.getUserCode().getValue()));
+			}
+		}
+		
+		assertEquals(2000, userCodes.size());
+		assertEquals(2000, store.size());
+		
+		executor.shutdown();
+		store.shutdown();
+	}
+}
@@ -0,0 +1,484 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.device;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static net.jadler.Jadler.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.*;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import com.nimbusds.oauth2.sdk.token.Tokens;
+
+
+public class DeviceCodePollingSchedulerTest {
+	
+	
+	private static final ClientID CLIENT_ID = new ClientID("123");
+	
+	
+	private static final long START = 1_000_000L;
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+	}
+	
+	
+	@After
+	public void tearDown() {
+		closeJadler();
+	}
+	
+	
+	private static DeviceAuthorizationSuccessResponse createResponse(final DeviceCode deviceCode,
+									 final long lifetime,
+									 final long interval) {
+		
+		return new DeviceAuthorizationSuccessResponse(
+			deviceCode,
+			new UserCode(),
+			URI.create("https://c2id.com/device"),
+			null,
+			lifetime,
+			interval,
+			null);
+	}
+	
+	
+	private static class RecordingCallback implements DeviceCodePollingCallback {
+		
+		final Map<DeviceCode,Tokens> successes = new ConcurrentHashMap<>();
+		
+		final Map<DeviceCode,ErrorObject> errors = new ConcurrentHashMap<>();
+		
+		final Map<DeviceCode,Exception> failures = new ConcurrentHashMap<>();
+		
+		@Override
+		public void onSuccess(final DeviceCode deviceCode, final Tokens tokens) {
+			successes.put(deviceCode, tokens);
+		}
+		
+		@Override
+		public void onError(final DeviceCode deviceCode, final ErrorObject error) {
+			errors.put(deviceCode, error);
+		}
+		
+		@Override
+		public void onFailure(final DeviceCode deviceCode, final Exception e) {
+			failures.put(deviceCode, e);
+		}
+	}
+	
+	
+	/**
+	 * Runs the tasks in the calling thread.
+	 */
+	private static class DirectExecutorService extends AbstractExecutorService {
+		
+		private volatile boolean shutdown;
+		
+		@Override
+		public void execute(final Runnable command) {
+			if (shutdown) {
+				throw new RejectedExecutionException();
+			}
+			command.run();
+		}
+		
+		@Override
+		public void shutdown() {
+			shutdown = true;
+		}
+		
+		@Override
+		public List<Runnable> shutdownNow() {
+			shutdown = true;
+			return Collections.emptyList();
+		}
+		
+		@Override
+		public boolean isShutdown() {
+			return shutdown;
+		}
+		
+		@Override
+		public boolean isTerminated() {
+			return shutdown;
+		}
+		
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+			return shutdown;
+		}
+	}
+	
+	
+	/**
+	 * Scheduler with a manually advanced clock, polling in the calling
+	 * thread.
+	 */
+	private static class ManualScheduler extends DeviceCodePollingScheduler {
+		
+		long now = START;
+		
+		ManualScheduler(final URI tokenEndpoint) {
+			super(tokenEndpoint, 10L, 1000, 1000, new DirectExecutorService(), false);
+		}
+		
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+		
+		void advanceTo(final long offsetMs) {
+			now = START + offsetMs;
+			tick();
+		}
+	}
+	
+	
+	/**
+	 * Returns the scripted responses for each device code, the last one
+	 * repeated.
+	 */
+	private static class ScriptedScheduler extends ManualScheduler {
+		
+		final List<Object> script;
+		
+		final Map<DeviceCode,Integer> counts = new ConcurrentHashMap<>();
+		
+		final Map<DeviceCode,List<Long>> times = new ConcurrentHashMap<>();
+		
+		ScriptedScheduler(final Object ... script) {
+			super(URI.create("https://c2id.com/token"));
+			this.script = Arrays.asList(script);
+		}
+		
+		int count(final DeviceCode deviceCode) {
+			return counts.containsKey(deviceCode) ? counts.get(deviceCode) : 0;
+		}
+		
+		@Override
+		protected TokenResponse requestTokens(final TokenRequest request)
+			throws IOException {
+			
+			DeviceCode deviceCode = ((DeviceCodeGrant)request.getAuthorizationGrant()).getDeviceCode();
+			
+			int n = count(deviceCode);
+			counts.put(deviceCode, n + 1);
+			if (! times.containsKey(deviceCode)) {
+				times.put(deviceCode, new CopyOnWriteArrayList<Long>());
+			}
+			times.get(deviceCode).add(currentTimeMillis() - START);
+			
+			Object next = script.get(Math.min(n, script.size() - 1));
+			
+			if (next instanceof IOException) {
+				throw (IOException)next;
+			} else if (next instanceof ErrorObject) {
+				return new TokenErrorResponse((ErrorObject)next);
+			} else {
+				return new AccessTokenResponse((Tokens)next);
+			}
+		}
+	}
+	
+	
+	private static final Tokens TOKENS = new Tokens(new BearerAccessToken("at"), null);
+	
+	
+	@Test
+	public void testPendingThenSuccess() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			DeviceAuthorizationGrantError.AUTHORIZATION_PENDING,
+			TOKENS);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		assertEquals(1, scheduler.getPendingCount());
+		
+		scheduler.advanceTo(990L);
+		assertEquals(0, scheduler.count(deviceCode));
+		
+		scheduler.advanceTo(1000L);
+		assertEquals(1, scheduler.count(deviceCode));
+		assertEquals(1, scheduler.getPendingCount());
+		
+		scheduler.advanceTo(1990L);
+		assertEquals(1, scheduler.count(deviceCode));
+		
+		scheduler.advanceTo(2000L);
+		assertEquals(2, scheduler.count(deviceCode));
+		
+		assertEquals(TOKENS, callback.successes.get(deviceCode));
+		assertEquals(0, scheduler.getPendingCount());
+		assertEquals(Arrays.asList(1000L, 2000L), scheduler.times.get(deviceCode));
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testSlowDown() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			DeviceAuthorizationGrantError.SLOW_DOWN,
+			TOKENS);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		
+		scheduler.advanceTo(1000L);
+		assertEquals(1, scheduler.count(deviceCode));
+		
+		// Interval increased by 5 seconds
+		scheduler.advanceTo(6990L);
+		assertEquals(1, scheduler.count(deviceCode));
+		
+		scheduler.advanceTo(7000L);
+		assertEquals(TOKENS, callback.successes.get(deviceCode));
+		assertEquals(Arrays.asList(1000L, 7000L), scheduler.times.get(deviceCode));
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testAccessDenied() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			DeviceAuthorizationGrantError.AUTHORIZATION_PENDING,
+			OAuth2Error.ACCESS_DENIED);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		
+		scheduler.advanceTo(1000L);
+		scheduler.advanceTo(2000L);
+		
+		assertEquals(OAuth2Error.ACCESS_DENIED, callback.errors.get(deviceCode));
+		assertEquals(0, scheduler.getPendingCount());
+		
+		// No further polling
+		scheduler.advanceTo(10_000L);
+		assertEquals(2, scheduler.count(deviceCode));
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testExpiredToken() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			DeviceAuthorizationGrantError.EXPIRED_TOKEN);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		
+		scheduler.advanceTo(1000L);
+		
+		assertEquals(DeviceAuthorizationGrantError.EXPIRED_TOKEN, callback.errors.get(deviceCode));
+		assertEquals(1, scheduler.count(deviceCode));
+		assertEquals(0, scheduler.getPendingCount());
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testLifetimeReached() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			DeviceAuthorizationGrantError.AUTHORIZATION_PENDING);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 2L, 1L), CLIENT_ID, callback);
+		
+		// The next poll would be at the expiration time
+		scheduler.advanceTo(1000L);
+		
+		assertEquals(DeviceAuthorizationGrantError.EXPIRED_TOKEN, callback.errors.get(deviceCode));
+		assertEquals(1, scheduler.count(deviceCode));
+		assertEquals(0, scheduler.getPendingCount());
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testBackoffOnIOException() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			new IOException("Connect timed out"),
+			TOKENS);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		
+		scheduler.advanceTo(1000L);
+		assertEquals(1, scheduler.count(deviceCode));
+		
+		// Twice the interval
+		scheduler.advanceTo(2990L);
+		assertEquals(1, scheduler.count(deviceCode));
+		
+		scheduler.advanceTo(3000L);
+		assertEquals(TOKENS, callback.successes.get(deviceCode));
+		assertEquals(Arrays.asList(1000L, 3000L), scheduler.times.get(deviceCode));
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testCancel() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(TOKENS);
+		
+		DeviceCode deviceCode = new DeviceCode();
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		
+		try {
+			scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("The device code is already scheduled", e.getMessage());
+		}
+		
+		assertTrue(scheduler.cancel(deviceCode));
+		assertFalse(scheduler.cancel(deviceCode));
+		assertEquals(0, scheduler.getPendingCount());
+		
+		scheduler.advanceTo(5000L);
+		assertEquals(0, scheduler.count(deviceCode));
+		assertTrue(callback.successes.isEmpty());
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testManyDeviceCodes() {
+		
+		ScriptedScheduler scheduler = new ScriptedScheduler(
+			DeviceAuthorizationGrantError.AUTHORIZATION_PENDING,
+			TOKENS);
+		
+		int num = 1000;
+		RecordingCallback callback = new RecordingCallback();
+		
+		for (int i=0; i < num; i++) {
+			scheduler.schedule(createResponse(new DeviceCode(), 60L, 1L), CLIENT_ID, callback);
+		}
+		
+		assertEquals(num, scheduler.getPendingCount());
+		
+		scheduler.advanceTo(1000L);
+		assertEquals(num, scheduler.getPendingCount());
+		
+		scheduler.advanceTo(2000L);
+		assertEquals(num, callback.successes.size());
+		assertEquals(0, scheduler.getPendingCount());
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testHTTP() {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/token")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"access_token\":\"at\",\"token_type\":\"Bearer\"}");
+		
+		ManualScheduler scheduler = new ManualScheduler(URI.create("http://localhost:" + port() + "/token"));
+		
+		assertEquals(URI.create("http://localhost:" + port() + "/token"), scheduler.getTokenEndpoint());
+		
+		DeviceCode deviceCode = new DeviceCode("abc");
+		RecordingCallback callback = new RecordingCallback();
+		
+		scheduler.schedule(createResponse(deviceCode, 60L, 1L), CLIENT_ID, callback);
+		
+		scheduler.advanceTo(1000L);
+		
+		assertEquals(new BearerAccessToken("at"), callback.successes.get(deviceCode).getAccessToken());
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("grant_type", "urn%3Aietf%3Aparams%3Aoauth%3Agrant-type%3Adevice_code")
+			.havingParameterEqualTo("device_code", "abc")
+			.havingParameterEqualTo("client_id", "123")
+			.receivedOnce();
+		
+		scheduler.shutdown();
+	}
+	
+	
+	@Test
+	public void testConstructorChecks() {
+		
+		try {
+			new DeviceCodePollingScheduler(URI.create("https://c2id.com/token"), 0, 10L, 1000, 1000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max concurrency must be positive", e.getMessage());
+		}
+		
+		try {
+			new DeviceCodePollingScheduler(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The token endpoint must not be null", e.getMessage());
+		}
+	}
+}
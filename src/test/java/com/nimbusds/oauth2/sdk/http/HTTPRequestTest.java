@@ -601,4 +601,33 @@ public class HTTPRequestTest {
 		httpRequest.setDPoP(null);
 		assertNull(httpRequest.getDPoP());
 	}
+	
+	
+	@Test
+	public void testGetQueryParameters_decodedOnce()
+		throws MalformedURLException {
+		
+		HTTPRequest request = new HTTPRequest(HTTPRequest.Method.POST, new URL("https://c2id.com/token"));
+		request.setQuery("a=1&b=2%203");
+		
+		Map<String,List<String>> params = request.getQueryParameters();
+		assertEquals(Collections.singletonList("1"), params.get("a"));
+		assertEquals(Collections.singletonList("2 3"), params.get("b"));
+		assertEquals(2, params.size());
+		
+		// Returned map can be modified without affecting the request
+		params.remove("a");
+		params = request.getQueryParameters();
+		assertEquals(Collections.singletonList("1"), params.get("a"));
+		assertEquals(2, params.size());
+		
+		// Changed query
+		request.setQuery("c=4");
+		params = request.getQueryParameters();
+		assertEquals(Collections.singletonList("4"), params.get("c"));
+		assertEquals(1, params.size());
+		
+		request.setQuery(null);
+		assertTrue(request.getQueryParameters().isEmpty());
+	}
 }
@@ -22,6 +22,8 @@ import java.io.Serializable;
 
 import junit.framework.TestCase;
 
+import com.nimbusds.jose.util.Base64URL;
+
 
 /**
  * Tests the base Identifier class.
@@ -45,4 +47,49 @@ public class IdentifierTest extends TestCase {
 
 		}) instanceof Serializable);
 	}
-}
\ No newline at end of file
+
+
+	public void testDefaultGenerator() {
+
+		assertTrue(Identifier.getGenerator() instanceof ThreadLocalIdentifierGenerator);
+
+		Identifier id = new Identifier(16);
+		assertEquals(16, new Base64URL(id.getValue()).decode().length);
+		assertNotSame(id, new Identifier(16));
+		assertFalse(id.equals(new Identifier(16)));
+	}
+
+
+	public void testSetGenerator() {
+
+		IdentifierGenerator defaultGenerator = Identifier.getGenerator();
+
+		try {
+			Identifier.setGenerator(new IdentifierGenerator() {
+				@Override
+				public String generate(final int byteLength) {
+					return "fixed-" + byteLength;
+				}
+			});
+
+			assertEquals("fixed-32", new Identifier().getValue());
+			assertEquals("fixed-32", new State().getValue());
+			assertEquals("fixed-8", new JWTID(8).getValue());
+		} finally {
+			Identifier.setGenerator(defaultGenerator);
+		}
+
+		assertSame(defaultGenerator, Identifier.getGenerator());
+	}
+
+
+	public void testSetGenerator_null() {
+
+		try {
+			Identifier.setGenerator(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The identifier generator must not be null", e.getMessage());
+		}
+	}
+}
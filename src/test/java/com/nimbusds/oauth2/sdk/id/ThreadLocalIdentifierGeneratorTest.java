@@ -0,0 +1,156 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.id;
+
+
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jose.util.Base64URL;
+
+
+public class ThreadLocalIdentifierGeneratorTest extends TestCase {
+	
+	
+	public void testDefaults() {
+		
+		SecureRandom seedSource = new SecureRandom();
+		ThreadLocalIdentifierGenerator generator = new ThreadLocalIdentifierGenerator(seedSource);
+		assertSame(seedSource, generator.getSeedSource());
+		assertEquals(ThreadLocalIdentifierGenerator.DEFAULT_BUFFER_SIZE, generator.getBufferSize());
+		assertEquals(ThreadLocalIdentifierGenerator.DEFAULT_RESEED_INTERVAL, generator.getReseedInterval());
+	}
+	
+	
+	public void testConstructor_invalidParams() {
+		
+		try {
+			new ThreadLocalIdentifierGenerator(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The seed source must not be null", e.getMessage());
+		}
+		
+		try {
+			new ThreadLocalIdentifierGenerator(new SecureRandom(), 0, 1L);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The buffer size must be positive", e.getMessage());
+		}
+		
+		try {
+			new ThreadLocalIdentifierGenerator(new SecureRandom(), 1, 0L);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The reseed interval must be positive", e.getMessage());
+		}
+	}
+	
+	
+	public void testEncodeBase64URL() {
+		
+		Random random = new Random();
+		
+		for (int len=0; len < 100; len++) {
+			byte[] bytes = new byte[len];
+			random.nextBytes(bytes);
+			assertEquals(Base64URL.encode(bytes).toString(), ThreadLocalIdentifierGenerator.encodeBase64URL(bytes));
+		}
+	}
+	
+	
+	public void testGenerate() {
+		
+		ThreadLocalIdentifierGenerator generator = new ThreadLocalIdentifierGenerator(new SecureRandom());
+		
+		Set<String> values = new HashSet<>();
+		
+		for (int len=1; len <= 2 * ThreadLocalIdentifierGenerator.DEFAULT_BUFFER_SIZE; len += 7) {
+			String value = generator.generate(len);
+			assertEquals(len, new Base64URL(value).decode().length);
+			assertTrue(values.add(value));
+		}
+	}
+	
+	
+	public void testGenerate_invalidByteLength() {
+		
+		try {
+			new ThreadLocalIdentifierGenerator(new SecureRandom()).generate(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The byte length must be a positive integer", e.getMessage());
+		}
+	}
+	
+	
+	public void testReseed() {
+		
+		final List<Integer> seedRequests = new ArrayList<>();
+		
+		SecureRandom seedSource = new SecureRandom() {
+			@Override
+			public synchronized void nextBytes(final byte[] bytes) {
+				seedRequests.add(bytes.length);
+				super.nextBytes(bytes);
+			}
+		};
+		
+		ThreadLocalIdentifierGenerator generator = new ThreadLocalIdentifierGenerator(seedSource, 16, 64L);
+		
+		Set<String> values = new HashSet<>();
+		for (int i=0; i < 20; i++) {
+			assertTrue(values.add(generator.generate(16)));
+		}
+		
+		// Initial seed + reseed every 4 buffer refills
+		assertEquals(5, seedRequests.size());
+	}
+	
+	
+	public void testConcurrent()
+		throws InterruptedException {
+		
+		final ThreadLocalIdentifierGenerator generator = new ThreadLocalIdentifierGenerator(new SecureRandom());
+		final Set<String> values = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+		
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0; t < 8; t++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i=0; i < 1000; i++) {
+						values.add(generator.generate(32));
+					}
+				}
+			}));
+		}
+		
+		for (Thread thread: threads) {
+			thread.start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		
+		assertEquals(8000, values.size());
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.introspection;
+
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jadler.Jadler.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.ClientSecretBasic;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import com.nimbusds.oauth2.sdk.token.Token;
+
+
+public class CachingTokenIntrospectionClientTest {
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+	}
+	
+	
+	@After
+	public void tearDown() {
+		closeJadler();
+	}
+	
+	
+	private URI endpoint() {
+		return URI.create("http://localhost:" + port() + "/introspect");
+	}
+	
+	
+	private static class CountingClient extends CachingTokenIntrospectionClient {
+		
+		final AtomicInteger count = new AtomicInteger();
+		
+		final CountDownLatch release;
+		
+		final TokenIntrospectionSuccessResponse response;
+		
+		CountingClient(final TokenIntrospectionSuccessResponse response,
+			       final CountDownLatch release,
+			       final long maxCacheLifetimeSeconds,
+			       final long refreshAheadSeconds) {
+			super(URI.create("https://c2id.com/token/introspect"), null, null,
+				1000, 1000, maxCacheLifetimeSeconds, 5L, 100, refreshAheadSeconds);
+			this.response = response;
+			this.release = release;
+		}
+		
+		@Override
+		protected TokenIntrospectionSuccessResponse introspectUpstream(final Token token)
+			throws GeneralException {
+			count.incrementAndGet();
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new GeneralException(e.getMessage(), e);
+				}
+			}
+			return response;
+		}
+	}
+	
+	
+	@Test
+	public void testDefaults() {
+		
+		CachingTokenIntrospectionClient client = new CachingTokenIntrospectionClient(
+			URI.create("https://c2id.com/token/introspect"),
+			new ClientSecretBasic(new ClientID("rs"), new Secret()));
+		
+		assertEquals(URI.create("https://c2id.com/token/introspect"), client.getEndpoint());
+		assertEquals(CachingTokenIntrospectionClient.DEFAULT_MAX_CACHE_LIFETIME_SECONDS, client.getMaxCacheLifetimeSeconds());
+		assertEquals(CachingTokenIntrospectionClient.DEFAULT_NEGATIVE_CACHE_LIFETIME_SECONDS, client.getNegativeCacheLifetimeSeconds());
+		assertEquals(CachingTokenIntrospectionClient.DEFAULT_MAX_CACHE_SIZE, client.getMaxCacheSize());
+		assertEquals(0L, client.getRefreshAheadSeconds());
+		assertEquals(0, client.getCacheSize());
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_activeCached()
+		throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/introspect")
+			.havingHeaderEqualTo("Authorization", "Bearer rs-token")
+			.havingParameterEqualTo("token", "abc")
+			.havingParameterEqualTo("token_type_hint", "access_token")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"active\":true,\"scope\":\"read write\",\"exp\":" + (new Date().getTime() / 1000 + 3600) + "}");
+		
+		CachingTokenIntrospectionClient client = new CachingTokenIntrospectionClient(endpoint(), new BearerAccessToken("rs-token"));
+		
+		for (int i=0; i < 3; i++) {
+			TokenIntrospectionSuccessResponse response = client.introspect(new BearerAccessToken("abc"));
+			assertTrue(response.isActive());
+			assertEquals(new Scope("read", "write"), response.getScope());
+		}
+		
+		assertEquals(1, client.getCacheSize());
+		verifyThatRequest().havingPathEqualTo("/introspect").receivedOnce();
+		
+		TokenIntrospectionView view = client.introspectView(new BearerAccessToken("abc"));
+		assertTrue(view.isActive());
+		assertSame(view, client.introspectView(new BearerAccessToken("abc")));
+		
+		client.invalidate(new BearerAccessToken("abc"));
+		assertEquals(0, client.getCacheSize());
+		
+		client.introspect(new BearerAccessToken("abc"));
+		verifyThatRequest().havingPathEqualTo("/introspect").receivedTimes(2);
+		
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_inactiveCachedBriefly()
+		throws Exception {
+		
+		onRequest()
+			.havingPathEqualTo("/introspect")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"active\":false}");
+		
+		CachingTokenIntrospectionClient client = new CachingTokenIntrospectionClient(
+			endpoint(), null, null, 1000, 1000, 60L, 1L, 100, 0L);
+		
+		assertFalse(client.introspect(new BearerAccessToken("abc")).isActive());
+		assertFalse(client.introspect(new BearerAccessToken("abc")).isActive());
+		verifyThatRequest().havingPathEqualTo("/introspect").receivedOnce();
+		
+		Thread.sleep(1100L);
+		
+		assertFalse(client.introspect(new BearerAccessToken("abc")).isActive());
+		verifyThatRequest().havingPathEqualTo("/introspect").receivedTimes(2);
+		
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_expiredNotCached()
+		throws Exception {
+		
+		onRequest()
+			.havingPathEqualTo("/introspect")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"active\":true,\"exp\":" + (new Date().getTime() / 1000 - 10) + "}");
+		
+		CachingTokenIntrospectionClient client = new CachingTokenIntrospectionClient(endpoint(), (BearerAccessToken)null);
+		
+		assertTrue(client.introspect(new BearerAccessToken("abc")).isActive());
+		assertEquals(0, client.getCacheSize());
+		
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_errorResponse()
+		throws Exception {
+		
+		onRequest()
+			.havingPathEqualTo("/introspect")
+			.respond()
+			.withStatus(401)
+			.withContentType("application/json")
+			.withBody("{\"error\":\"invalid_client\"}");
+		
+		CachingTokenIntrospectionClient client = new CachingTokenIntrospectionClient(endpoint(), new BearerAccessToken("rs-token"));
+		
+		try {
+			client.introspect(new BearerAccessToken("abc"));
+			fail();
+		} catch (GeneralException e) {
+			assertEquals(OAuth2Error.INVALID_CLIENT.getCode(), e.getErrorObject().getCode());
+		}
+		
+		assertEquals(0, client.getCacheSize());
+		
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_coalesced()
+		throws Exception {
+		
+		CountDownLatch release = new CountDownLatch(1);
+		
+		final CountingClient client = new CountingClient(
+			new TokenIntrospectionSuccessResponse.Builder(true).build(),
+			release,
+			60L,
+			0L);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<TokenIntrospectionSuccessResponse>> futures = new ArrayList<>();
+		for (int i=0; i < 8; i++) {
+			futures.add(executor.submit(new Callable<TokenIntrospectionSuccessResponse>() {
+				@Override
+				public TokenIntrospectionSuccessResponse call() throws Exception {
+					return client.introspect(new BearerAccessToken("abc"));
+				}
+			}));
+		}
+		
+		Thread.sleep(200L);
+		release.countDown();
+		
+		for (Future<TokenIntrospectionSuccessResponse> future: futures) {
+			assertTrue(future.get().isActive());
+		}
+		
+		assertEquals(1, client.count.get());
+		
+		executor.shutdown();
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testInvalidate_inFlight()
+		throws Exception {
+		
+		CountDownLatch release = new CountDownLatch(1);
+		
+		final CountingClient client = new CountingClient(
+			new TokenIntrospectionSuccessResponse.Builder(true).build(),
+			release,
+			60L,
+			0L);
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<TokenIntrospectionSuccessResponse> future = executor.submit(new Callable<TokenIntrospectionSuccessResponse>() {
+			@Override
+			public TokenIntrospectionSuccessResponse call() throws Exception {
+				return client.introspect(new BearerAccessToken("abc"));
+			}
+		});
+		
+		while (client.count.get() < 1) {
+			Thread.sleep(10L);
+		}
+		
+		// Revoked while the introspection is in progress
+		client.invalidate(new BearerAccessToken("abc"));
+		release.countDown();
+		
+		assertTrue(future.get().isActive());
+		
+		// Stale response not cached
+		assertEquals(0, client.getCacheSize());
+		
+		assertTrue(client.introspect(new BearerAccessToken("abc")).isActive());
+		assertEquals(2, client.count.get());
+		assertEquals(1, client.getCacheSize());
+		
+		executor.shutdown();
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_refreshAhead()
+		throws Exception {
+		
+		CountingClient client = new CountingClient(
+			new TokenIntrospectionSuccessResponse.Builder(true).build(),
+			null,
+			2L,
+			1L);
+		
+		assertEquals(1L, client.getRefreshAheadSeconds());
+		
+		assertTrue(client.introspect(new BearerAccessToken("abc")).isActive());
+		assertTrue(client.introspect(new BearerAccessToken("abc")).isActive());
+		assertEquals(1, client.count.get());
+		
+		Thread.sleep(1100L);
+		
+		// Returns cached, triggers refresh
+		assertTrue(client.introspect(new BearerAccessToken("abc")).isActive());
+		
+		Thread.sleep(200L);
+		assertEquals(2, client.count.get());
+		
+		// Refreshed entry, not yet due for refresh
+		assertTrue(client.introspect(new BearerAccessToken("abc")).isActive());
+		Thread.sleep(200L);
+		assertEquals(2, client.count.get());
+		
+		client.shutdown();
+	}
+	
+	
+	@Test
+	public void testComputeCacheKey() {
+		
+		String key = CachingTokenIntrospectionClient.computeCacheKey(new BearerAccessToken("abc"));
+		assertEquals(43, key.length());
+		assertFalse(key.contains("abc"));
+		assertEquals(key, CachingTokenIntrospectionClient.computeCacheKey(new BearerAccessToken("abc")));
+	}
+}
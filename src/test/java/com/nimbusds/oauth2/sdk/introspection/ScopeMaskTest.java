@@ -0,0 +1,107 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.introspection;
+
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.oauth2.sdk.Scope;
+
+
+public class ScopeMaskTest extends TestCase {
+	
+	
+	public void testMask() {
+		
+		ScopeMask scopeMask = new ScopeMask(new Scope("read", "write", "admin"));
+		
+		assertEquals(new Scope("read", "write", "admin"), scopeMask.getScope());
+		
+		assertEquals(1L, scopeMask.getBit("read"));
+		assertEquals(2L, scopeMask.getBit("write"));
+		assertEquals(4L, scopeMask.getBit("admin"));
+		assertEquals(0L, scopeMask.getBit("other"));
+		
+		// Granted scope, the unknown value grants nothing
+		long mask = scopeMask.toMask(new Scope("read", "admin", "other"));
+		assertEquals(5L, mask);
+		assertEquals(new Scope("read", "admin"), scopeMask.toScope(mask));
+		
+		assertEquals(3L, scopeMask.toMask(Arrays.asList("write", "read")));
+		assertEquals(0L, scopeMask.toMask((Scope)null));
+		
+		assertTrue(ScopeMask.containsAll(mask, scopeMask.toRequiredMask(new Scope("read"))));
+		assertTrue(ScopeMask.containsAll(mask, 0L));
+		assertFalse(ScopeMask.containsAll(mask, scopeMask.toRequiredMask(new Scope("read", "write"))));
+	}
+	
+	
+	public void testRequiredMask() {
+		
+		ScopeMask scopeMask = new ScopeMask(new Scope("read", "write", "admin"));
+		
+		assertEquals(5L, scopeMask.toRequiredMask(new Scope("read", "admin")));
+		assertEquals(3L, scopeMask.toRequiredMask(Arrays.asList("write", "read")));
+		assertEquals(0L, scopeMask.toRequiredMask((Scope)null));
+		assertEquals(0L, scopeMask.toRequiredMask(new Scope()));
+	}
+	
+	
+	public void testRequiredMask_rejectUnknownValue() {
+		
+		ScopeMask scopeMask = new ScopeMask(new Scope("read", "write", "admin"));
+		
+		try {
+			scopeMask.toRequiredMask(new Scope("read", "other"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unknown scope value: other", e.getMessage());
+		}
+		
+		try {
+			scopeMask.toRequiredMask(Arrays.asList("other"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unknown scope value: other", e.getMessage());
+		}
+	}
+	
+	
+	public void testMaxSize() {
+		
+		Scope scope = new Scope();
+		for (int i=0; i < ScopeMask.MAX_SIZE; i++) {
+			scope.add("s" + i);
+		}
+		
+		ScopeMask scopeMask = new ScopeMask(scope);
+		assertEquals(Long.MIN_VALUE, scopeMask.getBit("s63"));
+		assertEquals(-1L, scopeMask.toMask(scope));
+		
+		scope.add("one-too-many");
+		
+		try {
+			new ScopeMask(scope);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The scope must not have more than 64 values", e.getMessage());
+		}
+	}
+}
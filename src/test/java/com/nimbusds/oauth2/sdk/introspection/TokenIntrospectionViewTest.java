@@ -0,0 +1,168 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.introspection;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.X509CertificateConfirmation;
+import com.nimbusds.oauth2.sdk.id.*;
+import com.nimbusds.oauth2.sdk.token.AccessTokenType;
+
+
+public class TokenIntrospectionViewTest extends TestCase {
+	
+	
+	public void testView() {
+		
+		Date exp = new Date((new Date().getTime() / 1000 + 3600) * 1000);
+		Date iat = new Date((new Date().getTime() / 1000) * 1000);
+		
+		TokenIntrospectionSuccessResponse response = new TokenIntrospectionSuccessResponse.Builder(true)
+			.scope(new Scope("read", "write"))
+			.clientID(new ClientID("123"))
+			.username("alice")
+			.tokenType(AccessTokenType.BEARER)
+			.expirationTime(exp)
+			.issueTime(iat)
+			.subject(new Subject("alice-id"))
+			.audience(Arrays.asList(new Audience("https://rs.example.com")))
+			.issuer(new Issuer("https://c2id.com"))
+			.jwtID(new JWTID("xyz"))
+			.x509CertificateConfirmation(new X509CertificateConfirmation(new Base64URL("abc")))
+			.parameter("ext", "value")
+			.build();
+		
+		TokenIntrospectionView view = new TokenIntrospectionView(response);
+		
+		assertTrue(view.isActive());
+		assertEquals(exp.getTime() / 1000, view.getExpirationTimeEpochSeconds());
+		assertEquals(iat.getTime() / 1000, view.getIssueTimeEpochSeconds());
+		assertEquals(TokenIntrospectionView.NOT_SPECIFIED, view.getNotBeforeTimeEpochSeconds());
+		assertFalse(view.isExpired(iat.getTime() / 1000));
+		assertTrue(view.isExpired(exp.getTime() / 1000));
+		
+		assertEquals(new Scope("read", "write"), view.getScope());
+		assertEquals(Arrays.asList("read", "write"), Arrays.asList(view.getScopeValues().toArray()));
+		assertTrue(view.hasScope("read"));
+		assertFalse(view.hasScope("admin"));
+		
+		assertEquals(new ClientID("123"), view.getClientID());
+		assertSame(view.getClientID(), view.getClientID());
+		assertEquals("alice", view.getUsername());
+		assertEquals(AccessTokenType.BEARER, view.getTokenType());
+		assertEquals(new Subject("alice-id"), view.getSubject());
+		assertSame(view.getSubject(), view.getSubject());
+		assertEquals(Collections.singletonList(new Audience("https://rs.example.com")), view.getAudience());
+		assertSame(view.getAudience(), view.getAudience());
+		assertEquals(new Issuer("https://c2id.com"), view.getIssuer());
+		assertEquals(new JWTID("xyz"), view.getJWTID());
+		assertEquals(new Base64URL("abc"), view.getX509CertificateConfirmation().getValue());
+		assertSame(view.getX509CertificateConfirmation(), view.getX509CertificateConfirmation());
+		assertNull(view.getJWKThumbprintConfirmation());
+		assertEquals("value", view.getStringParameter("ext"));
+		
+		assertEquals(response.toJSONObject(), view.getParameters());
+		assertEquals(response.toJSONObject(), view.toResponse().toJSONObject());
+	}
+	
+	
+	public void testUnmodifiable() {
+		
+		TokenIntrospectionSuccessResponse response = new TokenIntrospectionSuccessResponse.Builder(true)
+			.scope(new Scope("read"))
+			.audience(Arrays.asList(new Audience("a")))
+			.build();
+		
+		TokenIntrospectionView view = new TokenIntrospectionView(response);
+		
+		try {
+			view.getScopeValues().add("admin");
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// ok
+		}
+		
+		List<Audience> audList = view.getAudience();
+		try {
+			audList.add(new Audience("b"));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// ok
+		}
+		
+		view.getScope().add("admin");
+		assertFalse(view.hasScope("admin"));
+		
+		// Snapshot of the response parameters
+		response.getParameters().put("scope", "read admin");
+		assertFalse(view.getScope().contains("admin"));
+	}
+	
+	
+	public void testScopeMask() {
+		
+		TokenIntrospectionView view = new TokenIntrospectionView(new TokenIntrospectionSuccessResponse.Builder(true)
+			.scope(new Scope("read", "write", "other"))
+			.build());
+		
+		ScopeMask scopeMask = new ScopeMask(new Scope("read", "write", "admin"));
+		
+		assertEquals(3L, view.getScopeMask(scopeMask));
+		assertTrue(view.hasScope(scopeMask, scopeMask.toRequiredMask(new Scope("read", "write"))));
+		assertFalse(view.hasScope(scopeMask, scopeMask.toRequiredMask(new Scope("admin"))));
+		
+		ScopeMask otherScopeMask = new ScopeMask(new Scope("other"));
+		assertEquals(1L, view.getScopeMask(otherScopeMask));
+		assertEquals(3L, view.getScopeMask(scopeMask));
+	}
+	
+	
+	public void testInactive() {
+		
+		TokenIntrospectionView view = new TokenIntrospectionView(new TokenIntrospectionSuccessResponse.Builder(false).build());
+		
+		assertFalse(view.isActive());
+		assertEquals(TokenIntrospectionView.NOT_SPECIFIED, view.getExpirationTimeEpochSeconds());
+		assertFalse(view.isExpired(Long.MAX_VALUE));
+		assertNull(view.getScope());
+		assertTrue(view.getScopeValues().isEmpty());
+		assertNull(view.getClientID());
+		assertNull(view.getAudience());
+		assertNull(view.getSubject());
+	}
+	
+	
+	public void testNullResponse() {
+		
+		try {
+			new TokenIntrospectionView(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The token introspection response must not be null", e.getMessage());
+		}
+	}
+}
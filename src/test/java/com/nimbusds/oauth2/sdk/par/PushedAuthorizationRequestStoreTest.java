@@ -0,0 +1,236 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.par;
+
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.oauth2.sdk.*;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.State;
+
+
+public class PushedAuthorizationRequestStoreTest extends TestCase {
+	
+	
+	private static AuthorizationRequest createRequest(final String clientID) {
+		
+		return new AuthorizationRequest.Builder(new ResponseType(ResponseType.Value.CODE), new ClientID(clientID))
+			.redirectionURI(URI.create("https://example.com/cb"))
+			.state(new State())
+			.build();
+	}
+	
+	
+	public void testDefaults() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore();
+		try {
+			assertEquals(PushedAuthorizationRequestStore.DEFAULT_LIFETIME_SECONDS, store.getLifetime());
+			assertEquals(PushedAuthorizationRequestStore.DEFAULT_CAPACITY, store.getCapacity());
+			assertEquals(0, store.size());
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testConstructorChecks() {
+		
+		try {
+			new PushedAuthorizationRequestStore(0L, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The lifetime must be positive", e.getMessage());
+		}
+		
+		try {
+			new PushedAuthorizationRequestStore(60L, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The capacity must be positive", e.getMessage());
+		}
+	}
+	
+	
+	public void testPutAndRedeemOnce() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(90L, 10);
+		try {
+			AuthorizationRequest request = createRequest("123");
+			
+			PushedAuthorizationSuccessResponse response = store.put(request).toSuccessResponse();
+			assertEquals(90L, response.getLifetime());
+			
+			URI requestURI = response.getRequestURI();
+			assertTrue(requestURI.toString().startsWith(PushedAuthorizationRequestStore.REQUEST_URI_PREFIX));
+			assertTrue(PushedAuthorizationRequestStore.isAssignedForm(requestURI));
+			assertEquals(1, store.size());
+			
+			assertSame(request, store.redeem(requestURI, new ClientID("123")));
+			assertEquals(0, store.size());
+			
+			// One-time
+			assertNull(store.redeem(requestURI, new ClientID("123")));
+			assertNull(store.redeem(requestURI));
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testRedeem_otherClient() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(60L, 10);
+		try {
+			AuthorizationRequest request = createRequest("123");
+			URI requestURI = store.put(request).toSuccessResponse().getRequestURI();
+			
+			assertNull(store.redeem(requestURI, new ClientID("456")));
+			
+			// Left in place
+			assertEquals(1, store.size());
+			assertSame(request, store.redeem(requestURI));
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testRedeem_unknown() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(60L, 10);
+		try {
+			assertNull(store.redeem(URI.create(PushedAuthorizationRequestStore.REQUEST_URI_PREFIX + "abc")));
+			assertNull(store.redeem(URI.create("https://client.example.com/request.jwt")));
+			assertNull(store.redeem(null));
+			assertFalse(PushedAuthorizationRequestStore.isAssignedForm(URI.create("https://client.example.com/request.jwt")));
+			assertFalse(PushedAuthorizationRequestStore.isAssignedForm(null));
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testUniqueRequestURIs() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(60L, 1000);
+		try {
+			Set<URI> uris = new HashSet<>();
+			for (int i=0; i < 1000; i++) {
+				assertTrue(uris.add(store.put(createRequest("123")).toSuccessResponse().getRequestURI()));
+			}
+			assertEquals(1000, store.size());
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testCapacity() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(60L, 2);
+		try {
+			URI uri1 = store.put(createRequest("123")).toSuccessResponse().getRequestURI();
+			store.put(createRequest("123")).toSuccessResponse();
+			
+			PushedAuthorizationResponse response = store.put(createRequest("123"));
+			assertFalse(response.indicatesSuccess());
+			assertEquals(OAuth2Error.TEMPORARILY_UNAVAILABLE, response.toErrorResponse().getErrorObject());
+			assertEquals(2, store.size());
+			
+			// Space freed by redemption
+			assertNotNull(store.redeem(uri1));
+			assertTrue(store.put(createRequest("123")).indicatesSuccess());
+			
+			store.clear();
+			assertEquals(0, store.size());
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testExpire() {
+		
+		PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(5L, 10);
+		try {
+			URI uri1 = store.put(createRequest("123")).toSuccessResponse().getRequestURI();
+			URI uri2 = store.put(createRequest("123")).toSuccessResponse().getRequestURI();
+			assertNotNull(store.redeem(uri2));
+			
+			long now = System.currentTimeMillis();
+			
+			// Nothing due yet
+			store.expire(now + 1000L);
+			assertEquals(1, store.size());
+			
+			// The already redeemed request is skipped
+			assertEquals(1, store.expire(now + 7000L));
+			assertEquals(0, store.size());
+			assertNull(store.redeem(uri1));
+		} finally {
+			store.shutdown();
+		}
+	}
+	
+	
+	public void testConcurrentRedemption()
+		throws Exception {
+		
+		final PushedAuthorizationRequestStore store = new PushedAuthorizationRequestStore(60L, 10_000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<URI> uris = new ArrayList<>();
+			for (int i=0; i < 1000; i++) {
+				uris.add(store.put(createRequest("123")).toSuccessResponse().getRequestURI());
+			}
+			
+			List<Future<Integer>> futures = new ArrayList<>();
+			for (int t=0; t < 8; t++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int redeemed = 0;
+						for (URI uri: uris) {
+							if (store.redeem(uri, new ClientID("123")) != null) {
+								redeemed++;
+							}
+						}
+						return redeemed;
+					}
+				}));
+			}
+			
+			int total = 0;
+			for (Future<Integer> f: futures) {
+				total += f.get();
+			}
+			
+			assertEquals(1000, total);
+			assertEquals(0, store.size());
+		} finally {
+			executor.shutdownNow();
+			store.shutdown();
+		}
+	}
+}
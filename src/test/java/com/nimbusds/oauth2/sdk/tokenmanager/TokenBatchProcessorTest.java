@@ -0,0 +1,410 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.tokenmanager;
+
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jadler.Jadler.*;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.GeneralException;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.TokenIntrospectionSuccessResponse;
+import com.nimbusds.oauth2.sdk.auth.ClientSecretBasic;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.*;
+
+
+public class TokenBatchProcessorTest {
+	
+	
+	private static final ClientSecretBasic CLIENT_AUTH = new ClientSecretBasic(new ClientID("123"), new Secret("secret"));
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+	}
+	
+	
+	@After
+	public void tearDown() {
+		closeJadler();
+	}
+	
+	
+	private URI endpoint(final String path) {
+		return URI.create("http://localhost:" + port() + path);
+	}
+	
+	
+	private static List<Token> createTokens(final int num) {
+		
+		List<Token> tokens = new ArrayList<>();
+		for (int i=0; i < num; i++) {
+			tokens.add(new RefreshToken("rt" + i));
+		}
+		return tokens;
+	}
+	
+	
+	private static class CollectingCallback<T> implements TokenBatchCallback<T> {
+		
+		final Map<Token,T> successes = new ConcurrentHashMap<>();
+		
+		final Map<Token,Exception> failures = new ConcurrentHashMap<>();
+		
+		@Override
+		public void onSuccess(final Token token, final T result) {
+			successes.put(token, result != null ? result : (T)Boolean.TRUE);
+		}
+		
+		@Override
+		public void onFailure(final Token token, final Exception e) {
+			failures.put(token, e);
+		}
+	}
+	
+	
+	@Test
+	public void testRevoke() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/revoke")
+			.respond()
+			.withStatus(200);
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(null, endpoint("/revoke"), CLIENT_AUTH);
+		
+		assertNull(processor.getIntrospectionEndpoint());
+		assertEquals(endpoint("/revoke"), processor.getRevocationEndpoint());
+		
+		List<Token> tokens = createTokens(50);
+		
+		CollectingCallback<Void> callback = new CollectingCallback<>();
+		
+		assertEquals(0, processor.revoke(tokens.iterator(), callback));
+		
+		assertEquals(new HashSet<>(tokens), callback.successes.keySet());
+		assertTrue(callback.failures.isEmpty());
+		
+		verifyThatRequest()
+			.havingHeaderEqualTo("Authorization", CLIENT_AUTH.toHTTPAuthorizationHeader())
+			.havingParameterEqualTo("token_type_hint", "refresh_token")
+			.receivedTimes(50);
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("token", "rt7")
+			.receivedOnce();
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/introspect")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"active\":true,\"scope\":\"read\"}");
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(endpoint("/introspect"), null, CLIENT_AUTH);
+		
+		List<Token> tokens = Arrays.<Token>asList(new BearerAccessToken("at1"), new BearerAccessToken("at2"));
+		
+		CollectingCallback<TokenIntrospectionSuccessResponse> callback = new CollectingCallback<>();
+		
+		assertEquals(0, processor.introspect(tokens.iterator(), callback));
+		
+		assertEquals(2, callback.successes.size());
+		for (TokenIntrospectionSuccessResponse response: callback.successes.values()) {
+			assertTrue(response.isActive());
+			assertEquals("read", response.getScope().toString());
+		}
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("token_type_hint", "access_token")
+			.receivedTimes(2);
+		
+		try {
+			processor.revoke(tokens.iterator(), null);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("The token revocation endpoint is not specified", e.getMessage());
+		}
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testRetry() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/revoke")
+			.respond()
+			.withStatus(503)
+			.thenRespond()
+			.withStatus(200);
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(null, endpoint("/revoke"), CLIENT_AUTH,
+			1, 1, 2, 10L, 1000, 1000);
+		
+		CollectingCallback<Void> callback = new CollectingCallback<>();
+		
+		assertEquals(0, processor.revoke(createTokens(1).iterator(), callback));
+		assertEquals(1, callback.successes.size());
+		
+		verifyThatRequest().receivedTimes(2);
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testRetriesExhausted() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/revoke")
+			.respond()
+			.withStatus(503)
+			.withContentType("application/json")
+			.withBody(OAuth2Error.TEMPORARILY_UNAVAILABLE.toJSONObject().toJSONString());
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(null, endpoint("/revoke"), CLIENT_AUTH,
+			1, 1, 2, 10L, 1000, 1000);
+		
+		CollectingCallback<Void> callback = new CollectingCallback<>();
+		
+		assertEquals(1, processor.revoke(createTokens(1).iterator(), callback));
+		
+		GeneralException e = (GeneralException)callback.failures.get(new RefreshToken("rt0"));
+		assertEquals(OAuth2Error.TEMPORARILY_UNAVAILABLE.getCode(), e.getErrorObject().getCode());
+		assertEquals(503, e.getErrorObject().getHTTPStatusCode());
+		
+		verifyThatRequest().receivedTimes(3);
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testErrorNotRetried() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/introspect")
+			.respond()
+			.withStatus(401)
+			.withContentType("application/json")
+			.withBody(OAuth2Error.INVALID_CLIENT.toJSONObject().toJSONString());
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(endpoint("/introspect"), null, CLIENT_AUTH);
+		
+		CollectingCallback<TokenIntrospectionSuccessResponse> callback = new CollectingCallback<>();
+		
+		assertEquals(3, processor.introspect(createTokens(3).iterator(), callback));
+		
+		for (Exception e: callback.failures.values()) {
+			assertEquals(OAuth2Error.INVALID_CLIENT, ((GeneralException)e).getErrorObject());
+		}
+		
+		verifyThatRequest().receivedTimes(3);
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testBackpressure() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/revoke")
+			.respond()
+			.withDelay(20L, TimeUnit.MILLISECONDS)
+			.withStatus(200);
+		
+		final int maxPending = 4;
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(null, endpoint("/revoke"), CLIENT_AUTH,
+			2, maxPending, 0, 0L, 1000, 1000);
+		
+		final AtomicInteger taken = new AtomicInteger();
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger maxAhead = new AtomicInteger();
+		
+		final Iterator<Token> it = createTokens(20).iterator();
+		
+		Iterator<Token> countingIterator = new Iterator<Token>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			
+			@Override
+			public Token next() {
+				int ahead = taken.incrementAndGet() - completed.get();
+				if (ahead > maxAhead.get()) {
+					maxAhead.set(ahead);
+				}
+				return it.next();
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		
+		int failures = processor.revoke(countingIterator, new TokenBatchCallback<Void>() {
+			@Override
+			public void onSuccess(Token token, Void result) {
+				completed.incrementAndGet();
+			}
+			
+			@Override
+			public void onFailure(Token token, Exception e) {
+				completed.incrementAndGet();
+			}
+		});
+		
+		assertEquals(0, failures);
+		assertEquals(20, completed.get());
+		
+		// One token may be taken before a permit is acquired
+		assertTrue(maxAhead.get() <= maxPending + 1);
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testRevoke_publicClient() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/revoke")
+			.respond()
+			.withStatus(200);
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(null, endpoint("/revoke"), null, new ClientID("123"), null,
+			2, 4, 0, 0L, 0, 0);
+		
+		List<Token> tokens = createTokens(3);
+		
+		assertEquals(0, processor.revoke(tokens.iterator(), null));
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("client_id", "123")
+			.havingParameterEqualTo("token_type_hint", "refresh_token")
+			.havingHeader("Authorization", nullValue())
+			.receivedTimes(3);
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testIntrospect_bearerClientAuthorization() throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/introspect")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"active\":false}");
+		
+		BearerAccessToken clientAuthz = new BearerAccessToken("client-at");
+		
+		TokenBatchProcessor processor = new TokenBatchProcessor(endpoint("/introspect"), null, null, null, clientAuthz,
+			2, 4, 0, 0L, 0, 0);
+		
+		List<Token> tokens = Arrays.<Token>asList(new BearerAccessToken("at1"), new TypelessToken("t2"));
+		
+		CollectingCallback<TokenIntrospectionSuccessResponse> callback = new CollectingCallback<>();
+		
+		assertEquals(0, processor.introspect(tokens.iterator(), callback));
+		
+		assertEquals(2, callback.successes.size());
+		for (TokenIntrospectionSuccessResponse response: callback.successes.values()) {
+			assertFalse(response.isActive());
+		}
+		
+		verifyThatRequest()
+			.havingHeaderEqualTo("Authorization", clientAuthz.toAuthorizationHeader())
+			.receivedTimes(2);
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("token", "t2")
+			.havingParameter("token_type_hint", nullValue())
+			.receivedOnce();
+		
+		processor.shutdown();
+	}
+	
+	
+	@Test
+	public void testConstructorChecks() {
+		
+		try {
+			new TokenBatchProcessor(endpoint("/introspect"), null, CLIENT_AUTH, null, new BearerAccessToken(),
+				2, 4, 0, 0L, 0, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Either client authentication or client authorization must be specified, not both", e.getMessage());
+		}
+		
+		try {
+			new TokenBatchProcessor(null, endpoint("/revoke"), null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The client ID must be specified for token revocation without client authentication", e.getMessage());
+		}
+	}
+	
+	
+	@Test
+	public void testIsRetryable() {
+		
+		assertTrue(TokenBatchProcessor.isRetryable(429));
+		assertTrue(TokenBatchProcessor.isRetryable(503));
+		assertFalse(TokenBatchProcessor.isRetryable(400));
+		assertFalse(TokenBatchProcessor.isRetryable(401));
+		assertFalse(TokenBatchProcessor.isRetryable(200));
+	}
+}
@@ -0,0 +1,427 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.tokenmanager;
+
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jadler.Jadler.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.*;
+import com.nimbusds.oauth2.sdk.auth.ClientSecretBasic;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import com.nimbusds.oauth2.sdk.token.RefreshToken;
+import com.nimbusds.oauth2.sdk.token.Tokens;
+
+
+public class TokenManagerTest {
+	
+	
+	private static final ClientID CLIENT_ID = new ClientID("123");
+	
+	
+	private static final ClientSecretBasic CLIENT_AUTH = new ClientSecretBasic(CLIENT_ID, new Secret("secret"));
+	
+	
+	private static final TokenKey KEY = new TokenKey(
+		CLIENT_ID,
+		Collections.singletonList(URI.create("https://rs.example.com")),
+		new Scope("read"));
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+	}
+	
+	
+	@After
+	public void tearDown() {
+		closeJadler();
+	}
+	
+	
+	private static class CountingManager extends TokenManager {
+		
+		final AtomicInteger count = new AtomicInteger();
+		
+		final List<AuthorizationGrant> grants = Collections.synchronizedList(new ArrayList<AuthorizationGrant>());
+		
+		final long lifetime;
+		
+		final boolean rotate;
+		
+		volatile CountDownLatch release;
+		
+		volatile GeneralException error;
+		
+		CountingManager(final long lifetime, final long refreshAheadSeconds, final boolean rotate) {
+			super(URI.create("https://c2id.com/token"), 1000, 1000, refreshAheadSeconds, 0L, 1L);
+			this.lifetime = lifetime;
+			this.rotate = rotate;
+		}
+		
+		@Override
+		protected Tokens requestTokens(final TokenRequest request)
+			throws GeneralException {
+			
+			int n = count.incrementAndGet();
+			grants.add(request.getAuthorizationGrant());
+			
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new GeneralException(e.getMessage(), e);
+				}
+			}
+			
+			if (error != null) {
+				throw error;
+			}
+			
+			return new Tokens(
+				new BearerAccessToken("at" + n, lifetime, null),
+				rotate ? new RefreshToken("rt" + n) : null);
+		}
+	}
+	
+	
+	@Test
+	public void testClientCredentials() throws Exception {
+		
+		TokenManager tokenManager = new TokenManager(URI.create("http://localhost:" + port() + "/token"));
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/token")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("{\"access_token\":\"at1\",\"token_type\":\"Bearer\",\"expires_in\":3600}");
+		
+		AccessToken accessToken = tokenManager.register(KEY, CLIENT_AUTH, new ClientCredentialsGrant());
+		
+		assertEquals(new BearerAccessToken("at1"), accessToken);
+		assertEquals(3600L, accessToken.getLifetime());
+		assertEquals(accessToken, tokenManager.getAccessToken(KEY));
+		assertNull(tokenManager.getTokens(KEY).getRefreshToken());
+		assertEquals(Collections.singleton(KEY), tokenManager.getTokenKeys());
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("grant_type", "client_credentials")
+			.havingParameterEqualTo("scope", "read")
+			.havingParameterEqualTo("resource", "https%3A%2F%2Frs.example.com")
+			.receivedOnce();
+		
+		// Reuses the client credentials grant
+		assertEquals(new BearerAccessToken("at1"), tokenManager.refresh(KEY, null));
+		
+		verifyThatRequest()
+			.havingParameterEqualTo("grant_type", "client_credentials")
+			.receivedTimes(2);
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testErrorResponse() throws Exception {
+		
+		TokenManager tokenManager = new TokenManager(URI.create("http://localhost:" + port() + "/token"));
+		
+		onRequest()
+			.havingMethodEqualTo("POST")
+			.havingPathEqualTo("/token")
+			.respond()
+			.withStatus(401)
+			.withContentType("application/json")
+			.withBody(OAuth2Error.INVALID_CLIENT.toJSONObject().toJSONString());
+		
+		try {
+			tokenManager.register(KEY, CLIENT_AUTH, new ClientCredentialsGrant());
+			fail();
+		} catch (GeneralException e) {
+			assertEquals(OAuth2Error.INVALID_CLIENT, e.getErrorObject());
+		}
+		
+		assertNull(tokenManager.getAccessToken(KEY));
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testSingleFlight() throws Exception {
+		
+		final CountingManager tokenManager = new CountingManager(3600L, 30L, false);
+		
+		assertEquals(new BearerAccessToken("at1"), tokenManager.register(KEY, CLIENT_AUTH, new ClientCredentialsGrant()));
+		
+		tokenManager.release = new CountDownLatch(1);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		List<Future<AccessToken>> futures = new ArrayList<>();
+		for (int i=0; i < 10; i++) {
+			futures.add(executor.submit(new Callable<AccessToken>() {
+				@Override
+				public AccessToken call() throws Exception {
+					return tokenManager.refresh(KEY, null);
+				}
+			}));
+		}
+		
+		Thread.sleep(200);
+		
+		// Current token still served while refreshing
+		assertEquals(new BearerAccessToken("at1"), tokenManager.getAccessToken(KEY));
+		
+		tokenManager.release.countDown();
+		
+		for (Future<AccessToken> f: futures) {
+			assertEquals(new BearerAccessToken("at2"), f.get());
+		}
+		
+		assertEquals(2, tokenManager.count.get());
+		assertEquals(new BearerAccessToken("at2"), tokenManager.getAccessToken(KEY));
+		
+		executor.shutdown();
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testStaleToken() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(3600L, 30L, false);
+		
+		AccessToken at1 = tokenManager.register(KEY, CLIENT_AUTH, new ClientCredentialsGrant());
+		
+		AccessToken at2 = tokenManager.refresh(KEY, at1);
+		assertEquals(new BearerAccessToken("at2"), at2);
+		assertEquals(2, tokenManager.count.get());
+		
+		// Already refreshed
+		assertEquals(at2, tokenManager.refresh(KEY, at1));
+		assertEquals(2, tokenManager.count.get());
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testRefreshTokenRotation() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(3600L, 30L, true);
+		
+		tokenManager.register(KEY, CLIENT_AUTH, new Tokens(new BearerAccessToken("at0"), new RefreshToken("rt0")));
+		
+		assertEquals(new BearerAccessToken("at0"), tokenManager.getAccessToken(KEY));
+		assertEquals(0, tokenManager.count.get());
+		
+		assertEquals(new BearerAccessToken("at1"), tokenManager.refresh(KEY, null));
+		assertEquals(new RefreshToken("rt1"), tokenManager.getTokens(KEY).getRefreshToken());
+		
+		assertEquals(new BearerAccessToken("at2"), tokenManager.refresh(KEY, null));
+		assertEquals(new RefreshToken("rt2"), tokenManager.getTokens(KEY).getRefreshToken());
+		
+		assertEquals(new RefreshTokenGrant(new RefreshToken("rt0")), tokenManager.grants.get(0));
+		assertEquals(new RefreshTokenGrant(new RefreshToken("rt1")), tokenManager.grants.get(1));
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testRefreshTokenKeptWithoutRotation() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(3600L, 30L, false);
+		
+		tokenManager.register(KEY, CLIENT_AUTH, new Tokens(new BearerAccessToken("at0"), new RefreshToken("rt0")));
+		
+		assertEquals(new BearerAccessToken("at1"), tokenManager.refresh(KEY, null));
+		assertEquals(new RefreshToken("rt0"), tokenManager.getTokens(KEY).getRefreshToken());
+		
+		assertEquals(new BearerAccessToken("at2"), tokenManager.refresh(KEY, null));
+		assertEquals(new RefreshTokenGrant(new RefreshToken("rt0")), tokenManager.grants.get(1));
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testInvalidGrant() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(3600L, 30L, true);
+		
+		tokenManager.register(KEY, CLIENT_AUTH, new Tokens(new BearerAccessToken("at0"), new RefreshToken("rt0")));
+		
+		tokenManager.error = new GeneralException(OAuth2Error.INVALID_GRANT);
+		
+		try {
+			tokenManager.refresh(KEY, null);
+			fail();
+		} catch (GeneralException e) {
+			assertEquals(OAuth2Error.INVALID_GRANT, e.getErrorObject());
+		}
+		
+		assertNull(tokenManager.getAccessToken(KEY));
+		
+		try {
+			tokenManager.refresh(KEY, null);
+			fail();
+		} catch (GeneralException e) {
+			assertEquals("No refresh token or reusable grant for token key " + KEY, e.getMessage());
+		}
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testProactiveRefresh() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(2L, 1L, false);
+		
+		assertEquals(new BearerAccessToken("at1"), tokenManager.register(KEY, CLIENT_AUTH, new ClientCredentialsGrant()));
+		
+		Thread.sleep(1500);
+		
+		assertEquals(2, tokenManager.count.get());
+		assertEquals(new BearerAccessToken("at2"), tokenManager.getAccessToken(KEY));
+		
+		tokenManager.remove(KEY);
+		
+		assertNull(tokenManager.getAccessToken(KEY));
+		
+		Thread.sleep(1200);
+		
+		// Refresh cancelled
+		assertEquals(2, tokenManager.count.get());
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testProactiveRefreshRetry() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(2L, 1L, false);
+		
+		tokenManager.register(KEY, CLIENT_AUTH, new ClientCredentialsGrant());
+		
+		tokenManager.error = new GeneralException(OAuth2Error.SERVER_ERROR);
+		
+		Thread.sleep(1500);
+		
+		assertEquals(2, tokenManager.count.get());
+		
+		// Current token still valid
+		assertEquals(new BearerAccessToken("at1"), tokenManager.getAccessToken(KEY));
+		
+		tokenManager.error = null;
+		
+		Thread.sleep(1000);
+		
+		assertEquals(3, tokenManager.count.get());
+		assertEquals(new BearerAccessToken("at3"), tokenManager.getAccessToken(KEY));
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testNotRegistered() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(3600L, 30L, false);
+		
+		assertNull(tokenManager.getAccessToken(KEY));
+		assertNull(tokenManager.getTokens(KEY));
+		
+		try {
+			tokenManager.refresh(KEY, null);
+			fail();
+		} catch (GeneralException e) {
+			assertEquals("No registration for token key " + KEY, e.getMessage());
+		}
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testClientIDMismatch() throws Exception {
+		
+		CountingManager tokenManager = new CountingManager(3600L, 30L, false);
+		
+		try {
+			tokenManager.register(new TokenKey(new ClientID("456"), null, null), CLIENT_AUTH, new ClientCredentialsGrant());
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The client authentication doesn't match the client ID of the token key", e.getMessage());
+		}
+		
+		tokenManager.shutdown();
+	}
+	
+	
+	@Test
+	public void testIsReusable() {
+		
+		assertTrue(TokenManager.isReusable(new ClientCredentialsGrant()));
+		assertFalse(TokenManager.isReusable(new RefreshTokenGrant(new RefreshToken())));
+		assertFalse(TokenManager.isReusable(new AuthorizationCodeGrant(new AuthorizationCode(), URI.create("https://example.com/cb"))));
+	}
+	
+	
+	@Test
+	public void testTokenKey() {
+		
+		TokenKey key = new TokenKey(CLIENT_ID, Collections.singletonList(URI.create("https://rs.example.com")), new Scope("read", "write"));
+		
+		assertEquals(CLIENT_ID, key.getClientID());
+		assertEquals(Collections.singletonList(URI.create("https://rs.example.com")), key.getResources());
+		assertEquals(new Scope("read", "write"), key.getScope());
+		
+		assertEquals(key, new TokenKey(CLIENT_ID, Collections.singletonList(URI.create("https://rs.example.com")), new Scope("write", "read")));
+		assertEquals(key.hashCode(), new TokenKey(CLIENT_ID, Collections.singletonList(URI.create("https://rs.example.com")), new Scope("write", "read")).hashCode());
+		assertNotEquals(key, new TokenKey(CLIENT_ID, null, new Scope("read", "write")));
+		
+		assertEquals(new TokenKey(CLIENT_ID, null, null), new TokenKey(CLIENT_ID, Collections.<URI>emptyList(), new Scope()));
+		
+		try {
+			new TokenKey(null, null, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The client ID must not be null", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util;
+
+
+import java.net.URI;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.oauth2.sdk.OAuth2Error;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.ResponseMode;
+import com.nimbusds.oauth2.sdk.ResponseType;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.State;
+
+
+public class AuthorizationRequestUtilsTest extends TestCase {
+	
+	
+	private static final ClientID CLIENT_ID = new ClientID("123");
+	
+	
+	private static final URI REDIRECT_URI = URI.create("https://example.com/cb");
+	
+	
+	private static final State STATE = new State("xyz");
+	
+	
+	public void testEnsureNoRepeatedParameters() throws ParseException {
+		
+		AuthorizationRequestUtils.ensureNoRepeatedParameters(null);
+		AuthorizationRequestUtils.ensureNoRepeatedParameters(Collections.<String>emptySet());
+		
+		try {
+			AuthorizationRequestUtils.ensureNoRepeatedParameters(Collections.singleton("client_id"));
+			fail();
+		} catch (ParseException e) {
+			assertEquals("Parameter(s) present more than once: [client_id]", e.getMessage());
+			assertEquals(OAuth2Error.INVALID_REQUEST, e.getErrorObject());
+			assertNull(e.getClientID());
+		}
+	}
+	
+	
+	public void testParseClientID() throws ParseException {
+		
+		assertEquals(CLIENT_ID, AuthorizationRequestUtils.parseClientID("123"));
+		
+		try {
+			AuthorizationRequestUtils.parseClientID(" ");
+			fail();
+		} catch (ParseException e) {
+			assertEquals("Missing client_id parameter", e.getMessage());
+			assertEquals("Invalid request: Missing client_id parameter", e.getErrorObject().getDescription());
+			assertNull(e.getRedirectionURI());
+		}
+	}
+	
+	
+	public void testParseRedirectionURI() throws ParseException {
+		
+		assertNull(AuthorizationRequestUtils.parseRedirectionURI(null));
+		assertEquals(REDIRECT_URI, AuthorizationRequestUtils.parseRedirectionURI(REDIRECT_URI.toString()));
+		
+		try {
+			AuthorizationRequestUtils.parseRedirectionURI("://example.com");
+			fail();
+		} catch (ParseException e) {
+			assertTrue(e.getMessage().startsWith("Invalid redirect_uri parameter: "));
+			assertNull(e.getClientID());
+		}
+	}
+	
+	
+	public void testParseResponseType() throws ParseException {
+		
+		assertNull(AuthorizationRequestUtils.parseResponseType(null, CLIENT_ID, REDIRECT_URI, null, STATE));
+		assertEquals(ResponseType.CODE, AuthorizationRequestUtils.parseResponseType("code", CLIENT_ID, REDIRECT_URI, null, STATE));
+	}
+	
+	
+	public void testParseRequestObject_mutuallyExclusiveWithRequestURI() {
+		
+		try {
+			AuthorizationRequestUtils.parseRequestObject(
+				new PlainJWT(new JWTClaimsSet.Builder().build()).serialize(),
+				URI.create("https://example.com/req"),
+				CLIENT_ID, REDIRECT_URI, ResponseMode.QUERY, STATE);
+			fail();
+		} catch (ParseException e) {
+			assertEquals("Invalid request: Found mutually exclusive request and request_uri parameters", e.getMessage());
+			assertEquals(CLIENT_ID, e.getClientID());
+			assertEquals(REDIRECT_URI, e.getRedirectionURI());
+			assertEquals(ResponseMode.QUERY, e.getResponseMode());
+			assertEquals(STATE, e.getState());
+		}
+	}
+	
+	
+	public void testEnsureResponseType() throws ParseException {
+		
+		AuthorizationRequestUtils.ensureResponseType(null, null, URI.create("https://example.com/req"), CLIENT_ID, REDIRECT_URI, null, STATE);
+		
+		try {
+			AuthorizationRequestUtils.ensureResponseType(null, null, null, CLIENT_ID, REDIRECT_URI, null, STATE);
+			fail();
+		} catch (ParseException e) {
+			assertEquals("Missing response_type parameter", e.getMessage());
+			assertEquals(ResponseMode.QUERY, e.getResponseMode());
+			assertEquals(STATE, e.getState());
+		}
+	}
+	
+	
+	public void testParseResources_invalid() {
+		
+		try {
+			AuthorizationRequestUtils.parseResources(Collections.singletonList("invalid"), CLIENT_ID, REDIRECT_URI, ResponseMode.FRAGMENT, STATE);
+			fail();
+		} catch (ParseException e) {
+			assertEquals(OAuth2Error.INVALID_RESOURCE, e.getErrorObject());
+			assertEquals(ResponseMode.FRAGMENT, e.getResponseMode());
+		}
+	}
+	
+	
+	public void testParsePrompt_invalid() {
+		
+		try {
+			AuthorizationRequestUtils.parsePrompt("invalid", CLIENT_ID, REDIRECT_URI, ResponseMode.QUERY, STATE);
+			fail();
+		} catch (ParseException e) {
+			assertTrue(e.getMessage().startsWith("Invalid prompt parameter: "));
+			assertEquals(OAuth2Error.INVALID_REQUEST, e.getErrorObject());
+			assertEquals(CLIENT_ID, e.getClientID());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util;
+
+
+import junit.framework.TestCase;
+
+
+public class ExpiringCacheTest extends TestCase {
+	
+	
+	public void testConstructor() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+		assertEquals(10, cache.getMaxSize());
+		assertEquals(0, cache.size());
+	}
+	
+	
+	public void testConstructor_rejectNonPositiveMaxSize() {
+		
+		try {
+			new ExpiringCache<String,String>(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max cache size must be positive", e.getMessage());
+		}
+	}
+	
+	
+	public void testPutGetExpire() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+		
+		cache.put("a", "1", 2000L, 1000L);
+		assertEquals("1", cache.get("a", 1999L));
+		assertNull(cache.get("a", 2000L));
+		assertEquals(0, cache.size());
+	}
+	
+	
+	public void testPutAlreadyExpired() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+		
+		cache.put("a", "1", 2000L, 1000L);
+		cache.put("a", "2", 1000L, 1000L);
+		assertNull(cache.get("a", 1000L));
+		assertEquals(0, cache.size());
+	}
+	
+	
+	public void testReplace() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(2);
+		
+		cache.put("a", "1", 2000L, 1000L);
+		cache.put("a", "2", 3000L, 1000L);
+		assertEquals("2", cache.get("a", 2500L));
+		assertEquals(1, cache.size());
+	}
+	
+	
+	public void testEvictEarliestExpiring() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(2);
+		
+		cache.put("a", "1", 5000L, 1000L);
+		cache.put("b", "2", 3000L, 1000L);
+		cache.put("c", "3", 4000L, 1000L);
+		
+		assertEquals(2, cache.size());
+		assertEquals("1", cache.get("a", 1000L));
+		assertNull(cache.get("b", 1000L));
+		assertEquals("3", cache.get("c", 1000L));
+	}
+	
+	
+	public void testRemove() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+		
+		cache.put("a", "1", 2000L, 1000L);
+		
+		assertFalse(cache.remove("a", "2"));
+		assertTrue(cache.remove("a", "1"));
+		assertNull(cache.remove("a"));
+		
+		cache.put("a", "1", 2000L, 1000L);
+		assertEquals("1", cache.remove("a"));
+		assertEquals(0, cache.size());
+	}
+	
+	
+	public void testPurgeExpired() {
+		
+		ExpiringCache<String,String> cache = new ExpiringCache<>(10);
+		
+		cache.put("a", "1", 2000L, 1000L);
+		cache.put("b", "2", 3000L, 1000L);
+		cache.put("c", "3", 4000L, 1000L);
+		
+		assertEquals(2, cache.purgeExpired(3000L));
+		assertEquals(1, cache.size());
+		assertEquals("3", cache.get("c", 3000L));
+		
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
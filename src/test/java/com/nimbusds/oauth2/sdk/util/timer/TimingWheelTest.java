@@ -0,0 +1,161 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.oauth2.sdk.util.timer;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+public class TimingWheelTest extends TestCase {
+	
+	
+	public void testConstructor() {
+		
+		TimingWheel<String> wheel = new TimingWheel<>(100L, 500);
+		assertEquals(100L, wheel.getTickMillis());
+		assertEquals(512, wheel.getWheelSize());
+		assertEquals(0, wheel.size());
+		
+		assertEquals(1, new TimingWheel<String>(1L, 1).getWheelSize());
+		assertEquals(64, new TimingWheel<String>(1L, 64).getWheelSize());
+		
+		try {
+			new TimingWheel<String>(0L, 64);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The tick duration must be positive", e.getMessage());
+		}
+		
+		try {
+			new TimingWheel<String>(10L, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The wheel size must be positive and not greater than 2^30", e.getMessage());
+		}
+	}
+	
+	
+	public void testAdvance() {
+		
+		TimingWheel<String> wheel = new TimingWheel<>(10L, 8);
+		
+		wheel.advance(1000L);
+		
+		TimingWheel.Timeout<String> a = wheel.schedule("a", 1025L);
+		wheel.schedule("b", 1040L);
+		wheel.schedule("c", 1500L); // several revolutions ahead
+		
+		assertEquals("a", a.getElement());
+		assertEquals(1025L, a.getDeadline());
+		assertEquals(3, wheel.size());
+		
+		assertTrue(wheel.advance(1020L).isEmpty());
+		
+		// Never fires before the deadline
+		assertTrue(wheel.advance(1029L).isEmpty());
+		assertEquals(Collections.singletonList("a"), wheel.advance(1030L));
+		assertTrue(a.isExpired());
+		
+		assertEquals(Collections.singletonList("b"), wheel.advance(1100L));
+		assertEquals(1, wheel.size());
+		assertTrue(wheel.advance(1499L).isEmpty());
+		assertEquals(Collections.singletonList("c"), wheel.advance(1500L));
+		assertEquals(0, wheel.size());
+	}
+	
+	
+	public void testSameTick() {
+		
+		TimingWheel<String> wheel = new TimingWheel<>(10L, 8);
+		wheel.advance(0L);
+		
+		wheel.schedule("a", 20L);
+		wheel.schedule("b", 20L);
+		
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(wheel.advance(20L)));
+	}
+	
+	
+	public void testOverdue() {
+		
+		TimingWheel<String> wheel = new TimingWheel<>(10L, 8);
+		wheel.advance(1000L);
+		
+		wheel.schedule("a", 500L);
+		
+		assertTrue(wheel.advance(1005L).isEmpty()); // tick already processed
+		assertEquals(Collections.singletonList("a"), wheel.advance(1010L));
+	}
+	
+	
+	public void testSkippedTicks() {
+		
+		TimingWheel<String> wheel = new TimingWheel<>(10L, 8);
+		wheel.advance(0L);
+		
+		for (int i=1; i <= 100; i++) {
+			wheel.schedule("e" + i, i * 10L);
+		}
+		
+		// Many revolutions at once
+		List<String> due = wheel.advance(505L);
+		assertEquals(50, due.size());
+		assertEquals(50, wheel.size());
+		
+		due = wheel.advance(10_000L);
+		assertEquals(50, due.size());
+		assertEquals(0, wheel.size());
+	}
+	
+	
+	public void testCancel() {
+		
+		TimingWheel<String> wheel = new TimingWheel<>(10L, 8);
+		wheel.advance(0L);
+		
+		TimingWheel.Timeout<String> a = wheel.schedule("a", 20L);
+		TimingWheel.Timeout<String> b = wheel.schedule("b", 20L);
+		
+		assertTrue(a.cancel());
+		assertFalse(a.cancel());
+		assertTrue(a.isCancelled());
+		assertEquals(1, wheel.size());
+		
+		assertEquals(Collections.singletonList("b"), wheel.advance(30L));
+		
+		assertFalse(b.cancel());
+		assertTrue(b.isExpired());
+		assertEquals(0, wheel.size());
+	}
+	
+	
+	public void testNullElement() {
+		
+		try {
+			new TimingWheel<String>(10L, 8).schedule(null, 0L);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The element must not be null", e.getMessage());
+		}
+	}
+}
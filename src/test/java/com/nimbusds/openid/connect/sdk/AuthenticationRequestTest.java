@@ -2727,4 +2727,122 @@ public class AuthenticationRequestTest extends TestCase {
 		
 //		System.out.println(request.toURI());
 	}
-}
\ No newline at end of file
+	
+	
+	public void testParse_sameOAuthErrorDetailsAsAuthorizationRequest() {
+		
+		URI cb = URI.create("https://example.com/cb");
+		
+		// query, message prefix, error code, client_id, redirect_uri, response mode, state
+		Object[][] cases = {
+			{"response_type=code&client_id=123&client_id=456",
+				"Parameter(s) present more than once: [client_id]", OAuth2Error.INVALID_REQUEST, null, null, null, null},
+			{"response_type=code&redirect_uri=https%3A%2F%2Fexample.com%2Fcb&state=xyz",
+				"Missing client_id parameter", OAuth2Error.INVALID_REQUEST, null, null, null, null},
+			{"response_type=code&client_id=123&redirect_uri=%3A%2F%2Fexample.com",
+				"Invalid redirect_uri parameter: ", OAuth2Error.INVALID_REQUEST, null, null, null, null},
+			{"response_type=code&client_id=123&redirect_uri=https%3A%2F%2Fexample.com%2Fcb&response_mode=form_post&prompt=none%20login&state=xyz",
+				"Invalid prompt parameter: ", OAuth2Error.INVALID_REQUEST, new ClientID("123"), cb, ResponseMode.FORM_POST, new State("xyz")},
+			{"client_id=123&redirect_uri=https%3A%2F%2Fexample.com%2Fcb&state=xyz",
+				"Missing response_type parameter", OAuth2Error.INVALID_REQUEST, new ClientID("123"), cb, ResponseMode.QUERY, new State("xyz")},
+			{"response_type=code&client_id=123&request=abc&request_uri=https%3A%2F%2Fexample.com%2Freq&state=xyz",
+				"Invalid request: Found mutually exclusive request and request_uri parameters", OAuth2Error.INVALID_REQUEST, new ClientID("123"), null, ResponseMode.QUERY, new State("xyz")},
+			{"response_type=code&client_id=123&request=abc&state=xyz",
+				"Invalid request parameter: ", OAuth2Error.INVALID_REQUEST, new ClientID("123"), null, ResponseMode.QUERY, new State("xyz")},
+			{"response_type=code%20id_token&client_id=123&redirect_uri=https%3A%2F%2Fexample.com%2Fcb&scope=openid&resource=invalid&state=xyz",
+				"Illegal resource parameter: ", OAuth2Error.INVALID_RESOURCE, new ClientID("123"), cb, ResponseMode.FRAGMENT, new State("xyz")},
+			{"response_type=code&client_id=123&redirect_uri=https%3A%2F%2Fexample.com%2Fcb&scope=openid&prompt=invalid&state=xyz",
+				"Invalid prompt parameter: ", OAuth2Error.INVALID_REQUEST, new ClientID("123"), cb, ResponseMode.QUERY, new State("xyz")}
+		};
+		
+		for (Object[] c: cases) {
+			
+			String query = (String)c[0];
+			
+			Map<String,List<String>> params = URLUtils.parseParameters(query);
+			
+			ParseException expected = null;
+			try {
+				AuthorizationRequest.parse(params);
+				fail(query);
+			} catch (ParseException e) {
+				expected = e;
+			}
+			
+			try {
+				AuthenticationRequest.parse(params);
+				fail(query);
+			} catch (ParseException e) {
+				// Expected details
+				assertTrue(query + ": " + e.getMessage(), e.getMessage().startsWith((String)c[1]));
+				assertEquals(query, c[2], e.getErrorObject());
+				assertEquals(query, c[3], e.getClientID());
+				assertEquals(query, c[4], e.getRedirectionURI());
+				assertEquals(query, c[5], e.getResponseMode());
+				assertEquals(query, c[6], e.getState());
+				
+				// Same as the OAuth 2.0 parser
+				assertEquals(query, expected.getMessage(), e.getMessage());
+				assertEquals(query, expected.getErrorObject(), e.getErrorObject());
+				assertEquals(query, expected.getErrorObject().getDescription(), e.getErrorObject().getDescription());
+				assertEquals(query, expected.getClientID(), e.getClientID());
+				assertEquals(query, expected.getRedirectionURI(), e.getRedirectionURI());
+				assertEquals(query, expected.getResponseMode(), e.getResponseMode());
+				assertEquals(query, expected.getState(), e.getState());
+			}
+		}
+	}
+	
+	
+	public void testParse_customParamsSinglePass() throws ParseException {
+		
+		final Map<String,List<String>> parsed = URLUtils.parseParameters(
+			"response_type=code&client_id=123&redirect_uri=https%3A%2F%2Fexample.com%2Fcb&scope=openid%20email" +
+			"&state=xyz&nonce=abc&display=popup&max_age=3600&login_hint=alice&x=1&y=2&resource=https%3A%2F%2Frs1.com&resource=https%3A%2F%2Frs2.com");
+		
+		// Records every read of the parameters map
+		final List<String> reads = new LinkedList<>();
+		
+		Map<String,List<String>> params = new AbstractMap<String,List<String>>() {
+			
+			@Override
+			public Set<Entry<String,List<String>>> entrySet() {
+				reads.add("entrySet");
+				return parsed.entrySet();
+			}
+			
+			@Override
+			public List<String> get(final Object key) {
+				reads.add("get " + key);
+				return parsed.get(key);
+			}
+			
+			@Override
+			public boolean containsKey(final Object key) {
+				reads.add("containsKey " + key);
+				return parsed.containsKey(key);
+			}
+		};
+		
+		AuthenticationRequest request = AuthenticationRequest.parse(params);
+		
+		// Iterated once, no lookups by name
+		assertEquals(Collections.singletonList("entrySet"), reads);
+		
+		assertEquals(new ResponseType("code"), request.getResponseType());
+		assertEquals(new ClientID("123"), request.getClientID());
+		assertEquals(URI.create("https://example.com/cb"), request.getRedirectionURI());
+		assertEquals(new Scope("openid", "email"), request.getScope());
+		assertEquals(new State("xyz"), request.getState());
+		assertEquals(new Nonce("abc"), request.getNonce());
+		assertEquals(Display.POPUP, request.getDisplay());
+		assertEquals(3600, request.getMaxAge());
+		assertEquals("alice", request.getLoginHint());
+		assertEquals(Arrays.asList(URI.create("https://rs1.com"), URI.create("https://rs2.com")), request.getResources());
+		
+		// Only the non-registered parameters are kept as custom
+		assertEquals(Collections.singletonList("1"), request.getCustomParameter("x"));
+		assertEquals(Collections.singletonList("2"), request.getCustomParameter("y"));
+		assertEquals(2, request.getCustomParameters().size());
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.oauth2.sdk.id.Subject;
+
+
+public class AggregatedClaimsVerifierTest extends TestCase {
+	
+	
+	private static final Issuer ISSUER_1 = new Issuer("https://claims-1.example.com");
+	
+	
+	private static final Issuer ISSUER_2 = new Issuer("https://claims-2.example.com");
+	
+	
+	private static final RSAKey RSA_JWK_1;
+	
+	
+	private static final RSAKey RSA_JWK_2;
+	
+	
+	static {
+		try {
+			RSA_JWK_1 = new RSAKeyGenerator(2048).keyID("1").generate();
+			RSA_JWK_2 = new RSAKeyGenerator(2048).keyID("2").generate();
+		} catch (JOSEException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	private static class CountingJWKSource implements JWKSource<SecurityContext> {
+		
+		final AtomicInteger count = new AtomicInteger();
+		
+		final JWKSource<SecurityContext> jwkSource;
+		
+		CountingJWKSource(final JWK jwk) {
+			jwkSource = new ImmutableJWKSet<>(new JWKSet(jwk.toPublicJWK()));
+		}
+		
+		@Override
+		public List<JWK> get(final JWKSelector jwkSelector, final SecurityContext context)
+			throws com.nimbusds.jose.KeySourceException {
+			count.incrementAndGet();
+			return jwkSource.get(jwkSelector, context);
+		}
+	}
+	
+	
+	private CountingJWKSource jwkSource1;
+	
+	
+	private CountingJWKSource jwkSource2;
+	
+	
+	private AggregatedClaimsVerifier verifier;
+	
+	
+	@Override
+	public void setUp() {
+		
+		jwkSource1 = new CountingJWKSource(RSA_JWK_1);
+		jwkSource2 = new CountingJWKSource(RSA_JWK_2);
+		
+		Map<Issuer,JWKSource<SecurityContext>> jwkSources = new HashMap<>();
+		jwkSources.put(ISSUER_1, jwkSource1);
+		jwkSources.put(ISSUER_2, jwkSource2);
+		verifier = new AggregatedClaimsVerifier(jwkSources);
+	}
+	
+	
+	@Override
+	public void tearDown() {
+		
+		verifier.shutdown();
+	}
+	
+	
+	private static SignedJWT createJWT(final RSAKey rsaJWK, final JWTClaimsSet claimsSet)
+		throws JOSEException {
+		
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(rsaJWK.getKeyID()).build(), claimsSet);
+		jwt.sign(new RSASSASigner(rsaJWK));
+		return jwt;
+	}
+	
+	
+	public void testConstructor() {
+		
+		assertEquals(new HashSet<>(Arrays.asList(ISSUER_1, ISSUER_2)), verifier.getIssuers());
+		assertEquals(AggregatedClaimsVerifier.DEFAULT_MAX_CACHE_LIFETIME_SECONDS, verifier.getMaxCacheLifetimeSeconds());
+		assertEquals(AggregatedClaimsVerifier.DEFAULT_MAX_CACHE_SIZE, verifier.getMaxCacheSize());
+		assertEquals(0, verifier.getCacheSize());
+	}
+	
+	
+	public void testConstructor_nullJWKSources() {
+		
+		try {
+			new AggregatedClaimsVerifier(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The JWK sources must not be null", e.getMessage());
+		}
+	}
+	
+	
+	public void testVerify_cached()
+		throws Exception {
+		
+		AggregatedClaims src1 = new AggregatedClaims(
+			Collections.singleton("email"),
+			createJWT(RSA_JWK_1, new JWTClaimsSet.Builder().issuer(ISSUER_1.getValue()).claim("email", "alice@example.com").build()));
+		
+		assertEquals("alice@example.com", verifier.verify(src1).getStringClaim("email"));
+		assertEquals(1, jwkSource1.count.get());
+		assertEquals(1, verifier.getCacheSize());
+		
+		// Same JWT, parsed again
+		AggregatedClaims src1Copy = new AggregatedClaims(
+			Collections.singleton("email"),
+			SignedJWT.parse(src1.getClaimsJWT().serialize()));
+		
+		assertEquals("alice@example.com", verifier.verify(src1Copy).getStringClaim("email"));
+		assertEquals(1, jwkSource1.count.get());
+		
+		verifier.clearCache();
+		assertEquals(0, verifier.getCacheSize());
+	}
+	
+	
+	public void testVerify_untrustedIssuer()
+		throws Exception {
+		
+		AggregatedClaims src = new AggregatedClaims(
+			Collections.singleton("email"),
+			createJWT(RSA_JWK_1, new JWTClaimsSet.Builder().issuer("https://other.example.com").claim("email", "alice@example.com").build()));
+		
+		try {
+			verifier.verify(src);
+			fail();
+		} catch (BadJOSEException e) {
+			assertEquals("Untrusted aggregated claims JWT issuer: https://other.example.com", e.getMessage());
+		}
+		
+		assertEquals(0, verifier.getCacheSize());
+	}
+	
+	
+	public void testVerify_keyOfOtherIssuer()
+		throws Exception {
+		
+		AggregatedClaims src = new AggregatedClaims(
+			Collections.singleton("email"),
+			createJWT(RSA_JWK_2, new JWTClaimsSet.Builder().issuer(ISSUER_1.getValue()).claim("email", "alice@example.com").build()));
+		
+		try {
+			verifier.verify(src);
+			fail();
+		} catch (BadJOSEException e) {
+			// ok
+		}
+	}
+	
+	
+	public void testVerify_plainJWT() {
+		
+		AggregatedClaims src = new AggregatedClaims(
+			Collections.singleton("email"),
+			new PlainJWT(new JWTClaimsSet.Builder().issuer(ISSUER_1.getValue()).claim("email", "alice@example.com").build()));
+		
+		try {
+			verifier.verify(src);
+			fail();
+		} catch (BadJOSEException | JOSEException e) {
+			assertEquals("The aggregated claims JWT must be signed", e.getMessage());
+		}
+	}
+	
+	
+	public void testVerifyAndMerge()
+		throws Exception {
+		
+		AggregatedClaims src1 = new AggregatedClaims(
+			"src1",
+			Collections.singleton("email"),
+			createJWT(RSA_JWK_1, new JWTClaimsSet.Builder().issuer(ISSUER_1.getValue()).claim("email", "alice@example.com").claim("other", "x").build()));
+		
+		AggregatedClaims src2 = new AggregatedClaims(
+			"src2",
+			Collections.singleton("birthdate"),
+			createJWT(RSA_JWK_2, new JWTClaimsSet.Builder().issuer(ISSUER_2.getValue()).claim("birthdate", "1970-01-01").build()));
+		
+		AggregatedClaims src3 = new AggregatedClaims(
+			"src3",
+			Collections.singleton("locale"),
+			createJWT(RSA_JWK_2, new JWTClaimsSet.Builder().issuer(ISSUER_1.getValue()).claim("locale", "en").build()));
+		
+		ClaimsSet claimsSet = verifier.verifyAndMerge(Arrays.asList(src1, src2, src3));
+		
+		assertEquals("alice@example.com", claimsSet.getStringClaim("email"));
+		assertEquals("1970-01-01", claimsSet.getStringClaim("birthdate"));
+		assertNull(claimsSet.getStringClaim("locale"));
+		assertNull(claimsSet.getStringClaim("other"));
+		assertEquals(2, claimsSet.toJSONObject().size());
+		
+		assertEquals(2, verifier.getCacheSize());
+	}
+	
+	
+	public void testResolve()
+		throws Exception {
+		
+		UserInfo userInfo = new UserInfo(new Subject("alice"));
+		userInfo.addAggregatedClaims(new AggregatedClaims(
+			"src1",
+			Collections.singleton("email"),
+			createJWT(RSA_JWK_1, new JWTClaimsSet.Builder().issuer(ISSUER_1.getValue()).claim("email", "alice@example.com").build())));
+		userInfo.addAggregatedClaims(new AggregatedClaims(
+			"src2",
+			Collections.singleton("birthdate"),
+			createJWT(RSA_JWK_1, new JWTClaimsSet.Builder().issuer(ISSUER_2.getValue()).claim("birthdate", "1970-01-01").build())));
+		
+		UserInfo out = verifier.resolve(UserInfo.parse(userInfo.toJSONString()));
+		
+		assertEquals("alice", out.getSubject().getValue());
+		assertEquals("alice@example.com", out.getEmailAddress());
+		assertNull(out.getBirthdate());
+		
+		Set<AggregatedClaims> unverified = out.getAggregatedClaims();
+		assertEquals(1, unverified.size());
+		assertEquals("src2", unverified.iterator().next().getSourceID());
+	}
+	
+	
+	public void testResolve_noAggregatedClaims() {
+		
+		UserInfo userInfo = new UserInfo(new Subject("alice"));
+		assertSame(userInfo, verifier.resolve(userInfo));
+	}
+}
@@ -18,15 +18,21 @@
 package com.nimbusds.openid.connect.sdk.claims;
 
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 import net.minidev.json.JSONObject;
 
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.util.DateUtils;
+import com.nimbusds.langtag.LangTag;
+import com.nimbusds.langtag.LangTagException;
+import com.nimbusds.langtag.LangTagUtils;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.id.Audience;
 import com.nimbusds.oauth2.sdk.id.Issuer;
@@ -110,4 +116,78 @@ public class ClaimsSetTest extends TestCase {
 		assertNotSame(a, b);
 		assertNotSame(a.hashCode(), b.hashCode());
 	}
+	
+	
+	public void testLangTaggedClaim_index()
+		throws LangTagException {
+		
+		ClaimsSet claimsSet = new ClaimsSet();
+		assertTrue(claimsSet.getLangTaggedClaim("month", String.class).isEmpty());
+		
+		claimsSet.setClaim("month", "January");
+		claimsSet.setClaim("month", "Januar", LangTag.parse("de"));
+		claimsSet.setClaim("monthly", "yes");
+		claimsSet.setClaim("day#de", "Tag");
+		
+		Map<LangTag,String> months = claimsSet.getLangTaggedClaim("month", String.class);
+		assertEquals("January", months.get(null));
+		assertEquals("Januar", months.get(LangTag.parse("de")));
+		assertEquals(2, months.size());
+		
+		// Index maintained by the setters
+		claimsSet.setClaim("month", "enero", LangTag.parse("es"));
+		claimsSet.setURIClaim("month#de", null);
+		
+		Map<String,Object> more = new HashMap<>();
+		more.put("month#it", "gennaio");
+		more.put("other", "x");
+		claimsSet.putAll(more);
+		
+		months = claimsSet.getLangTaggedClaim("month", String.class);
+		assertEquals("January", months.get(null));
+		assertEquals("enero", months.get(LangTag.parse("es")));
+		assertEquals("gennaio", months.get(LangTag.parse("it")));
+		assertEquals(3, months.size());
+		
+		claimsSet.setClaim("month", null);
+		months = claimsSet.getLangTaggedClaim("month", String.class);
+		assertEquals(2, months.size());
+		assertFalse(months.containsKey(null));
+		
+		assertEquals(Collections.singletonMap(LangTag.parse("de"), "Tag"), claimsSet.getLangTaggedClaim("day", String.class));
+		assertTrue(claimsSet.getLangTaggedClaim("year", String.class).isEmpty());
+	}
+	
+	
+	public void testLangTaggedClaim_sameAsLangTagUtils()
+		throws LangTagException {
+		
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put("name", "Alice");
+		jsonObject.put("name#de-DE", "Alice DE");
+		jsonObject.put("name#fr", "Alice FR");
+		jsonObject.put("nickname#fr", "Ali");
+		
+		ClaimsSet claimsSet = new ClaimsSet(jsonObject);
+		
+		for (String name: Arrays.asList("name", "nickname", "none")) {
+			assertEquals(LangTagUtils.find(name, jsonObject), claimsSet.getLangTaggedClaim(name, Object.class));
+		}
+		
+		// Modification of the backing JSON object detected
+		jsonObject.put("name#es", "Alicia");
+		assertEquals("Alicia", claimsSet.getLangTaggedClaim("name", String.class).get(LangTag.parse("es")));
+		
+		// Also when the number of claims stays the same
+		jsonObject.remove("name#fr");
+		jsonObject.put("name#it", "Alice IT");
+		assertEquals(LangTagUtils.find("name", jsonObject), claimsSet.getLangTaggedClaim("name", Object.class));
+		
+		// Indexed copy
+		ClaimsSet copy = new ClaimsSet();
+		copy.putAll(claimsSet);
+		for (String name: Arrays.asList("name", "nickname", "none")) {
+			assertEquals(LangTagUtils.find(name, jsonObject), copy.getLangTaggedClaim(name, Object.class));
+		}
+	}
 }
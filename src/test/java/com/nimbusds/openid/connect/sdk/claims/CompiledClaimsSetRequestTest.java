@@ -0,0 +1,216 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+import net.minidev.json.JSONObject;
+
+import com.nimbusds.langtag.LangTag;
+import com.nimbusds.langtag.LangTagException;
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.openid.connect.sdk.OIDCClaimsRequest;
+
+
+public class CompiledClaimsSetRequestTest extends TestCase {
+	
+	
+	private static UserInfo createUserInfo()
+		throws LangTagException {
+		
+		UserInfo userInfo = new UserInfo(new Subject("alice"));
+		userInfo.setName("Alice Adams");
+		userInfo.setName("Alice Adams DE", LangTag.parse("de-DE"));
+		userInfo.setName("Alice Adams FR", LangTag.parse("fr"));
+		userInfo.setGivenName("Alice");
+		userInfo.setFamilyName("Adams");
+		userInfo.setFamilyName("Adams BG", LangTag.parse("bg-BG"));
+		userInfo.setEmailAddress("alice@wonderland.net");
+		userInfo.setEmailVerified(true);
+		userInfo.setClaim("https://example.com/groups", Arrays.asList("admin", "audit"));
+		return userInfo;
+	}
+	
+	
+	public void testEmpty()
+		throws LangTagException {
+		
+		CompiledClaimsSetRequest compiled = new ClaimsSetRequest().compile();
+		
+		assertTrue(compiled.getClaimNames().isEmpty());
+		assertTrue(compiled.getEssentialClaimNames().isEmpty());
+		
+		UserInfo out = compiled.apply(createUserInfo());
+		assertEquals(new Subject("alice"), out.getSubject());
+		assertEquals(1, out.toJSONObject().size());
+		
+		assertTrue(compiled.apply(new JSONObject()).isEmpty());
+	}
+	
+	
+	public void testApply()
+		throws LangTagException {
+		
+		ClaimsSetRequest claimsSetRequest = new ClaimsSetRequest()
+			.add("name")
+			.add(new ClaimsSetRequest.Entry("family_name").withLangTag(LangTag.parse("bg-bg")))
+			.add(new ClaimsSetRequest.Entry("email").withClaimRequirement(ClaimRequirement.ESSENTIAL))
+			.add("https://example.com/groups")
+			.add("phone_number");
+		
+		CompiledClaimsSetRequest compiled = claimsSetRequest.compile();
+		
+		assertEquals(new HashSet<>(Arrays.asList("name", "family_name#bg-bg", "email", "https://example.com/groups", "phone_number")), compiled.getClaimNames());
+		assertEquals(Collections.singleton("email"), compiled.getEssentialClaimNames());
+		
+		UserInfo userInfo = createUserInfo();
+		UserInfo out = compiled.apply(userInfo);
+		
+		JSONObject expected = new JSONObject();
+		expected.put("sub", "alice");
+		expected.put("name", "Alice Adams");
+		expected.put("name#de-DE", "Alice Adams DE");
+		expected.put("name#fr", "Alice Adams FR");
+		expected.put("family_name#bg-BG", "Adams BG");
+		expected.put("email", "alice@wonderland.net");
+		expected.put("https://example.com/groups", Arrays.asList("admin", "audit"));
+		assertEquals(expected, out.toJSONObject());
+		
+		// Same result without sub for the generic methods
+		expected.remove("sub");
+		assertEquals(expected, compiled.apply((ClaimsSet) userInfo));
+		assertEquals(expected, compiled.apply(userInfo.toJSONObject()));
+		
+		// Input not modified
+		assertEquals(createUserInfo().toJSONObject(), userInfo.toJSONObject());
+	}
+	
+	
+	public void testMatches()
+		throws LangTagException {
+		
+		CompiledClaimsSetRequest compiled = new ClaimsSetRequest()
+			.add("name")
+			.add(new ClaimsSetRequest.Entry("family_name").withLangTag(LangTag.parse("de-DE")))
+			.compile();
+		
+		assertTrue(compiled.matches("name"));
+		assertTrue(compiled.matches("name#de"));
+		assertTrue(compiled.matches("family_name#de-DE"));
+		assertTrue(compiled.matches("family_name#de-de"));
+		assertFalse(compiled.matches("family_name"));
+		assertFalse(compiled.matches("family_name#de"));
+		assertFalse(compiled.matches("given_name"));
+		assertFalse(compiled.matches("#de"));
+	}
+	
+	
+	public void testMissingEssentialClaims()
+		throws LangTagException {
+		
+		CompiledClaimsSetRequest compiled = new ClaimsSetRequest()
+			.add(new ClaimsSetRequest.Entry("email").withClaimRequirement(ClaimRequirement.ESSENTIAL))
+			.add(new ClaimsSetRequest.Entry("name").withClaimRequirement(ClaimRequirement.ESSENTIAL).withLangTag(LangTag.parse("fr")))
+			.add(new ClaimsSetRequest.Entry("phone_number").withClaimRequirement(ClaimRequirement.ESSENTIAL))
+			.add("address")
+			.compile();
+		
+		assertEquals(new HashSet<>(Arrays.asList("email", "name#fr", "phone_number")), compiled.getEssentialClaimNames());
+		assertEquals(Collections.singleton("phone_number"), compiled.getMissingEssentialClaimNames(createUserInfo()));
+	}
+	
+	
+	public void testMissingEssentialClaims_langTagCaseInsensitive()
+		throws LangTagException {
+		
+		CompiledClaimsSetRequest compiled = new ClaimsSetRequest()
+			.add(new ClaimsSetRequest.Entry("name").withClaimRequirement(ClaimRequirement.ESSENTIAL).withLangTag(LangTag.parse("de-de")))
+			.add(new ClaimsSetRequest.Entry("family_name").withClaimRequirement(ClaimRequirement.ESSENTIAL).withLangTag(LangTag.parse("BG-bg")))
+			.add(new ClaimsSetRequest.Entry("given_name").withClaimRequirement(ClaimRequirement.ESSENTIAL).withLangTag(LangTag.parse("de-DE")))
+			.compile();
+		
+		assertEquals(Collections.singleton("given_name#de-DE"), compiled.getMissingEssentialClaimNames(createUserInfo()));
+	}
+	
+	
+	public void testSnapshot() {
+		
+		ClaimsSetRequest claimsSetRequest = new ClaimsSetRequest().add("email");
+		CompiledClaimsSetRequest compiled = claimsSetRequest.compile();
+		claimsSetRequest.add("name");
+		
+		assertEquals(Collections.singleton("email"), compiled.getClaimNames());
+	}
+	
+	
+	public void testCache()
+		throws ParseException, LangTagException {
+		
+		CompiledClaimsRequestCache cache = new CompiledClaimsRequestCache(2);
+		assertEquals(2, cache.getMaxSize());
+		
+		String json = "{\"userinfo\":{\"email\":{\"essential\":true},\"name#de-DE\":null}}";
+		
+		CompiledClaimsSetRequest compiled = cache.getUserInfoClaimsRequest(json);
+		assertSame(compiled, cache.getUserInfoClaimsRequest(json));
+		assertNull(cache.getIDTokenClaimsRequest(json));
+		assertEquals(1, cache.size());
+		
+		UserInfo out = compiled.apply(createUserInfo());
+		assertEquals("alice@wonderland.net", out.getEmailAddress());
+		assertEquals("Alice Adams DE", out.getName(LangTag.parse("de-DE")));
+		assertEquals(3, out.toJSONObject().size());
+		
+		OIDCClaimsRequest claimsRequest = new OIDCClaimsRequest()
+			.withIDTokenClaimsRequest(new ClaimsSetRequest().add("email"));
+		assertNotNull(cache.getIDTokenClaimsRequest(claimsRequest));
+		assertSame(cache.getIDTokenClaimsRequest(claimsRequest), cache.getIDTokenClaimsRequest(claimsRequest));
+		assertNull(cache.getUserInfoClaimsRequest(claimsRequest));
+		assertEquals(2, cache.size());
+		
+		// Keyed by JSON, an equal claims request instance shares the entry
+		OIDCClaimsRequest equalClaimsRequest = new OIDCClaimsRequest()
+			.withIDTokenClaimsRequest(new ClaimsSetRequest().add("email"));
+		assertSame(cache.getIDTokenClaimsRequest(claimsRequest), cache.getIDTokenClaimsRequest(equalClaimsRequest));
+		assertSame(cache.getIDTokenClaimsRequest(claimsRequest), cache.getIDTokenClaimsRequest(claimsRequest.toJSONString()));
+		assertEquals(2, cache.size());
+		
+		// Bounded, the least recently used JSON entry is evicted
+		assertSame(compiled, cache.getUserInfoClaimsRequest(json));
+		CompiledClaimsSetRequest idTokenCompiled = cache.getIDTokenClaimsRequest(claimsRequest);
+		cache.getUserInfoClaimsRequest("{\"userinfo\":{\"name\":null}}");
+		assertEquals(2, cache.size());
+		assertSame(idTokenCompiled, cache.getIDTokenClaimsRequest(claimsRequest));
+		assertNotSame(compiled, cache.getUserInfoClaimsRequest(json));
+		
+		try {
+			cache.getUserInfoClaimsRequest("invalid");
+			fail();
+		} catch (ParseException e) {
+			// ok
+		}
+		
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
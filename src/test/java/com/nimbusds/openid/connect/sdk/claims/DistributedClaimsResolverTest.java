@@ -0,0 +1,409 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.claims;
+
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static net.jadler.Jadler.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.proc.SimpleSecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+
+
+public class DistributedClaimsResolverTest {
+	
+	
+	private static final byte[] SECRET = "e0d6ba5b0b4e6a95ffa5e0a3e8b6c9b2".getBytes();
+	
+	
+	private DistributedClaimsResolver<SecurityContext> resolver;
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+		
+		DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+		jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.HS256, new ImmutableSecret<>(SECRET)));
+		resolver = new DistributedClaimsResolver<>(jwtProcessor, 1000, 1000);
+	}
+	
+	
+	@After
+	public void tearDown() {
+		resolver.shutdown();
+		closeJadler();
+	}
+	
+	
+	private static String createJWT(final JWTClaimsSet claimsSet, final byte[] secret)
+		throws JOSEException {
+		
+		SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+		jwt.sign(new MACSigner(secret));
+		return jwt.serialize();
+	}
+	
+	
+	private URI endpoint(final String path) {
+		return URI.create("http://localhost:" + port() + path);
+	}
+	
+	
+	private UserInfo createUserInfo() {
+		
+		UserInfo userInfo = new UserInfo(new Subject("alice"));
+		userInfo.setName("Alice Adams");
+		userInfo.addDistributedClaims(new DistributedClaims(
+			"src1",
+			Collections.singleton("email"),
+			endpoint("/src1"),
+			new BearerAccessToken("token-1")));
+		userInfo.addDistributedClaims(new DistributedClaims(
+			"src2",
+			new HashSet<>(Arrays.asList("birthdate", "locale")),
+			endpoint("/src2"),
+			new BearerAccessToken("token-2")));
+		return userInfo;
+	}
+	
+	
+	@Test
+	public void testConstructor() {
+		
+		assertNotNull(resolver.getJWTProcessor());
+		assertEquals(1000, resolver.getConnectTimeout());
+		assertEquals(1000, resolver.getReadTimeout());
+		assertEquals(2000, resolver.getResolveTimeout());
+		assertEquals(DistributedClaimsResolver.DEFAULT_MAX_CACHE_LIFETIME_SECONDS, resolver.getMaxCacheLifetimeSeconds());
+		assertEquals(DistributedClaimsResolver.DEFAULT_MAX_CACHE_SIZE, resolver.getMaxCacheSize());
+		assertEquals(0, resolver.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testConstructor_nullJWTProcessor() {
+		
+		try {
+			new DistributedClaimsResolver<>(null, 1000, 1000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The JWT processor must not be null", e.getMessage());
+		}
+	}
+	
+	
+	@Test
+	public void testConstructor_negativeResolveTimeout() {
+		
+		try {
+			new DistributedClaimsResolver<>(resolver.getJWTProcessor(), 1000, 1000, -1, 1, 0L, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The resolve timeout must not be negative", e.getMessage());
+		}
+	}
+	
+	
+	@Test
+	public void testResolve_noDistributedClaims() {
+		
+		UserInfo userInfo = new UserInfo(new Subject("alice"));
+		assertSame(userInfo, resolver.resolve(userInfo, null));
+	}
+	
+	
+	@Test
+	public void testResolve()
+		throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/src1")
+			.havingHeaderEqualTo("Authorization", "Bearer token-1")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("email", "alice@example.com").build(), SECRET));
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/src2")
+			.havingHeaderEqualTo("Authorization", "Bearer token-2")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder()
+				.claim("birthdate", "1970-01-01")
+				.claim("locale", "en-GB")
+				.claim("other", "ignored")
+				.build(), SECRET));
+		
+		UserInfo userInfo = createUserInfo();
+		
+		UserInfo out = resolver.resolve(userInfo, null);
+		
+		assertEquals("alice", out.getSubject().getValue());
+		assertEquals("Alice Adams", out.getName());
+		assertEquals("alice@example.com", out.getEmailAddress());
+		assertEquals("1970-01-01", out.getBirthdate());
+		assertEquals("en-GB", out.getLocale());
+		assertNull(out.getClaim("other"));
+		assertNull(out.getDistributedClaims());
+		assertNull(out.getClaim("_claim_names"));
+		assertNull(out.getClaim("_claim_sources"));
+		
+		// Input not modified
+		assertEquals(2, userInfo.getDistributedClaims().size());
+		assertNull(userInfo.getEmailAddress());
+		
+		assertEquals(2, resolver.getCacheSize());
+		
+		// From cache
+		out = resolver.resolve(createUserInfo(), null);
+		assertEquals("alice@example.com", out.getEmailAddress());
+		assertEquals("en-GB", out.getLocale());
+		
+		verifyThatRequest().havingPathEqualTo("/src1").receivedOnce();
+		verifyThatRequest().havingPathEqualTo("/src2").receivedOnce();
+	}
+	
+	
+	@Test
+	public void testResolve_partialFailure()
+		throws Exception {
+		
+		onRequest()
+			.havingPathEqualTo("/src1")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("email", "alice@example.com").build(), SECRET));
+		
+		onRequest()
+			.havingPathEqualTo("/src2")
+			.respond()
+			.withStatus(404);
+		
+		UserInfo out = resolver.resolve(createUserInfo(), null);
+		
+		assertEquals("alice@example.com", out.getEmailAddress());
+		assertNull(out.getBirthdate());
+		
+		Set<DistributedClaims> unresolved = out.getDistributedClaims();
+		assertEquals(1, unresolved.size());
+		DistributedClaims src2 = unresolved.iterator().next();
+		assertEquals("src2", src2.getSourceID());
+		assertEquals(new HashSet<>(Arrays.asList("birthdate", "locale")), src2.getNames());
+		
+		assertEquals(1, resolver.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testResolve_timeoutCountedFromFetchStart()
+		throws Exception {
+		
+		onRequest()
+			.havingPathEqualTo("/src1")
+			.respond()
+			.withDelay(1000L, TimeUnit.MILLISECONDS)
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("email", "alice@example.com").build(), SECRET));
+		
+		onRequest()
+			.havingPathEqualTo("/src2")
+			.respond()
+			.withDelay(1000L, TimeUnit.MILLISECONDS)
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("locale", "en-GB").build(), SECRET));
+		
+		// One fetch at a time, the second source is queued behind the
+		// first, both resolved within 1800 ms of their start
+		DistributedClaimsResolver<SecurityContext> serialResolver = new DistributedClaimsResolver<>(
+			resolver.getJWTProcessor(), 2000, 2000, 1800, 1, 0L, 1);
+		
+		try {
+			UserInfo out = serialResolver.resolve(createUserInfo(), null);
+			assertEquals("alice@example.com", out.getEmailAddress());
+			assertEquals("en-GB", out.getLocale());
+			assertNull(out.getDistributedClaims());
+		} finally {
+			serialResolver.shutdown();
+		}
+	}
+	
+	
+	@Test
+	public void testResolve_resolveTimeoutWithoutReadTimeout()
+		throws Exception {
+		
+		onRequest()
+			.havingPathEqualTo("/src1")
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("email", "alice@example.com").build(), SECRET));
+		
+		onRequest()
+			.havingPathEqualTo("/src2")
+			.respond()
+			.withDelay(2000L, TimeUnit.MILLISECONDS)
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("locale", "en-GB").build(), SECRET));
+		
+		// No read timeout, the resolution still times out
+		DistributedClaimsResolver<SecurityContext> noReadTimeoutResolver = new DistributedClaimsResolver<>(
+			resolver.getJWTProcessor(), 1000, 0, 200, 2, 0L, 1);
+		
+		try {
+			long start = System.currentTimeMillis();
+			UserInfo out = noReadTimeoutResolver.resolve(createUserInfo(), null);
+			assertTrue(System.currentTimeMillis() - start < 1500L);
+			
+			assertEquals("alice@example.com", out.getEmailAddress());
+			assertNull(out.getLocale());
+			assertEquals("src2", out.getDistributedClaims().iterator().next().getSourceID());
+		} finally {
+			noReadTimeoutResolver.shutdown();
+		}
+	}
+	
+	
+	@Test
+	public void testResolve_invalidSignature()
+		throws Exception {
+		
+		byte[] otherSecret = "1b0d9a6cbd0e2f13c6b2a26e0dd2cb4e".getBytes();
+		
+		onRequest()
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder().claim("email", "alice@example.com").build(), otherSecret));
+		
+		UserInfo userInfo = createUserInfo();
+		assertSame(userInfo, resolver.resolve(userInfo, null));
+		assertEquals(0, resolver.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testResolve_cacheLifetimeLimitedByExp()
+		throws Exception {
+		
+		onRequest()
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder()
+				.claim("email", "alice@example.com")
+				.expirationTime(new Date(System.currentTimeMillis() + 1000L))
+				.build(), SECRET));
+		
+		DistributedClaims source = new DistributedClaims(
+			"src1",
+			Collections.singleton("email"),
+			endpoint("/src1"),
+			new BearerAccessToken("token-1"));
+		
+		assertEquals("alice@example.com", resolver.fetch(source, null).getStringClaim("email"));
+		assertNotNull(resolver.getCachedClaims(source, null));
+		
+		Thread.sleep(1100L);
+		
+		assertNull(resolver.getCachedClaims(source, null));
+		assertEquals(0, resolver.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testCacheKeyIncludesSecurityContext()
+		throws Exception {
+		
+		onRequest()
+			.respond()
+			.withStatus(200)
+			.withContentType("application/jwt")
+			.withBody(createJWT(new JWTClaimsSet.Builder()
+				.claim("email", "alice@example.com")
+				.build(), SECRET));
+		
+		DistributedClaims source = new DistributedClaims(
+			"src1",
+			Collections.singleton("email"),
+			endpoint("/src1"),
+			new BearerAccessToken("token-1"));
+		
+		SimpleSecurityContext ctx1 = new SimpleSecurityContext();
+		ctx1.put("tenant", "a");
+		SimpleSecurityContext ctx2 = new SimpleSecurityContext();
+		ctx2.put("tenant", "b");
+		
+		resolver.fetch(source, ctx1);
+		
+		assertNotNull(resolver.getCachedClaims(source, ctx1));
+		assertNull(resolver.getCachedClaims(source, ctx2));
+		assertNull(resolver.getCachedClaims(source, null));
+		
+		resolver.fetch(source, ctx2);
+		assertNotNull(resolver.getCachedClaims(source, ctx2));
+		assertEquals(2, resolver.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testComputeCacheKey() {
+		
+		URI endpoint = URI.create("https://claims.example.com/");
+		
+		String k1 = DistributedClaimsResolver.computeCacheKey(new DistributedClaims(Collections.singleton("email"), endpoint, new BearerAccessToken("token-1")));
+		String k2 = DistributedClaimsResolver.computeCacheKey(new DistributedClaims(Collections.singleton("email"), endpoint, new BearerAccessToken("token-2")));
+		String k3 = DistributedClaimsResolver.computeCacheKey(new DistributedClaims(Collections.singleton("email"), endpoint, null));
+		
+		assertNotEquals(k1, k2);
+		assertFalse(k1.contains("token-1"));
+		assertEquals("https://claims.example.com/", k3);
+	}
+}
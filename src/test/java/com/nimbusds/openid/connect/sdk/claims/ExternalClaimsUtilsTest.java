@@ -18,9 +18,10 @@
 package com.nimbusds.openid.connect.sdk.claims;
 
 
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
 import com.nimbusds.oauth2.sdk.util.JSONObjectUtils;
 import junit.framework.TestCase;
 import net.minidev.json.JSONObject;
@@ -228,4 +229,200 @@ public class ExternalClaimsUtilsTest extends TestCase {
 		
 		assertTrue(ExternalClaimsUtils.getExternalClaimNamesForSource(claims, "src1").isEmpty());
 	}
+	
+	
+	// mergeResolvedClaims
+	
+	public void testMergeResolvedClaims()
+		throws Exception {
+		
+		String json =
+			"{" +
+			"   \"sub\": \"alice\"," +
+			"   \"_claim_names\": {" +
+			"     \"email\": \"src1\"," +
+			"     \"address\": \"src2\"," +
+			"     \"verified_claims\": [\"src1\", \"src2\", \"src3\"]" +
+			"   }," +
+			"   \"_claim_sources\": {" +
+			"     \"src1\": {\"JWT\": \"a.b.c\"}," +
+			"     \"src2\": {\"JWT\": \"d.e.f\"}," +
+			"     \"src3\": {\"JWT\": \"g.h.i\"}" +
+			"   }" +
+			"  }";
+		
+		JSONObject jsonObject = JSONObjectUtils.parse(json);
+		
+		AggregatedClaims src1 = new AggregatedClaims("src1", new HashSet<>(Arrays.asList("email", "verified_claims")), new PlainJWT(new JWTClaimsSet.Builder().build()));
+		AggregatedClaims src2 = new AggregatedClaims("src2", new HashSet<>(Arrays.asList("address", "verified_claims")), new PlainJWT(new JWTClaimsSet.Builder().build()));
+		
+		Map<AggregatedClaims,JWTClaimsSet> resolved = new HashMap<>();
+		resolved.put(src1, new JWTClaimsSet.Builder()
+			.claim("email", "alice@example.com")
+			.claim("verified_claims", Collections.singletonMap("claims", Collections.singletonMap("given_name", "Alice")))
+			.build());
+		resolved.put(src2, new JWTClaimsSet.Builder()
+			.claim("verified_claims", Collections.singletonList(Collections.singletonMap("claims", Collections.singletonMap("family_name", "Adams"))))
+			.build());
+		
+		JSONObject out = ExternalClaimsUtils.mergeResolvedClaims(jsonObject, resolved);
+		
+		assertEquals("alice", out.get("sub"));
+		assertEquals("alice@example.com", out.get("email"));
+		assertNull(out.get("address"));
+		
+		// Merged into an array in source order
+		assertEquals(
+			Arrays.asList(
+				Collections.singletonMap("claims", Collections.singletonMap("given_name", "Alice")),
+				Collections.singletonMap("claims", Collections.singletonMap("family_name", "Adams"))),
+			out.get("verified_claims"));
+		
+		JSONObject claimNames = (JSONObject)out.get("_claim_names");
+		assertEquals(Collections.singletonList("src3"), claimNames.get("verified_claims"));
+		assertEquals(1, claimNames.size());
+		
+		JSONObject claimSources = (JSONObject)out.get("_claim_sources");
+		assertEquals(Collections.singleton("src3"), claimSources.keySet());
+		
+		// Input not modified
+		assertEquals(JSONObjectUtils.parse(json), jsonObject);
+	}
+	
+	
+	public void testMergeResolvedClaims_conflictOrder()
+		throws Exception {
+		
+		String json =
+			"{" +
+			"   \"sub\": \"alice\"," +
+			"   \"_claim_names\": {" +
+			"     \"email\": [\"src2\", \"src1\"]," +
+			"     \"phone_number\": \"src1\"" +
+			"   }," +
+			"   \"_claim_sources\": {" +
+			"     \"src1\": {\"JWT\": \"a.b.c\"}," +
+			"     \"src2\": {\"JWT\": \"d.e.f\"}" +
+			"   }" +
+			"  }";
+		
+		AggregatedClaims src1 = new AggregatedClaims("src1", new HashSet<>(Arrays.asList("email", "phone_number")), new PlainJWT(new JWTClaimsSet.Builder().build()));
+		AggregatedClaims src2 = new AggregatedClaims("src2", new HashSet<>(Arrays.asList("email", "phone_number")), new PlainJWT(new JWTClaimsSet.Builder().build()));
+		
+		Map<AggregatedClaims,JWTClaimsSet> resolved = new HashMap<>();
+		resolved.put(src1, new JWTClaimsSet.Builder()
+			.claim("email", "alice@example.com")
+			.claim("phone_number", "+1 111")
+			.build());
+		resolved.put(src2, new JWTClaimsSet.Builder()
+			.claim("email", "alice@example.org")
+			.claim("phone_number", "+1 222")
+			.build());
+		
+		JSONObject out = ExternalClaimsUtils.mergeResolvedClaims(JSONObjectUtils.parse(json), resolved);
+		
+		// Order of the reference
+		assertEquals("alice@example.org", out.get("email"));
+		
+		// Not listed, lowest source ID
+		assertEquals("+1 111", out.get("phone_number"));
+		
+		// The references to the sources whose value wasn't taken are kept
+		JSONObject claimNames = (JSONObject)out.get("_claim_names");
+		assertEquals(Collections.singletonList("src1"), claimNames.get("email"));
+		assertEquals("src2", claimNames.get("phone_number"));
+		assertEquals(2, claimNames.size());
+		
+		JSONObject claimSources = (JSONObject)out.get("_claim_sources");
+		assertEquals(Collections.singletonMap("JWT", "a.b.c"), claimSources.get("src1"));
+		assertEquals(Collections.singletonMap("JWT", "d.e.f"), claimSources.get("src2"));
+		assertEquals(2, claimSources.size());
+	}
+	
+	
+	public void testMergeResolvedClaims_verifiedClaimsDuplicatesOmitted()
+		throws Exception {
+		
+		String json =
+			"{" +
+			"   \"sub\": \"alice\"," +
+			"   \"_claim_names\": {" +
+			"     \"verified_claims\": [\"src2\", \"src1\"]," +
+			"     \"email\": [\"src1\", \"src2\"]" +
+			"   }," +
+			"   \"_claim_sources\": {" +
+			"     \"src1\": {\"JWT\": \"a.b.c\"}," +
+			"     \"src2\": {\"JWT\": \"d.e.f\"}" +
+			"   }" +
+			"  }";
+		
+		AggregatedClaims src1 = new AggregatedClaims("src1", new HashSet<>(Arrays.asList("email", "verified_claims")), new PlainJWT(new JWTClaimsSet.Builder().build()));
+		AggregatedClaims src2 = new AggregatedClaims("src2", new HashSet<>(Arrays.asList("email", "verified_claims")), new PlainJWT(new JWTClaimsSet.Builder().build()));
+		
+		Map<String,Object> given = Collections.<String,Object>singletonMap("claims", Collections.singletonMap("given_name", "Alice"));
+		Map<String,Object> family = Collections.<String,Object>singletonMap("claims", Collections.singletonMap("family_name", "Adams"));
+		
+		Map<AggregatedClaims,JWTClaimsSet> resolved = new HashMap<>();
+		resolved.put(src1, new JWTClaimsSet.Builder()
+			.claim("email", "alice@example.com")
+			.claim("verified_claims", given)
+			.build());
+		resolved.put(src2, new JWTClaimsSet.Builder()
+			.claim("email", "alice@example.com")
+			.claim("verified_claims", Arrays.asList(family, given))
+			.build());
+		
+		JSONObject out = ExternalClaimsUtils.mergeResolvedClaims(JSONObjectUtils.parse(json), resolved);
+		
+		assertEquals(Arrays.asList(family, given), out.get("verified_claims"));
+		
+		// Same value from both sources, no reference kept
+		assertEquals("alice@example.com", out.get("email"));
+		assertNull(out.get("_claim_names"));
+		assertNull(out.get("_claim_sources"));
+	}
+	
+	
+	public void testMergeResolvedClaims_protectedClaimsNotMerged()
+		throws Exception {
+		
+		String json =
+			"{" +
+			"   \"sub\": \"alice\"," +
+			"   \"iss\": \"https://op.example.com\"," +
+			"   \"_claim_names\": {" +
+			"     \"email\": \"src1\"," +
+			"     \"sub\": \"src1\"" +
+			"   }," +
+			"   \"_claim_sources\": {" +
+			"     \"src1\": {\"JWT\": \"a.b.c\"}" +
+			"   }" +
+			"  }";
+		
+		Set<String> names = new HashSet<>(Arrays.asList("email", "sub", "iss", "aud", "exp", "iat", "nbf", "_claim_names", "_claim_sources"));
+		AggregatedClaims src1 = new AggregatedClaims("src1", names, new PlainJWT(new JWTClaimsSet.Builder().build()));
+		
+		Map<AggregatedClaims,JWTClaimsSet> resolved = new HashMap<>();
+		resolved.put(src1, new JWTClaimsSet.Builder()
+			.subject("mallory")
+			.issuer("https://evil.example.com")
+			.audience("client")
+			.expirationTime(new Date(2000_000L))
+			.issueTime(new Date(1000_000L))
+			.notBeforeTime(new Date(1000_000L))
+			.claim("email", "alice@example.com")
+			.claim("_claim_names", Collections.singletonMap("x", "y"))
+			.claim("_claim_sources", Collections.singletonMap("y", "z"))
+			.build());
+		
+		JSONObject out = ExternalClaimsUtils.mergeResolvedClaims(JSONObjectUtils.parse(json), resolved);
+		
+		assertEquals("alice", out.get("sub"));
+		assertEquals("https://op.example.com", out.get("iss"));
+		assertEquals("alice@example.com", out.get("email"));
+		for (String name: Arrays.asList("aud", "exp", "iat", "nbf", "_claim_names", "_claim_sources")) {
+			assertNull(name, out.get(name));
+		}
+		assertEquals(3, out.size());
+	}
 }
@@ -35,6 +35,7 @@ import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.as.AuthorizationServerMetadata;
 import com.nimbusds.oauth2.sdk.client.ClientMetadata;
 import com.nimbusds.oauth2.sdk.id.Audience;
+import com.nimbusds.oauth2.sdk.id.Identifier;
 import com.nimbusds.oauth2.sdk.id.Issuer;
 import com.nimbusds.oauth2.sdk.id.Subject;
 import com.nimbusds.oauth2.sdk.util.JSONObjectUtils;
@@ -732,6 +733,36 @@ public class EntityStatementClaimsSetTest extends TestCase {
 	}
 	
 	
+	public void testTrustMarkIssuersGetterAndSetter()
+		throws ParseException {
+		
+		EntityStatementClaimsSet stmt = new EntityStatementClaimsSet(
+			new Issuer("https://fed.c2id.com"),
+			new Subject("https://op.c2id.com"),
+			DateUtils.fromSecondsSinceEpoch(1000),
+			DateUtils.fromSecondsSinceEpoch(2000),
+			JWK_SET);
+		
+		assertNull(stmt.getTrustMarkIssuers());
+		
+		Identifier sirtfi = new Identifier("https://refeds.org/sirtfi");
+		Map<Identifier,List<EntityID>> issuers = new LinkedHashMap<>();
+		issuers.put(sirtfi, Arrays.asList(new EntityID("https://swamid.se"), new EntityID("https://incommon.org")));
+		
+		stmt.setTrustMarkIssuers(issuers);
+		assertEquals(issuers, stmt.getTrustMarkIssuers());
+		
+		JSONObject jsonObject = JSONObjectUtils.getJSONObject(stmt.toJSONObject(), EntityStatementClaimsSet.TRUST_MARK_ISSUERS_CLAIM_NAME);
+		assertEquals(Arrays.asList("https://swamid.se", "https://incommon.org"), JSONObjectUtils.getStringList(jsonObject, sirtfi.getValue()));
+		
+		stmt = new EntityStatementClaimsSet(stmt.toJWTClaimsSet());
+		assertEquals(issuers, stmt.getTrustMarkIssuers());
+		
+		stmt.setTrustMarkIssuers(null);
+		assertNull(stmt.getTrustMarkIssuers());
+	}
+	
+	
 	public void testParseInteropExample() throws java.text.ParseException, ParseException, PolicyViolationException {
 		
 		String json = "{" +
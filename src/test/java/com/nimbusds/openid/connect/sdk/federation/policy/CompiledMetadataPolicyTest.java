@@ -0,0 +1,251 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.policy;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.minidev.json.JSONObject;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.util.JSONObjectUtils;
+import com.nimbusds.openid.connect.sdk.federation.policy.language.OperationName;
+import com.nimbusds.openid.connect.sdk.federation.policy.language.PolicyOperation;
+import com.nimbusds.openid.connect.sdk.federation.policy.language.PolicyViolationException;
+import com.nimbusds.openid.connect.sdk.federation.policy.operations.DefaultPolicyOperationFactory;
+import com.nimbusds.openid.connect.sdk.federation.policy.operations.EssentialOperation;
+import com.nimbusds.openid.connect.sdk.federation.policy.operations.SubsetOfOperation;
+
+
+public class CompiledMetadataPolicyTest extends TestCase {
+	
+	
+	private static final String POLICY_JSON = "{" +
+		"  \"scopes\": {" +
+		"    \"subset_of\": [\"openid\", \"eduperson\", \"phone\"]," +
+		"    \"superset_of\": [\"openid\"]," +
+		"    \"default\": [\"openid\", \"eduperson\"]" +
+		"  }," +
+		"  \"contacts\": {" +
+		"    \"add\": \"helpdesk@example.com\"" +
+		"  }," +
+		"  \"logo_uri\": {" +
+		"    \"one_of\": [" +
+		"      \"https://example.com/logo_small.jpg\"," +
+		"      \"https://example.com/logo_big.jpg\"" +
+		"    ]," +
+		"    \"default\": \"https://example.com/logo_small.jpg\"" +
+		"  }," +
+		"  \"policy_uri\": {" +
+		"    \"value\": \"https://example.com/policy.html\"" +
+		"  }" +
+		"}";
+	
+	
+	public void testEmpty() throws PolicyViolationException, ParseException {
+		
+		CompiledMetadataPolicy compiledPolicy = new MetadataPolicy().compile();
+		
+		assertEquals(0, compiledPolicy.size());
+		
+		assertNull(compiledPolicy.apply(null));
+		
+		JSONObject metadata = JSONObjectUtils.parse("{\"client_name\":\"Example\"}");
+		JSONObject out = compiledPolicy.apply(metadata);
+		assertEquals(metadata, out);
+		assertNotSame(metadata, out);
+		
+		assertEquals("{}", compiledPolicy.toString());
+	}
+	
+	
+	public void testApply_sameAsMetadataPolicy() throws ParseException, PolicyViolationException {
+		
+		MetadataPolicy policy = MetadataPolicy.parse(POLICY_JSON);
+		
+		CompiledMetadataPolicy compiledPolicy = policy.compile();
+		
+		assertEquals(4, compiledPolicy.size());
+		assertEquals(policy.toJSONObject(), compiledPolicy.toMetadataPolicy().toJSONObject());
+		
+		String[] metadataExamples = {
+			"{\"scopes\":[\"openid\"]}",
+			"{\"scopes\":[\"openid\",\"phone\",\"address\"],\"contacts\":[\"rp_admins@cs.example.com\"]}",
+			"{\"scopes\":[\"eduperson\",\"openid\"],\"client_name\":null,\"logo_uri\":\"https://example.com/logo_big.jpg\",\"redirect_uris\":[\"https://cs.example.com/rp1\"]}",
+			"{\"scopes\":[\"openid\",\"openid\",\"eduperson\"],\"policy_uri\":\"https://rp.example.com/policy.html\"}"
+		};
+		
+		for (String json: metadataExamples) {
+			
+			JSONObject metadata = JSONObjectUtils.parse(json);
+			JSONObject metadataCopy = new JSONObject(metadata);
+			
+			JSONObject expected = policy.apply(metadata);
+			assertEquals(expected, compiledPolicy.apply(metadata));
+			
+			// Input not modified
+			assertEquals(metadataCopy, metadata);
+		}
+	}
+	
+	
+	public void testApply_example() throws ParseException, PolicyViolationException {
+		
+		CompiledMetadataPolicy compiledPolicy = MetadataPolicy.parse(POLICY_JSON).compile();
+		
+		JSONObject out = compiledPolicy.apply(JSONObjectUtils.parse("{" +
+			"  \"scopes\": [\"openid\", \"eduperson\", \"address\"]," +
+			"  \"contacts\": [\"rp_admins@cs.example.com\"]," +
+			"  \"redirect_uris\": [\"https://cs.example.com/rp1\"]" +
+			"}"));
+		
+		assertEquals(Arrays.asList("openid", "eduperson"), out.get("scopes"));
+		assertEquals(Arrays.asList("rp_admins@cs.example.com", "helpdesk@example.com"), out.get("contacts"));
+		assertEquals("https://example.com/logo_small.jpg", out.get("logo_uri"));
+		assertEquals("https://example.com/policy.html", out.get("policy_uri"));
+		assertEquals(Collections.singletonList("https://cs.example.com/rp1"), out.get("redirect_uris"));
+		assertEquals(5, out.size());
+	}
+	
+	
+	public void testApply_snapshot() throws PolicyViolationException, ParseException {
+		
+		MetadataPolicy policy = new MetadataPolicy();
+		SubsetOfOperation subsetOfOperation = new SubsetOfOperation();
+		subsetOfOperation.configure(Arrays.asList("code", "code id_token"));
+		policy.put("response_types", subsetOfOperation);
+		
+		CompiledMetadataPolicy compiledPolicy = policy.compile();
+		
+		policy.remove("response_types");
+		
+		JSONObject out = compiledPolicy.apply(JSONObjectUtils.parse("{\"response_types\":[\"code\",\"token\"]}"));
+		assertEquals(Collections.singletonList("code"), out.get("response_types"));
+	}
+	
+	
+	public void testApply_operationsCopied() throws PolicyViolationException, ParseException {
+		
+		MetadataPolicy policy = new MetadataPolicy();
+		SubsetOfOperation subsetOfOperation = new SubsetOfOperation();
+		subsetOfOperation.configure(Arrays.asList("code", "code id_token"));
+		policy.put("response_types", subsetOfOperation);
+		
+		CompiledMetadataPolicy compiledPolicy = policy.compile();
+		
+		// Reconfigure the original operation
+		subsetOfOperation.configure(Collections.singletonList("token"));
+		
+		// Reconfigure the operation of the returned policy
+		PolicyOperation op = compiledPolicy.toMetadataPolicy().getEntry("response_types").getPolicyOperations().get(0);
+		assertNotSame(subsetOfOperation, op);
+		((SubsetOfOperation) op).configure(Collections.singletonList("token"));
+		
+		JSONObject out = compiledPolicy.apply(JSONObjectUtils.parse("{\"response_types\":[\"code\",\"token\"]}"));
+		assertEquals(Collections.singletonList("code"), out.get("response_types"));
+		assertEquals("{\"response_types\":{\"subset_of\":[\"code\",\"code id_token\"]}}", compiledPolicy.toString());
+	}
+	
+	
+	public void testCompile_nonStandardOperation() throws PolicyViolationException, ParseException {
+		
+		final OperationName customName = new OperationName("custom");
+		
+		class CustomOperation extends SubsetOfOperation {
+			@Override
+			public OperationName getOperationName() {
+				return customName;
+			}
+		}
+		
+		MetadataPolicy policy = new MetadataPolicy();
+		CustomOperation customOperation = new CustomOperation();
+		customOperation.configure(Collections.singletonList("code"));
+		policy.put("response_types", customOperation);
+		
+		try {
+			policy.compile();
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unsupported policy operation: custom", e.getMessage());
+		}
+		
+		CompiledMetadataPolicy compiledPolicy = policy.compile(new DefaultPolicyOperationFactory() {
+			@Override
+			public PolicyOperation createForName(final OperationName name) {
+				if (customName.equals(name)) {
+					return new CustomOperation();
+				}
+				return super.createForName(name);
+			}
+		});
+		
+		JSONObject out = compiledPolicy.apply(JSONObjectUtils.parse("{\"response_types\":[\"code\",\"token\"]}"));
+		assertEquals(Collections.singletonList("code"), out.get("response_types"));
+	}
+	
+	
+	public void testApply_violation() throws ParseException, PolicyViolationException {
+		
+		CompiledMetadataPolicy compiledPolicy = MetadataPolicy.parse(POLICY_JSON).compile();
+		
+		try {
+			compiledPolicy.apply(JSONObjectUtils.parse("{\"logo_uri\":\"https://example.com/other.jpg\"}"));
+			fail();
+		} catch (PolicyViolationException e) {
+			assertEquals("Value https://example.com/other.jpg not in policy list: [https://example.com/logo_small.jpg, https://example.com/logo_big.jpg]", e.getMessage());
+		}
+		
+		try {
+			compiledPolicy.apply(JSONObjectUtils.parse("{\"scopes\":[\"phone\"]}"));
+			fail();
+		} catch (PolicyViolationException e) {
+			assertEquals("Missing values: [openid]", e.getMessage());
+		}
+		
+		try {
+			compiledPolicy.apply(JSONObjectUtils.parse("{\"logo_uri\":10}"));
+			fail();
+		} catch (PolicyViolationException e) {
+			assertEquals("The value must be a string", e.getMessage());
+		}
+	}
+	
+	
+	public void testApply_essential() throws PolicyViolationException, ParseException {
+		
+		MetadataPolicy policy = new MetadataPolicy();
+		EssentialOperation essentialOperation = new EssentialOperation();
+		essentialOperation.configure(true);
+		policy.put("client_name", essentialOperation);
+		
+		CompiledMetadataPolicy compiledPolicy = policy.compile();
+		
+		try {
+			compiledPolicy.apply(new JSONObject());
+			fail();
+		} catch (PolicyViolationException e) {
+			assertEquals("Essential parameter not present", e.getMessage());
+		}
+		
+		JSONObject metadata = JSONObjectUtils.parse("{\"client_name\":\"Example\"}");
+		assertEquals(metadata, compiledPolicy.apply(metadata));
+	}
+}
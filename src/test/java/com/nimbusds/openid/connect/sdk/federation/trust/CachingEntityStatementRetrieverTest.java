@@ -0,0 +1,134 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.util.DateUtils;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatementClaimsSet;
+
+
+public class CachingEntityStatementRetrieverTest extends TestCase {
+	
+	
+	public void testCacheAndServe() throws ResolveException {
+		
+		FederationCrawlerTest.MockRetriever retriever = new FederationCrawlerTest.MockRetriever();
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		assertEquals(retriever, cache.getRetriever());
+		assertEquals(0, cache.size());
+		
+		EntityStatement stmt = cache.fetchSelfIssuedEntityStatement(FederationCrawlerTest.OP);
+		assertEquals(FederationCrawlerTest.SELF_STATEMENTS.get(FederationCrawlerTest.OP), stmt);
+		assertEquals(stmt, cache.fetchSelfIssuedEntityStatement(FederationCrawlerTest.OP));
+		assertEquals(1, retriever.statementFetchCount.get());
+		
+		stmt = cache.fetchEntityStatement(
+			FederationCrawlerTest.apiEndpoint(FederationCrawlerTest.ANCHOR),
+			FederationCrawlerTest.ANCHOR,
+			FederationCrawlerTest.OP);
+		assertEquals(stmt, cache.fetchEntityStatement(
+			FederationCrawlerTest.apiEndpoint(FederationCrawlerTest.ANCHOR),
+			FederationCrawlerTest.ANCHOR,
+			FederationCrawlerTest.OP));
+		assertEquals(2, retriever.statementFetchCount.get());
+		
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.getCachedEntityStatements().size());
+		
+		cache.invalidate(FederationCrawlerTest.OP);
+		assertEquals(0, cache.size());
+		assertNull(cache.getCachedSelfIssuedEntityStatement(FederationCrawlerTest.OP));
+		assertNull(cache.getCachedEntityStatement(FederationCrawlerTest.ANCHOR, FederationCrawlerTest.OP));
+	}
+	
+	
+	public void testExpired() throws Exception {
+		
+		JWKSet jwkSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("1").generate());
+		
+		EntityID entityID = new EntityID("https://rp.example.com");
+		
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			entityID,
+			entityID,
+			DateUtils.fromSecondsSinceEpoch(nowTs - 3600),
+			DateUtils.fromSecondsSinceEpoch(nowTs - 60),
+			jwkSet.toPublicJWKSet());
+		EntityStatement expired = EntityStatement.sign(claimsSet, jwkSet.getKeys().get(0));
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(new FederationCrawlerTest.MockRetriever());
+		cache.put(expired);
+		
+		assertEquals(0, cache.size());
+		assertNull(cache.getCachedSelfIssuedEntityStatement(entityID));
+		assertEquals(0, cache.purgeExpired());
+		
+		cache.put(FederationCrawlerTest.SELF_STATEMENTS.get(FederationCrawlerTest.OP));
+		assertEquals(1, cache.size());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+	
+	
+	public void testMaxSize() {
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(new FederationCrawlerTest.MockRetriever(), 2);
+		assertEquals(2, cache.getMaxSize());
+		
+		assertEquals(CachingEntityStatementRetriever.DEFAULT_MAX_SIZE, new CachingEntityStatementRetriever(new FederationCrawlerTest.MockRetriever()).getMaxSize());
+		
+		cache.put(FederationCrawlerTest.SELF_STATEMENTS.get(FederationCrawlerTest.ANCHOR));
+		cache.put(FederationCrawlerTest.SELF_STATEMENTS.get(FederationCrawlerTest.OP));
+		cache.put(FederationCrawlerTest.SELF_STATEMENTS.get(FederationCrawlerTest.RP));
+		
+		assertEquals(2, cache.size());
+	}
+	
+	
+	public void testRejectNonPositiveMaxSize() {
+		
+		try {
+			new CachingEntityStatementRetriever(new FederationCrawlerTest.MockRetriever(), 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max cache size must be positive", e.getMessage());
+		}
+	}
+	
+	
+	public void testRejectNullRetriever() {
+		
+		try {
+			new CachingEntityStatementRetriever(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The entity statement retriever must not be null", e.getMessage());
+		}
+	}
+}
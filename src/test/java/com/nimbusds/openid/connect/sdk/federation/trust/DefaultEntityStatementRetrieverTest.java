@@ -437,4 +437,64 @@ public class DefaultEntityStatementRetrieverTest {
 			assertEquals(400, e.getErrorObject().getHTTPStatusCode());
 		}
 	}
+	
+	
+	@Test
+	public void testFetchEntityListing()
+		throws Exception {
+		
+		final Issuer issuer = new Issuer("http://localhost:" + port());
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/federation")
+			.havingQueryString(new BaseMatcher<String>() {
+				@Override
+				public boolean matches(Object o) {
+					Map<String,List<String>> params = URLUtils.parseParameters(o.toString());
+					return
+						params.get("operation").equals(Collections.singletonList(OperationType.LISTING.getValue()))
+							&&
+						params.get("iss").equals(Collections.singletonList(issuer.getValue()));
+				}
+				@Override
+				public void describeTo(Description description) {}
+			})
+			.respond()
+			.withStatus(200)
+			.withContentType("application/json")
+			.withBody("[\"https://op.c2id.com\",\"https://rp.c2id.com\"]");
+		
+		DefaultEntityStatementRetriever retriever = new DefaultEntityStatementRetriever();
+		
+		List<EntityID> listing = retriever.fetchEntityListing(URI.create(issuer + "/federation"), new EntityID(issuer.getValue()));
+		
+		assertEquals(Arrays.asList(new EntityID("https://op.c2id.com"), new EntityID("https://rp.c2id.com")), listing);
+		
+		assertEquals(1, retriever.getRecordedRequests().size());
+	}
+	
+	
+	@Test
+	public void testFetchEntityListing_error() {
+		
+		final Issuer issuer = new Issuer("http://localhost:" + port());
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/federation")
+			.respond()
+			.withStatus(404)
+			.withContentType("application/json")
+			.withBody("{\"error\":\"not_found\"}");
+		
+		DefaultEntityStatementRetriever retriever = new DefaultEntityStatementRetriever();
+		
+		try {
+			retriever.fetchEntityListing(URI.create(issuer + "/federation"), new EntityID(issuer.getValue()));
+			fail();
+		} catch (ResolveException e) {
+			assertEquals("Entity listing error response from " + issuer + " at " + issuer + "/federation: 404 not_found", e.getMessage());
+		}
+	}
 }
@@ -0,0 +1,433 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.util.DateUtils;
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatementClaimsSet;
+import com.nimbusds.openid.connect.sdk.federation.entities.FederationEntityMetadata;
+import com.nimbusds.openid.connect.sdk.federation.trust.constraints.TrustChainConstraints;
+
+
+public class FederationCrawlerTest extends TestCase {
+	
+	
+	static final EntityID ANCHOR = new EntityID("https://federation.com");
+	
+	static final EntityID INTERMEDIATE = new EntityID("https://intermediate.com");
+	
+	static final EntityID OP = new EntityID("https://op.com");
+	
+	static final EntityID RP = new EntityID("https://rp.com");
+	
+	static final JWKSet ANCHOR_JWK_SET;
+	
+	static final Map<EntityID,EntityStatement> SELF_STATEMENTS = new HashMap<>();
+	
+	static final Map<String,EntityStatement> SUPERIOR_STATEMENTS = new HashMap<>();
+	
+	static final Map<EntityID,List<EntityID>> LISTINGS = new HashMap<>();
+	
+	
+	static URI apiEndpoint(final EntityID entityID) {
+		return URI.create(entityID + "/api");
+	}
+	
+	
+	static EntityStatement sign(final EntityID iss, final EntityID sub, final JWKSet issJWKSet, final JWKSet subJWKSet, final boolean authority)
+		throws Exception {
+		
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			iss,
+			sub,
+			DateUtils.fromSecondsSinceEpoch(nowTs),
+			DateUtils.fromSecondsSinceEpoch(nowTs + 3600),
+			subJWKSet.toPublicJWKSet());
+		if (authority) {
+			claimsSet.setFederationEntityMetadata(new FederationEntityMetadata(apiEndpoint(sub)));
+		}
+		return EntityStatement.sign(claimsSet, issJWKSet.getKeys().get(0));
+	}
+	
+	
+	static {
+		try {
+			ANCHOR_JWK_SET = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("a").generate());
+			JWKSet intermediateJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("i").generate());
+			JWKSet opJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("op").generate());
+			JWKSet rpJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("rp").generate());
+			
+			SELF_STATEMENTS.put(ANCHOR, sign(ANCHOR, ANCHOR, ANCHOR_JWK_SET, ANCHOR_JWK_SET, true));
+			SELF_STATEMENTS.put(INTERMEDIATE, sign(INTERMEDIATE, INTERMEDIATE, intermediateJWKSet, intermediateJWKSet, true));
+			SELF_STATEMENTS.put(OP, sign(OP, OP, opJWKSet, opJWKSet, false));
+			SELF_STATEMENTS.put(RP, sign(RP, RP, rpJWKSet, rpJWKSet, false));
+			
+			SUPERIOR_STATEMENTS.put(ANCHOR + " " + INTERMEDIATE, sign(ANCHOR, INTERMEDIATE, ANCHOR_JWK_SET, intermediateJWKSet, false));
+			SUPERIOR_STATEMENTS.put(ANCHOR + " " + OP, sign(ANCHOR, OP, ANCHOR_JWK_SET, opJWKSet, false));
+			SUPERIOR_STATEMENTS.put(INTERMEDIATE + " " + RP, sign(INTERMEDIATE, RP, intermediateJWKSet, rpJWKSet, false));
+			
+			LISTINGS.put(ANCHOR, Arrays.asList(INTERMEDIATE, OP));
+			LISTINGS.put(INTERMEDIATE, Collections.singletonList(RP));
+		
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	static class MockRetriever implements EntityStatementRetriever, EntityListingRetriever {
+		
+		
+		final AtomicInteger statementFetchCount = new AtomicInteger();
+		
+		
+		final AtomicInteger listingFetchCount = new AtomicInteger();
+		
+		
+		final Map<EntityID,EntityStatement> selfStatements = new HashMap<>(SELF_STATEMENTS);
+		
+		
+		final Map<String,EntityStatement> superiorStatements = new HashMap<>(SUPERIOR_STATEMENTS);
+		
+		
+		@Override
+		public EntityStatement fetchSelfIssuedEntityStatement(final EntityID target) throws ResolveException {
+			statementFetchCount.incrementAndGet();
+			EntityStatement stmt = selfStatements.get(target);
+			if (stmt == null) {
+				throw new ResolveException("Not found: " + target);
+			}
+			return stmt;
+		}
+		
+		
+		@Override
+		public EntityStatement fetchEntityStatement(final URI federationAPIEndpoint, final EntityID issuer, final EntityID subject) throws ResolveException {
+			statementFetchCount.incrementAndGet();
+			assertEquals(apiEndpoint(issuer), federationAPIEndpoint);
+			EntityStatement stmt = superiorStatements.get(issuer + " " + subject);
+			if (stmt == null) {
+				throw new ResolveException("Not found: " + subject);
+			}
+			return stmt;
+		}
+		
+		
+		@Override
+		public List<EntityID> fetchEntityListing(final URI federationAPIEndpoint, final EntityID issuer) throws ResolveException {
+			listingFetchCount.incrementAndGet();
+			assertEquals(apiEndpoint(issuer), federationAPIEndpoint);
+			return LISTINGS.get(issuer);
+		}
+	}
+	
+	
+	public void testCrawl() {
+		
+		MockRetriever retriever = new MockRetriever();
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		
+		assertEquals(ANCHOR, crawler.getTrustAnchor());
+		assertEquals(cache, crawler.getCache());
+		assertEquals(TrustChainConstraints.NO_CONSTRAINTS, crawler.getConstraints());
+		
+		try {
+			Set<EntityID> entities = crawler.crawl();
+			
+			assertEquals(new HashSet<>(Arrays.asList(ANCHOR, INTERMEDIATE, OP, RP)), entities);
+			assertTrue(crawler.getAccumulatedExceptions().isEmpty());
+			
+			assertEquals(7, retriever.statementFetchCount.get());
+			assertEquals(2, retriever.listingFetchCount.get());
+			
+			assertEquals(7, cache.size());
+			assertEquals(new HashSet<>(Arrays.asList(ANCHOR, INTERMEDIATE, OP, RP)), cache.getCachedEntityIDs());
+			assertEquals(SUPERIOR_STATEMENTS.get(INTERMEDIATE + " " + RP), cache.getCachedEntityStatement(INTERMEDIATE, RP));
+			assertEquals(Collections.singleton(ANCHOR), cache.getCachedEntityStatementsAbout(OP).keySet());
+			
+			// Incremental re-crawl, nothing about to expire
+			assertEquals(entities, crawler.crawl());
+			assertEquals(7, retriever.statementFetchCount.get());
+			assertEquals(2, retriever.listingFetchCount.get());
+		
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testRecrawl_refreshAhead() {
+		
+		MockRetriever retriever = new MockRetriever();
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		// All statements expire in 1 hour, fall within refresh-ahead
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever,
+			TrustChainConstraints.NO_CONSTRAINTS, 2, 7200);
+		
+		try {
+			crawler.crawl();
+			assertEquals(7, retriever.statementFetchCount.get());
+			assertEquals(2, retriever.listingFetchCount.get());
+			
+			crawler.crawl();
+			assertEquals(14, retriever.statementFetchCount.get());
+			assertEquals(4, retriever.listingFetchCount.get());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_maxPathLength() {
+		
+		MockRetriever retriever = new MockRetriever();
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, null, cache, retriever,
+			new TrustChainConstraints(0), 4, 0);
+		
+		try {
+			assertEquals(new HashSet<>(Arrays.asList(ANCHOR, INTERMEDIATE, OP)), crawler.crawl());
+			assertEquals(1, retriever.listingFetchCount.get());
+			assertNull(cache.getCachedSelfIssuedEntityStatement(RP));
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_invalidSignatureSkipped() throws Exception {
+		
+		MockRetriever retriever = new MockRetriever();
+		
+		// OP self-statement signed with other key
+		JWKSet otherJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("op").generate());
+		retriever.selfStatements.put(OP, sign(OP, OP, otherJWKSet, otherJWKSet, false));
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		
+		try {
+			crawler.crawl();
+			assertNull(cache.getCachedSelfIssuedEntityStatement(OP));
+			assertNotNull(cache.getCachedSelfIssuedEntityStatement(RP));
+			assertEquals(1, crawler.getAccumulatedExceptions().size());
+			assertTrue(crawler.getAccumulatedExceptions().get(0).getMessage().startsWith("Invalid self-issued entity statement for " + OP));
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_trustAnchorNotReachable() {
+		
+		MockRetriever retriever = new MockRetriever();
+		retriever.selfStatements.remove(ANCHOR);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, new CachingEntityStatementRetriever(retriever), retriever);
+		
+		try {
+			assertTrue(crawler.crawl().isEmpty());
+			assertEquals("Not found: " + ANCHOR, crawler.getAccumulatedExceptions().get(0).getMessage());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_missingJWKSetInSuperiorStatementRejected() throws Exception {
+		
+		MockRetriever retriever = new MockRetriever();
+		
+		// Anchor statement about OP without jwks
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			ANCHOR,
+			OP,
+			DateUtils.fromSecondsSinceEpoch(nowTs),
+			DateUtils.fromSecondsSinceEpoch(nowTs + 3600),
+			null);
+		retriever.superiorStatements.put(ANCHOR + " " + OP, EntityStatement.sign(claimsSet, ANCHOR_JWK_SET.getKeys().get(0)));
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		
+		try {
+			crawler.crawl();
+			assertNull(cache.getCachedSelfIssuedEntityStatement(OP));
+			assertNotNull(cache.getCachedSelfIssuedEntityStatement(RP));
+			assertEquals(1, crawler.getAccumulatedExceptions().size());
+			assertEquals("Missing JWK set in entity statement from " + ANCHOR + " about " + OP, crawler.getAccumulatedExceptions().get(0).getMessage());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_foreignSelfStatementRejected() throws Exception {
+		
+		MockRetriever retriever = new MockRetriever();
+		
+		// OP returns a self-statement for RP, signed with the OP key
+		// vouched for by the anchor
+		JWKSet opJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("op").generate());
+		retriever.superiorStatements.put(ANCHOR + " " + OP, sign(ANCHOR, OP, ANCHOR_JWK_SET, opJWKSet, false));
+		retriever.selfStatements.put(OP, sign(RP, RP, opJWKSet, opJWKSet, false));
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		
+		try {
+			crawler.crawl();
+			assertNull(cache.getCachedSelfIssuedEntityStatement(OP));
+			assertEquals(SELF_STATEMENTS.get(RP), cache.getCachedSelfIssuedEntityStatement(RP));
+			assertEquals(1, crawler.getAccumulatedExceptions().size());
+			assertEquals("Unexpected self-issued entity statement for " + OP + ": Found issuer " + RP + " and subject " + RP, crawler.getAccumulatedExceptions().get(0).getMessage());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_foreignSuperiorStatementRejected() throws Exception {
+		
+		MockRetriever retriever = new MockRetriever();
+		
+		// The anchor statement about OP is returned for the intermediate
+		retriever.superiorStatements.put(ANCHOR + " " + INTERMEDIATE, SUPERIOR_STATEMENTS.get(ANCHOR + " " + OP));
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		
+		try {
+			crawler.crawl();
+			assertNull(cache.getCachedSelfIssuedEntityStatement(INTERMEDIATE));
+			assertEquals(1, crawler.getAccumulatedExceptions().size());
+			assertEquals("Unexpected entity statement from " + ANCHOR + " about " + INTERMEDIATE + ": Found issuer " + ANCHOR + " and subject " + OP, crawler.getAccumulatedExceptions().get(0).getMessage());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testCrawl_foreignTrustAnchorStatementRejected() {
+		
+		MockRetriever retriever = new MockRetriever();
+		retriever.selfStatements.put(ANCHOR, SELF_STATEMENTS.get(INTERMEDIATE));
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, new CachingEntityStatementRetriever(retriever), retriever);
+		
+		try {
+			assertTrue(crawler.crawl().isEmpty());
+			assertEquals("Unexpected self-issued entity statement for " + ANCHOR + ": Found issuer " + INTERMEDIATE + " and subject " + INTERMEDIATE, crawler.getAccumulatedExceptions().get(0).getMessage());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testNextRefreshTime() {
+		
+		MockRetriever retriever = new MockRetriever();
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, new CachingEntityStatementRetriever(retriever), retriever);
+		
+		try {
+			assertNull(crawler.getNextRefreshTime());
+			
+			crawler.crawl();
+			
+			long earliestExp = Long.MAX_VALUE;
+			for (EntityStatement stmt: SELF_STATEMENTS.values()) {
+				earliestExp = Math.min(earliestExp, stmt.getClaimsSet().getExpirationTime().getTime());
+			}
+			for (EntityStatement stmt: SUPERIOR_STATEMENTS.values()) {
+				earliestExp = Math.min(earliestExp, stmt.getClaimsSet().getExpirationTime().getTime());
+			}
+			
+			assertEquals(new Date(earliestExp - FederationCrawler.DEFAULT_REFRESH_AHEAD_SECONDS * 1000L), crawler.getNextRefreshTime());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testNextRefreshTime_trustAnchorNotReachable() {
+		
+		MockRetriever retriever = new MockRetriever();
+		retriever.selfStatements.remove(ANCHOR);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, new CachingEntityStatementRetriever(retriever), retriever);
+		
+		try {
+			crawler.crawl();
+			assertNull(crawler.getNextRefreshTime());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+	
+	
+	public void testAutoRefresh() throws InterruptedException {
+		
+		MockRetriever retriever = new MockRetriever();
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		
+		try {
+			assertFalse(crawler.isAutoRefreshStarted());
+			
+			crawler.startAutoRefresh();
+			assertTrue(crawler.isAutoRefreshStarted());
+			
+			// Started again, no effect
+			crawler.startAutoRefresh();
+			
+			for (int i=0; i < 100 && crawler.getNextRefreshTime() == null; i++) {
+				Thread.sleep(20);
+			}
+			
+			assertNotNull(crawler.getNextRefreshTime());
+			assertEquals(new HashSet<>(Arrays.asList(ANCHOR, INTERMEDIATE, OP, RP)), cache.getCachedEntityIDs());
+			assertEquals(7, retriever.statementFetchCount.get());
+		} finally {
+			crawler.shutdown();
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.TestCase;
+import net.minidev.json.JSONObject;
+
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.util.DateUtils;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatement;
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityStatementClaimsSet;
+import com.nimbusds.openid.connect.sdk.federation.entities.FederationEntityMetadata;
+import com.nimbusds.openid.connect.sdk.federation.entities.FederationMetadataType;
+import com.nimbusds.openid.connect.sdk.federation.trust.constraints.TrustChainConstraints;
+
+
+public class FederationSnapshotFileTest extends TestCase {
+	
+	
+	private static final EntityID ANCHOR = FederationCrawlerTest.ANCHOR;
+	
+	private static final EntityID INTERMEDIATE = FederationCrawlerTest.INTERMEDIATE;
+	
+	private static final EntityID OP = FederationCrawlerTest.OP;
+	
+	private static final EntityID RP = FederationCrawlerTest.RP;
+	
+	private static final JWKSet ANCHOR_JWK_SET;
+	
+	// With authority hints and metadata, for resolving trust chains
+	private static final Map<EntityID,EntityStatement> SELF_STATEMENTS = new HashMap<>();
+	
+	private static final Map<String,EntityStatement> SUPERIOR_STATEMENTS = new HashMap<>();
+	
+	
+	private static EntityStatement sign(final EntityID iss, final EntityID sub, final JWKSet issJWKSet, final JWKSet subJWKSet, final boolean authority, final EntityID authorityHint)
+		throws Exception {
+		
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			iss,
+			sub,
+			DateUtils.fromSecondsSinceEpoch(nowTs),
+			DateUtils.fromSecondsSinceEpoch(nowTs + 3600),
+			subJWKSet != null ? subJWKSet.toPublicJWKSet() : null);
+		if (authorityHint != null) {
+			claimsSet.setAuthorityHints(Collections.singletonList(authorityHint));
+		}
+		if (authority) {
+			claimsSet.setFederationEntityMetadata(new FederationEntityMetadata(FederationCrawlerTest.apiEndpoint(sub)));
+		} else if (iss.equals(sub)) {
+			// Leaf entity, metadata required in self-statements
+			JSONObject metadata = new JSONObject();
+			metadata.put("client_name", sub.getValue());
+			claimsSet.setMetadata(FederationMetadataType.OPENID_RELYING_PARTY, metadata);
+		}
+		return EntityStatement.sign(claimsSet, issJWKSet.getKeys().get(0));
+	}
+	
+	
+	static {
+		try {
+			ANCHOR_JWK_SET = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("a").generate());
+			JWKSet intermediateJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("i").generate());
+			JWKSet opJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("op").generate());
+			JWKSet rpJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("rp").generate());
+			
+			SELF_STATEMENTS.put(ANCHOR, sign(ANCHOR, ANCHOR, ANCHOR_JWK_SET, ANCHOR_JWK_SET, true, null));
+			SELF_STATEMENTS.put(INTERMEDIATE, sign(INTERMEDIATE, INTERMEDIATE, intermediateJWKSet, intermediateJWKSet, true, ANCHOR));
+			SELF_STATEMENTS.put(OP, sign(OP, OP, opJWKSet, opJWKSet, false, ANCHOR));
+			SELF_STATEMENTS.put(RP, sign(RP, RP, rpJWKSet, rpJWKSet, false, INTERMEDIATE));
+			
+			SUPERIOR_STATEMENTS.put(ANCHOR + " " + INTERMEDIATE, sign(ANCHOR, INTERMEDIATE, ANCHOR_JWK_SET, intermediateJWKSet, false, null));
+			SUPERIOR_STATEMENTS.put(ANCHOR + " " + OP, sign(ANCHOR, OP, ANCHOR_JWK_SET, opJWKSet, false, null));
+			SUPERIOR_STATEMENTS.put(INTERMEDIATE + " " + RP, sign(INTERMEDIATE, RP, intermediateJWKSet, rpJWKSet, false, INTERMEDIATE));
+		
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	private static FederationCrawlerTest.MockRetriever createRetriever() {
+		
+		FederationCrawlerTest.MockRetriever retriever = new FederationCrawlerTest.MockRetriever();
+		retriever.selfStatements.putAll(SELF_STATEMENTS);
+		retriever.superiorStatements.putAll(SUPERIOR_STATEMENTS);
+		return retriever;
+	}
+	
+	
+	private File file;
+	
+	
+	@Override
+	public void setUp() throws IOException {
+		file = File.createTempFile("federation", ".snapshot");
+		assertTrue(file.delete());
+	}
+	
+	
+	@Override
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+	
+	
+	private static CachingEntityStatementRetriever crawl(final FederationCrawlerTest.MockRetriever retriever) {
+		
+		CachingEntityStatementRetriever cache = new CachingEntityStatementRetriever(retriever);
+		FederationCrawler crawler = new FederationCrawler(ANCHOR, ANCHOR_JWK_SET, cache, retriever);
+		try {
+			crawler.crawl();
+		} finally {
+			crawler.shutdown();
+		}
+		return cache;
+	}
+	
+	
+	public void testSaveAndRestore() throws IOException, ResolveException {
+		
+		CachingEntityStatementRetriever cache = crawl(createRetriever());
+		assertEquals(7, cache.size());
+		
+		FederationSnapshotFile snapshot = new FederationSnapshotFile(file);
+		assertEquals(file, snapshot.getFile());
+		
+		assertEquals(7, snapshot.save(cache));
+		
+		// Warm restart
+		FederationCrawlerTest.MockRetriever retriever = createRetriever();
+		CachingEntityStatementRetriever restoredCache = new CachingEntityStatementRetriever(retriever);
+		
+		assertEquals(7, snapshot.restore(restoredCache, Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET)));
+		assertEquals(7, restoredCache.size());
+		assertEquals(cache.getCachedEntityIDs(), restoredCache.getCachedEntityIDs());
+		
+		// Resolve from restored cache, no network calls
+		TrustChainResolver resolver = new TrustChainResolver(
+			Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET),
+			TrustChainConstraints.NO_CONSTRAINTS,
+			restoredCache);
+		TrustChainSet chains = resolver.resolveTrustChains(RP);
+		assertEquals(1, chains.size());
+		assertEquals(0, retriever.statementFetchCount.get());
+	}
+	
+	
+	public void testRead_fileNotFound() throws IOException {
+		
+		assertTrue(new FederationSnapshotFile(file).read(Collections.singletonMap(ANCHOR, (JWKSet) null)).isEmpty());
+	}
+	
+	
+	public void testRead_trustAnchorSelfSigned() throws IOException {
+		
+		FederationSnapshotFile snapshot = new FederationSnapshotFile(file);
+		snapshot.save(crawl(createRetriever()));
+		
+		assertEquals(7, snapshot.read(Collections.singletonMap(ANCHOR, (JWKSet) null)).size());
+	}
+	
+	
+	public void testRead_unknownTrustAnchor() throws Exception {
+		
+		FederationSnapshotFile snapshot = new FederationSnapshotFile(file);
+		snapshot.save(crawl(createRetriever()));
+		
+		JWKSet otherJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("a").generate());
+		
+		// Anchor statement fails verification, nothing can be linked
+		assertTrue(snapshot.read(Collections.singletonMap(ANCHOR, otherJWKSet.toPublicJWKSet())).isEmpty());
+		
+		assertTrue(snapshot.read(Collections.singletonMap(new EntityID("https://other.com"), (JWKSet) null)).isEmpty());
+	}
+	
+	
+	public void testWrite_skipExpiredCorruptedAndInvalid() throws Exception {
+		
+		FederationSnapshotFile snapshot = new FederationSnapshotFile(file);
+		
+		List<EntityStatement> statements = new LinkedList<>();
+		
+		statements.add(SELF_STATEMENTS.get(ANCHOR));
+		statements.add(SUPERIOR_STATEMENTS.get(ANCHOR + " " + OP));
+		
+		// Expired anchor statement about the intermediate
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			ANCHOR,
+			INTERMEDIATE,
+			DateUtils.fromSecondsSinceEpoch(nowTs - 3600),
+			DateUtils.fromSecondsSinceEpoch(nowTs - 60),
+			SELF_STATEMENTS.get(INTERMEDIATE).getClaimsSet().getJWKSet());
+		statements.add(EntityStatement.sign(claimsSet, ANCHOR_JWK_SET.getKeys().get(0)));
+		statements.add(SELF_STATEMENTS.get(INTERMEDIATE));
+		
+		// OP self statement signed with another key
+		JWKSet otherJWKSet = new JWKSet(new ECKeyGenerator(Curve.P_256).keyID("op").generate());
+		statements.add(sign(OP, OP, otherJWKSet, otherJWKSet, false, ANCHOR));
+		
+		assertEquals(4, snapshot.write(statements));
+		
+		// Truncated record
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write("eyJhbGciOiJFUzI1".getBytes(StandardCharsets.UTF_8));
+		}
+		
+		List<EntityStatement> read = snapshot.read(Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET));
+		
+		assertEquals(2, read.size());
+		assertEquals(SELF_STATEMENTS.get(ANCHOR).getSignedStatement().serialize(), read.get(0).getSignedStatement().serialize());
+		assertEquals(SUPERIOR_STATEMENTS.get(ANCHOR + " " + OP).getSignedStatement().serialize(), read.get(1).getSignedStatement().serialize());
+		
+		// Duplicate OP self statement, the one which verifies is used
+		statements.add(SELF_STATEMENTS.get(OP));
+		assertEquals(5, snapshot.write(statements));
+		assertEquals(3, snapshot.read(Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET)).size());
+		
+		// Compact
+		assertEquals(3, snapshot.write(snapshot.read(Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET))));
+		assertEquals(4, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+	}
+	
+	
+	public void testWrite_recordIsJWT() throws Exception {
+		
+		FederationSnapshotFile snapshot = new FederationSnapshotFile(file);
+		
+		assertEquals(1, snapshot.write(Collections.singletonList(SELF_STATEMENTS.get(ANCHOR))));
+		
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0).startsWith("#"));
+		assertEquals(SELF_STATEMENTS.get(ANCHOR).getSignedStatement().serialize(), lines.get(1));
+	}
+	
+	
+	public void testRead_formatOneRecords() throws Exception {
+		
+		List<String> lines = new LinkedList<>();
+		lines.add("# Federation entity statements snapshot, format 1");
+		lines.add("1600000000000 " + SELF_STATEMENTS.get(ANCHOR).getSignedStatement().serialize());
+		lines.add("1600000000000 " + SUPERIOR_STATEMENTS.get(ANCHOR + " " + OP).getSignedStatement().serialize());
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+		
+		List<EntityStatement> read = new FederationSnapshotFile(file).read(Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET));
+		
+		assertEquals(2, read.size());
+		assertEquals(SELF_STATEMENTS.get(ANCHOR).getSignedStatement().serialize(), read.get(0).getSignedStatement().serialize());
+		assertEquals(SUPERIOR_STATEMENTS.get(ANCHOR + " " + OP).getSignedStatement().serialize(), read.get(1).getSignedStatement().serialize());
+	}
+	
+	
+	public void testRead_missingJWKSetInSuperiorStatement() throws Exception {
+		
+		FederationSnapshotFile snapshot = new FederationSnapshotFile(file);
+		
+		List<EntityStatement> statements = new LinkedList<>();
+		statements.add(SELF_STATEMENTS.get(ANCHOR));
+		statements.add(sign(ANCHOR, OP, ANCHOR_JWK_SET, null, false, null));
+		statements.add(SELF_STATEMENTS.get(OP));
+		snapshot.write(statements);
+		
+		List<EntityStatement> read = snapshot.read(Collections.singletonMap(ANCHOR, ANCHOR_JWK_SET));
+		
+		// OP self statement not vouched for by the anchor
+		assertEquals(2, read.size());
+		for (EntityStatement statement: read) {
+			assertFalse(statement.getClaimsSet().isSelfStatement() && OP.equals(statement.getEntityID()));
+		}
+	}
+	
+	
+	public void testRejectNullFile() {
+		
+		try {
+			new FederationSnapshotFile(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The file must not be null", e.getMessage());
+		}
+	}
+}
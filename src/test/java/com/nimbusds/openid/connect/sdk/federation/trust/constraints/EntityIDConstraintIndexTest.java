@@ -0,0 +1,164 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust.constraints;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.openid.connect.sdk.federation.entities.EntityID;
+
+
+public class EntityIDConstraintIndexTest extends TestCase {
+	
+	
+	private static final List<EntityID> ENTITY_IDS = Arrays.asList(
+		new EntityID("https://example.com"),
+		new EntityID("https://my.example.com"),
+		new EntityID("https://abc.my.example.com"),
+		new EntityID("https://my.example.com:8080"),
+		new EntityID("https://my.example.com/some/path"),
+		new EntityID("https://my.example.com/other/path"),
+		new EntityID("https://example.org"),
+		new EntityID("https://my.example.org"),
+		new EntityID("http://my.example.com"),
+		new EntityID("http://my.example.org"),
+		new EntityID("https://my.example.community"));
+	
+	
+	private static void assertSameAsLinearMatch(final List<EntityIDConstraint> constraints) {
+		
+		EntityIDConstraintIndex index = new EntityIDConstraintIndex(constraints);
+		
+		assertEquals(constraints.isEmpty(), index.isEmpty());
+		
+		for (EntityID entityID: ENTITY_IDS) {
+			
+			boolean expected = false;
+			for (EntityIDConstraint c: constraints) {
+				if (c.matches(entityID)) {
+					expected = true;
+					break;
+				}
+			}
+			
+			assertEquals(constraints + " " + entityID, expected, index.matches(entityID));
+		}
+	}
+	
+	
+	public void testEmpty() {
+		
+		EntityIDConstraintIndex index = new EntityIDConstraintIndex(Collections.<EntityIDConstraint>emptyList());
+		assertTrue(index.isEmpty());
+		assertFalse(index.matches(new EntityID("https://example.com")));
+	}
+	
+	
+	public void testExactMatch() {
+		
+		assertSameAsLinearMatch(Collections.<EntityIDConstraint>singletonList(new ExactMatchEntityIDConstraint(new EntityID("https://my.example.com"))));
+		assertSameAsLinearMatch(Arrays.<EntityIDConstraint>asList(
+			new ExactMatchEntityIDConstraint(new EntityID("https://example.com")),
+			new ExactMatchEntityIDConstraint(new EntityID("http://my.example.org"))));
+	}
+	
+	
+	public void testSubtree() {
+		
+		for (String pattern: Arrays.asList(
+			"https://.example.com",
+			"https://.my.example.com",
+			"https://.example.com:8080",
+			"https://.example.com/some/path",
+			"https://.com",
+			"http://.example.com",
+			"http://.org")) {
+			
+			assertSameAsLinearMatch(Collections.<EntityIDConstraint>singletonList(new SubtreeEntityIDConstraint(pattern)));
+		}
+	}
+	
+	
+	public void testSubtree_overlappingPatterns() {
+		
+		assertSameAsLinearMatch(Arrays.<EntityIDConstraint>asList(
+			new SubtreeEntityIDConstraint("https://.my.example.com"),
+			new SubtreeEntityIDConstraint("https://.example.com"),
+			new SubtreeEntityIDConstraint("https://.example.com/some/path"),
+			new SubtreeEntityIDConstraint("http://.example.org")));
+	}
+	
+	
+	public void testMixed() {
+		
+		assertSameAsLinearMatch(Arrays.asList(
+			new ExactMatchEntityIDConstraint(new EntityID("https://example.org")),
+			new SubtreeEntityIDConstraint("https://.example.com"),
+			new SubtreeEntityIDConstraint("http://.example.org")));
+	}
+	
+	
+	public void testOtherConstraintType() {
+		
+		EntityIDConstraint custom = new EntityIDConstraint() {
+			@Override
+			public boolean matches(EntityID entityID) {
+				return entityID.getValue().contains(":8080");
+			}
+			
+			
+			@Override
+			public String toString() {
+				return "custom";
+			}
+			
+			
+			@Override
+			public boolean equals(Object other) {
+				return this == other;
+			}
+		};
+		
+		assertSameAsLinearMatch(Arrays.asList(
+			custom,
+			new SubtreeEntityIDConstraint("https://.example.org")));
+	}
+	
+	
+	public void testManySubtrees() {
+		
+		List<EntityIDConstraint> constraints = new LinkedList<>();
+		for (int i=0; i < 500; i++) {
+			constraints.add(new SubtreeEntityIDConstraint("https://.op" + i + ".example.com"));
+		}
+		
+		EntityIDConstraintIndex index = new EntityIDConstraintIndex(constraints);
+		
+		assertTrue(index.matches(new EntityID("https://a.op0.example.com")));
+		assertTrue(index.matches(new EntityID("https://a.op499.example.com")));
+		assertFalse(index.matches(new EntityID("https://a.op500.example.com")));
+		assertFalse(index.matches(new EntityID("https://op1.example.com")));
+		
+		assertSameAsLinearMatch(constraints);
+	}
+}
@@ -283,4 +283,26 @@ public class TrustChainConstraintsTest extends TestCase {
 		assertTrue(c.isPermitted(1, new EntityID("https://c.example.net")));
 		assertFalse(c.isPermitted(1, new EntityID("https://some.host.com")));
 	}
+	
+	
+	public void testIsPermitted_manyConstraints() {
+		
+		List<EntityIDConstraint> permitted = new LinkedList<>();
+		List<EntityIDConstraint> excluded = new LinkedList<>();
+		for (int i=0; i < 200; i++) {
+			permitted.add(new SubtreeEntityIDConstraint("https://.federation" + i + ".example.com"));
+			permitted.add(new ExactMatchEntityIDConstraint(new EntityID("https://op" + i + ".example.org")));
+			excluded.add(new SubtreeEntityIDConstraint("https://.test.federation" + i + ".example.com"));
+		}
+		
+		TrustChainConstraints c = new TrustChainConstraints(-1, permitted, excluded);
+		
+		assertTrue(c.isPermitted(new EntityID("https://op.federation0.example.com")));
+		assertTrue(c.isPermitted(new EntityID("https://op.federation199.example.com")));
+		assertFalse(c.isPermitted(new EntityID("https://op.federation200.example.com")));
+		assertFalse(c.isPermitted(new EntityID("https://op.test.federation10.example.com")));
+		assertTrue(c.isPermitted(new EntityID("https://op10.example.org")));
+		assertFalse(c.isPermitted(new EntityID("https://op200.example.org")));
+		assertFalse(c.isPermitted(new EntityID("http://op.federation0.example.com")));
+	}
 }
@@ -0,0 +1,524 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.federation.trust.marks;
+
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.util.DateUtils;
+import com.nimbusds.oauth2.sdk.id.Identifier;
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.openid.connect.sdk.federation.entities.*;
+import com.nimbusds.openid.connect.sdk.federation.trust.EntityStatementRetriever;
+import com.nimbusds.openid.connect.sdk.federation.trust.ResolveException;
+import com.nimbusds.openid.connect.sdk.federation.trust.TrustChainResolver;
+import com.nimbusds.openid.connect.sdk.federation.trust.constraints.TrustChainConstraints;
+
+
+public class TrustMarkVerifierTest extends TestCase {
+	
+	
+	private static final EntityID ANCHOR = new EntityID("https://federation.com");
+	
+	
+	private static final EntityID ISSUER = new EntityID("https://trust-mark-issuer.com");
+	
+	
+	private static final EntityID OP = new EntityID("https://op.com");
+	
+	
+	private static final Identifier SIRTFI = new Identifier("https://refeds.org/sirtfi");
+	
+	
+	private static final Identifier CERTIFIED = new Identifier("https://openid.net/certification/op");
+	
+	
+	private static final Identifier MEMBER = new Identifier("https://federation.com/member");
+	
+	
+	private ECKey anchorKey;
+	
+	
+	private ECKey issuerKey;
+	
+	
+	private MockRetriever retriever;
+	
+	
+	private TrustChainResolver resolver;
+	
+	
+	static class MockRetriever implements EntityStatementRetriever {
+		
+		
+		final Map<EntityID,EntityStatement> selfStatements = new HashMap<>();
+		
+		
+		final Map<String,EntityStatement> superiorStatements = new HashMap<>();
+		
+		
+		final AtomicInteger fetchCount = new AtomicInteger();
+		
+		
+		@Override
+		public EntityStatement fetchSelfIssuedEntityStatement(final EntityID target)
+			throws ResolveException {
+			
+			fetchCount.incrementAndGet();
+			EntityStatement statement = selfStatements.get(target);
+			if (statement == null) {
+				throw new ResolveException("Not found: " + target);
+			}
+			return statement;
+		}
+		
+		
+		@Override
+		public EntityStatement fetchEntityStatement(final URI federationAPIEndpoint, final EntityID issuer, final EntityID subject)
+			throws ResolveException {
+			
+			fetchCount.incrementAndGet();
+			EntityStatement statement = superiorStatements.get(issuer + " " + subject);
+			if (statement == null) {
+				throw new ResolveException("Not found: " + subject);
+			}
+			return statement;
+		}
+	}
+	
+	
+	private static EntityStatement createStatement(final EntityID iss,
+						       final EntityID sub,
+						       final ECKey signingKey,
+						       final JWKSet jwkSet,
+						       final EntityID authorityHint,
+						       final Map<Identifier,List<EntityID>> trustMarkIssuers)
+		throws Exception {
+		
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			iss,
+			sub,
+			DateUtils.fromSecondsSinceEpoch(nowTs),
+			DateUtils.fromSecondsSinceEpoch(nowTs + 3600),
+			jwkSet.toPublicJWKSet());
+		if (iss.equals(sub)) {
+			claimsSet.setFederationEntityMetadata(new FederationEntityMetadata(URI.create(sub + "/api")));
+		}
+		if (authorityHint != null) {
+			claimsSet.setAuthorityHints(Collections.singletonList(authorityHint));
+		}
+		claimsSet.setTrustMarkIssuers(trustMarkIssuers);
+		return EntityStatement.sign(claimsSet, signingKey);
+	}
+	
+	
+	private static SignedJWT createTrustMark(final EntityID iss, final EntityID sub, final Identifier id, final Date exp, final ECKey key)
+		throws Exception {
+		
+		TrustMarkClaimsSet claimsSet = new TrustMarkClaimsSet(
+			iss.toIssuer(),
+			new Subject(sub.getValue()),
+			id,
+			DateUtils.fromSecondsSinceEpoch(DateUtils.toSecondsSinceEpoch(new Date())));
+		claimsSet.setExpirationTime(exp);
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(key.getKeyID()).build(), claimsSet.toJWTClaimsSet());
+		jwt.sign(new ECDSASigner(key));
+		return jwt;
+	}
+	
+	
+	private static Date inOneHour() {
+		
+		return DateUtils.fromSecondsSinceEpoch(DateUtils.toSecondsSinceEpoch(new Date()) + 3600);
+	}
+	
+	
+	@Override
+	public void setUp() throws Exception {
+		
+		anchorKey = new ECKeyGenerator(Curve.P_256).keyID("a").generate();
+		issuerKey = new ECKeyGenerator(Curve.P_256).keyID("tmi").generate();
+		
+		Map<Identifier,List<EntityID>> trustMarkIssuers = new HashMap<>();
+		trustMarkIssuers.put(SIRTFI, Collections.singletonList(ISSUER));
+		trustMarkIssuers.put(CERTIFIED, Collections.singletonList(ISSUER));
+		trustMarkIssuers.put(MEMBER, Collections.singletonList(ANCHOR));
+		
+		retriever = new MockRetriever();
+		retriever.selfStatements.put(ANCHOR, createStatement(ANCHOR, ANCHOR, anchorKey, new JWKSet(anchorKey), null, trustMarkIssuers));
+		retriever.selfStatements.put(ISSUER, createStatement(ISSUER, ISSUER, issuerKey, new JWKSet(issuerKey), ANCHOR, null));
+		retriever.superiorStatements.put(ANCHOR + " " + ISSUER, createStatement(ANCHOR, ISSUER, anchorKey, new JWKSet(issuerKey), null, null));
+		
+		resolver = new TrustChainResolver(
+			Collections.singletonMap(ANCHOR, new JWKSet(anchorKey).toPublicJWKSet()),
+			TrustChainConstraints.NO_CONSTRAINTS,
+			retriever);
+	}
+	
+	
+	public void testDefaultConstructor() {
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			assertEquals(resolver, verifier.getTrustChainResolver());
+			assertTrue(verifier.getTrustMarkIssuers().isEmpty());
+			assertEquals(TrustMarkVerifier.DEFAULT_MAX_CACHE_SIZE, verifier.getMaxCacheSize());
+			assertEquals(0, verifier.getCacheSize());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerifyTrustMarks() throws Exception {
+		
+		SignedJWT sirtfi = createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), issuerKey);
+		SignedJWT certified = createTrustMark(ISSUER, OP, CERTIFIED, null, issuerKey);
+		
+		FederationEntityMetadata metadata = new FederationEntityMetadata(URI.create(OP + "/api"));
+		metadata.setTrustMarks(Arrays.asList(sirtfi, certified));
+		long nowTs = DateUtils.toSecondsSinceEpoch(new Date());
+		ECKey opKey = new ECKeyGenerator(Curve.P_256).keyID("op").generate();
+		EntityStatementClaimsSet claimsSet = new EntityStatementClaimsSet(
+			OP,
+			OP,
+			DateUtils.fromSecondsSinceEpoch(nowTs),
+			DateUtils.fromSecondsSinceEpoch(nowTs + 3600),
+			new JWKSet(opKey.toPublicJWK()));
+		claimsSet.setFederationEntityMetadata(metadata);
+		EntityStatement opStatement = EntityStatement.sign(claimsSet, opKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			Map<SignedJWT,Throwable> failures = new HashMap<>();
+			assertEquals(new HashSet<>(Arrays.asList(SIRTFI, CERTIFIED)), verifier.verifyTrustMarks(opStatement, failures));
+			assertTrue(failures.isEmpty());
+			assertEquals(2, verifier.getCacheSize());
+			
+			// Cached
+			int fetchCount = retriever.fetchCount.get();
+			assertEquals(new HashSet<>(Arrays.asList(SIRTFI, CERTIFIED)), verifier.verifyTrustMarks(opStatement, failures));
+			assertEquals(fetchCount, retriever.fetchCount.get());
+			
+			assertEquals(0, verifier.purgeExpired());
+			
+			verifier.clearCache();
+			assertEquals(0, verifier.getCacheSize());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerifyTrustMarks_reportFailures() throws Exception {
+		
+		ECKey otherKey = new ECKeyGenerator(Curve.P_256).keyID("tmi").generate();
+		
+		SignedJWT badSignature = createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), otherKey);
+		SignedJWT expired = createTrustMark(ISSUER, OP, SIRTFI, new Date(new Date().getTime() - 60_000L), issuerKey);
+		SignedJWT otherSubject = createTrustMark(ISSUER, new EntityID("https://rp.com"), SIRTFI, inOneHour(), issuerKey);
+		SignedJWT unknownIssuer = createTrustMark(new EntityID("https://unknown.com"), OP, SIRTFI, inOneHour(), issuerKey);
+		SignedJWT notAuthorised = createTrustMark(ISSUER, OP, MEMBER, inOneHour(), issuerKey);
+		SignedJWT valid = createTrustMark(ISSUER, OP, CERTIFIED, inOneHour(), issuerKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver, Collections.<Identifier,Set<EntityID>>emptyMap(), 2, 60, 10);
+		try {
+			Map<SignedJWT,Throwable> failures = new HashMap<>();
+			assertEquals(
+				Collections.singleton(CERTIFIED),
+				verifier.verifyTrustMarks(OP, Arrays.asList(badSignature, expired, otherSubject, unknownIssuer, notAuthorised, valid), failures));
+			assertEquals(1, verifier.getCacheSize());
+			
+			assertEquals(5, failures.size());
+			assertEquals("Trust mark rejected: Invalid signature", failures.get(badSignature).getMessage());
+			assertEquals("Expired trust mark", failures.get(expired).getMessage());
+			assertEquals("Trust mark subject mismatch: https://rp.com", failures.get(otherSubject).getMessage());
+			assertTrue(failures.get(unknownIssuer) instanceof ResolveException);
+			assertEquals("Trust mark issuer not authorised for " + MEMBER + ": " + ISSUER, failures.get(notAuthorised).getMessage());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerifyTrustMarks_none() {
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			Map<SignedJWT,Throwable> failures = new HashMap<>();
+			assertTrue(verifier.verifyTrustMarks(OP, null, failures).isEmpty());
+			assertTrue(verifier.verifyTrustMarks(OP, Collections.<SignedJWT>emptyList(), failures).isEmpty());
+			assertTrue(failures.isEmpty());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerifyTrustMarks_rejectNullFailures() {
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			verifier.verifyTrustMarks(OP, Collections.<SignedJWT>emptyList(), null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The failures map must not be null", e.getMessage());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify() throws Exception {
+		
+		SignedJWT sirtfi = createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), issuerKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			TrustMarkClaimsSet claimsSet = verifier.verify(sirtfi, OP);
+			assertEquals(SIRTFI, claimsSet.getID());
+			assertEquals(ISSUER.getValue(), claimsSet.getIssuer().getValue());
+			
+			// Subject not checked, cached
+			int fetchCount = retriever.fetchCount.get();
+			assertEquals(SIRTFI, verifier.verify(sirtfi, null).getID());
+			assertEquals(fetchCount, retriever.fetchCount.get());
+			
+			// Cached mark with other subject
+			try {
+				verifier.verify(sirtfi, new EntityID("https://rp.com"));
+				fail();
+			} catch (BadJOSEException e) {
+				assertEquals("Trust mark subject mismatch: " + OP, e.getMessage());
+			}
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_trustAnchorIssuer() throws Exception {
+		
+		SignedJWT member = createTrustMark(ANCHOR, OP, MEMBER, inOneHour(), anchorKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			assertEquals(MEMBER, verifier.verify(member, OP).getID());
+			
+			// Anchor not listed for SIRTFI
+			try {
+				verifier.verify(createTrustMark(ANCHOR, OP, SIRTFI, inOneHour(), anchorKey), OP);
+				fail();
+			} catch (BadJOSEException e) {
+				assertEquals("Trust mark issuer not authorised for " + SIRTFI + ": " + ANCHOR, e.getMessage());
+			}
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_explicitTrustMarkIssuers() throws Exception {
+		
+		Identifier other = new Identifier("https://example.com/other");
+		
+		Map<Identifier,Set<EntityID>> trustMarkIssuers = new HashMap<>();
+		trustMarkIssuers.put(other, Collections.singleton(ISSUER));
+		trustMarkIssuers.put(SIRTFI, Collections.singleton(new EntityID("https://sirtfi-issuer.com")));
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver, trustMarkIssuers);
+		try {
+			assertEquals(trustMarkIssuers, verifier.getTrustMarkIssuers());
+			
+			// Not listed by the anchor, but explicitly accepted
+			assertEquals(other, verifier.verify(createTrustMark(ISSUER, OP, other, inOneHour(), issuerKey), OP).getID());
+			
+			// Listed by the anchor, but explicitly configured otherwise
+			int fetchCount = retriever.fetchCount.get();
+			try {
+				verifier.verify(createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), issuerKey), OP);
+				fail();
+			} catch (BadJOSEException e) {
+				assertEquals("Trust mark issuer not authorised for " + SIRTFI + ": " + ISSUER, e.getMessage());
+			}
+			assertEquals(fetchCount, retriever.fetchCount.get());
+			
+			// Anchor list still applies to other IDs
+			assertEquals(CERTIFIED, verifier.verify(createTrustMark(ISSUER, OP, CERTIFIED, inOneHour(), issuerKey), OP).getID());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_issuerKeysVouchedForBySuperior() throws Exception {
+		
+		// The issuer publishes an extra key which its superior doesn't know of
+		ECKey extraKey = new ECKeyGenerator(Curve.P_256).keyID("extra").generate();
+		retriever.selfStatements.put(ISSUER, createStatement(ISSUER, ISSUER, issuerKey, new JWKSet(Arrays.<JWK>asList(issuerKey, extraKey)), ANCHOR, null));
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			verifier.verify(createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), extraKey), OP);
+			fail();
+		} catch (BadJOSEException e) {
+			assertEquals("Trust mark rejected: Another JOSE algorithm expected, or no matching key(s) found", e.getMessage());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_issuerWithoutTrustChain() throws Exception {
+		
+		// Self-signed issuer not subordinate to the trust anchor
+		ECKey rogueKey = new ECKeyGenerator(Curve.P_256).keyID("rogue").generate();
+		EntityID rogue = new EntityID("https://rogue.com");
+		retriever.selfStatements.put(rogue, createStatement(rogue, rogue, rogueKey, new JWKSet(rogueKey), null, null));
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver, Collections.singletonMap(SIRTFI, Collections.singleton(rogue)));
+		try {
+			verifier.verify(createTrustMark(rogue, OP, SIRTFI, inOneHour(), rogueKey), OP);
+			fail();
+		} catch (ResolveException e) {
+			assertEquals(0, verifier.getCacheSize());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_expired() throws Exception {
+		
+		SignedJWT mark = createTrustMark(ISSUER, OP, SIRTFI, new Date(new Date().getTime() - 60_000L), issuerKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			verifier.verify(mark, OP);
+			fail();
+		} catch (BadJOSEException e) {
+			assertEquals("Expired trust mark", e.getMessage());
+			assertEquals(0, retriever.fetchCount.get());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_badSignature() throws Exception {
+		
+		ECKey otherKey = new ECKeyGenerator(Curve.P_256).keyID("tmi").generate();
+		SignedJWT mark = createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), otherKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver);
+		try {
+			verifier.verify(mark, OP);
+			fail();
+		} catch (BadJOSEException e) {
+			assertEquals("Trust mark rejected: Invalid signature", e.getMessage());
+			assertEquals(0, verifier.getCacheSize());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_cachingDisabled() throws Exception {
+		
+		SignedJWT sirtfi = createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), issuerKey);
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver, Collections.<Identifier,Set<EntityID>>emptyMap(), 1, 0, 10);
+		try {
+			verifier.verify(sirtfi, OP);
+			int fetchCount = retriever.fetchCount.get();
+			verifier.verify(sirtfi, OP);
+			assertEquals(2 * fetchCount, retriever.fetchCount.get());
+			assertEquals(0, verifier.getCacheSize());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testVerify_maxCacheSize() throws Exception {
+		
+		TrustMarkVerifier verifier = new TrustMarkVerifier(resolver, Collections.<Identifier,Set<EntityID>>emptyMap(), 1, 60, 1);
+		try {
+			assertEquals(1, verifier.getMaxCacheSize());
+			verifier.verify(createTrustMark(ISSUER, OP, SIRTFI, inOneHour(), issuerKey), OP);
+			verifier.verify(createTrustMark(ISSUER, OP, CERTIFIED, inOneHour(), issuerKey), OP);
+			assertEquals(1, verifier.getCacheSize());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+	
+	
+	public void testConstructorChecks() {
+		
+		try {
+			new TrustMarkVerifier(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The trust chain resolver must not be null", e.getMessage());
+		}
+		
+		try {
+			new TrustMarkVerifier(resolver, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The trust mark issuers must not be null", e.getMessage());
+		}
+		
+		try {
+			new TrustMarkVerifier(resolver, Collections.<Identifier,Set<EntityID>>emptyMap(), 0, 60, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max concurrency must be positive", e.getMessage());
+		}
+		
+		try {
+			new TrustMarkVerifier(resolver, Collections.<Identifier,Set<EntityID>>emptyMap(), 1, -1, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max cache lifetime must not be negative", e.getMessage());
+		}
+		
+		try {
+			new TrustMarkVerifier(resolver, Collections.<Identifier,Set<EntityID>>emptyMap(), 1, 60, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The max cache size must be positive", e.getMessage());
+		}
+	}
+}
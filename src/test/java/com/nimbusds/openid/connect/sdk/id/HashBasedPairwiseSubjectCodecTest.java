@@ -19,6 +19,9 @@ package com.nimbusds.openid.connect.sdk.id;
 
 
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import com.nimbusds.jose.crypto.bc.BouncyCastleProviderSingleton;
 import com.nimbusds.jose.util.Base64URL;
@@ -134,4 +137,45 @@ public class HashBasedPairwiseSubjectCodecTest extends TestCase {
 			assertEquals("Pairwise subject decoding is not supported", e.getMessage());
 		}
 	}
+
+
+	public void testEncode_digestReusedAcrossProviderChange() {
+
+		byte[] salt = new byte[16];
+		new SecureRandom().nextBytes(salt);
+
+		HashBasedPairwiseSubjectCodec codec = new HashBasedPairwiseSubjectCodec(salt);
+
+		SectorID sectorID = new SectorID("example.com");
+		Subject localSubject = new Subject("alice");
+
+		Subject s1 = codec.encode(sectorID, localSubject);
+		assertEquals(s1, codec.encode(sectorID, localSubject));
+
+		codec.setProvider(BouncyCastleProviderSingleton.getInstance());
+		assertEquals(s1, codec.encode(sectorID, localSubject));
+
+		codec.setProvider(null);
+		assertEquals(s1, codec.encode(sectorID, localSubject));
+	}
+
+
+	public void testEncode_batch() {
+
+		byte[] salt = new byte[16];
+		new SecureRandom().nextBytes(salt);
+
+		HashBasedPairwiseSubjectCodec codec = new HashBasedPairwiseSubjectCodec(salt);
+
+		SectorID sectorID = new SectorID("example.com");
+		List<Subject> localSubs = Arrays.asList(new Subject("alice"), new Subject("bob"), new Subject("claire"));
+
+		Map<Subject,Subject> pairwiseSubs = codec.encode(sectorID, localSubs);
+
+		assertEquals(localSubs, Arrays.asList(pairwiseSubs.keySet().toArray()));
+
+		for (Subject localSub: localSubs) {
+			assertEquals(codec.encode(sectorID, localSub), pairwiseSubs.get(localSub));
+		}
+	}
 }
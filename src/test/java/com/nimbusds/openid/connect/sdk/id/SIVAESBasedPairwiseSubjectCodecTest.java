@@ -20,7 +20,10 @@ package com.nimbusds.openid.connect.sdk.id;
 
 import java.net.URI;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -193,4 +196,56 @@ public class SIVAESBasedPairwiseSubjectCodecTest extends TestCase {
 			assertEquals("Decryption failed: authentication in SIV decryption failed", e.getMessage());
 		}
 	}
+	
+	
+	public void testSplit() {
+		
+		String[] examples = {
+			"example.com|alice",
+			"example.com|alice|0000",
+			"example.com|a\\|b\\|c",
+			"example.com|a\\|b\\|c||000",
+			"|alice",
+			"example.com|",
+			"example.com||",
+			"example.com",
+			"a\\\\|b",
+			"\\|",
+			"a|b|c|d",
+		};
+		
+		for (String plainText: examples) {
+			
+			List<String> expected = new ArrayList<>();
+			for (String part: plainText.split("(?<!\\\\)\\|")) {
+				expected.add(part.replace("\\|", "|"));
+			}
+			
+			assertEquals(plainText, expected, SIVAESBasedPairwiseSubjectCodec.split(plainText));
+		}
+	}
+	
+	
+	public void testEncode_batch()
+		throws InvalidPairwiseSubjectException {
+		
+		byte[] keyBytes = new byte[ByteUtils.byteLength(256)];
+		new SecureRandom().nextBytes(keyBytes);
+		
+		SIVAESBasedPairwiseSubjectCodec codec = new SIVAESBasedPairwiseSubjectCodec(new SecretKeySpec(keyBytes, "AES"), 20);
+		
+		SectorID sectorID = new SectorID("example.com|x");
+		List<Subject> localSubs = Arrays.asList(new Subject("alice"), new Subject("bob|by"), new Subject("claire-with-a-very-long-subject"));
+		
+		Map<Subject,Subject> pairwiseSubs = codec.encode(sectorID, localSubs);
+		
+		assertEquals(localSubs, Arrays.asList(pairwiseSubs.keySet().toArray()));
+		
+		for (Subject localSub: localSubs) {
+			Subject pairwiseSub = pairwiseSubs.get(localSub);
+			assertEquals(codec.encode(sectorID, localSub), pairwiseSub);
+			assertEquals(sectorID, codec.decode(pairwiseSub).getKey());
+			assertEquals(localSub, codec.decode(pairwiseSub).getValue());
+		}
+	}
 }
@@ -45,6 +45,7 @@ import com.nimbusds.oauth2.sdk.Scope;
 import com.nimbusds.oauth2.sdk.auth.Secret;
 import com.nimbusds.oauth2.sdk.id.ClientID;
 import com.nimbusds.oauth2.sdk.id.State;
+import com.nimbusds.oauth2.sdk.par.PushedAuthorizationRequestStore;
 import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
 import com.nimbusds.openid.connect.sdk.ClaimsRequest;
 
@@ -483,4 +484,70 @@ public class AuthenticationRequestResolverTest extends TestCase {
 			assertEquals(request.getState(), e.getState());
 		}
 	}
+	
+	
+	public void testPushedAuthorizationRequest()
+		throws ResolveException, JOSEException {
+		
+		PushedAuthorizationRequestStore parStore = new PushedAuthorizationRequestStore(60L, 10);
+		
+		try {
+			AuthenticationRequestResolver resolver = new AuthenticationRequestResolver(null, null, parStore);
+			assertNull(resolver.getJWTProcessor());
+			assertNull(resolver.getJWTRetriever());
+			assertSame(parStore, resolver.getPARStore());
+			
+			AuthenticationRequest pushed = new AuthenticationRequest.Builder(
+				new ResponseType("code"),
+				Scope.parse("openid email"),
+				new ClientID("123"),
+				URI.create("https://example.com/cb"))
+				.endpointURI(URI.create("https://c2id.com/par"))
+				.state(new State("xyz"))
+				.build();
+			
+			URI requestURI = parStore.put(pushed).toSuccessResponse().getRequestURI();
+			
+			AuthenticationRequest request = new AuthenticationRequest.Builder(requestURI, new ClientID("123"))
+				.endpointURI(URI.create("https://c2id.com/login"))
+				.build();
+			
+			AuthenticationRequest resolved = resolver.resolve(request, null);
+			assertEquals(URI.create("https://c2id.com/login"), resolved.getEndpointURI());
+			assertEquals(new ResponseType("code"), resolved.getResponseType());
+			assertEquals(Scope.parse("openid email"), resolved.getScope());
+			assertEquals(new ClientID("123"), resolved.getClientID());
+			assertEquals(URI.create("https://example.com/cb"), resolved.getRedirectionURI());
+			assertEquals(new State("xyz"), resolved.getState());
+			assertNull(resolved.getRequestURI());
+			
+			// One-time use
+			try {
+				resolver.resolve(request, null);
+				fail();
+			} catch (ResolveException e) {
+				assertEquals(OAuth2Error.INVALID_REQUEST_URI.getCode(), e.getErrorObject().getCode());
+				assertEquals("Invalid, expired or already used request_uri", e.getErrorObject().getDescription());
+			}
+			
+			// Other client
+			requestURI = parStore.put(pushed).toSuccessResponse().getRequestURI();
+			try {
+				resolver.resolve(new AuthenticationRequest.Builder(requestURI, new ClientID("456")).build(), null);
+				fail();
+			} catch (ResolveException e) {
+				assertEquals(OAuth2Error.INVALID_REQUEST_URI.getCode(), e.getErrorObject().getCode());
+			}
+			
+			// Regular request_uri not supported without retriever
+			try {
+				resolver.resolve(new AuthenticationRequest.Builder(URI.create("https://example.com/request.jwt"), new ClientID("123")).build(), null);
+				fail();
+			} catch (ResolveException e) {
+				assertEquals(OAuth2Error.REQUEST_URI_NOT_SUPPORTED, e.getErrorObject());
+			}
+		} finally {
+			parStore.shutdown();
+		}
+	}
 }
@@ -0,0 +1,348 @@
+/*
+ * oauth2-oidc-sdk
+ *
+ * Copyright 2012-2021, Connect2id Ltd and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.nimbusds.openid.connect.sdk.op;
+
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jadler.Jadler.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import com.nimbusds.oauth2.sdk.ResponseType;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.State;
+import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
+
+
+public class CachingRequestObjectRetrieverTest {
+	
+	
+	private static final String REQUEST_OBJECT = new PlainJWT(new JWTClaimsSet.Builder()
+		.claim("scope", "openid email")
+		.claim("redirect_uri", "https://example.com/cb")
+		.build())
+		.serialize();
+	
+	
+	@Before
+	public void setUp() {
+		initJadler();
+	}
+	
+	
+	@After
+	public void tearDown() {
+		closeJadler();
+	}
+	
+	
+	private static class CountingRetriever implements ResourceRetriever {
+		
+		final AtomicInteger count = new AtomicInteger();
+		
+		final String content;
+		
+		CountingRetriever(final String content) {
+			this.content = content;
+		}
+		
+		@Override
+		public Resource retrieveResource(final URL url) {
+			count.incrementAndGet();
+			return new Resource(content, ContentType.APPLICATION_JWT.toString());
+		}
+	}
+	
+	
+	@Test
+	public void testConstructorChecks() {
+		
+		try {
+			new CachingRequestObjectRetriever(null, 60L, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The resource retriever must not be null", e.getMessage());
+		}
+		
+		try {
+			new CachingRequestObjectRetriever(1000, 1000, 0L, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The maximum cache lifetime must be positive", e.getMessage());
+		}
+		
+		try {
+			new CachingRequestObjectRetriever(1000, 1000, 60L, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The maximum cache size must be positive", e.getMessage());
+		}
+		
+		try {
+			new CachingRequestObjectRetriever(1000, 1000, 0, 60L, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("The size limit must be positive", e.getMessage());
+		}
+	}
+	
+	
+	@Test
+	public void testWrappedRetriever_cached()
+		throws Exception {
+		
+		CountingRetriever counting = new CountingRetriever(REQUEST_OBJECT);
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(counting, 60L, 10);
+		assertSame(counting, retriever.getResourceRetriever());
+		assertEquals(60L, retriever.getMaxCacheLifetimeSeconds());
+		assertEquals(10, retriever.getMaxCacheSize());
+		
+		URL url = new URL("https://client.example.com/request.jwt");
+		
+		for (int i=0; i < 5; i++) {
+			assertEquals(REQUEST_OBJECT, retriever.retrieveResource(url).getContent());
+		}
+		assertEquals(1, counting.count.get());
+		assertEquals(1, retriever.getCacheSize());
+		
+		retriever.invalidate(url);
+		assertEquals(0, retriever.getCacheSize());
+		
+		retriever.retrieveResource(url);
+		assertEquals(2, counting.count.get());
+		
+		retriever.clearCache();
+		assertEquals(0, retriever.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testWrappedRetriever_expiredRequestObjectNotCached()
+		throws Exception {
+		
+		String expired = new PlainJWT(new JWTClaimsSet.Builder()
+			.expirationTime(new Date(System.currentTimeMillis() - 1000L))
+			.build())
+			.serialize();
+		
+		CountingRetriever counting = new CountingRetriever(expired);
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(counting, 60L, 10);
+		
+		URL url = new URL("https://client.example.com/request.jwt");
+		retriever.retrieveResource(url);
+		retriever.retrieveResource(url);
+		assertEquals(2, counting.count.get());
+		assertEquals(0, retriever.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testWrappedRetriever_sizeLimit()
+		throws Exception {
+		
+		CountingRetriever counting = new CountingRetriever(REQUEST_OBJECT);
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(counting, 60L, 3);
+		
+		for (int i=0; i < 10; i++) {
+			retriever.retrieveResource(new URL("https://client.example.com/request-" + i + ".jwt"));
+			assertTrue(retriever.getCacheSize() <= 3);
+		}
+		assertEquals(3, retriever.getCacheSize());
+		assertEquals(0, retriever.purgeExpired());
+	}
+	
+	
+	@Test
+	public void testDownload_maxAge()
+		throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/request.jwt")
+			.respond()
+			.withStatus(200)
+			.withHeader("Content-Type", ContentType.APPLICATION_JWT.toString())
+			.withHeader("Cache-Control", "public, max-age=60")
+			.withBody(REQUEST_OBJECT);
+		
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(1000, 1000, 300L, 10);
+		assertNull(retriever.getResourceRetriever());
+		
+		URL url = new URL("http://localhost:" + port() + "/request.jwt");
+		
+		for (int i=0; i < 3; i++) {
+			Resource resource = retriever.retrieveResource(url);
+			assertEquals(REQUEST_OBJECT, resource.getContent());
+			assertEquals(ContentType.APPLICATION_JWT.toString(), resource.getContentType());
+		}
+		
+		verifyThatRequest().havingPathEqualTo("/request.jwt").receivedOnce();
+		assertEquals(1, retriever.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testDownload_noStore()
+		throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/request.jwt")
+			.respond()
+			.withStatus(200)
+			.withHeader("Content-Type", ContentType.APPLICATION_JWT.toString())
+			.withHeader("Cache-Control", "no-store")
+			.withBody(REQUEST_OBJECT);
+		
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(1000, 1000, 300L, 10);
+		
+		URL url = new URL("http://localhost:" + port() + "/request.jwt");
+		retriever.retrieveResource(url);
+		retriever.retrieveResource(url);
+		
+		verifyThatRequest().havingPathEqualTo("/request.jwt").receivedTimes(2);
+		assertEquals(0, retriever.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testDownload_errorStatus()
+		throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/request.jwt")
+			.respond()
+			.withStatus(404);
+		
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(1000, 1000, 300L, 10);
+		
+		try {
+			retriever.retrieveResource(new URL("http://localhost:" + port() + "/request.jwt"));
+			fail();
+		} catch (IOException e) {
+			// ok
+		}
+		assertEquals(0, retriever.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testDownload_sizeLimit()
+		throws Exception {
+		
+		onRequest()
+			.havingMethodEqualTo("GET")
+			.havingPathEqualTo("/request.jwt")
+			.respond()
+			.withStatus(200)
+			.withHeader("Content-Type", ContentType.APPLICATION_JWT.toString())
+			.withBody(REQUEST_OBJECT);
+		
+		CachingRequestObjectRetriever retriever = new CachingRequestObjectRetriever(1000, 1000, REQUEST_OBJECT.length() - 1, 300L, 10);
+		
+		try {
+			retriever.retrieveResource(new URL("http://localhost:" + port() + "/request.jwt"));
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Exceeded configured input limit"));
+		}
+		assertEquals(0, retriever.getCacheSize());
+	}
+	
+	
+	@Test
+	public void testResolveHTTPCacheLifetime() {
+		
+		long now = System.currentTimeMillis();
+		
+		assertEquals(Long.MAX_VALUE, CachingRequestObjectRetriever.resolveHTTPCacheLifetime(null, null, now));
+		
+		assertEquals(120_000L, CachingRequestObjectRetriever.resolveHTTPCacheLifetime("private, max-age=120", null, now));
+		
+		assertEquals(0L, CachingRequestObjectRetriever.resolveHTTPCacheLifetime("max-age=invalid", null, now));
+		
+		assertEquals(0L, CachingRequestObjectRetriever.resolveHTTPCacheLifetime("no-cache", null, now));
+		
+		assertEquals(0L, CachingRequestObjectRetriever.resolveHTTPCacheLifetime(null, "Thu, 01 Dec 1994 16:00:00 GMT", now));
+		
+		assertEquals(0L, CachingRequestObjectRetriever.resolveHTTPCacheLifetime(null, "0", now));
+		
+		assertTrue(CachingRequestObjectRetriever.resolveHTTPCacheLifetime(null, "Fri, 01 Jan 2100 00:00:00 GMT", now) > 0L);
+	}
+	
+	
+	@Test
+	public void testWithResolver()
+		throws Exception {
+		
+		CountingRetriever counting = new CountingRetriever(REQUEST_OBJECT);
+		DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<SecurityContext>() {
+			@Override
+			public JWTClaimsSet process(final PlainJWT plainJWT, final SecurityContext context)
+				throws BadJOSEException {
+				try {
+					return plainJWT.getJWTClaimsSet();
+				} catch (ParseException e) {
+					throw new BadJOSEException(e.getMessage(), e);
+				}
+			}
+		};
+		
+		AuthenticationRequestResolver<SecurityContext> resolver = new AuthenticationRequestResolver<>(
+			jwtProcessor,
+			new CachingRequestObjectRetriever(counting, 60L, 10));
+		
+		AuthenticationRequest request = new AuthenticationRequest.Builder(
+			new ResponseType("code"),
+			Scope.parse("openid"),
+			new ClientID("123"),
+			null)
+			.state(new State("xyz"))
+			.requestURI(URI.create("https://client.example.com/request.jwt"))
+			.build();
+		
+		for (int i=0; i < 3; i++) {
+			AuthenticationRequest resolved = resolver.resolve(request, null);
+			assertEquals(Scope.parse("openid email"), resolved.getScope());
+			assertEquals(URI.create("https://example.com/cb"), resolved.getRedirectionURI());
+			assertEquals(new State("xyz"), resolved.getState());
+			assertNull(resolved.getRequestURI());
+		}
+		
+		assertEquals(1, counting.count.get());
+	}
+}